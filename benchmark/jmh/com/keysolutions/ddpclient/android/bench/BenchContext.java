@@ -0,0 +1,36 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android.bench;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Bare Context for running DDPStateSingleton on the JVM
+ */
+class BenchContext extends Context {
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        throw new UnsupportedOperationException("The benchmarks don't log in");
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android.bench;
+
+import com.keysolutions.ddpclient.android.MemoryStateStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * High-churn field updates applied straight to storage: one message per
+ * operation, so SampleTime's p0.99 is the per-message latency.  Replays
+ * the ddp.bench.stream recording instead of synthetic changes if one is given.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChurnBenchmark {
+    static final int DOC_COUNT = 10000;
+    static final int MESSAGE_COUNT = 65536;
+
+    @Param({ Workloads.PLAIN, Workloads.COMPACT, Workloads.INTERNED, Workloads.LAZY })
+    public String storage;
+
+    private MemoryStateStorage mStorage;
+    private List<Map<String, Object>> mMessages;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void populate() throws IOException {
+        mStorage = Workloads.newStorage(storage);
+        mMessages = Workloads.recordedStream();
+        if (mMessages == null) {
+            for (Map<String, Object> message : Workloads.initialSync(DOC_COUNT, 42)) {
+                Workloads.apply(mStorage, message);
+            }
+            mMessages = Workloads.churn(DOC_COUNT, MESSAGE_COUNT, 7);
+        }
+    }
+
+    @Benchmark
+    public void applyMessage() {
+        Map<String, Object> message = mMessages.get(mNext);
+        mNext = (mNext + 1 == mMessages.size()) ? 0 : mNext + 1;
+        Workloads.apply(mStorage, message);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android.bench;
+
+import com.keysolutions.ddpclient.android.MemoryStateStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many readers against one thread applying changes, like UI and background
+ * threads reading while the websocket thread updates the cache.
+ * The "documents" group looks up single documents; the "snapshots" group
+ * walks a collection snapshot the way a list adapter would.
+ * Use -tg to change the reader/writer thread split (default 3 readers, 1 writer).
+ */
+@State(Scope.Group)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConcurrentReadBenchmark {
+    static final int DOC_COUNT = 10000;
+    static final int MESSAGE_COUNT = 65536;
+
+    @Param({ Workloads.PLAIN, Workloads.COMPACT, Workloads.LAZY })
+    public String storage;
+
+    private MemoryStateStorage mStorage;
+    private String[] mDocIds;
+    private List<Map<String, Object>> mChanges;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        mStorage = Workloads.newStorage(storage);
+        for (Map<String, Object> message : Workloads.initialSync(DOC_COUNT, 42)) {
+            Workloads.apply(mStorage, message);
+        }
+        mDocIds = new String[DOC_COUNT];
+        for (int i = 0; i < DOC_COUNT; i++) {
+            mDocIds[i] = Workloads.docId(i);
+        }
+        mChanges = Workloads.churn(DOC_COUNT, MESSAGE_COUNT, 7);
+    }
+
+    @Benchmark
+    @Group("documents")
+    @GroupThreads(3)
+    public Object readDocument() {
+        Map<String, Object> doc = mStorage.getDocument(Workloads.COLLECTION,
+                mDocIds[ThreadLocalRandom.current().nextInt(DOC_COUNT)]);
+        return doc.get("title");
+    }
+
+    @Benchmark
+    @Group("documents")
+    @GroupThreads(1)
+    public void writeDocuments() {
+        applyChange();
+    }
+
+    @Benchmark
+    @Group("snapshots")
+    @GroupThreads(3)
+    public int readSnapshot() {
+        int count = 0;
+        for (Map<String, Object> doc : mStorage.getCollectionSnapshot(Workloads.COLLECTION).values()) {
+            if (Boolean.TRUE.equals(doc.get("public"))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @Group("snapshots")
+    @GroupThreads(1)
+    public void writeSnapshots() {
+        applyChange();
+    }
+
+    /**
+     * Applies a random change message
+     */
+    private void applyChange() {
+        Workloads.apply(mStorage, mChanges.get(ThreadLocalRandom.current().nextInt(MESSAGE_COUNT)));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android.bench;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.support.v4.content.LocalBroadcastManager;
+
+import com.keysolutions.ddpclient.android.DDPStateSingleton;
+import com.keysolutions.ddpclient.android.DDPStateSingleton.PipelineOverflow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full dispatch path: messages go through DDPStateSingleton.update() like
+ * they do from the websocket thread, so storage, change tracking, listeners
+ * and broadcasts are all included.  With the message pipeline on, the
+ * score is the time the websocket thread is held up (queues block when
+ * full, so throughput still can't outrun the workers).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchBenchmark {
+    static final int DOC_COUNT = 10000;
+    static final int MESSAGE_COUNT = 65536;
+    static final int QUEUE_CAPACITY = 1024;
+
+    @Param({ Workloads.PLAIN })
+    public String storage;
+
+    /** whether LocalBroadcastManager Intents are sent (w/ a receiver that reads them) */
+    @Param({ "true", "false" })
+    public boolean broadcasts;
+
+    /** message pipeline workers; 0 applies messages on the calling thread */
+    @Param({ "0", "1" })
+    public int pipelineWorkers;
+
+    private DDPStateSingleton mState;
+    private BroadcastReceiver mReceiver;
+    private List<Map<String, Object>> mMessages;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+        mState = new DDPStateSingleton(new BenchContext(), "localhost", 3000, false);
+        mState.setStorage(Workloads.newStorage(storage));
+        mState.setLocalBroadcastsEnabled(broadcasts);
+        mReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Bundle extras = intent.getExtras();
+                if (extras != null) {
+                    extras.getString(DDPStateSingleton.MESSAGE_EXTRA_CHANGEID);
+                }
+            }
+        };
+        LocalBroadcastManager.getInstance(null).registerReceiver(mReceiver,
+                new IntentFilter(DDPStateSingleton.MESSAGE_SUBUPDATED));
+        mMessages = Workloads.recordedStream();
+        if (mMessages == null) {
+            for (Map<String, Object> message : Workloads.initialSync(DOC_COUNT, 42)) {
+                mState.update(null, message);
+            }
+            mMessages = Workloads.churn(DOC_COUNT, MESSAGE_COUNT, 7);
+        }
+        if (pipelineWorkers > 0) {
+            mState.setMessagePipeline(pipelineWorkers, QUEUE_CAPACITY, PipelineOverflow.BLOCK);
+        }
+    }
+
+    @Benchmark
+    public void dispatch() {
+        Map<String, Object> message = mMessages.get(mNext);
+        mNext = (mNext + 1 == mMessages.size()) ? 0 : mNext + 1;
+        mState.update(null, message);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        // don't let one iteration's backlog spill into the next
+        while (mState.getQueuedMessageCount() > 0) {
+            Thread.yield();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() {
+        mState.disableMessagePipeline();
+        LocalBroadcastManager.getInstance(null).unregisterReceiver(mReceiver);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android.bench;
+
+import com.keysolutions.ddpclient.DDPClient.DdpMessageField;
+import com.keysolutions.ddpclient.android.MemoryStateStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Initial sync of a 100k document collection into empty storage.
+ * Each invocation applies every added message, so the score is added
+ * messages per second and the gc profiler's alloc.rate.norm is bytes
+ * allocated per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InitialSyncBenchmark {
+    static final int DOC_COUNT = 100000;
+
+    @Param({ Workloads.PLAIN, Workloads.COMPACT, Workloads.INTERNED, Workloads.LAZY })
+    public String storage;
+
+    private List<Map<String, Object>> mMessages;
+    private MemoryStateStorage mStorage;
+
+    @Setup(Level.Trial)
+    public void createMessages() {
+        mMessages = Workloads.initialSync(DOC_COUNT, 42);
+    }
+
+    @Setup(Level.Invocation)
+    public void createStorage() {
+        // a whole sync per invocation is long enough that per-invocation setup doesn't skew it
+        mStorage = Workloads.newStorage(storage);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOC_COUNT)
+    public MemoryStateStorage initialSync() {
+        for (Map<String, Object> message : mMessages) {
+            mStorage.addDoc(message, Workloads.COLLECTION, (String) message.get(DdpMessageField.ID));
+        }
+        return mStorage;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android.bench;
+
+import com.google.gson.Gson;
+import com.keysolutions.ddpclient.DDPClient.DdpMessageField;
+import com.keysolutions.ddpclient.DDPClient.DdpMessageType;
+import com.keysolutions.ddpclient.android.DDPStateStorage;
+import com.keysolutions.ddpclient.android.MemoryStateStorage;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Message streams and storage setups shared by the benchmarks.
+ * Synthetic messages look like what DDPClient hands us after parsing: Gson
+ * maps w/ every number as a Double.  A recorded stream (one DDP message per
+ * line, as it came over the websocket) can be used instead by setting the
+ * ddp.bench.stream system property.
+ */
+final class Workloads {
+    /** system property w/ the path of a recorded message stream */
+    static final String STREAM_PROPERTY = "ddp.bench.stream";
+
+    /** collection the synthetic messages go to */
+    static final String COLLECTION = "parties";
+
+    /** storage setups the benchmarks are parameterized by */
+    static final String PLAIN = "plain";
+    static final String COMPACT = "compact";
+    static final String INTERNED = "interned";
+    static final String LAZY = "lazy";
+
+    /** values bigger than this stay JSON in the lazy setup */
+    static final int LAZY_FIELD_BYTES = 256;
+
+    /** strings kept per collection in the interned setup */
+    static final int INTERNED_STRINGS = 4096;
+
+    private static final String[] WORDS = {
+        "meteor", "party", "dinner", "rooftop", "karaoke", "picnic", "board", "games",
+        "bring", "snacks", "friends", "welcome", "downtown", "park", "music", "late",
+    };
+
+    private static final String[] RSVP = { "yes", "no", "maybe" };
+
+    private Workloads() {
+    }
+
+    /**
+     * Creates the storage for a setup
+     * @param mode one of PLAIN, COMPACT, INTERNED or LAZY
+     * @return new storage
+     */
+    static MemoryStateStorage newStorage(String mode) {
+        if (COMPACT.equals(mode)) {
+            return new MemoryStateStorage(true);
+        }
+        MemoryStateStorage storage = new MemoryStateStorage();
+        if (INTERNED.equals(mode)) {
+            storage.setStringInterning(INTERNED_STRINGS);
+        } else if (LAZY.equals(mode)) {
+            storage.setLazyFields(LAZY_FIELD_BYTES);
+        } else if (!PLAIN.equals(mode)) {
+            throw new IllegalArgumentException("Unknown storage setup: " + mode);
+        }
+        return storage;
+    }
+
+    /**
+     * Gets the ID of a synthetic document
+     * @param index document number
+     * @return document ID
+     */
+    static String docId(int index) {
+        return "party" + index;
+    }
+
+    /**
+     * Creates the added messages of an initial sync
+     * @param docCount number of documents
+     * @param seed random seed
+     * @return added messages
+     */
+    static List<Map<String, Object>> initialSync(int docCount, long seed) {
+        Random random = new Random(seed);
+        List<Map<String, Object>> messages = new ArrayList<>(docCount);
+        for (int i = 0; i < docCount; i++) {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("title", words(random, 2 + random.nextInt(3)));
+            fields.put("description", words(random, 40 + random.nextInt(60)));
+            fields.put("owner", "user" + random.nextInt(500));
+            fields.put("x", random.nextDouble());
+            fields.put("y", random.nextDouble());
+            fields.put("public", random.nextBoolean());
+            List<Object> invited = new ArrayList<>();
+            for (int j = random.nextInt(5); j > 0; j--) {
+                invited.add("user" + random.nextInt(500));
+            }
+            fields.put("invited", invited);
+            fields.put("rsvps", rsvps(random));
+            messages.add(message(DdpMessageType.ADDED, docId(i), fields));
+        }
+        return messages;
+    }
+
+    /**
+     * Creates changed messages for documents made by initialSync: mostly
+     * moves, some RSVP changes and a few new descriptions
+     * @param docCount number of documents to change
+     * @param messageCount number of messages
+     * @param seed random seed
+     * @return changed messages
+     */
+    static List<Map<String, Object>> churn(int docCount, int messageCount, long seed) {
+        Random random = new Random(seed);
+        List<Map<String, Object>> messages = new ArrayList<>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            int kind = random.nextInt(100);
+            if (kind < 80) {
+                fields.put("x", random.nextDouble());
+                fields.put("y", random.nextDouble());
+            } else if (kind < 95) {
+                fields.put("rsvps", rsvps(random));
+            } else {
+                fields.put("description", words(random, 40 + random.nextInt(60)));
+            }
+            messages.add(message(DdpMessageType.CHANGED, docId(random.nextInt(docCount)), fields));
+        }
+        return messages;
+    }
+
+    /**
+     * Loads the recorded stream named by the ddp.bench.stream property
+     * @return doc messages from the recording, or null if no recording was given
+     * @throws IOException if the recording can't be read
+     */
+    static List<Map<String, Object>> recordedStream() throws IOException {
+        String path = System.getProperty(STREAM_PROPERTY);
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        Gson gson = new Gson();
+        List<Map<String, Object>> messages = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(path), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> message = gson.fromJson(line, Map.class);
+                Object msgtype = message.get(DdpMessageField.MSG);
+                if (DdpMessageType.ADDED.equals(msgtype) || DdpMessageType.CHANGED.equals(msgtype)
+                        || DdpMessageType.REMOVED.equals(msgtype)) {
+                    messages.add(message);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (messages.isEmpty()) {
+            throw new IOException("No added/changed/removed messages in " + path);
+        }
+        return messages;
+    }
+
+    /**
+     * Applies a doc message to storage the way DDPStateSingleton does
+     * @param storage storage to update
+     * @param message added, changed or removed message
+     */
+    static void apply(DDPStateStorage storage, Map<String, Object> message) {
+        String msgtype = (String) message.get(DdpMessageField.MSG);
+        String collName = (String) message.get(DdpMessageField.COLLECTION);
+        String docId = (String) message.get(DdpMessageField.ID);
+        if (DdpMessageType.ADDED.equals(msgtype)) {
+            storage.addDoc(message, collName, docId);
+        } else if (DdpMessageType.CHANGED.equals(msgtype)) {
+            storage.updateDoc(message, collName, docId);
+        } else {
+            storage.removeDoc(collName, docId);
+        }
+    }
+
+    /**
+     * Builds a doc message
+     * @param msgtype message type
+     * @param docId document ID
+     * @param fields document fields
+     * @return message fields
+     */
+    private static Map<String, Object> message(String msgtype, String docId, Map<String, Object> fields) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put(DdpMessageField.MSG, msgtype);
+        message.put(DdpMessageField.COLLECTION, COLLECTION);
+        message.put(DdpMessageField.ID, docId);
+        message.put(DdpMessageField.FIELDS, fields);
+        return message;
+    }
+
+    /**
+     * Makes a list of RSVP sub-documents
+     * @param random random source
+     * @return RSVPs
+     */
+    private static List<Object> rsvps(Random random) {
+        int count = random.nextInt(6);
+        List<Object> rsvps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> rsvp = new LinkedHashMap<>();
+            rsvp.put("user", "user" + random.nextInt(500));
+            rsvp.put("rsvp", RSVP[random.nextInt(RSVP.length)]);
+            rsvps.add(rsvp);
+        }
+        return rsvps;
+    }
+
+    /**
+     * Makes some filler text
+     * @param random random source
+     * @param count number of words
+     * @return words separated by spaces
+     */
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.app;
+
+import android.content.Context;
+import android.content.DialogInterface;
+
+/**
+ * JVM stand-in for Android's AlertDialog
+ */
+public class AlertDialog {
+    public void show() {
+    }
+
+    public static class Builder {
+        public Builder(Context context) {
+        }
+
+        public Builder setMessage(String message) {
+            return this;
+        }
+
+        public Builder setTitle(String title) {
+            return this;
+        }
+
+        public Builder setPositiveButton(String text, DialogInterface.OnClickListener listener) {
+            return this;
+        }
+
+        public AlertDialog create() {
+            return new AlertDialog();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.content;
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for Android's Intent that keeps extras in a map like the
+ * real one, so building broadcasts allocates about what it does on a device
+ */
+public class Intent {
+    private String mAction;
+    private Map<String, Object> mExtras;
+
+    public Intent() {
+    }
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public Intent setAction(String action) {
+        mAction = action;
+        return this;
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    private Intent put(String key, Object value) {
+        if (mExtras == null) {
+            mExtras = new HashMap<String, Object>();
+        }
+        mExtras.put(key, value);
+        return this;
+    }
+
+    public Intent putExtra(String key, int value) {
+        return put(key, value);
+    }
+
+    public Intent putExtra(String key, long value) {
+        return put(key, value);
+    }
+
+    public Intent putExtra(String key, boolean value) {
+        return put(key, value);
+    }
+
+    public Intent putExtra(String key, String value) {
+        return put(key, value);
+    }
+
+    public Intent putExtra(String key, String[] value) {
+        return put(key, value);
+    }
+
+    public Intent putStringArrayListExtra(String key, ArrayList<String> value) {
+        return put(key, value);
+    }
+
+    public Intent putExtras(Intent src) {
+        if (src.mExtras != null) {
+            for (Map.Entry<String, Object> entry : src.mExtras.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+        return this;
+    }
+
+    public Bundle getExtras() {
+        if (mExtras == null) {
+            return null;
+        }
+        Bundle bundle = new Bundle();
+        bundle.putAll(mExtras);
+        return bundle;
+    }
+
+    private Object get(String key) {
+        return (mExtras == null) ? null : mExtras.get(key);
+    }
+
+    public String getStringExtra(String key) {
+        Object value = get(key);
+        return (value instanceof String) ? (String) value : null;
+    }
+
+    public String[] getStringArrayExtra(String key) {
+        Object value = get(key);
+        return (value instanceof String[]) ? (String[]) value : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public ArrayList<String> getStringArrayListExtra(String key) {
+        Object value = get(key);
+        return (value instanceof ArrayList) ? (ArrayList<String>) value : null;
+    }
+
+    public int getIntExtra(String key, int defaultValue) {
+        Object value = get(key);
+        return (value instanceof Integer) ? (Integer) value : defaultValue;
+    }
+
+    public long getLongExtra(String key, long defaultValue) {
+        Object value = get(key);
+        return (value instanceof Long) ? (Long) value : defaultValue;
+    }
+
+    public boolean getBooleanExtra(String key, boolean defaultValue) {
+        Object value = get(key);
+        return (value instanceof Boolean) ? (Boolean) value : defaultValue;
+    }
+}
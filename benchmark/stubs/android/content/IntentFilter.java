@@ -0,0 +1,40 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JVM stand-in for Android's IntentFilter (actions only)
+ */
+public class IntentFilter {
+    private final List<String> mActions = new ArrayList<String>();
+
+    public IntentFilter(String action) {
+        mActions.add(action);
+    }
+
+    public void addAction(String action) {
+        mActions.add(action);
+    }
+
+    public boolean hasAction(String action) {
+        return mActions.contains(action);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.database;
+
+import java.io.Closeable;
+
+/**
+ * JVM stand-in for Android's Cursor
+ */
+public interface Cursor extends Closeable {
+    boolean moveToNext();
+
+    String getString(int column);
+
+    byte[] getBlob(int column);
+
+    long getLong(int column);
+
+    int getInt(int column);
+
+    int getCount();
+
+    void close();
+}
@@ -0,0 +1,78 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.database.sqlite;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * JVM stand-in for Android's SQLiteDatabase (compile-only)
+ */
+public class SQLiteDatabase {
+    public static final int CONFLICT_REPLACE = 5;
+
+    public void execSQL(String sql) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public void execSQL(String sql, Object[] bindArgs) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public long insert(String table, String nullColumnHack, ContentValues values) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public long insertWithOnConflict(String table, String nullColumnHack, ContentValues values, int conflictAlgorithm) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public int delete(String table, String whereClause, String[] whereArgs) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+            String groupBy, String having, String orderBy) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+            String groupBy, String having, String orderBy, String limit) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public void beginTransaction() {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public void setTransactionSuccessful() {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public void endTransaction() {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public SQLiteStatement compileStatement(String sql) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+}
@@ -0,0 +1,58 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.database.sqlite;
+
+/**
+ * JVM stand-in for Android's SQLiteStatement (compile-only)
+ */
+public class SQLiteStatement {
+    public void bindString(int index, String value) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public void bindBlob(int index, byte[] value) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public void bindLong(int index, long value) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public void bindNull(int index) {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public void clearBindings() {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public void execute() {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public long executeInsert() {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public int executeUpdateDelete() {
+        throw new UnsupportedOperationException("SQLite isn't available in the benchmark JVM");
+    }
+
+    public void close() {
+    }
+}
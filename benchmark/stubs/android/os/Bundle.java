@@ -0,0 +1,80 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.os;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for Android's Bundle that keeps extras in a map like the real one
+ */
+public class Bundle {
+    private final Map<String, Object> mValues;
+
+    public Bundle() {
+        mValues = new HashMap<String, Object>();
+    }
+
+    Bundle(Map<String, Object> values) {
+        mValues = values;
+    }
+
+    public boolean containsKey(String key) {
+        return mValues.containsKey(key);
+    }
+
+    public Object get(String key) {
+        return mValues.get(key);
+    }
+
+    public String getString(String key) {
+        Object value = mValues.get(key);
+        return (value instanceof String) ? (String) value : null;
+    }
+
+    public int getInt(String key) {
+        Object value = mValues.get(key);
+        return (value instanceof Integer) ? (Integer) value : 0;
+    }
+
+    public long getLong(String key) {
+        Object value = mValues.get(key);
+        return (value instanceof Long) ? (Long) value : 0L;
+    }
+
+    public boolean getBoolean(String key) {
+        Object value = mValues.get(key);
+        return (value instanceof Boolean) ? (Boolean) value : false;
+    }
+
+    @SuppressWarnings("unchecked")
+    public ArrayList<String> getStringArrayList(String key) {
+        Object value = mValues.get(key);
+        return (value instanceof ArrayList) ? (ArrayList<String>) value : null;
+    }
+
+    public String[] getStringArray(String key) {
+        Object value = mValues.get(key);
+        return (value instanceof String[]) ? (String[]) value : null;
+    }
+
+    public void putAll(Map<String, Object> values) {
+        mValues.putAll(values);
+    }
+}
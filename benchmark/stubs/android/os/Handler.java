@@ -0,0 +1,50 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.os;
+
+/**
+ * JVM stand-in for Android's Handler: posted work runs right away on the
+ * posting thread and delayed work is dropped
+ */
+public class Handler {
+    private final Looper mLooper;
+
+    public Handler() {
+        this(Looper.myLooper());
+    }
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public boolean post(Runnable r) {
+        r.run();
+        return true;
+    }
+
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        return true;
+    }
+
+    public void removeCallbacks(Runnable r) {
+    }
+
+    public Looper getLooper() {
+        return mLooper;
+    }
+}
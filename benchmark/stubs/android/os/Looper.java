@@ -0,0 +1,44 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.os;
+
+/**
+ * JVM stand-in for Android's Looper: there's no message loop, so the
+ * "main" looper is simply whichever thread asks for it
+ */
+public class Looper {
+    private static final Looper sMainLooper = new Looper(null);
+
+    private final Thread mThread;
+
+    Looper(Thread thread) {
+        mThread = thread;
+    }
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sMainLooper;
+    }
+
+    public Thread getThread() {
+        return (mThread != null) ? mThread : Thread.currentThread();
+    }
+}
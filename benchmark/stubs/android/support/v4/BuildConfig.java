@@ -0,0 +1,29 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.support.v4;
+
+/**
+ * JVM stand-in for the support library's BuildConfig; debug logging stays
+ * off so it doesn't skew the numbers
+ */
+public final class BuildConfig {
+    public static final boolean DEBUG = false;
+
+    private BuildConfig() {
+    }
+}
@@ -0,0 +1,76 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package android.support.v4.content;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JVM stand-in for the support library's LocalBroadcastManager: broadcasts
+ * are matched against registered filters and delivered right away
+ */
+public class LocalBroadcastManager {
+    private static final LocalBroadcastManager sInstance = new LocalBroadcastManager();
+
+    private final List<BroadcastReceiver> mReceivers = new ArrayList<BroadcastReceiver>();
+    private final List<IntentFilter> mFilters = new ArrayList<IntentFilter>();
+
+    public static LocalBroadcastManager getInstance(Context context) {
+        return sInstance;
+    }
+
+    public synchronized void registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        mReceivers.add(receiver);
+        mFilters.add(filter);
+    }
+
+    public synchronized void unregisterReceiver(BroadcastReceiver receiver) {
+        for (int i = mReceivers.size() - 1; i >= 0; i--) {
+            if (mReceivers.get(i) == receiver) {
+                mReceivers.remove(i);
+                mFilters.remove(i);
+            }
+        }
+    }
+
+    public boolean sendBroadcast(Intent intent) {
+        List<BroadcastReceiver> matches = null;
+        synchronized (this) {
+            for (int i = 0; i < mFilters.size(); i++) {
+                if (mFilters.get(i).hasAction(intent.getAction())) {
+                    if (matches == null) {
+                        matches = new ArrayList<BroadcastReceiver>();
+                    }
+                    matches.add(mReceivers.get(i));
+                }
+            }
+        }
+        if (matches == null) {
+            return false;
+        }
+        for (BroadcastReceiver receiver : matches) {
+            receiver.onReceive(null, intent);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.keysolutions.ddpclient.DDPClient.DdpMessageField;
+
+/**
+ * Tests for MemoryStateStorage
+ */
+public class MemoryStateStorageTest {
+    private static final String COLL = "docs";
+    private static final String DOC_ID = "doc1";
+
+    /**
+     * Builds an added/changed message
+     * @param fields document fields
+     * @return message fields
+     */
+    private static Map<String, Object> message(Map<String, Object> fields) {
+        Map<String, Object> jsonFields = new HashMap<>();
+        jsonFields.put(DdpMessageField.FIELDS, fields);
+        return jsonFields;
+    }
+
+    /**
+     * Builds a sub-document big enough to be kept as JSON
+     * @return sub-document
+     */
+    private static Map<String, Object> bigValue() {
+        List<Object> lines = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            lines.add("line " + i);
+        }
+        Map<String, Object> value = new HashMap<>();
+        value.put("lines", lines);
+        return value;
+    }
+
+    @Test
+    public void changingDocStoredBeforeLazyFieldsKeepsPlainValues() {
+        MemoryStateStorage storage = new MemoryStateStorage();
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("name", "before");
+        storage.addDoc(message(fields), COLL, DOC_ID);
+        assertFalse(storage.getDocument(COLL, DOC_ID) instanceof LazyDocument);
+
+        storage.setLazyFields(64);
+        Map<String, Object> changed = new HashMap<>();
+        changed.put("body", bigValue());
+        assertTrue(storage.updateDoc(message(changed), COLL, DOC_ID));
+
+        Map<String, Object> doc = storage.getDocument(COLL, DOC_ID);
+        assertFalse(doc instanceof LazyDocument);
+        assertEquals(bigValue(), doc.get("body"));
+        assertEquals("before", doc.get("name"));
+
+        // this is what SQLiteStateStorage writes to disk for a plain doc
+        Gson gson = new Gson();
+        Map<?, ?> persisted = gson.fromJson(gson.toJson(doc), Map.class);
+        assertEquals(bigValue(), persisted.get("body"));
+        assertEquals("before", persisted.get("name"));
+    }
+
+    @Test
+    public void changingLazyDocKeepsBigValuesAsJson() {
+        MemoryStateStorage storage = new MemoryStateStorage();
+        storage.setLazyFields(64);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("name", "before");
+        storage.addDoc(message(fields), COLL, DOC_ID);
+
+        Map<String, Object> changed = new HashMap<>();
+        changed.put("body", bigValue());
+        assertTrue(storage.updateDoc(message(changed), COLL, DOC_ID));
+
+        LazyDocument doc = (LazyDocument) storage.getDocument(COLL, DOC_ID);
+        assertTrue(doc.getRawFields().get("body") instanceof LazyDocument.LazyValue);
+        assertEquals(bigValue(), doc.get("body"));
+
+        Gson gson = new Gson();
+        Map<?, ?> persisted = gson.fromJson(doc.toJson(gson), Map.class);
+        assertEquals(bigValue(), persisted.get("body"));
+        assertEquals("before", persisted.get("name"));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-item outcomes of a batch of calls to one method
+ * (see DDPStateSingleton.callBatch)
+ */
+public class BatchResult {
+    /** item outcomes */
+    static final byte SUCCEEDED = 1;
+    static final byte FAILED = 2;
+    static final byte CANCELLED = 3;
+
+    private final String mMethod;
+    private final byte[] mOutcomes;
+    private final Object[] mResults;
+    private final MethodCallException[] mErrors;
+    private final int mSuccessCount;
+    private final int mFailureCount;
+    private final long mElapsedNanos;
+
+    /**
+     * Constructor
+     * @param method method name
+     * @param outcomes outcome of each item
+     * @param results return value of each item that succeeded
+     * @param errors error of each item that failed
+     * @param elapsedNanos time from starting the batch until the last item finished
+     */
+    BatchResult(String method, byte[] outcomes, Object[] results,
+            MethodCallException[] errors, long elapsedNanos) {
+        this.mMethod = method;
+        this.mOutcomes = outcomes;
+        this.mResults = results;
+        this.mErrors = errors;
+        this.mElapsedNanos = elapsedNanos;
+        int successes = 0;
+        int failures = 0;
+        for (byte outcome : outcomes) {
+            if (outcome == SUCCEEDED) {
+                successes++;
+            } else if (outcome == FAILED) {
+                failures++;
+            }
+        }
+        this.mSuccessCount = successes;
+        this.mFailureCount = failures;
+    }
+
+    /**
+     * Gets the method that was called
+     * @return method name
+     */
+    public String getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * Gets number of items in the batch
+     * @return item count
+     */
+    public int size() {
+        return mOutcomes.length;
+    }
+
+    /**
+     * Gets number of calls that returned
+     * @return success count
+     */
+    public int getSuccessCount() {
+        return mSuccessCount;
+    }
+
+    /**
+     * Gets number of calls that failed
+     * @return failure count
+     */
+    public int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * Gets number of items that didn't finish because the batch was cancelled
+     * @return cancelled count
+     */
+    public int getCancelledCount() {
+        return mOutcomes.length - mSuccessCount - mFailureCount;
+    }
+
+    /**
+     * Whether every call returned
+     * @return true if nothing failed or was cancelled
+     */
+    public boolean isAllSucceeded() {
+        return mSuccessCount == mOutcomes.length;
+    }
+
+    /**
+     * Whether an item's call returned
+     * @param index item index (same as in the params list)
+     * @return true if it succeeded
+     */
+    public boolean isSuccess(int index) {
+        return mOutcomes[index] == SUCCEEDED;
+    }
+
+    /**
+     * Whether an item was cancelled before it finished
+     * @param index item index
+     * @return true if cancelled
+     */
+    public boolean isCancelled(int index) {
+        return mOutcomes[index] == CANCELLED;
+    }
+
+    /**
+     * Gets an item's return value
+     * @param index item index
+     * @return return value or null if it didn't succeed
+     */
+    public Object getResult(int index) {
+        return mResults[index];
+    }
+
+    /**
+     * Gets an item's error
+     * @param index item index
+     * @return error or null if it didn't fail
+     */
+    public MethodCallException getError(int index) {
+        return mErrors[index];
+    }
+
+    /**
+     * Gets the items that failed, e.g., to retry them
+     * @return indexes of failed items in order
+     */
+    public List<Integer> getFailedIndexes() {
+        List<Integer> failed = new ArrayList<>(mFailureCount);
+        for (int i = 0; i < mOutcomes.length; i++) {
+            if (mOutcomes[i] == FAILED) {
+                failed.add(i);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Gets time from starting the batch until its last item finished
+     * @return elapsed nanoseconds
+     */
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{method=" + mMethod + ", size=" + mOutcomes.length
+                + ", succeeded=" + mSuccessCount + ", failed=" + mFailureCount
+                + ", cancelled=" + getCancelledCount() + "}";
+    }
+}
@@ -0,0 +1,204 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory documents of a collection w/ a memory budget.  Docs are kept in
+ * least recently used order and the oldest ones are evicted once the
+ * collection goes over its doc count or estimated byte budget.
+ * Every method is synchronized since reads change the LRU order.
+ */
+class BoundedCollection extends LinkedHashMap<String, Map<String, Object>> {
+    private static final long serialVersionUID = 1L;
+
+    /** max docs in memory (0 for no limit) */
+    private final int mMaxDocs;
+    /** max estimated bytes in memory (0 for no limit) */
+    private final long mMaxBytes;
+    /** estimated size of each doc (only kept when there's a byte budget) */
+    private final Map<String, Long> mSizes;
+    private long mBytes;
+    private long mHits;
+    private long mMisses;
+    private long mPageIns;
+    private long mEvictions;
+
+    /**
+     * Constructor
+     * @param maxDocs max docs in memory (0 for no limit)
+     * @param maxBytes max estimated bytes in memory (0 for no limit)
+     */
+    BoundedCollection(int maxDocs, long maxBytes) {
+        super(16, 0.75f, true);
+        this.mMaxDocs = maxDocs;
+        this.mMaxBytes = maxBytes;
+        this.mSizes = (maxBytes > 0) ? new HashMap<String, Long>() : null;
+    }
+
+    /**
+     * Stores a doc and evicts the least recently used docs if over budget
+     * @param docId document ID
+     * @param doc document fields
+     * @return docs that were evicted (never includes docId)
+     */
+    synchronized List<Map.Entry<String, Map<String, Object>>> putAndEvict(String docId,
+            Map<String, Object> doc) {
+        put(docId, doc);
+        return evict(docId);
+    }
+
+    /**
+     * Looks up a doc for a reader, counting a hit or a miss
+     * @param docId document ID
+     * @return document or null if not in memory
+     */
+    synchronized Map<String, Object> lookup(String docId) {
+        Map<String, Object> doc = super.get(docId);
+        if (doc != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return doc;
+    }
+
+    /**
+     * Counts a miss that was found in the overflow tier
+     */
+    synchronized void pagedIn() {
+        mPageIns++;
+    }
+
+    /**
+     * Copies the docs in memory (w/o touching LRU order)
+     * @return { docId, fields } in least recently used order
+     */
+    synchronized Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> copy = new LinkedHashMap<>(size());
+        for (Map.Entry<String, Map<String, Object>> doc : entrySet()) {
+            copy.put(doc.getKey(), doc.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Gets hit/miss counters
+     * @return current stats
+     */
+    synchronized CacheStats getStats() {
+        return new CacheStats(mHits, mMisses, mPageIns, mEvictions, size(), mBytes);
+    }
+
+    @Override
+    public synchronized Map<String, Object> get(Object docId) {
+        return super.get(docId);
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object docId) {
+        return super.containsKey(docId);
+    }
+
+    @Override
+    public synchronized Map<String, Object> put(String docId, Map<String, Object> doc) {
+        Map<String, Object> old = super.put(docId, doc);
+        if (mSizes != null) {
+            account(docId, doc);
+        }
+        return old;
+    }
+
+    @Override
+    public synchronized Map<String, Object> remove(Object docId) {
+        Map<String, Object> old = super.remove(docId);
+        if (old != null && mSizes != null) {
+            Long size = mSizes.remove(docId);
+            mBytes -= (size != null) ? size : 0;
+        }
+        return old;
+    }
+
+    @Override
+    public synchronized int size() {
+        return super.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        if (mSizes != null) {
+            mSizes.clear();
+        }
+        mBytes = 0;
+    }
+
+    /**
+     * Updates the byte count for a doc's current size
+     * @param docId document ID
+     * @param doc document fields
+     */
+    private void account(String docId, Map<String, Object> doc) {
+        long size = SizeEstimator.estimate(doc);
+        Long old = mSizes.put(docId, size);
+        mBytes += size - ((old != null) ? old : 0);
+    }
+
+    /**
+     * Evicts least recently used docs until we're within budget
+     * @param keepDocId doc that was just touched and shouldn't be evicted
+     * @return evicted docs
+     */
+    private List<Map.Entry<String, Map<String, Object>>> evict(String keepDocId) {
+        List<Map.Entry<String, Map<String, Object>>> evicted = null;
+        Iterator<Map.Entry<String, Map<String, Object>>> docs = entrySet().iterator();
+        while (isOverBudget() && docs.hasNext()) {
+            Map.Entry<String, Map<String, Object>> doc = docs.next();
+            if (doc.getKey().equals(keepDocId)) {
+                continue;
+            }
+            if (evicted == null) {
+                evicted = new ArrayList<>();
+            }
+            evicted.add(new AbstractMap.SimpleImmutableEntry<>(doc.getKey(), doc.getValue()));
+            docs.remove();
+            if (mSizes != null) {
+                Long size = mSizes.remove(doc.getKey());
+                mBytes -= (size != null) ? size : 0;
+            }
+            mEvictions++;
+        }
+        return evicted;
+    }
+
+    /**
+     * Whether the collection is over its budget
+     * @return true if something should be evicted
+     */
+    private boolean isOverBudget() {
+        return (mMaxDocs > 0 && super.size() > mMaxDocs)
+                || (mMaxBytes > 0 && mBytes > mMaxBytes);
+    }
+}
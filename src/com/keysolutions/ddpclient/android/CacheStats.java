@@ -0,0 +1,115 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+/**
+ * Point-in-time counters for a collection w/ a memory budget
+ * (see MemoryStateStorage.setCollectionBudget), for sizing the budget.
+ */
+public class CacheStats {
+    private final long mHits;
+    private final long mMisses;
+    private final long mPageIns;
+    private final long mEvictions;
+    private final int mResidentDocs;
+    private final long mResidentBytes;
+
+    /**
+     * Constructor
+     * @param hits getDocument calls answered from memory
+     * @param misses getDocument calls for docs that weren't in memory
+     * @param pageIns misses that were found in the overflow tier and paged back in
+     * @param evictions docs evicted from memory
+     * @param residentDocs docs currently in memory
+     * @param residentBytes estimated bytes of docs in memory (0 if only counting docs)
+     */
+    CacheStats(long hits, long misses, long pageIns, long evictions,
+            int residentDocs, long residentBytes) {
+        this.mHits = hits;
+        this.mMisses = misses;
+        this.mPageIns = pageIns;
+        this.mEvictions = evictions;
+        this.mResidentDocs = residentDocs;
+        this.mResidentBytes = residentBytes;
+    }
+
+    /**
+     * Gets number of lookups by the app answered from memory
+     * (the library's own bookkeeping reads aren't counted)
+     * @return hit count
+     */
+    public long getHits() {
+        return mHits;
+    }
+
+    /**
+     * Gets number of lookups by the app for docs that weren't in memory
+     * @return miss count
+     */
+    public long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * Gets number of misses that were paged back in from the overflow tier
+     * @return page-in count
+     */
+    public long getPageIns() {
+        return mPageIns;
+    }
+
+    /**
+     * Gets number of docs evicted from memory
+     * @return eviction count
+     */
+    public long getEvictions() {
+        return mEvictions;
+    }
+
+    /**
+     * Gets number of docs in memory
+     * @return resident doc count
+     */
+    public int getResidentDocs() {
+        return mResidentDocs;
+    }
+
+    /**
+     * Gets estimated bytes of docs in memory
+     * @return bytes (0 if the budget is only by doc count)
+     */
+    public long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    /**
+     * Gets fraction of lookups answered from memory
+     * @return hit rate between 0 and 1 (1 if there were no lookups)
+     */
+    public double getHitRate() {
+        long lookups = mHits + mMisses;
+        return (lookups == 0) ? 1.0 : (double) mHits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + mHits + ", misses=" + mMisses + ", pageIns=" + mPageIns
+                + ", evictions=" + mEvictions + ", residentDocs=" + mResidentDocs
+                + ", residentBytes=" + mResidentBytes + "}";
+    }
+}
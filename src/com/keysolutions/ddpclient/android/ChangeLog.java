@@ -0,0 +1,151 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import com.keysolutions.ddpclient.DDPClient.DdpMessageType;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Change history of one collection.  Every add/change/remove gets the next
+ * sequence number and goes into a fixed-size ring buffer, so consumers that
+ * remember a sequence number can catch up on what changed since then as
+ * long as it hasn't been overwritten yet.
+ */
+final class ChangeLog {
+    private static final byte ADDED = 0;
+    private static final byte CHANGED = 1;
+    private static final byte REMOVED = 2;
+
+    private String[] mDocIds;
+    private byte[] mTypes;
+    /** slot the next change goes in */
+    private int mNext;
+    /** number of changes in the buffer */
+    private int mCount;
+    /** sequence number of the last change */
+    private long mSequence;
+
+    /**
+     * Constructor
+     * @param capacity number of changes to keep
+     */
+    ChangeLog(int capacity) {
+        this.mDocIds = new String[capacity];
+        this.mTypes = new byte[capacity];
+    }
+
+    /**
+     * Changes how many changes are kept, dropping the ones already recorded
+     * (the sequence number keeps counting from where it was)
+     * @param capacity number of changes to keep
+     */
+    synchronized void setCapacity(int capacity) {
+        mDocIds = new String[capacity];
+        mTypes = new byte[capacity];
+        mNext = 0;
+        mCount = 0;
+    }
+
+    /**
+     * Records a change
+     * @param changetype "added", "changed" or "removed"
+     * @param docId document ID
+     * @return sequence number of the change
+     */
+    synchronized long record(String changetype, String docId) {
+        mDocIds[mNext] = docId;
+        mTypes[mNext] = toType(changetype);
+        mNext = (mNext + 1) % mDocIds.length;
+        if (mCount < mDocIds.length) {
+            mCount++;
+        }
+        return ++mSequence;
+    }
+
+    /**
+     * Gets the sequence number of the last change
+     * @return sequence number (0 if nothing has changed yet)
+     */
+    synchronized long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Gets the net changes made after a sequence number
+     * @param collName collection name
+     * @param since sequence number to get changes after
+     * @return net changes or null if some of them are no longer in the buffer
+     */
+    synchronized CollectionChanges changesSince(String collName, long since) {
+        if (since < mSequence - mCount || since > mSequence) {
+            return null;
+        }
+        int count = (int) (mSequence - since);
+        int slot = (mNext - count + mDocIds.length) % mDocIds.length;
+        // { docId, net changetype } in the order each doc first changed
+        Map<String, String> net = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String docId = mDocIds[slot];
+            String change = SubscriptionChangeBatcher.coalesce(net.get(docId), toChangeType(mTypes[slot]));
+            if (change == null) {
+                net.remove(docId);
+            } else {
+                net.put(docId, change);
+            }
+            slot = (slot + 1) % mDocIds.length;
+        }
+        CollectionChanges changes = new CollectionChanges(collName, since, mSequence);
+        for (Map.Entry<String, String> doc : net.entrySet()) {
+            changes.add(doc.getValue(), doc.getKey());
+        }
+        return changes;
+    }
+
+    /**
+     * Converts a change type to its compact form
+     * @param changetype "added", "changed" or "removed"
+     * @return type code
+     */
+    private static byte toType(String changetype) {
+        switch (changetype) {
+            case DdpMessageType.ADDED:
+                return ADDED;
+            case DdpMessageType.REMOVED:
+                return REMOVED;
+            default:
+                return CHANGED;
+        }
+    }
+
+    /**
+     * Converts a type code back to a change type
+     * @param type type code
+     * @return "added", "changed" or "removed"
+     */
+    private static String toChangeType(byte type) {
+        switch (type) {
+            case ADDED:
+                return DdpMessageType.ADDED;
+            case REMOVED:
+                return DdpMessageType.REMOVED;
+            default:
+                return DdpMessageType.CHANGED;
+        }
+    }
+}
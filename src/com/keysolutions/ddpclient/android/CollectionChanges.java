@@ -0,0 +1,63 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+/**
+ * Net document changes made to a collection between two change sequence
+ * numbers, from DDPStateSingleton.getChangesSince().
+ * Each doc ID shows up in at most one of the added/changed/removed lists.
+ */
+public class CollectionChanges extends SubscriptionChangeBatch {
+    /** sequence number the changes were asked for from */
+    private final long mFromSequence;
+    /** sequence number of the last change included */
+    private final long mSequence;
+
+    /**
+     * Constructor
+     * @param collectionName collection name
+     * @param fromSequence sequence number the changes start after
+     * @param sequence sequence number of the last change included
+     */
+    public CollectionChanges(String collectionName, long fromSequence, long sequence) {
+        super(collectionName);
+        this.mFromSequence = fromSequence;
+        this.mSequence = sequence;
+    }
+
+    /**
+     * Gets the sequence number these changes start after
+     * @return sequence number passed to getChangesSince()
+     */
+    public long getFromSequence() {
+        return mFromSequence;
+    }
+
+    /**
+     * Gets the sequence number of the last change included; pass this to
+     * getChangesSince() next time to pick up where these changes left off
+     * @return collection's sequence number when the changes were read
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " (" + mFromSequence + ".." + mSequence + ")";
+    }
+}
@@ -0,0 +1,85 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.Map;
+
+/**
+ * Secondary index over one or more fields of a collection's documents.
+ * Indexes are registered w/ DDPStateSingleton.addIndex() and are kept up to date
+ * as documents are added, changed and removed so queries don't have to scan
+ * the whole collection.
+ */
+public abstract class CollectionIndex {
+    /** names of the document fields this index covers */
+    private final String[] mFieldNames;
+
+    /**
+     * Constructor
+     * @param fieldNames names of the document fields this index covers
+     */
+    protected CollectionIndex(String... fieldNames) {
+        this.mFieldNames = fieldNames;
+    }
+
+    /**
+     * Gets the name of this index (the field names separated by commas)
+     * @return index name
+     */
+    public String getName() {
+        StringBuilder name = new StringBuilder();
+        for (String fieldName : mFieldNames) {
+            if (name.length() > 0) {
+                name.append(',');
+            }
+            name.append(fieldName);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Gets the names of the document fields this index covers
+     * @return field names
+     */
+    public String[] getFieldNames() {
+        return mFieldNames;
+    }
+
+    /**
+     * Adds a document to the index or re-indexes it if it's already there
+     * @param docId document ID
+     * @param fields document fields
+     */
+    abstract void put(String docId, Map<String, Object> fields);
+
+    /**
+     * Removes a document from the index
+     * @param docId document ID
+     */
+    abstract void remove(String docId);
+
+    /**
+     * Removes all documents from the index
+     */
+    abstract void clear();
+
+    /**
+     * Number of documents in the index
+     * @return number of documents
+     */
+    public abstract int size();
+}
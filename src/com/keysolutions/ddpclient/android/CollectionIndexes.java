@@ -0,0 +1,153 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps track of the secondary indexes declared for each collection and
+ * updates them as documents are added, changed and removed.
+ */
+class CollectionIndexes {
+    /** { collectionName, indexes } */
+    private final Map<String, CopyOnWriteArrayList<CollectionIndex>> mIndexes
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Registers an index and fills it w/ the documents already in the collection
+     * @param collName collection name
+     * @param index index to add
+     * @param collection current documents in collection or null if none
+     */
+    void add(String collName, CollectionIndex index, Map<String, Map<String, Object>> collection) {
+        synchronized (mIndexes) {
+            CopyOnWriteArrayList<CollectionIndex> indexes = mIndexes.get(collName);
+            if (indexes == null) {
+                indexes = new CopyOnWriteArrayList<>();
+                mIndexes.put(collName, indexes);
+            }
+            indexes.add(index);
+        }
+        // index is registered first so changes that arrive while we're filling it
+        // get applied after we're done
+        if (collection != null) {
+            synchronized (index) {
+                for (Map.Entry<String, Map<String, Object>> doc : collection.entrySet()) {
+                    index.put(doc.getKey(), doc.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Unregisters an index
+     * @param collName collection name
+     * @param index index to remove
+     * @return true if index was registered
+     */
+    boolean remove(String collName, CollectionIndex index) {
+        List<CollectionIndex> indexes = mIndexes.get(collName);
+        return (indexes != null) && indexes.remove(index);
+    }
+
+    /**
+     * Gets an index by name
+     * @param collName collection name
+     * @param indexName index name (field names separated by commas)
+     * @return index or null if not found
+     */
+    CollectionIndex get(String collName, String indexName) {
+        List<CollectionIndex> indexes = mIndexes.get(collName);
+        if (indexes != null) {
+            for (CollectionIndex index : indexes) {
+                if (index.getName().equals(indexName)) {
+                    return index;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets all indexes for a collection
+     * @param collName collection name
+     * @return indexes (empty if none)
+     */
+    List<CollectionIndex> getAll(String collName) {
+        List<CollectionIndex> indexes = mIndexes.get(collName);
+        return (indexes != null) ? indexes : Collections.<CollectionIndex>emptyList();
+    }
+
+    /**
+     * Indexes a newly added (or replaced) document
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields document fields
+     */
+    void docAdded(String collName, String docId, Map<String, Object> fields) {
+        List<CollectionIndex> indexes = mIndexes.get(collName);
+        if (indexes == null || fields == null) {
+            return;
+        }
+        for (CollectionIndex index : indexes) {
+            index.put(docId, fields);
+        }
+    }
+
+    /**
+     * Re-indexes a changed document if any of its indexed fields were touched
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields document fields after the change
+     * @param jsonFields fields of the "changed" message
+     */
+    void docChanged(String collName, String docId, Map<String, Object> fields,
+            Map<String, Object> jsonFields) {
+        List<CollectionIndex> indexes = mIndexes.get(collName);
+        if (indexes == null || fields == null) {
+            return;
+        }
+        DocumentDelta delta = DocumentDelta.fromMessage(jsonFields, null);
+        for (CollectionIndex index : indexes) {
+            for (String fieldName : index.getFieldNames()) {
+                if (delta.isFieldAffected(fieldName)) {
+                    index.put(docId, fields);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a document from the collection's indexes
+     * @param collName collection name
+     * @param docId document ID
+     */
+    void docRemoved(String collName, String docId) {
+        List<CollectionIndex> indexes = mIndexes.get(collName);
+        if (indexes == null) {
+            return;
+        }
+        for (CollectionIndex index : indexes) {
+            index.remove(docId);
+        }
+    }
+}
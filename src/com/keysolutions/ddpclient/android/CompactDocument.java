@@ -0,0 +1,230 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Memory-efficient document used by MemoryStateStorage when compact documents
+ * are turned on.  Field names live in the collection's shared DocumentSchema
+ * and values are kept in a slot array, w/ numbers stored as unboxed doubles
+ * (Gson parses every JSON number as a Double, so nothing is lost).
+ * It's still a Map so it works anywhere a document's fields are expected,
+ * e.g., MeteorCollectionDoc.getField(); use getNumber() to read numbers
+ * w/o boxing them.
+ * Like the maps Gson creates, this isn't meant to be modified by the app.
+ */
+public final class CompactDocument extends AbstractMap<String, Object> {
+    /** marks a slot whose value is in mNumbers */
+    private static final Object NUMBER = new Object();
+    /** marks a slot whose value is JSON null (null in mValues means the field isn't set) */
+    private static final Object NULL = new Object();
+    private static final Object[] EMPTY = new Object[0];
+
+    private final DocumentSchema mSchema;
+    /** value for each schema slot (sized to the highest slot this doc uses) */
+    private Object[] mValues = EMPTY;
+    /** number values for NUMBER slots; only allocated if the doc has numbers */
+    private double[] mNumbers;
+    /** number of fields that are set */
+    private int mSize;
+
+    /**
+     * Constructor
+     * @param schema schema shared by documents in the collection
+     * @param fields initial field values
+     */
+    CompactDocument(DocumentSchema schema, Map<String, Object> fields) {
+        this.mSchema = schema;
+        if (fields != null) {
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                put(field.getKey(), field.getValue());
+            }
+        }
+    }
+
+    /**
+     * Copies this document; the copy shares the schema but not the slot arrays
+     * @return copy that can be changed w/o affecting this document
+     */
+    synchronized CompactDocument copy() {
+        CompactDocument copy = new CompactDocument(mSchema, null);
+        copy.mValues = (mValues.length > 0) ? mValues.clone() : EMPTY;
+        copy.mNumbers = (mNumbers != null) ? mNumbers.clone() : null;
+        copy.mSize = mSize;
+        return copy;
+    }
+
+    /**
+     * Gets a number field w/o boxing it
+     * @param fieldName field name
+     * @param defaultValue value to return if field isn't set or isn't a number
+     * @return field value
+     */
+    public synchronized double getNumber(String fieldName, double defaultValue) {
+        int slot = mSchema.getSlot(fieldName);
+        if (slot < 0 || slot >= mValues.length) {
+            return defaultValue;
+        }
+        Object value = mValues[slot];
+        if (value == NUMBER) {
+            return mNumbers[slot];
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public synchronized Object get(Object fieldName) {
+        int slot = mSchema.getSlot(fieldName);
+        return (slot >= 0 && slot < mValues.length) ? valueAt(slot) : null;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object fieldName) {
+        int slot = mSchema.getSlot(fieldName);
+        return slot >= 0 && slot < mValues.length && mValues[slot] != null;
+    }
+
+    @Override
+    public synchronized Object put(String fieldName, Object value) {
+        int slot = mSchema.getOrAddSlot(fieldName);
+        if (slot >= mValues.length) {
+            Object[] values = new Object[mSchema.size()];
+            System.arraycopy(mValues, 0, values, 0, mValues.length);
+            mValues = values;
+        }
+        Object old = valueAt(slot);
+        if (mValues[slot] == null) {
+            mSize++;
+        }
+        if (value instanceof Double) {
+            if (mNumbers == null || mNumbers.length < mValues.length) {
+                double[] numbers = new double[mValues.length];
+                if (mNumbers != null) {
+                    System.arraycopy(mNumbers, 0, numbers, 0, mNumbers.length);
+                }
+                mNumbers = numbers;
+            }
+            mNumbers[slot] = (Double) value;
+            mValues[slot] = NUMBER;
+        } else {
+            mValues[slot] = (value != null) ? value : NULL;
+        }
+        return old;
+    }
+
+    @Override
+    public synchronized Object remove(Object fieldName) {
+        int slot = mSchema.getSlot(fieldName);
+        if (slot < 0 || slot >= mValues.length || mValues[slot] == null) {
+            return null;
+        }
+        Object old = valueAt(slot);
+        mValues[slot] = null;
+        mSize--;
+        return old;
+    }
+
+    @Override
+    public synchronized int size() {
+        return mSize;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactDocument.this.size();
+            }
+        };
+    }
+
+    /**
+     * Gets the value in a slot
+     * @param slot slot number (must be within mValues)
+     * @return field value (boxed if it's a number)
+     */
+    private Object valueAt(int slot) {
+        Object value = mValues[slot];
+        if (value == NUMBER) {
+            return mNumbers[slot];
+        }
+        return (value == NULL) ? null : value;
+    }
+
+    /** walks the slots that are set */
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int mNext = -1;
+        private int mLast = -1;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            synchronized (CompactDocument.this) {
+                do {
+                    mNext++;
+                } while (mNext < mValues.length && mValues[mNext] == null);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            synchronized (CompactDocument.this) {
+                return mNext < mValues.length;
+            }
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            synchronized (CompactDocument.this) {
+                if (mNext >= mValues.length) {
+                    throw new NoSuchElementException();
+                }
+                mLast = mNext;
+                Map.Entry<String, Object> entry = new SimpleImmutableEntry<>(
+                        mSchema.getFieldName(mLast), valueAt(mLast));
+                advance();
+                return entry;
+            }
+        }
+
+        @Override
+        public void remove() {
+            if (mLast < 0) {
+                throw new IllegalStateException();
+            }
+            CompactDocument.this.remove(mSchema.getFieldName(mLast));
+            mLast = -1;
+        }
+    }
+}
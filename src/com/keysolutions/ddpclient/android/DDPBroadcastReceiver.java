@@ -26,6 +26,10 @@ import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.v4.content.LocalBroadcastManager;
 
+import com.keysolutions.ddpclient.DDPClient.DdpMessageType;
+
+import java.util.List;
+
 /**
  * This class handles base/common functionality for DDP event handling using
  * Android's LocalBroadcastManager.  E.g., error handling, auto resume token login, etc.
@@ -58,6 +62,9 @@ public class DDPBroadcastReceiver extends BroadcastReceiver {
         // class
         LocalBroadcastManager.getInstance(activity).registerReceiver(
                 this, new IntentFilter(DDPStateSingleton.MESSAGE_SUBUPDATED));
+        // we want batched subscription updates if batching is turned on
+        LocalBroadcastManager.getInstance(activity).registerReceiver(
+                this, new IntentFilter(DDPStateSingleton.MESSAGE_SUBBATCH));
         
         // if we're connected already, we should call the receiver's onConnect
         // so it can do any needed subscriptions because otherwise, it will never get called
@@ -100,7 +107,27 @@ public class DDPBroadcastReceiver extends BroadcastReceiver {
             String changeType =
             bundle.getString(DDPStateSingleton.MESSAGE_EXTRA_CHANGETYPE);
             String docId = bundle.getString(DDPStateSingleton.MESSAGE_EXTRA_CHANGEID);
-            onSubscriptionUpdate(changeType, subscriptionName, docId);
+            List<String> changedFields = bundle
+                    .getStringArrayList(DDPStateSingleton.MESSAGE_EXTRA_CHANGEDFIELDS);
+            if (changedFields != null) {
+                List<String> clearedFields = bundle
+                        .getStringArrayList(DDPStateSingleton.MESSAGE_EXTRA_CLEAREDFIELDS);
+                onDocumentChanged(subscriptionName, docId, changedFields, clearedFields);
+            } else if (DdpMessageType.READY.equals(changeType)
+                    && bundle.containsKey(DDPStateSingleton.MESSAGE_EXTRA_SUBID)) {
+                onSubscriptionReady(subscriptionName,
+                        bundle.getInt(DDPStateSingleton.MESSAGE_EXTRA_SUBID));
+            } else {
+                onSubscriptionUpdate(changeType, subscriptionName, docId);
+            }
+        } else if (intent.getAction().equals(
+                DDPStateSingleton.MESSAGE_SUBBATCH)) {
+            String subscriptionName = bundle
+                    .getString(DDPStateSingleton.MESSAGE_EXTRA_SUBNAME);
+            onSubscriptionBatch(subscriptionName,
+                    bundle.getStringArrayList(DDPStateSingleton.MESSAGE_EXTRA_ADDEDIDS),
+                    bundle.getStringArrayList(DDPStateSingleton.MESSAGE_EXTRA_CHANGEDIDS),
+                    bundle.getStringArrayList(DDPStateSingleton.MESSAGE_EXTRA_REMOVEDIDS));
         }
     }
 
@@ -113,6 +140,53 @@ public class DDPBroadcastReceiver extends BroadcastReceiver {
     protected void onSubscriptionUpdate(String changeType,
             String subscriptionName, String docId) {
     }
+
+    /**
+     * Override this method to handle a subscription becoming ready when you
+     * need to tell apart subscriptions to the same publication.
+     * Default behavior calls onSubscriptionUpdate.
+     * @param subscriptionName subscription name
+     * @param subscriptionId subscription ID
+     */
+    protected void onSubscriptionReady(String subscriptionName, int subscriptionId) {
+        onSubscriptionUpdate(DdpMessageType.READY, subscriptionName, null);
+    }
+
+    /**
+     * Override this method to handle document changes w/ the names of the
+     * fields that changed so only the affected views need updating.
+     * Default behavior calls onSubscriptionUpdate.
+     * @param subscriptionName subscription name (can be different from collection name)
+     * @param docId document ID being changed
+     * @param changedFields names of fields that were set
+     * @param clearedFields names of fields that were removed
+     */
+    protected void onDocumentChanged(String subscriptionName, String docId,
+            List<String> changedFields, List<String> clearedFields) {
+        onSubscriptionUpdate(DdpMessageType.CHANGED, subscriptionName, docId);
+    }
+
+    /**
+     * Override this method to handle a batch of subscription updates
+     * (only sent when subscription batching is turned on in the DDP singleton).
+     * Default behavior calls onSubscriptionUpdate for each document.
+     * @param subscriptionName subscription name (can be different from collection name)
+     * @param addedIds IDs of added documents
+     * @param changedIds IDs of changed documents
+     * @param removedIds IDs of removed documents
+     */
+    protected void onSubscriptionBatch(String subscriptionName, List<String> addedIds,
+            List<String> changedIds, List<String> removedIds) {
+        for (String docId : addedIds) {
+            onSubscriptionUpdate(DdpMessageType.ADDED, subscriptionName, docId);
+        }
+        for (String docId : changedIds) {
+            onSubscriptionUpdate(DdpMessageType.CHANGED, subscriptionName, docId);
+        }
+        for (String docId : removedIds) {
+            onSubscriptionUpdate(DdpMessageType.REMOVED, subscriptionName, docId);
+        }
+    }
     
     /**
      * Override this to hook into the login event
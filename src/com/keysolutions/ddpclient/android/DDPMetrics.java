@@ -0,0 +1,248 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import com.keysolutions.ddpclient.DDPListener;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms for the DDP singleton.  Only exists while
+ * metrics are on, so when they're off the hot paths just see a null field.
+ */
+final class DDPMetrics {
+    /** when metrics were turned on */
+    private final long mStartNanos = System.nanoTime();
+
+    /** { message type, time spent applying it } */
+    private final ConcurrentMap<String, LatencyHistogram> mMessages = new ConcurrentHashMap<>();
+
+    /** { method name, round trip times } */
+    private final ConcurrentMap<String, LatencyHistogram> mMethods = new ConcurrentHashMap<>();
+
+    /** { broadcast kind, number sent } */
+    private final ConcurrentMap<String, AtomicLong> mBroadcasts = new ConcurrentHashMap<>();
+
+    /** method calls waiting for a result */
+    private final Set<TimedListener> mCallsInFlight
+            = Collections.newSetFromMap(new ConcurrentHashMap<TimedListener, Boolean>());
+
+    /** timer thread for periodic snapshots; created on first use */
+    private ScheduledExecutorService mTimer;
+
+    /** periodic snapshot task or null if there's no metrics listener */
+    private ScheduledFuture<?> mReport;
+
+    /**
+     * Records time spent applying a DDP message
+     * @param msgtype message type
+     * @param nanos elapsed nanoseconds
+     */
+    void recordMessage(String msgtype, long nanos) {
+        getHistogram(mMessages, msgtype).record(nanos);
+    }
+
+    /**
+     * Counts a broadcast
+     * @param kind broadcast kind
+     */
+    void recordBroadcast(String kind) {
+        AtomicLong count = mBroadcasts.get(kind);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = mBroadcasts.putIfAbsent(kind, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Wraps a method call's listener so the round trip gets timed
+     * @param method method name
+     * @param listener app's listener (may be null)
+     * @return listener to hand to the DDP client
+     */
+    DDPListener timeCall(String method, DDPListener listener) {
+        TimedListener timed = new TimedListener(method, listener);
+        mCallsInFlight.add(timed);
+        return timed;
+    }
+
+    /**
+     * Stops waiting for results of calls made on a connection that closed
+     * (the server never answers those)
+     */
+    void abandonCalls() {
+        mCallsInFlight.clear();
+    }
+
+    /**
+     * Takes a snapshot of the counters
+     * @param docCounts { collection name, number of docs }
+     * @param docBytes { collection name, estimated bytes }
+     * @param queuedMessages doc messages waiting in the message pipeline
+     * @param pendingBatchChanges changes waiting in the subscription batcher
+     * @param queuedMethodCalls method calls waiting to be sent
+     * @return metrics snapshot
+     */
+    MetricsSnapshot snapshot(Map<String, Integer> docCounts, Map<String, Long> docBytes,
+            int queuedMessages, int pendingBatchChanges, int queuedMethodCalls) {
+        Map<String, LatencyStats> messages = new HashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : mMessages.entrySet()) {
+            messages.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        Map<String, LatencyStats> methods = new HashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : mMethods.entrySet()) {
+            methods.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        Map<String, Long> broadcasts = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : mBroadcasts.entrySet()) {
+            broadcasts.put(entry.getKey(), entry.getValue().get());
+        }
+        long windowMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+        return new MetricsSnapshot(windowMillis, messages, methods, broadcasts,
+                docCounts, docBytes, queuedMessages, pendingBatchChanges, queuedMethodCalls,
+                mCallsInFlight.size());
+    }
+
+    /**
+     * Runs a report periodically on the metrics timer thread, replacing any earlier one
+     * @param report report task
+     * @param periodMillis time between reports
+     */
+    synchronized void scheduleReport(Runnable report, long periodMillis) {
+        cancelReport();
+        if (mTimer == null) {
+            mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ddp-metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        mReport = mTimer.scheduleAtFixedRate(report, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic report
+     */
+    synchronized void cancelReport() {
+        if (mReport != null) {
+            mReport.cancel(false);
+            mReport = null;
+        }
+    }
+
+    /**
+     * Stops the timer thread
+     */
+    synchronized void shutdown() {
+        cancelReport();
+        if (mTimer != null) {
+            mTimer.shutdown();
+            mTimer = null;
+        }
+    }
+
+    /**
+     * Gets a histogram, creating it if needed
+     * @param histograms histograms by name
+     * @param name histogram name
+     * @return histogram
+     */
+    private static LatencyHistogram getHistogram(ConcurrentMap<String, LatencyHistogram> histograms,
+            String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * times a method call from when it's sent until its result comes back;
+     * every callback is passed on to the app's listener
+     */
+    private class TimedListener extends DDPListener {
+        private final String mMethod;
+        private final DDPListener mListener;
+        private final long mStartNanos = System.nanoTime();
+
+        TimedListener(String method, DDPListener listener) {
+            this.mMethod = method;
+            this.mListener = listener;
+        }
+
+        @Override
+        public void onResult(Map<String, Object> resultFields) {
+            if (mCallsInFlight.remove(this)) {
+                getHistogram(mMethods, mMethod).record(System.nanoTime() - mStartNanos);
+            }
+            if (mListener != null) {
+                mListener.onResult(resultFields);
+            }
+        }
+
+        @Override
+        public void onUpdated(String callId) {
+            if (mListener != null) {
+                mListener.onUpdated(callId);
+            }
+        }
+
+        @Override
+        public void onReady(String id) {
+            if (mListener != null) {
+                mListener.onReady(id);
+            }
+        }
+
+        @Override
+        public void onNoSub(String id, Map<String, Object> errorFields) {
+            if (mListener != null) {
+                mListener.onNoSub(id, errorFields);
+            }
+        }
+
+        @Override
+        public void onPong(String id) {
+            if (mListener != null) {
+                mListener.onPong(id);
+            }
+        }
+    }
+}
@@ -25,6 +25,6 @@ import com.keysolutions.ddpclient.android.DDPStateSingleton.DDPSTATE;
 public interface DDPStateBroadcasts {
     void broadcastConnectionState(DDPSTATE ddpstate);
     void broadcastDDPError(String errorMsg);
-    void broadcastSubscriptionChanged(String subscriptionName,
+    void broadcastSubscriptionChanged(String collectionName,
             String changetype, String docId);
 }
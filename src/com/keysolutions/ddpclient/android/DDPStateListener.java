@@ -0,0 +1,114 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import com.keysolutions.ddpclient.android.DDPStateSingleton.DDPSTATE;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed listener for DDP state changes that gets called directly by
+ * DDPStateSingleton instead of going through Intents and LocalBroadcastManager.
+ * Register with DDPStateSingleton.addStateListener() and override
+ * only the methods you care about.
+ * NOTE: field maps are references to the data store, so copy them if you
+ * need to hang onto them after the callback returns.
+ */
+public abstract class DDPStateListener {
+    /**
+     * Called when the DDP connection/login state changes
+     * @param state new DDP state
+     */
+    public void onConnectionState(DDPSTATE state) {
+    }
+
+    /**
+     * Called when the server reports an error
+     * @param errorMsg error message
+     */
+    public void onError(String errorMsg) {
+    }
+
+    /**
+     * Called when a document is added to a collection
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields fields of the new document
+     */
+    public void onDocAdded(String collName, String docId, Map<String, Object> fields) {
+    }
+
+    /**
+     * Called when a document in a collection is changed
+     * @param collName collection name
+     * @param docId document ID
+     * @param changedFields new values of fields that were set (empty if none)
+     * @param clearedFields names of fields that were removed (empty if none)
+     */
+    public void onDocChanged(String collName, String docId,
+            Map<String, Object> changedFields, List<String> clearedFields) {
+    }
+
+    /**
+     * Called when a document in a collection is changed.
+     * Override this instead of the other onDocChanged if you need the previous
+     * field values (see DDPStateSingleton.setTrackPreviousValues).
+     * Default behavior calls the other onDocChanged.
+     * @param collName collection name
+     * @param docId document ID
+     * @param delta fields that were set/cleared
+     */
+    public void onDocChanged(String collName, String docId, DocumentDelta delta) {
+        onDocChanged(collName, docId, delta.getChangedFields(), delta.getClearedFields());
+    }
+
+    /**
+     * Called when a document is removed from a collection
+     * @param collName collection name
+     * @param docId document ID
+     */
+    public void onDocRemoved(String collName, String docId) {
+    }
+
+    /**
+     * Called when a subscription has sent all of its initial documents
+     * @param subscriptionName subscription name
+     */
+    public void onSubscriptionReady(String subscriptionName) {
+    }
+
+    /**
+     * Called when a subscription has sent all of its initial documents.
+     * Override this instead of the other onSubscriptionReady if you have more
+     * than one subscription to the same publication.
+     * Default behavior calls the other onSubscriptionReady.
+     * @param subscriptionName subscription name
+     * @param subscriptionId subscription ID
+     */
+    public void onSubscriptionReady(String subscriptionName, int subscriptionId) {
+        onSubscriptionReady(subscriptionName);
+    }
+
+    /**
+     * Called w/ coalesced changes when subscription batching is turned on.
+     * The per-document callbacks are still called as changes arrive.
+     * @param batch changes to one collection
+     */
+    public void onSubscriptionBatch(SubscriptionChangeBatch batch) {
+    }
+}
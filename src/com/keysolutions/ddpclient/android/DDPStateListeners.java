@@ -0,0 +1,208 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.keysolutions.ddpclient.android.DDPStateSingleton.DDPSTATE;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps track of registered DDPStateListeners and dispatches events to them
+ * on the executor each one was registered with.
+ * Listeners w/o an executor are called directly on the thread that
+ * generated the event so nothing gets allocated per event for them.
+ */
+class DDPStateListeners {
+    /** a listener and where to run its callbacks */
+    private static class Registration {
+        final DDPStateListener listener;
+        /** null to call the listener directly */
+        final Executor executor;
+
+        Registration(DDPStateListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    /** runs callbacks on a Looper's thread */
+    static class LooperExecutor implements Executor {
+        private final Handler mHandler;
+
+        LooperExecutor(Looper looper) {
+            this.mHandler = new Handler(looper);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    }
+
+    /** copy-on-write array of registrations so dispatch doesn't need locks or iterators */
+    private volatile Registration[] mRegistrations = new Registration[0];
+
+    /**
+     * Adds a listener
+     * @param listener listener to call
+     * @param executor where to run callbacks or null to call directly
+     */
+    synchronized void add(DDPStateListener listener, Executor executor) {
+        Registration[] regs = new Registration[mRegistrations.length + 1];
+        System.arraycopy(mRegistrations, 0, regs, 0, mRegistrations.length);
+        regs[mRegistrations.length] = new Registration(listener, executor);
+        mRegistrations = regs;
+    }
+
+    /**
+     * Removes a listener
+     * @param listener listener to remove
+     * @return true if it was registered
+     */
+    synchronized boolean remove(DDPStateListener listener) {
+        for (int i = 0; i < mRegistrations.length; i++) {
+            if (mRegistrations[i].listener == listener) {
+                Registration[] regs = new Registration[mRegistrations.length - 1];
+                System.arraycopy(mRegistrations, 0, regs, 0, i);
+                System.arraycopy(mRegistrations, i + 1, regs, i, regs.length - i);
+                mRegistrations = regs;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether there are any listeners to dispatch to
+     * @return true if no listeners
+     */
+    boolean isEmpty() {
+        return mRegistrations.length == 0;
+    }
+
+    void connectionState(final DDPSTATE state) {
+        for (final Registration reg : mRegistrations) {
+            if (reg.executor == null) {
+                reg.listener.onConnectionState(state);
+            } else {
+                reg.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        reg.listener.onConnectionState(state);
+                    }
+                });
+            }
+        }
+    }
+
+    void error(final String errorMsg) {
+        for (final Registration reg : mRegistrations) {
+            if (reg.executor == null) {
+                reg.listener.onError(errorMsg);
+            } else {
+                reg.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        reg.listener.onError(errorMsg);
+                    }
+                });
+            }
+        }
+    }
+
+    void docAdded(final String collName, final String docId, Map<String, Object> fields) {
+        final Map<String, Object> addedFields = (fields != null) ? fields
+                : Collections.<String, Object>emptyMap();
+        for (final Registration reg : mRegistrations) {
+            if (reg.executor == null) {
+                reg.listener.onDocAdded(collName, docId, addedFields);
+            } else {
+                reg.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        reg.listener.onDocAdded(collName, docId, addedFields);
+                    }
+                });
+            }
+        }
+    }
+
+    void docChanged(final String collName, final String docId, final DocumentDelta delta) {
+        for (final Registration reg : mRegistrations) {
+            if (reg.executor == null) {
+                reg.listener.onDocChanged(collName, docId, delta);
+            } else {
+                reg.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        reg.listener.onDocChanged(collName, docId, delta);
+                    }
+                });
+            }
+        }
+    }
+
+    void docRemoved(final String collName, final String docId) {
+        for (final Registration reg : mRegistrations) {
+            if (reg.executor == null) {
+                reg.listener.onDocRemoved(collName, docId);
+            } else {
+                reg.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        reg.listener.onDocRemoved(collName, docId);
+                    }
+                });
+            }
+        }
+    }
+
+    void subscriptionReady(final String subscriptionName, final int subscriptionId) {
+        for (final Registration reg : mRegistrations) {
+            if (reg.executor == null) {
+                reg.listener.onSubscriptionReady(subscriptionName, subscriptionId);
+            } else {
+                reg.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        reg.listener.onSubscriptionReady(subscriptionName, subscriptionId);
+                    }
+                });
+            }
+        }
+    }
+
+    void subscriptionBatch(final SubscriptionChangeBatch batch) {
+        for (final Registration reg : mRegistrations) {
+            if (reg.executor == null) {
+                reg.listener.onSubscriptionBatch(batch);
+            } else {
+                reg.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        reg.listener.onSubscriptionBatch(batch);
+                    }
+                });
+            }
+        }
+    }
+}
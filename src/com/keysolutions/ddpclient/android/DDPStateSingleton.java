@@ -16,10 +16,14 @@
 
 package com.keysolutions.ddpclient.android;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
 import android.os.Build;
+import android.os.Looper;
 import android.support.v4.BuildConfig;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Base64;
@@ -49,7 +53,16 @@ import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -70,6 +83,7 @@ public class DDPStateSingleton extends MeteorAuthCommands
     public static final String MESSAGE_METHODRESUlT         = "ddpclient.METHODRESULT";
     public static final String MESSAGE_LOGINERROR           = "ddpclient.LOGINERROR";
     public static final String MESSAGE_SUBUPDATED           = "ddpclient.SUBUPDATED";
+    public static final String MESSAGE_SUBBATCH             = "ddpclient.SUBBATCH";
     public static final String MESSAGE_EXTRA_MSG            = "ddpclient.REASON";
     public static final String MESSAGE_EXTRA_STATE          = "ddpclient.STATE";
     public static final String MESSAGE_EXTRA_RESULT         = "ddpclient.RESULT";
@@ -77,8 +91,15 @@ public class DDPStateSingleton extends MeteorAuthCommands
     public static final String MESSAGE_EXTRA_USERID         = "ddpclient.USERID";
     public static final String MESSAGE_EXTRA_USERTOKEN      = "ddpclient.USERTOKEN";
     public static final String MESSAGE_EXTRA_SUBNAME        = "ddpclient.SUBNAME";
+    public static final String MESSAGE_EXTRA_SUBID          = "ddpclient.SUBID";
+    public static final String MESSAGE_EXTRA_COLLNAME       = "ddpclient.COLLNAME";
     public static final String MESSAGE_EXTRA_CHANGETYPE     = "ddpclient.CHANGETYPE";
     public static final String MESSAGE_EXTRA_CHANGEID       = "ddpclient.CHANGEID";
+    public static final String MESSAGE_EXTRA_CHANGEDFIELDS  = "ddpclient.CHANGEDFIELDS";
+    public static final String MESSAGE_EXTRA_CLEAREDFIELDS  = "ddpclient.CLEAREDFIELDS";
+    public static final String MESSAGE_EXTRA_ADDEDIDS       = "ddpclient.ADDEDIDS";
+    public static final String MESSAGE_EXTRA_CHANGEDIDS     = "ddpclient.CHANGEDIDS";
+    public static final String MESSAGE_EXTRA_REMOVEDIDS     = "ddpclient.REMOVEDIDS";
     // method ID for login
     public static final String METHODID_LOGIN = "login1";
     // resumetoken pref key
@@ -121,20 +142,234 @@ public class DDPStateSingleton extends MeteorAuthCommands
     /** stores user ID on login */
     private String mUserId;
 
-    /** stores subscription tracking IDs **/
-    private ConcurrentHashMap<String, Boolean> subscriptionsAreReady
+    /** default delay before the first reconnect attempt */
+    public static final long DEFAULT_RECONNECT_INITIAL_DELAY = 1000;
+    /** default longest delay between reconnect attempts */
+    public static final long DEFAULT_RECONNECT_MAX_DELAY = 60000;
+
+    /** subscriptions to re-issue after a reconnect */
+    private final List<SubscriptionState> mSubscriptions = new CopyOnWriteArrayList<>();
+
+    /** { name+params, subscription } so identical subscriptions are shared */
+    private final Map<String, SubscriptionState> mSubscriptionsByKey = new HashMap<>();
+
+    /** delays between reconnect attempts */
+    private final ReconnectBackoff mReconnectBackoff = new ReconnectBackoff(
+            DEFAULT_RECONNECT_INITIAL_DELAY, DEFAULT_RECONNECT_MAX_DELAY);
+
+    /** whether to reconnect automatically when the connection closes */
+    private volatile boolean mAutoReconnect = true;
+
+    /** set by disconnect() so we don't reopen a connection the app closed */
+    private volatile boolean mDisconnectRequested = false;
+
+    /** whether to log back in w/ the resume token once we've reconnected */
+    private volatile boolean mResumeLoginPending = false;
+
+    /** whether to reconcile cached docs w/ what the server replays after a reconnect */
+    private volatile boolean mReconcileOnReconnect = true;
+
+    /** cached docs that haven't been replayed since the last reconnect */
+    private final ResyncTracker mResync = new ResyncTracker();
+
+    /**
+     * docs loaded from disk that haven't been replayed since the app started;
+     * each collection is reconciled once the subscriptions that list it are ready
+     */
+    private final ResyncTracker mColdResync = new ResyncTracker();
+
+    /** names of collections we've received docs for */
+    private final Set<String> mCollectionNames
+            = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** guards reconnect scheduling and the connectivity receiver */
+    private final Object mReconnectLock = new Object();
+
+    /** runs delayed reconnect attempts; created on first use */
+    private ScheduledExecutorService mReconnectTimer;
+
+    /** next reconnect attempt or null if none is scheduled */
+    private ScheduledFuture<?> mPendingReconnect;
+
+    /** listens for the network coming back so we can skip the rest of the backoff */
+    private BroadcastReceiver mConnectivityReceiver;
+
+    /** makes a reconnect attempt */
+    private final Runnable mReconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mReconnectLock) {
+                mPendingReconnect = null;
+            }
+            if (!mDisconnectRequested) {
+                connectIfNeeded();
+            }
+        }
+    };
+
+    /** { subscription ID, subscription } for subscriptions on the current connection */
+    private final ConcurrentHashMap<Integer, SubscriptionState> mSubscriptionsById
             = new ConcurrentHashMap<>();
+
+    /** guards subscription ready flags and mUnreadyCount */
+    private final Object mReadyLock = new Object();
+
+    /** number of active subscriptions that haven't sent "ready" yet */
+    private volatile int mUnreadyCount = 0;
+
+    /** callbacks waiting for subscriptions to be ready */
+    private final List<ReadyWaiter> mReadyWaiters = new CopyOnWriteArrayList<>();
+
+    /** a callback waiting for subscriptions to be ready */
+    private static class ReadyWaiter {
+        /** subscriptions to wait for or null for all of them */
+        final SubscriptionState[] subs;
+        final Runnable action;
+        /** null to run action directly */
+        final Executor executor;
+
+        ReadyWaiter(SubscriptionState[] subs, Runnable action, Executor executor) {
+            this.subs = subs;
+            this.action = action;
+            this.executor = executor;
+        }
+    }
     
-    /** internal storage for collections */
-    // { collectionName,
-    //  { docId, {
-    //              {fieldName1, fieldValue1},
-    //              {fieldName2, fieldValue2},
-    //           }
-    //  }
-    // }
-    private final Map<String, Map<String, Map<String,Object>>> mCollections
-            = new ConcurrentHashMap<>();
+    /** storage for collections (in memory unless replaced w/ setStorage) */
+    private volatile DDPStateStorage mStorage = new MemoryStateStorage();
+
+    /** secondary indexes on collection fields */
+    private final CollectionIndexes mIndexes = new CollectionIndexes();
+
+    /** default number of changes kept per collection for getChangesSince() */
+    public static final int DEFAULT_CHANGE_HISTORY_SIZE = 1000;
+
+    /** { collectionName, recent changes w/ sequence numbers } */
+    private final Map<String, ChangeLog> mChangeLogs = new ConcurrentHashMap<>();
+
+    /** number of changes kept per collection */
+    private volatile int mChangeHistorySize = DEFAULT_CHANGE_HISTORY_SIZE;
+
+    /** observed queries that are kept up to date as documents change */
+    private final LiveQueries mLiveQueries = new LiveQueries();
+
+    /** typed listeners that get called directly w/o going through Intents */
+    private final DDPStateListeners mListeners = new DDPStateListeners();
+
+    /** whether the default broadcast methods send LocalBroadcastManager Intents */
+    private volatile boolean mLocalBroadcastsEnabled = true;
+
+    /**
+     * extras the default broadcastSubscriptionChanged() adds to its Intent
+     * when it's called from one of the more specific broadcast methods
+     */
+    private final ThreadLocal<Intent> mBroadcastExtras = new ThreadLocal<Intent>();
+
+    /** whether change deltas include the field values from before the change */
+    private volatile boolean mTrackPreviousValues = false;
+
+    /** coalesces subscription changes when batching is enabled; null otherwise */
+    private volatile SubscriptionChangeBatcher mChangeBatcher;
+
+    /** what to do when the message pipeline's queue for a collection is full */
+    public enum PipelineOverflow {
+        /** make the websocket thread wait for room */
+        BLOCK,
+        /**
+         * drop messages, reconnect and reconcile the cache w/ the server's replay;
+         * waits like BLOCK (and reports an error) if auto-reconnect is off
+         */
+        RESYNC,
+    }
+
+    /** applies doc messages on worker threads when enabled; null otherwise */
+    private volatile MessagePipeline mPipeline;
+
+    /** set when the pipeline overflowed so doc messages are dropped until the connection closes */
+    private volatile boolean mDroppingMessages = false;
+
+    /** set once a full pipeline has been reported as an error on this connection */
+    private volatile boolean mOverflowReported = false;
+
+    /** set when cached docs have to be reconciled on the next reconnect even if reconciliation is off */
+    private volatile boolean mForceResync = false;
+
+    /** set until the first connection, when docs cached on disk get reconciled */
+    private volatile boolean mColdStart = true;
+
+    /** counters and latency histograms when metrics are on; null otherwise */
+    private volatile DDPMetrics mMetrics;
+
+    /** guards turning metrics on/off and the metrics listener */
+    private final Object mMetricsLock = new Object();
+
+    /** default time a callAsync() call waits for its result */
+    public static final long DEFAULT_METHOD_TIMEOUT = 30000;
+
+    /** sends callAsync() calls w/ a limited number in flight */
+    private final MethodCallQueue mMethodCalls = new MethodCallQueue(this);
+
+    /** time a callAsync() call waits for its result if it doesn't say otherwise */
+    private volatile long mDefaultMethodTimeout = DEFAULT_METHOD_TIMEOUT;
+
+    /** journals and sends callDurable() calls; null when durable calls are off */
+    private volatile DurableCallQueue mDurableCalls;
+
+    /** max callDurable() calls waiting for results at once */
+    private volatile int mDurableCallBatchSize = DurableCallQueue.DEFAULT_BATCH_SIZE;
+
+    /** gets the outcome of every callDurable() call */
+    private volatile DurableCallListener mDurableCallListener;
+
+    /** where to run the durable call listener (null to call it directly) */
+    private volatile Executor mDurableCallExecutor;
+
+    /** server copies of docs w/ callOptimistic() writes pending */
+    private final OptimisticWrites mOptimistic = new OptimisticWrites();
+
+    /**
+     * held while a message is applied when the pipeline is off, so local writes
+     * and rollbacks from other threads don't interleave w/ it
+     */
+    private final Object mApplyLock = new Object();
+
+    /**
+     * Method call w/ a local write that's rolled back if the call fails or is cancelled
+     */
+    private class OptimisticCall extends MethodCall {
+        OptimisticCall(String method, Object[] params, long timeoutMillis, boolean retryOnReconnect) {
+            super(method, params, timeoutMillis, retryOnReconnect);
+        }
+
+        @Override
+        void finished() {
+            // a successful call's write ends w/ the "updated" message
+            if (getError() != null) {
+                rollBack();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            rollBack();
+            return true;
+        }
+
+        /**
+         * Puts the server's copies of the docs back once queued doc messages are applied
+         */
+        private void rollBack() {
+            runAfterQueuedMessages(new Runnable() {
+                @Override
+                public void run() {
+                    settleLocalWrite(OptimisticCall.this);
+                }
+            });
+        }
+    }
     
     /** Google GSON object for parsing JSON */
     protected final Gson mGSON = new Gson();
@@ -283,6 +518,10 @@ public class DDPStateSingleton extends MeteorAuthCommands
      * Creates a new DDP websocket client (needed for reconnect because we can't reuse it)
      */
     protected void createDDPClient() {
+        if (mDDP != null) {
+            // don't let a dead connection's late messages confuse us
+            mDDP.deleteObserver(this);
+        }
         try {
             if (mTrustManagers != null) {
                 mDDP = new DDPClient(getServerHostname(), getServerPort(), mTrustManagers);
@@ -322,6 +561,8 @@ public class DDPStateSingleton extends MeteorAuthCommands
      * @return true if connect was issue, otherwise false
      */
     public boolean connectIfNeeded() {
+        mDisconnectRequested = false;
+        cancelReconnect();
         if (getDDP().getState() == CONNSTATE.Disconnected) {
             // make connection to Meteor server
             getDDP().connect();
@@ -334,6 +575,209 @@ public class DDPStateSingleton extends MeteorAuthCommands
         return false;
     }
     
+    /**
+     * Closes the connection and stops any automatic reconnects until
+     * connectIfNeeded() is called again
+     */
+    public void disconnect() {
+        mDisconnectRequested = true;
+        cancelReconnect();
+        if (isConnected()) {
+            getDDP().disconnect();
+        }
+    }
+
+    /**
+     * Turns automatic reconnects on or off (on by default).
+     * When on, a closed connection is reopened after an exponential backoff
+     * w/ jitter, the user is logged back in w/ the resume token if they were
+     * logged in, and all subscriptions are re-sent w/ their original params.
+     * @param autoReconnect true to reconnect automatically
+     */
+    public void setAutoReconnect(boolean autoReconnect) {
+        mAutoReconnect = autoReconnect;
+        if (!autoReconnect) {
+            cancelReconnect();
+        }
+    }
+
+    /**
+     * Whether automatic reconnects are on
+     * @return true if reconnecting automatically
+     */
+    public boolean isAutoReconnectEnabled() {
+        return mAutoReconnect;
+    }
+
+    /**
+     * Sets the reconnect backoff.  Each attempt waits a random time between half
+     * and all of initialDelay * 2^attempt, capped at maxDelay.
+     * @param initialDelayMillis delay before first reconnect attempt
+     * @param maxDelayMillis longest delay between attempts
+     */
+    public void setReconnectBackoff(long initialDelayMillis, long maxDelayMillis) {
+        mReconnectBackoff.setDelays(initialDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * Tells us the network is back so a waiting reconnect happens right away
+     * instead of at the end of its backoff.  Called by the connectivity receiver
+     * (see registerConnectivityReceiver) or call it yourself if you track
+     * connectivity some other way.
+     */
+    public void onNetworkAvailable() {
+        synchronized (mReconnectLock) {
+            if (mPendingReconnect == null) {
+                return;
+            }
+            mPendingReconnect.cancel(false);
+            mPendingReconnect = null;
+            mReconnectBackoff.reset();
+            mReconnectTimer.execute(mReconnectTask);
+        }
+        if (BuildConfig.DEBUG) {
+            log.debug("Network available, reconnecting now");
+        }
+    }
+
+    /**
+     * Starts listening for connectivity changes so reconnects happen as soon
+     * as the network comes back
+     */
+    public void registerConnectivityReceiver() {
+        synchronized (mReconnectLock) {
+            if (mConnectivityReceiver != null) {
+                return;
+            }
+            mConnectivityReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    if (!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+                        onNetworkAvailable();
+                    }
+                }
+            };
+            mContext.getApplicationContext().registerReceiver(mConnectivityReceiver,
+                    new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    /**
+     * Stops listening for connectivity changes
+     */
+    public void unregisterConnectivityReceiver() {
+        synchronized (mReconnectLock) {
+            if (mConnectivityReceiver != null) {
+                mContext.getApplicationContext().unregisterReceiver(mConnectivityReceiver);
+                mConnectivityReceiver = null;
+            }
+        }
+    }
+
+    /**
+     * Schedules the next reconnect attempt if automatic reconnects are on
+     */
+    private void scheduleReconnect() {
+        if (!mAutoReconnect || mDisconnectRequested) {
+            return;
+        }
+        synchronized (mReconnectLock) {
+            if (mPendingReconnect != null) {
+                return;
+            }
+            if (mReconnectTimer == null) {
+                mReconnectTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ddp-reconnect");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            long delay = mReconnectBackoff.nextDelay();
+            mPendingReconnect = mReconnectTimer.schedule(mReconnectTask, delay, TimeUnit.MILLISECONDS);
+            log.info("Reconnecting in " + delay + "ms (attempt " + mReconnectBackoff.getAttempt() + ")");
+        }
+    }
+
+    /**
+     * Cancels a scheduled reconnect attempt
+     */
+    private void cancelReconnect() {
+        synchronized (mReconnectLock) {
+            if (mPendingReconnect != null) {
+                mPendingReconnect.cancel(false);
+                mPendingReconnect = null;
+            }
+        }
+    }
+
+    /**
+     * Logs back in and re-sends subscriptions after a reconnect
+     */
+    private void restoreSession() {
+        String token = (mResumeToken != null) ? mResumeToken : getResumeToken();
+        if (mResumeLoginPending && token != null) {
+            mResumeLoginPending = false;
+            Map<String, Object> resume = new HashMap<>();
+            resume.put("resume", token);
+            call("login", new Object[] { resume }, new DDPListener() {
+                @Override
+                public void onResult(Map<String, Object> jsonFields) {
+                    handleLoginResult(jsonFields);
+                }
+            });
+        }
+        if (mColdStart) {
+            mColdStart = false;
+            // docs cached on disk may have been removed while the app wasn't running
+            if (mReconcileOnReconnect) {
+                beginColdResync();
+            }
+        }
+        DDPClient ddp = getDDP();
+        List<SubscriptionState> resubscribe = new ArrayList<>();
+        for (SubscriptionState sub : mSubscriptions) {
+            if (sub.client != ddp) {
+                resubscribe.add(sub);
+            }
+        }
+        if (resubscribe.isEmpty()) {
+            return;
+        }
+        if (mReconcileOnReconnect || mForceResync) {
+            mForceResync = false;
+            beginResync();
+        }
+        for (SubscriptionState sub : resubscribe) {
+            if (BuildConfig.DEBUG) {
+                log.debug("Resubscribing to " + sub.name);
+            }
+            startSubscription(sub);
+        }
+    }
+
+    /**
+     * Starts tracking which docs loaded from disk the server replays
+     */
+    private void beginColdResync() {
+        DDPStateStorage storage = mStorage;
+        if (!(storage instanceof SQLiteStateStorage)) {
+            return;
+        }
+        Map<String, Map<String, Map<String, Object>>> collections = new HashMap<>();
+        for (String collName : ((SQLiteStateStorage) storage).getCachedCollectionNames()) {
+            Map<String, Map<String, Object>> collection = storage.getCollection(collName);
+            if (collection != null && !collection.isEmpty()) {
+                collections.put(collName, collection);
+            }
+        }
+        if (!collections.isEmpty()) {
+            mColdResync.begin(ResyncTracker.snapshot(collections));
+        }
+    }
+
     /**
      * Whether we're connected to server
      * @return true if connected, false otherwise
@@ -355,10 +799,12 @@ public class DDPStateSingleton extends MeteorAuthCommands
      * Logs out from server and removes the resume token
      */
     public void logout() {
+        mResumeLoginPending = false;
         saveResumeToken(null);
         mDDPState = DDPSTATE.NotLoggedIn;
         mUserId = null;
-        broadcastConnectionState(mDDPState);
+        stopDurableCallsForLogout();
+        notifyConnectionState(mDDPState);
     }
     
     /**
@@ -395,11 +841,15 @@ public class DDPStateSingleton extends MeteorAuthCommands
             saveResumeToken(mResumeToken);
             mUserId = (String) result.get("id");
             mDDPState = DDPSTATE.LoggedIn;
-            broadcastConnectionState(mDDPState);
+            notifyConnectionState(mDDPState);
+            DurableCallQueue durableCalls = mDurableCalls;
+            if (durableCalls != null) {
+                durableCalls.start();
+            }
         } else if (jsonFields.containsKey("error")) {
             Map<String, Object> error = (Map<String, Object>) jsonFields
                     .get(DdpMessageField.ERROR);
-            broadcastDDPError((String) error.get("message"));
+            notifyDDPError((String) error.get("message"));
         }
     }
 
@@ -407,11 +857,13 @@ public class DDPStateSingleton extends MeteorAuthCommands
         if (jsonFields.containsKey("error")) {
             Map<String, Object> error = (Map<String, Object>) jsonFields
                     .get(DdpMessageField.ERROR);
-            broadcastDDPError((String) error.get("message"));
+            notifyDDPError((String) error.get("message"));
         } else {
+            mResumeLoginPending = false;
             saveResumeToken(null);
             mDDPState = DDPSTATE.NotLoggedIn;
-            broadcastConnectionState(mDDPState);
+            stopDurableCallsForLogout();
+            notifyConnectionState(mDDPState);
         }
     }
 
@@ -447,7 +899,7 @@ public class DDPStateSingleton extends MeteorAuthCommands
                     Object[] methodArgs = new Object[1];
                     methodArgs[0] = options;
 
-                    getDDP().call("login", methodArgs, new DDPListener() {
+                    call("login", methodArgs, new DDPListener() {
                         @Override
                         public void onResult(Map<String, Object> jsonFields) {
                             if (BuildConfig.DEBUG) {
@@ -530,21 +982,154 @@ public class DDPStateSingleton extends MeteorAuthCommands
      * @param params parameters for subscription function (e.g., doc ID, etc.)
      * @return subscription ID
      */
-    public int subscribe(final String subscriptionName, Object[] params) {
-        // add the subscription to the HashMap with its initial value "false" which says that it is not ready
-        subscriptionsAreReady.put(subscriptionName, false);
+    public int subscribe(String subscriptionName, Object[] params) {
+        return subscribeHandle(subscriptionName, params).getSubscriptionId();
+    }
+
+    /**
+     * Subscribes to specified subscription and returns a handle for unsubscribing.
+     * Subscribing w/ the same name and params as an active subscription shares it
+     * (and its subscription ID) instead of sending another sub message; the
+     * server subscription is stopped once every handle has been stopped.
+     * If you list the collections the publication sends docs to, those docs are
+     * also dropped from the local cache when the last handle is stopped while
+     * we're offline (when online, the server sends "removed" for them), and docs
+     * in them that were loaded from disk are reconciled once it's ready.
+     * @param subscriptionName name of subscription
+     * @param params parameters for subscription function (e.g., doc ID, etc.)
+     * @param collections collections the publication sends docs to (optional)
+     * @return subscription handle
+     */
+    public SubscriptionHandle subscribeHandle(String subscriptionName, Object[] params,
+            String... collections) {
+        String key = subscriptionName + mGSON.toJson(params);
+        SubscriptionState sub;
+        synchronized (mSubscriptionsByKey) {
+            sub = mSubscriptionsByKey.get(key);
+            if (sub == null) {
+                sub = new SubscriptionState(subscriptionName, params, key, collections);
+                synchronized (mReadyLock) {
+                    mUnreadyCount++;
+                }
+                mSubscriptionsByKey.put(key, sub);
+                mSubscriptions.add(sub);
+                // sent while holding the lock so a handle sharing it always sees its ID
+                startSubscription(sub);
+            } else if (BuildConfig.DEBUG) {
+                log.debug("Sharing existing subscription " + subscriptionName);
+            }
+            sub.refCount++;
+        }
+        return new SubscriptionHandle(this, sub);
+    }
+
+    /**
+     * Releases one subscribe() call's hold on a subscription; it's stopped
+     * once nothing else is holding it
+     * @param subscriptionId subscription ID returned by subscribe()
+     * @return true if subscription was found
+     */
+    public boolean unsubscribe(int subscriptionId) {
+        for (SubscriptionState sub : mSubscriptions) {
+            if (sub.subId == subscriptionId && sub.client == getDDP()) {
+                releaseSubscription(sub);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops a reference to a subscription and stops it if it was the last one
+     * @param sub subscription to release
+     */
+    void releaseSubscription(SubscriptionState sub) {
+        synchronized (mSubscriptionsByKey) {
+            if (sub.stopped || --sub.refCount > 0) {
+                return;
+            }
+            sub.stopped = true;
+            mSubscriptionsByKey.remove(sub.key);
+            mSubscriptions.remove(sub);
+        }
+        synchronized (mReadyLock) {
+            if (!sub.ready) {
+                mUnreadyCount--;
+            }
+        }
+        mSubscriptionsById.remove(sub.subId, sub);
+        if (sub.client == getDDP() && isConnected()) {
+            // server's merge box sends "removed" for docs no other subscription publishes
+            getDDP().unsubscribe(sub.subId);
+        } else {
+            evictUnownedDocs(sub);
+        }
+        if (BuildConfig.DEBUG) {
+            log.debug("Unsubscribed from " + sub.name);
+        }
+        // a resync or waiters might have been waiting on this one
+        finishResyncIfReady();
+        finishColdResyncIfReady();
+        checkReadyWaiters();
+    }
+
+    /**
+     * Removes cached docs in a stopped subscription's collections if no
+     * remaining subscription was declared to send docs to them (a remaining
+     * subscription w/o declared collections keeps them all)
+     * @param stopped subscription that was stopped
+     */
+    private void evictUnownedDocs(SubscriptionState stopped) {
+        for (String collName : stopped.collections) {
+            boolean owned = false;
+            for (SubscriptionState sub : mSubscriptions) {
+                owned |= sub.ownsCollection(collName);
+            }
+            Map<String, Map<String, Object>> collection = getCollection(collName);
+            if (owned || collection == null) {
+                continue;
+            }
+            List<String> docIds = new ArrayList<>(collection.keySet());
+            for (String docId : docIds) {
+                handleRemoved(collName, docId);
+            }
+            log.info("Evicted " + docIds.size() + " docs from " + collName
+                    + " after unsubscribing from " + stopped.name);
+        }
+    }
+
+    /**
+     * Sends a subscription on the current connection
+     * @param sub subscription to send
+     * @return subscription ID
+     */
+    private int startSubscription(final SubscriptionState sub) {
+        final String subscriptionName = sub.name;
+        // mark it not ready until the server says it is (again, if resubscribing)
+        synchronized (mReadyLock) {
+            if (sub.ready) {
+                sub.ready = false;
+                mUnreadyCount++;
+            }
+        }
+        if (sub.client != null) {
+            mSubscriptionsById.remove(sub.subId, sub);
+        }
         
         // subscribe to a Meteor collection with given params
         // test error handling for invalid subscription
-        return getDDP().subscribe(subscriptionName, params, new DDPListener() {
+        final DDPClient ddp = getDDP();
+        sub.client = ddp;
+        sub.subId = ddp.subscribe(subscriptionName, sub.params, new DDPListener() {
             @Override
             public void onReady(String id) {
-                // mark subscription ready
-                subscriptionsAreReady.replace(subscriptionName, true);
-
-                // broadcast that subscription has been updated
-                broadcastSubscriptionChanged(subscriptionName,
-                        DdpMessageType.READY, null);
+                // docs sent before ready may still be queued
+                runAfterQueuedMessages(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleReady(sub, ddp);
+                    }
+                });
             }
 
             @Override
@@ -553,11 +1138,45 @@ public class DDPStateSingleton extends MeteorAuthCommands
                         .get(DdpMessageField.MSG);
                 // ignore {"server_id":"GqrKrbcSeDfTYDkzQ"} web socket msgs
                 if ((msgtype != null) && (msgtype.equals(DdpMessageType.ERROR))) {
-                    broadcastDDPError((String) jsonFields
+                    notifyDDPError((String) jsonFields
                             .get(DdpMessageField.ERRORMSG));
                 }
             }
         });
+        mSubscriptionsById.put(sub.subId, sub);
+        return sub.subId;
+    }
+
+    /**
+     * Marks a subscription ready and sends out notifications
+     * @param sub subscription the server said is ready
+     * @param client connection the ready message came in on
+     */
+    private void handleReady(SubscriptionState sub, DDPClient client) {
+        String subscriptionName = sub.name;
+        // mark subscription ready
+        synchronized (mReadyLock) {
+            if (sub.stopped || sub.ready || sub.client != client) {
+                // stopped or resubscribed since
+                return;
+            }
+            sub.ready = true;
+            mUnreadyCount--;
+        }
+
+        // drop cached docs the server didn't replay if this was the last
+        // subscription we were waiting on after a reconnect
+        finishResyncIfReady();
+        finishColdResyncIfReady();
+
+        // make sure receivers have seen all the docs before they hear about ready
+        flushSubscriptionChanges();
+
+        // broadcast that subscription has been updated
+        countBroadcast(MetricsSnapshot.BROADCAST_READY);
+        mListeners.subscriptionReady(subscriptionName, sub.subId);
+        broadcastSubscriptionReady(subscriptionName, sub.subId);
+        checkReadyWaiters();
     }
     
     /**
@@ -569,109 +1188,1213 @@ public class DDPStateSingleton extends MeteorAuthCommands
      *         subscriptions aren't ready
      */
     public boolean areAllSubscriptionsReady() {
-        return !(subscriptionsAreReady.containsValue(false));
+        return mUnreadyCount == 0;
     }
 
     /**
-     * Used to notify event system of connection events.
-     * Default behavior uses Android's LocalBroadcastManager.
-     * Override if you want to use a different eventbus.
-     * @param ddpstate current DDP state
+     * Checks whether a subscription has sent its "ready" message
+     * @param subscriptionId subscription ID from subscribe()/SubscriptionHandle
+     *        on the current connection
+     * @return true if ready, false if not ready yet
+     * @throws IllegalArgumentException if it isn't an active subscription on the
+     *         current connection (IDs change when resubscribed after a reconnect)
      */
-    public void broadcastConnectionState(DDPSTATE ddpstate) {
-        Intent broadcastIntent = new Intent();
-        broadcastIntent.setAction(MESSAGE_CONNECTION);
-        broadcastIntent.putExtra(MESSAGE_EXTRA_STATE, ddpstate.ordinal());
-        broadcastIntent.putExtra(MESSAGE_EXTRA_USERID, mUserId);
-        broadcastIntent.putExtra(MESSAGE_EXTRA_USERTOKEN, mResumeToken);
-        LocalBroadcastManager.getInstance(mContext)
-                .sendBroadcast(broadcastIntent);
+    public boolean isSubscriptionReady(int subscriptionId) {
+        return getSubscriptionState(subscriptionId).ready;
     }
 
     /**
-     * Used to notify event system of error events.
-     * Default behavior uses Android's LocalBroadcastManager.
-     * Override if you want to use a different eventbus.
-     * @param errorMsg error message
+     * Checks whether a subscription has sent its "ready" message
+     * (unlike its ID, a handle stays valid across reconnects)
+     * @param handle subscription handle from subscribeHandle()
+     * @return true if ready, false if not ready yet or stopped
      */
-    public void broadcastDDPError(String errorMsg) {
-        // let core know there was an error subscribing to a collection
-        Intent broadcastIntent = new Intent();
-        broadcastIntent.setAction(MESSAGE_ERROR);
-        broadcastIntent.putExtra(MESSAGE_EXTRA_MSG, errorMsg);
-        LocalBroadcastManager.getInstance(mContext)
-                .sendBroadcast(broadcastIntent);
+    public boolean isSubscriptionReady(SubscriptionHandle handle) {
+        return handle.isReady();
     }
 
     /**
-     * Used to notify event system of subscription change events.
-     * Default behavior uses Android's LocalBroadcastManager.
-     * Override if you want to use a different eventbus.
-     * @param subscriptionName subscription name (this can be different from collection name)
-     * @param changetype "change", "add" or "remove"
-     * @param docId document ID of change/remove or null if add
+     * Runs an action once the given subscriptions are ready (right away if they
+     * already are), e.g., to leave a splash screen w/o polling.
+     * Subscriptions that get stopped while waiting count as ready.
+     * @param action action to run
+     * @param executor where to run it or null to run it on the thread that
+     *        delivers the last "ready"
+     * @param subscriptionIds subscriptions on the current connection to wait for
+     *        (none for all active subscriptions)
+     * @throws IllegalArgumentException if one isn't an active subscription on
+     *         the current connection
      */
-    public void broadcastSubscriptionChanged(String subscriptionName,
-            String changetype, String docId) {
-        Intent broadcastIntent = new Intent();
-        broadcastIntent.setAction(MESSAGE_SUBUPDATED);
-        broadcastIntent.putExtra(MESSAGE_EXTRA_SUBNAME, subscriptionName);
-        broadcastIntent.putExtra(MESSAGE_EXTRA_CHANGETYPE, changetype);
-        broadcastIntent.putExtra(MESSAGE_EXTRA_CHANGEID, docId);        
-        LocalBroadcastManager.getInstance(mContext)
-                .sendBroadcast(broadcastIntent);
+    public void whenSubscriptionsReady(Runnable action, Executor executor, int... subscriptionIds) {
+        addReadyWaiter(action, executor, getSubscriptionStates(subscriptionIds));
     }
 
     /**
-     * handles callbacks from DDP client websocket callbacks
+     * Runs an action on a Looper's thread once the given subscriptions are ready
+     * @param action action to run
+     * @param looper looper to run it on (e.g., Looper.getMainLooper())
+     * @param subscriptionIds subscriptions on the current connection to wait for
+     *        (none for all active subscriptions)
+     * @throws IllegalArgumentException if one isn't an active subscription on
+     *         the current connection
      */
-    @SuppressWarnings("unchecked")
-    @Override
-    public void update(Observable client, Object msg) {
-        // handle subscription updates and othre messages that aren't associated
-        // w/ a specific command
-        if (msg instanceof Map<?, ?>) {
-            Map<String, Object> jsonFields = (Map<String, Object>) msg;
-            // handle msg types for DDP server->client msgs:
-            // https://github.com/meteor/meteor/blob/master/packages/livedata/DDP.md
-            String msgtype = (String) jsonFields
-                    .get(DDPClient.DdpMessageField.MSG);
-            String collName = (String) jsonFields.get(DdpMessageField.COLLECTION);
-            String docId = (String) jsonFields.get(DdpMessageField.ID);
-
-            // ignore {"server_id":"GqrKrbcSeDfTYDkzQ"} web socket msgs
-            if (msgtype != null) {
-                switch (msgtype) {
-                    case DdpMessageType.ERROR:
-                        broadcastDDPError((String) jsonFields.get(DdpMessageField.ERRORMSG));
-                        break;
-                    case DdpMessageType.CONNECTED:
-                        mDDPState = DDPSTATE.Connected;
-                        broadcastConnectionState(mDDPState);
+    public void whenSubscriptionsReady(Runnable action, Looper looper, int... subscriptionIds) {
+        addReadyWaiter(action, new DDPStateListeners.LooperExecutor(looper),
+                getSubscriptionStates(subscriptionIds));
+    }
+
+    /**
+     * Runs an action once the given subscriptions are ready, even if they're
+     * resubscribed after a reconnect while waiting
+     * @param action action to run
+     * @param executor where to run it or null to run it on the thread that
+     *        delivers the last "ready"
+     * @param handle subscription to wait for
+     * @param moreHandles other subscriptions to wait for
+     */
+    public void whenSubscriptionsReady(Runnable action, Executor executor,
+            SubscriptionHandle handle, SubscriptionHandle... moreHandles) {
+        addReadyWaiter(action, executor, getSubscriptionStates(handle, moreHandles));
+    }
+
+    /**
+     * Runs an action on a Looper's thread once the given subscriptions are ready,
+     * even if they're resubscribed after a reconnect while waiting
+     * @param action action to run
+     * @param looper looper to run it on (e.g., Looper.getMainLooper())
+     * @param handle subscription to wait for
+     * @param moreHandles other subscriptions to wait for
+     */
+    public void whenSubscriptionsReady(Runnable action, Looper looper,
+            SubscriptionHandle handle, SubscriptionHandle... moreHandles) {
+        addReadyWaiter(action, new DDPStateListeners.LooperExecutor(looper),
+                getSubscriptionStates(handle, moreHandles));
+    }
+
+    /**
+     * Blocks until the given subscriptions are ready.
+     * Don't call this on the UI thread.
+     * @param timeoutMillis how long to wait
+     * @param subscriptionIds subscriptions on the current connection to wait for
+     *        (none for all active subscriptions)
+     * @return true if ready, false if timed out
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalArgumentException if one isn't an active subscription on
+     *         the current connection
+     */
+    public boolean awaitSubscriptionsReady(long timeoutMillis, int... subscriptionIds)
+            throws InterruptedException {
+        return awaitReady(timeoutMillis, getSubscriptionStates(subscriptionIds));
+    }
+
+    /**
+     * Blocks until the given subscriptions are ready, even if they're
+     * resubscribed after a reconnect while waiting.
+     * Don't call this on the UI thread.
+     * @param timeoutMillis how long to wait
+     * @param handle subscription to wait for
+     * @param moreHandles other subscriptions to wait for
+     * @return true if ready, false if timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitSubscriptionsReady(long timeoutMillis, SubscriptionHandle handle,
+            SubscriptionHandle... moreHandles) throws InterruptedException {
+        return awaitReady(timeoutMillis, getSubscriptionStates(handle, moreHandles));
+    }
+
+    /**
+     * Blocks until subscriptions are ready
+     * @param timeoutMillis how long to wait
+     * @param subs subscriptions to wait for or null for all of them
+     * @return true if ready, false if timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean awaitReady(long timeoutMillis, SubscriptionState[] subs)
+            throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ReadyWaiter waiter = addReadyWaiter(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, null, subs);
+        if (latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        mReadyWaiters.remove(waiter);
+        return false;
+    }
+
+    /**
+     * Looks up an active subscription by its ID on the current connection
+     * @param subscriptionId subscription ID
+     * @return subscription
+     * @throws IllegalArgumentException if there's no such subscription
+     */
+    private SubscriptionState getSubscriptionState(int subscriptionId) {
+        SubscriptionState sub = mSubscriptionsById.get(subscriptionId);
+        if (sub == null) {
+            throw new IllegalArgumentException("No active subscription w/ ID " + subscriptionId);
+        }
+        return sub;
+    }
+
+    /**
+     * Looks up active subscriptions by their IDs on the current connection
+     * @param subscriptionIds subscription IDs
+     * @return subscriptions or null if no IDs were given
+     * @throws IllegalArgumentException if one isn't an active subscription
+     */
+    private SubscriptionState[] getSubscriptionStates(int... subscriptionIds) {
+        if (subscriptionIds == null || subscriptionIds.length == 0) {
+            return null;
+        }
+        SubscriptionState[] subs = new SubscriptionState[subscriptionIds.length];
+        for (int i = 0; i < subscriptionIds.length; i++) {
+            subs[i] = getSubscriptionState(subscriptionIds[i]);
+        }
+        return subs;
+    }
+
+    /**
+     * Gets the subscriptions behind handles
+     * @param handle first handle
+     * @param moreHandles other handles
+     * @return subscriptions
+     */
+    private static SubscriptionState[] getSubscriptionStates(SubscriptionHandle handle,
+            SubscriptionHandle... moreHandles) {
+        int more = (moreHandles != null) ? moreHandles.length : 0;
+        SubscriptionState[] subs = new SubscriptionState[1 + more];
+        subs[0] = handle.getState();
+        for (int i = 0; i < more; i++) {
+            subs[i + 1] = moreHandles[i].getState();
+        }
+        return subs;
+    }
+
+    /**
+     * Registers a callback for when subscriptions are ready
+     * @param action action to run
+     * @param executor where to run it or null to run it directly
+     * @param subs subscriptions to wait for or null for all of them
+     * @return waiter that was added
+     */
+    private ReadyWaiter addReadyWaiter(Runnable action, Executor executor, SubscriptionState[] subs) {
+        ReadyWaiter waiter = new ReadyWaiter(subs, action, executor);
+        mReadyWaiters.add(waiter);
+        // in case everything was ready before we were added
+        checkReadyWaiters();
+        return waiter;
+    }
+
+    /**
+     * Runs callbacks whose subscriptions are now all ready
+     */
+    private void checkReadyWaiters() {
+        for (ReadyWaiter waiter : mReadyWaiters) {
+            boolean ready;
+            if (waiter.subs == null) {
+                ready = (mUnreadyCount == 0);
+            } else {
+                ready = true;
+                for (SubscriptionState sub : waiter.subs) {
+                    ready &= (sub.ready || sub.stopped);
+                }
+            }
+            // only the thread that removes it gets to run it
+            if (ready && mReadyWaiters.remove(waiter)) {
+                if (waiter.executor == null) {
+                    waiter.action.run();
+                } else {
+                    waiter.executor.execute(waiter.action);
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns on batching of subscription changes so receivers get one
+     * broadcastSubscriptionBatch() per collection instead of one
+     * broadcastSubscriptionChanged() per document.  This keeps big initial
+     * syncs from flooding the UI thread w/ broadcasts.
+     * Pending changes are also delivered whenever a subscription becomes ready.
+     * @param windowMillis how long to collect changes before delivering them
+     * @param maxChanges number of pending changes that forces delivery (0 for no limit)
+     */
+    public void setSubscriptionBatching(long windowMillis, int maxChanges) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Batch window must be greater than 0");
+        }
+        SubscriptionChangeBatcher oldBatcher = mChangeBatcher;
+        mChangeBatcher = new SubscriptionChangeBatcher(this, windowMillis, maxChanges);
+        if (oldBatcher != null) {
+            oldBatcher.shutdown();
+        }
+    }
+
+    /**
+     * Turns off batching of subscription changes (delivering anything that's pending)
+     * so each document change is broadcast individually again
+     */
+    public void disableSubscriptionBatching() {
+        SubscriptionChangeBatcher oldBatcher = mChangeBatcher;
+        mChangeBatcher = null;
+        if (oldBatcher != null) {
+            oldBatcher.shutdown();
+        }
+    }
+
+    /**
+     * Whether subscription changes are being batched
+     * @return true if batching is on
+     */
+    public boolean isSubscriptionBatchingEnabled() {
+        return mChangeBatcher != null;
+    }
+
+    /**
+     * Delivers any pending batched subscription changes right away
+     */
+    public void flushSubscriptionChanges() {
+        SubscriptionChangeBatcher batcher = mChangeBatcher;
+        if (batcher != null) {
+            batcher.flush();
+        }
+    }
+
+    /**
+     * Moves handling of doc messages off the websocket thread.  Messages are
+     * queued and applied on worker threads, w/ each collection always handled
+     * by the same worker so its messages are applied in order; storage,
+     * indexes, live queries, listeners and broadcasts all run there, after the
+     * message has been applied.  Connection state changes and subscription
+     * readiness wait until the doc messages queued before them have been applied.
+     * Listener and broadcast callbacks that don't have their own executor or
+     * Looper are called on the worker threads.
+     * @param workerThreads number of worker threads (collections are spread across them)
+     * @param queueCapacity max messages waiting per worker
+     * @param overflow what to do when a worker's queue is full
+     */
+    public void setMessagePipeline(int workerThreads, int queueCapacity, PipelineOverflow overflow) {
+        if (workerThreads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Worker threads and queue capacity must be greater than 0");
+        }
+        disableMessagePipeline();
+        mPipeline = new MessagePipeline(workerThreads, queueCapacity,
+                overflow != PipelineOverflow.RESYNC);
+    }
+
+    /**
+     * Turns off the message pipeline, waiting for queued messages to be applied,
+     * so messages are handled on the websocket thread again
+     */
+    public void disableMessagePipeline() {
+        MessagePipeline oldPipeline = mPipeline;
+        if (oldPipeline != null) {
+            oldPipeline.shutdown();
+            mPipeline = null;
+        }
+    }
+
+    /**
+     * Whether doc messages are applied on worker threads
+     * @return true if the message pipeline is on
+     */
+    public boolean isMessagePipelineEnabled() {
+        return mPipeline != null;
+    }
+
+    /**
+     * Gets the number of messages waiting to be applied by the pipeline
+     * @return queued messages (0 if the pipeline is off)
+     */
+    public int getQueuedMessageCount() {
+        MessagePipeline pipeline = mPipeline;
+        return (pipeline != null) ? pipeline.getQueuedCount() : 0;
+    }
+
+    /**
+     * Turns metrics on or off.  While they're on, the time spent applying
+     * each DDP message type, method call round trip times and broadcasts
+     * are counted (see getMetrics); while they're off all that's left on the
+     * message path is a null check.  Turning them off drops the counts and
+     * stops the metrics listener.
+     * @param enabled whether to collect metrics
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        synchronized (mMetricsLock) {
+            DDPMetrics metrics = mMetrics;
+            if (enabled && metrics == null) {
+                mMetrics = new DDPMetrics();
+            } else if (!enabled && metrics != null) {
+                mMetrics = null;
+                metrics.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Whether metrics are being collected
+     * @return true if metrics are on
+     */
+    public boolean isMetricsEnabled() {
+        return mMetrics != null;
+    }
+
+    /**
+     * Gets the metrics collected since they were turned on, along w/ current
+     * collection sizes and queue depths.  Collection sizes are estimated by
+     * walking every doc, so don't call this for every message.
+     * @return metrics snapshot or null if metrics are off
+     */
+    public MetricsSnapshot getMetrics() {
+        DDPMetrics metrics = mMetrics;
+        return (metrics != null) ? snapshotMetrics(metrics) : null;
+    }
+
+    /**
+     * Hands a metrics snapshot for each period to a listener, turning metrics
+     * on if they aren't already.  The listener is called on the metrics timer
+     * thread w/ the counts and latencies for just that period.
+     * @param listener listener to call or null to stop the periodic snapshots
+     * @param periodMillis time between snapshots
+     */
+    public void setMetricsListener(final MetricsListener listener, long periodMillis) {
+        synchronized (mMetricsLock) {
+            DDPMetrics metrics = mMetrics;
+            if (listener == null) {
+                if (metrics != null) {
+                    metrics.cancelReport();
+                }
+                return;
+            }
+            if (periodMillis <= 0) {
+                throw new IllegalArgumentException("Metrics period must be greater than 0");
+            }
+            if (metrics == null) {
+                metrics = new DDPMetrics();
+                mMetrics = metrics;
+            }
+            final DDPMetrics reportMetrics = metrics;
+            metrics.scheduleReport(new Runnable() {
+                private MetricsSnapshot mLastSnapshot;
+
+                @Override
+                public void run() {
+                    MetricsSnapshot snapshot = snapshotMetrics(reportMetrics);
+                    MetricsSnapshot period = snapshot.since(mLastSnapshot);
+                    mLastSnapshot = snapshot;
+                    try {
+                        listener.onMetrics(period);
+                    } catch (RuntimeException e) {
+                        // keep the timer going
+                        log.warn("Metrics listener failed", e);
+                    }
+                }
+            }, periodMillis);
+        }
+    }
+
+    /**
+     * Takes a metrics snapshot w/ current collection sizes and queue depths
+     * @param metrics metrics to snapshot
+     * @return metrics snapshot
+     */
+    private MetricsSnapshot snapshotMetrics(DDPMetrics metrics) {
+        Map<String, Integer> docCounts = new HashMap<>();
+        Map<String, Long> docBytes = new HashMap<>();
+        DDPStateStorage storage = mStorage;
+        for (String collName : mCollectionNames) {
+            // the stored docs, so lazy ones are estimated w/o parsing them
+            Map<String, Map<String, Object>> collection = (storage instanceof MemoryStateStorage)
+                    ? ((MemoryStateStorage) storage).peekCollectionSnapshot(collName)
+                    : getCollectionSnapshot(collName);
+            if (collection == null) {
+                continue;
+            }
+            long bytes = 0;
+            for (Map<String, Object> doc : collection.values()) {
+                bytes += SizeEstimator.estimate(doc);
+            }
+            docCounts.put(collName, collection.size());
+            docBytes.put(collName, bytes);
+        }
+        SubscriptionChangeBatcher batcher = mChangeBatcher;
+        return metrics.snapshot(docCounts, docBytes, getQueuedMessageCount(),
+                (batcher != null) ? batcher.getPendingCount() : 0, mMethodCalls.getQueuedCount());
+    }
+
+    /**
+     * Registers a typed listener that's called directly on the thread the
+     * DDP client delivers messages on.  This skips Intent creation entirely
+     * so keep the callbacks short.
+     * @param listener listener to add
+     */
+    public void addStateListener(DDPStateListener listener) {
+        mListeners.add(listener, null);
+    }
+
+    /**
+     * Registers a typed listener whose callbacks get run by an executor
+     * @param listener listener to add
+     * @param executor executor to run callbacks on
+     */
+    public void addStateListener(DDPStateListener listener, Executor executor) {
+        mListeners.add(listener, executor);
+    }
+
+    /**
+     * Registers a typed listener whose callbacks get run on a Looper's thread
+     * (e.g., Looper.getMainLooper() for the UI thread)
+     * @param listener listener to add
+     * @param looper looper to run callbacks on
+     */
+    public void addStateListener(DDPStateListener listener, Looper looper) {
+        mListeners.add(listener, new DDPStateListeners.LooperExecutor(looper));
+    }
+
+    /**
+     * Unregisters a typed listener
+     * @param listener listener to remove
+     * @return true if listener was registered
+     */
+    public boolean removeStateListener(DDPStateListener listener) {
+        return mListeners.remove(listener);
+    }
+
+    /**
+     * Turns the default LocalBroadcastManager Intents on or off.
+     * Turn this off if all your UI uses DDPStateListeners so no Intents get built.
+     * Overridden broadcast methods still get called either way.
+     * @param enabled true to send Intents (default)
+     */
+    public void setLocalBroadcastsEnabled(boolean enabled) {
+        mLocalBroadcastsEnabled = enabled;
+    }
+
+    /**
+     * Whether the default broadcast methods send LocalBroadcastManager Intents
+     * @return true if Intents are being sent
+     */
+    public boolean isLocalBroadcastsEnabled() {
+        return mLocalBroadcastsEnabled;
+    }
+
+    /**
+     * Turns on capturing of old field values for DocumentDeltas sent w/ change
+     * notifications.  This costs a map per change, so it's off by default.
+     * @param trackPreviousValues true to capture previous values
+     */
+    public void setTrackPreviousValues(boolean trackPreviousValues) {
+        mTrackPreviousValues = trackPreviousValues;
+    }
+
+    /**
+     * Whether DocumentDeltas include the field values from before the change
+     * @return true if previous values are captured
+     */
+    public boolean isTrackingPreviousValues() {
+        return mTrackPreviousValues;
+    }
+
+    /**
+     * Notifies listeners and the event system of a connection state change
+     * @param ddpstate current DDP state
+     */
+    protected void notifyConnectionState(DDPSTATE ddpstate) {
+        countBroadcast(MetricsSnapshot.BROADCAST_CONNECTION);
+        mListeners.connectionState(ddpstate);
+        broadcastConnectionState(ddpstate);
+    }
+
+    /**
+     * Notifies listeners and the event system of an error
+     * @param errorMsg error message
+     */
+    protected void notifyDDPError(String errorMsg) {
+        countBroadcast(MetricsSnapshot.BROADCAST_ERROR);
+        mListeners.error(errorMsg);
+        broadcastDDPError(errorMsg);
+    }
+
+    /**
+     * Notifies listeners and the event system of a batch of subscription changes
+     * @param batch coalesced document changes for one collection
+     */
+    void notifySubscriptionBatch(SubscriptionChangeBatch batch) {
+        countBroadcast(MetricsSnapshot.BROADCAST_BATCH);
+        mListeners.subscriptionBatch(batch);
+        broadcastSubscriptionBatch(batch);
+    }
+
+    /**
+     * Routes a document change to the batcher if batching is on,
+     * otherwise broadcasts it immediately
+     * @param collName collection name
+     * @param changetype "added", "changed" or "removed"
+     * @param docId document ID
+     */
+    private void notifySubscriptionChanged(String collName, String changetype, String docId) {
+        SubscriptionChangeBatcher batcher = mChangeBatcher;
+        if (batcher != null) {
+            batcher.add(collName, changetype, docId);
+        } else {
+            countBroadcast(changetype);
+            broadcastSubscriptionChanged(collName, changetype, docId);
+        }
+    }
+
+    /**
+     * Routes a document change w/ its field delta to the batcher if batching is on,
+     * otherwise broadcasts it immediately
+     * @param collName collection name
+     * @param docId document ID
+     * @param delta fields that were set/cleared
+     */
+    private void notifyDocumentChanged(String collName, String docId, DocumentDelta delta) {
+        SubscriptionChangeBatcher batcher = mChangeBatcher;
+        if (batcher != null) {
+            batcher.add(collName, DdpMessageType.CHANGED, docId);
+        } else {
+            countBroadcast(DdpMessageType.CHANGED);
+            broadcastDocumentChanged(collName, docId, delta);
+        }
+    }
+
+    /**
+     * Counts a broadcast if metrics are on
+     * @param kind broadcast kind
+     */
+    private void countBroadcast(String kind) {
+        DDPMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.recordBroadcast(kind);
+        }
+    }
+
+    /**
+     * Used to notify event system of connection events.
+     * Default behavior uses Android's LocalBroadcastManager.
+     * Override if you want to use a different eventbus.
+     * @param ddpstate current DDP state
+     */
+    public void broadcastConnectionState(DDPSTATE ddpstate) {
+        if (!mLocalBroadcastsEnabled) {
+            return;
+        }
+        Intent broadcastIntent = new Intent();
+        broadcastIntent.setAction(MESSAGE_CONNECTION);
+        broadcastIntent.putExtra(MESSAGE_EXTRA_STATE, ddpstate.ordinal());
+        broadcastIntent.putExtra(MESSAGE_EXTRA_USERID, mUserId);
+        broadcastIntent.putExtra(MESSAGE_EXTRA_USERTOKEN, mResumeToken);
+        LocalBroadcastManager.getInstance(mContext)
+                .sendBroadcast(broadcastIntent);
+    }
+
+    /**
+     * Used to notify event system of error events.
+     * Default behavior uses Android's LocalBroadcastManager.
+     * Override if you want to use a different eventbus.
+     * @param errorMsg error message
+     */
+    public void broadcastDDPError(String errorMsg) {
+        if (!mLocalBroadcastsEnabled) {
+            return;
+        }
+        // let core know there was an error subscribing to a collection
+        Intent broadcastIntent = new Intent();
+        broadcastIntent.setAction(MESSAGE_ERROR);
+        broadcastIntent.putExtra(MESSAGE_EXTRA_MSG, errorMsg);
+        LocalBroadcastManager.getInstance(mContext)
+                .sendBroadcast(broadcastIntent);
+    }
+
+    /**
+     * Used to notify event system of subscription change events.
+     * Default behavior uses Android's LocalBroadcastManager.
+     * Override if you want to use a different eventbus.
+     * NOTE: DDP doesn't say which subscription a document came from, so this
+     * is the document's collection name (also sent as MESSAGE_EXTRA_COLLNAME).
+     * For ready notifications, it's the subscription name instead.
+     * @param collectionName collection name, or subscription name if ready
+     * @param changetype "change", "add", "remove" or "ready"
+     * @param docId document ID of change/remove or null if add/ready
+     */
+    public void broadcastSubscriptionChanged(String collectionName,
+            String changetype, String docId) {
+        if (!mLocalBroadcastsEnabled) {
+            return;
+        }
+        Intent broadcastIntent = new Intent();
+        broadcastIntent.setAction(MESSAGE_SUBUPDATED);
+        broadcastIntent.putExtra(MESSAGE_EXTRA_SUBNAME, collectionName);
+        if (!DdpMessageType.READY.equals(changetype)) {
+            broadcastIntent.putExtra(MESSAGE_EXTRA_COLLNAME, collectionName);
+        }
+        broadcastIntent.putExtra(MESSAGE_EXTRA_CHANGETYPE, changetype);
+        broadcastIntent.putExtra(MESSAGE_EXTRA_CHANGEID, docId);        
+        Intent extras = mBroadcastExtras.get();
+        if (extras != null) {
+            broadcastIntent.putExtras(extras);
+        }
+        LocalBroadcastManager.getInstance(mContext)
+                .sendBroadcast(broadcastIntent);
+    }
+
+    /**
+     * Calls broadcastSubscriptionChanged() w/ extras that its default
+     * Intent picks up, so apps that override it still see the notification
+     * @param extras extras to add to the default Intent
+     * @param name collection or subscription name
+     * @param changetype DDP change type
+     * @param docId document ID or null
+     */
+    private void broadcastSubscriptionChanged(Intent extras, String name,
+            String changetype, String docId) {
+        mBroadcastExtras.set(extras);
+        try {
+            broadcastSubscriptionChanged(name, changetype, docId);
+        } finally {
+            mBroadcastExtras.remove();
+        }
+    }
+
+    /**
+     * Used to notify event system that a subscription is ready.
+     * Default behavior calls broadcastSubscriptionChanged() w/ the
+     * subscription name and a "ready" change type, whose default Intent then
+     * gets MESSAGE_EXTRA_SUBID set to the subscription ID.
+     * Override if you want to use a different eventbus.
+     * @param subscriptionName subscription name
+     * @param subscriptionId subscription ID
+     */
+    public void broadcastSubscriptionReady(String subscriptionName, int subscriptionId) {
+        Intent extras = new Intent();
+        extras.putExtra(MESSAGE_EXTRA_SUBID, subscriptionId);
+        broadcastSubscriptionChanged(extras, subscriptionName, DdpMessageType.READY, null);
+    }
+
+    /**
+     * Used to notify event system of document changes w/ the names of the
+     * fields that were changed or cleared.
+     * Default behavior calls broadcastSubscriptionChanged() w/ a "changed"
+     * change type, whose default Intent then gets MESSAGE_EXTRA_CHANGEDFIELDS
+     * and MESSAGE_EXTRA_CLEAREDFIELDS added to the usual extras.
+     * Override if you want to use a different eventbus.
+     * @param collName collection name
+     * @param docId document ID
+     * @param delta fields that were set/cleared
+     */
+    public void broadcastDocumentChanged(String collName, String docId,
+            DocumentDelta delta) {
+        Intent extras = new Intent();
+        extras.putStringArrayListExtra(MESSAGE_EXTRA_CHANGEDFIELDS,
+                delta.getChangedFieldNameList());
+        extras.putStringArrayListExtra(MESSAGE_EXTRA_CLEAREDFIELDS,
+                delta.getClearedFieldList());
+        broadcastSubscriptionChanged(extras, collName, DdpMessageType.CHANGED, docId);
+    }
+
+    /**
+     * Used to notify event system of a batch of subscription changes
+     * when subscription batching is enabled.
+     * Default behavior uses Android's LocalBroadcastManager.
+     * Override if you want to use a different eventbus.
+     * @param batch coalesced document changes for one collection
+     */
+    public void broadcastSubscriptionBatch(SubscriptionChangeBatch batch) {
+        if (!mLocalBroadcastsEnabled) {
+            return;
+        }
+        Intent broadcastIntent = new Intent();
+        broadcastIntent.setAction(MESSAGE_SUBBATCH);
+        broadcastIntent.putExtra(MESSAGE_EXTRA_SUBNAME, batch.getCollectionName());
+        broadcastIntent.putExtra(MESSAGE_EXTRA_COLLNAME, batch.getCollectionName());
+        broadcastIntent.putStringArrayListExtra(MESSAGE_EXTRA_ADDEDIDS, batch.getAddedIds());
+        broadcastIntent.putStringArrayListExtra(MESSAGE_EXTRA_CHANGEDIDS, batch.getChangedIds());
+        broadcastIntent.putStringArrayListExtra(MESSAGE_EXTRA_REMOVEDIDS, batch.getRemovedIds());
+        LocalBroadcastManager.getInstance(mContext)
+                .sendBroadcast(broadcastIntent);
+    }
+
+    /**
+     * handles callbacks from DDP client websocket callbacks
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void update(Observable client, Object msg) {
+        // handle subscription updates and othre messages that aren't associated
+        // w/ a specific command
+        if (msg instanceof Map<?, ?>) {
+            Map<String, Object> jsonFields = (Map<String, Object>) msg;
+            MessagePipeline pipeline = mPipeline;
+            if (pipeline != null) {
+                queueMessage(pipeline, client, jsonFields);
+            } else {
+                synchronized (mApplyLock) {
+                    handleMessage(client, jsonFields);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands a message to the pipeline: doc messages are queued per collection
+     * and everything else waits for the queued doc messages to be applied
+     * @param pipeline message pipeline
+     * @param client DDP client the message came from
+     * @param jsonFields message fields
+     */
+    private void queueMessage(MessagePipeline pipeline, final Observable client,
+            final Map<String, Object> jsonFields) {
+        String msgtype = (String) jsonFields.get(DdpMessageField.MSG);
+        String collName = (String) jsonFields.get(DdpMessageField.COLLECTION);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                handleMessage(client, jsonFields);
+            }
+        };
+        if (collName != null && (DdpMessageType.ADDED.equals(msgtype)
+                || DdpMessageType.CHANGED.equals(msgtype) || DdpMessageType.REMOVED.equals(msgtype))) {
+            if (mDroppingMessages) {
+                return;
+            }
+            if (!pipeline.submit(collName, task)) {
+                handlePipelineOverflow(pipeline, collName, task);
+            }
+        } else {
+            if (DdpMessageType.CLOSED.equals(msgtype) && client == getDDP()) {
+                // the reconnect's replay takes it from here
+                mDroppingMessages = false;
+                mOverflowReported = false;
+            }
+            pipeline.barrier(task);
+        }
+    }
+
+    /**
+     * Starts a resync after the pipeline had to drop a doc message: the
+     * connection is closed so the usual reconnect resubscribes and the cache
+     * is reconciled w/ what the server replays.  If no reconnect would be
+     * scheduled, the message waits for room instead and the overflow is
+     * reported as an error.
+     * @param pipeline message pipeline
+     * @param collName collection name
+     * @param task applies the message
+     */
+    private void handlePipelineOverflow(MessagePipeline pipeline, String collName, Runnable task) {
+        if (mDroppingMessages) {
+            return;
+        }
+        if (!mAutoReconnect || mDisconnectRequested) {
+            // closing the connection would leave the app disconnected w/ a stale cache
+            if (!mOverflowReported) {
+                mOverflowReported = true;
+                log.error("DDP message queue is full and auto-reconnect is off; waiting for room");
+                notifyDDPError("DDP message queue is full and auto-reconnect is off, "
+                        + "so messages can't be dropped and resynced");
+            }
+            pipeline.put(collName, task);
+            return;
+        }
+        mDroppingMessages = true;
+        mForceResync = true;
+        log.warn("DDP message queue is full; dropping messages and resyncing");
+        getDDP().disconnect();
+    }
+
+    /**
+     * Runs an action once doc messages that are already queued have been applied
+     * (right away, between messages, if the pipeline isn't on)
+     * @param action action to run
+     */
+    private void runAfterQueuedMessages(Runnable action) {
+        MessagePipeline pipeline = mPipeline;
+        if (pipeline != null) {
+            pipeline.barrier(action);
+        } else {
+            synchronized (mApplyLock) {
+                action.run();
+            }
+        }
+    }
+
+    /**
+     * Applies a message from the DDP client, timing it if metrics are on
+     * @param client DDP client the message came from
+     * @param jsonFields message fields
+     */
+    private void handleMessage(Observable client, Map<String, Object> jsonFields) {
+        DDPMetrics metrics = mMetrics;
+        if (metrics == null) {
+            applyMessage(client, jsonFields);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            applyMessage(client, jsonFields);
+        } finally {
+            String msgtype = (String) jsonFields.get(DdpMessageField.MSG);
+            if (msgtype != null) {
+                metrics.recordMessage(msgtype, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Applies a message from the DDP client
+     * @param client DDP client the message came from
+     * @param jsonFields message fields
+     */
+    @SuppressWarnings("unchecked")
+    private void applyMessage(Observable client, Map<String, Object> jsonFields) {
+        // handle msg types for DDP server->client msgs:
+        // https://github.com/meteor/meteor/blob/master/packages/livedata/DDP.md
+        String msgtype = (String) jsonFields
+                .get(DDPClient.DdpMessageField.MSG);
+        String collName = (String) jsonFields.get(DdpMessageField.COLLECTION);
+        String docId = (String) jsonFields.get(DdpMessageField.ID);
+
+        // ignore {"server_id":"GqrKrbcSeDfTYDkzQ"} web socket msgs
+        if (msgtype != null) {
+            switch (msgtype) {
+                case DdpMessageType.ERROR:
+                    notifyDDPError((String) jsonFields.get(DdpMessageField.ERRORMSG));
+                    break;
+                case DdpMessageType.CONNECTED:
+                    mDDPState = DDPSTATE.Connected;
+                    mReconnectBackoff.reset();
+                    notifyConnectionState(mDDPState);
+                    restoreSession();
+                    // queued calls go out after the resume login so they run as the user
+                    mMethodCalls.connected();
+                    DurableCallQueue durableCalls = mDurableCalls;
+                    if (durableCalls != null && !durableCalls.isWaitingForLogin()) {
+                        durableCalls.start();
+                    }
+                    if (!mOptimistic.isEmpty()) {
+                        // "updated" messages for calls that finished before the
+                        // disconnect are gone, so settle those once we've resynced
+                        addReadyWaiter(new Runnable() {
+                            @Override
+                            public void run() {
+                                // the last "ready" could come from an unsubscribe on any thread
+                                runAfterQueuedMessages(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        settleFinishedWrites();
+                                    }
+                                });
+                            }
+                        }, null, null);
+                    }
+                    break;
+                case DdpMessageType.ADDED:
+                    // replays of docs loaded from disk may never go through handleAdded()
+                    mCollectionNames.add(collName);
+                    boolean replayed = mResync.markSeen(collName, docId)
+                            | mColdResync.markSeen(collName, docId);
+                    if (!mOptimistic.isEmpty() && mOptimistic.serverAdded(collName, docId,
+                            (Map<String, Object>) jsonFields.get(DdpMessageField.FIELDS))) {
+                        // local writes are pending on it, so the cache catches up once they're done
                         break;
-                    case DdpMessageType.ADDED:
-                        addDoc(jsonFields, collName, docId);
-                        // broadcast that subscription has been updated
-                        broadcastSubscriptionChanged(collName, DdpMessageType.ADDED, docId);
+                    }
+                    if (replayed && reconcileDoc(jsonFields, collName, docId)) {
+                        // replay of a doc we already had
                         break;
-                    case DdpMessageType.REMOVED:
-                        if (removeDoc(collName, docId)) {
-                            // broadcast that subscription has been updated
-                            broadcastSubscriptionChanged(collName,
-                                    DdpMessageType.REMOVED, docId);
+                    }
+                    handleAdded(jsonFields, collName, docId);
+                    break;
+                case DdpMessageType.REMOVED:
+                    mResync.forget(collName, docId);
+                    mColdResync.forget(collName, docId);
+                    handleServerRemoved(collName, docId);
+                    break;
+                case DdpMessageType.CHANGED:
+                    if (mOptimistic.isEmpty() || !mOptimistic.serverChanged(collName, docId, jsonFields)) {
+                        handleChanged(jsonFields, collName, docId);
+                    }
+                    break;
+                case DdpMessageType.UPDATED:
+                    // the server has sent every doc change these calls made
+                    settleUpdatedWrites(client, (List<Object>) jsonFields.get(DdpMessageField.METHODS));
+                    break;
+                case DdpMessageType.CLOSED:
+                    if (client != getDDP()) {
+                        // old connection we've already replaced
+                        break;
+                    }
+                    flushSubscriptionChanges();
+                    DDPMetrics metrics = mMetrics;
+                    if (metrics != null) {
+                        // calls on the closed connection won't get results
+                        metrics.abandonCalls();
+                    }
+                    mMethodCalls.connectionClosed(mAutoReconnect && !mDisconnectRequested);
+                    DurableCallQueue closedDurableCalls = mDurableCalls;
+                    if (closedDurableCalls != null) {
+                        // unanswered durable calls go out again once we're back
+                        closedDurableCalls.stop();
+                    }
+                    if (!mAutoReconnect || mDisconnectRequested) {
+                        // no reconnect is coming to send the missing "updated" messages
+                        settleFinishedWrites();
+                    }
+                    if (mDDPState == DDPSTATE.LoggedIn) {
+                        mResumeLoginPending = true;
+                    }
+                    mDDPState = DDPSTATE.Closed;
+                    notifyConnectionState(DDPSTATE.Closed);
+                    scheduleReconnect();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Stores an added document and sends out notifications
+     * @param jsonFields fields of the "added" message
+     * @param collName collection name
+     * @param docId document ID
+     */
+    @SuppressWarnings("unchecked")
+    private void handleAdded(Map<String, Object> jsonFields, String collName, String docId) {
+        mCollectionNames.add(collName);
+        addDoc(jsonFields, collName, docId);
+        mLiveQueries.docAdded(collName, docId, peekDocument(collName, docId));
+        // broadcast that subscription has been updated
+        mListeners.docAdded(collName, docId,
+                (Map<String, Object>) jsonFields.get(DdpMessageField.FIELDS));
+        notifySubscriptionChanged(collName, DdpMessageType.ADDED, docId);
+    }
+
+    /**
+     * Removes a document and sends out notifications
+     * @param collName collection name
+     * @param docId document ID
+     */
+    private void handleRemoved(String collName, String docId) {
+        if (removeDoc(collName, docId)) {
+            mLiveQueries.docRemoved(collName, docId);
+            // broadcast that subscription has been updated
+            mListeners.docRemoved(collName, docId);
+            notifySubscriptionChanged(collName,
+                    DdpMessageType.REMOVED, docId);
+        }
+    }
+
+    /**
+     * Removes a document the server removed, or just its server copy if it
+     * has local writes pending
+     * @param collName collection name
+     * @param docId document ID
+     */
+    private void handleServerRemoved(String collName, String docId) {
+        if (mOptimistic.isEmpty() || !mOptimistic.serverRemoved(collName, docId)) {
+            handleRemoved(collName, docId);
+        }
+    }
+
+    /**
+     * Updates a document and sends out notifications
+     * @param jsonFields fields of the "changed" message
+     * @param collName collection name
+     * @param docId document ID
+     */
+    private void handleChanged(Map<String, Object> jsonFields, String collName, String docId) {
+        // handle document updates (grab old values first if we need them)
+        DocumentDelta delta = DocumentDelta.fromMessage(jsonFields,
+                mTrackPreviousValues ? peekDocument(collName, docId) : null);
+        if (updateDoc(jsonFields, collName, docId)) {
+            mLiveQueries.docChanged(collName, docId,
+                    peekDocument(collName, docId), delta);
+            // broadcast that subscription has been updated
+            mListeners.docChanged(collName, docId, delta);
+            notifyDocumentChanged(collName, docId, delta);
+        }
+    }
+
+    /**
+     * Compares a document the server replayed after a reconnect w/ our cached
+     * copy and applies only the differences as a change
+     * @param jsonFields fields of the "added" message
+     * @param collName collection name
+     * @param docId document ID
+     * @return false if the doc isn't cached after all and should be added normally
+     */
+    @SuppressWarnings("unchecked")
+    private boolean reconcileDoc(Map<String, Object> jsonFields, String collName, String docId) {
+        Map<String, Object> cached = peekDocument(collName, docId);
+        if (cached == null) {
+            return false;
+        }
+        Map<String, Object> fields = (Map<String, Object>) jsonFields.get(DdpMessageField.FIELDS);
+        if (fields == null) {
+            fields = Collections.emptyMap();
+        }
+        changeToMatch(cached, fields, collName, docId);
+        return true;
+    }
+
+    /**
+     * Changes a cached document so it has exactly the given fields,
+     * sending out a change for the fields that are different
+     * @param cached cached document
+     * @param fields fields it should have
+     * @param collName collection name
+     * @param docId document ID
+     */
+    private void changeToMatch(Map<String, Object> cached, Map<String, Object> fields,
+            String collName, String docId) {
+        Map<String, Object> changedFields = new HashMap<>();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (!cached.containsKey(field.getKey())
+                    || !FieldValues.equal(cached.get(field.getKey()), field.getValue())) {
+                changedFields.put(field.getKey(), field.getValue());
+            }
+        }
+        List<String> clearedFields = new ArrayList<>();
+        for (String fieldName : cached.keySet()) {
+            if (!fields.containsKey(fieldName)) {
+                clearedFields.add(fieldName);
+            }
+        }
+        if (!changedFields.isEmpty() || !clearedFields.isEmpty()) {
+            handleChanged(docMessage(DdpMessageType.CHANGED, collName, docId,
+                    changedFields, clearedFields), collName, docId);
+        }
+    }
+
+    /**
+     * Builds a doc message like the server's for changes made locally
+     * @param msgtype "added" or "changed"
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields fields to set
+     * @param clearedFields names of fields to remove
+     * @return message fields
+     */
+    private static Map<String, Object> docMessage(String msgtype, String collName, String docId,
+            Map<String, Object> fields, List<String> clearedFields) {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put(DdpMessageField.MSG, msgtype);
+        msg.put(DdpMessageField.COLLECTION, collName);
+        msg.put(DdpMessageField.ID, docId);
+        if (!fields.isEmpty() || DdpMessageType.ADDED.equals(msgtype)) {
+            msg.put(DdpMessageField.FIELDS, fields);
+        }
+        if (!clearedFields.isEmpty()) {
+            msg.put(DdpMessageField.CLEARED, clearedFields);
+        }
+        return msg;
+    }
+
+    /**
+     * Starts reconciling cached docs against what the server replays after a reconnect
+     */
+    private void beginResync() {
+        Map<String, Map<String, Map<String, Object>>> collections = new HashMap<>();
+        for (String collName : mCollectionNames) {
+            Map<String, Map<String, Object>> collection = getCollection(collName);
+            if (collection != null) {
+                collections.put(collName, collection);
+            }
+        }
+        mResync.begin(ResyncTracker.snapshot(collections));
+    }
+
+    /**
+     * Removes cached docs the server didn't replay once every subscription
+     * is ready again after a reconnect
+     */
+    private void finishResyncIfReady() {
+        if (!mResync.isActive()) {
+            return;
+        }
+        DDPClient ddp = getDDP();
+        for (SubscriptionState sub : mSubscriptions) {
+            if (sub.client != ddp || !sub.ready) {
+                return;
+            }
+        }
+        int removed = 0;
+        for (Map.Entry<String, Set<String>> coll : mResync.finish().entrySet()) {
+            for (String docId : coll.getValue()) {
+                handleServerRemoved(coll.getKey(), docId);
+                removed++;
+            }
+        }
+        log.info("Resync after reconnect done; removed " + removed + " stale docs");
+    }
+
+    /**
+     * Removes docs loaded from disk that the server didn't replay, for each
+     * collection that's listed by a subscription and whose subscriptions are
+     * all ready.  Collections no subscription lists are left alone, since the
+     * app may not have subscribed to them yet.
+     */
+    private void finishColdResyncIfReady() {
+        if (!mColdResync.isActive()) {
+            return;
+        }
+        DDPClient ddp = getDDP();
+        int removed = 0;
+        for (String collName : mColdResync.getCollectionNames()) {
+            boolean listed = false;
+            boolean ready = true;
+            for (SubscriptionState sub : mSubscriptions) {
+                if (sub.ownsCollection(collName)) {
+                    listed |= (sub.collections.length > 0);
+                    ready &= (sub.client == ddp && sub.ready);
+                }
+            }
+            if (!listed || !ready) {
+                continue;
+            }
+            for (String docId : mColdResync.finish(collName)) {
+                handleServerRemoved(collName, docId);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            log.info("Removed " + removed + " stale docs loaded from disk");
+        }
+    }
+
+    /**
+     * Applies a call's local write to the cache, remembering the server's
+     * copy of each doc it touches
+     * @param call call the write belongs to
+     * @param write changes to apply
+     */
+    private void applyLocalWrite(MethodCall call, LocalWrite write) {
+        synchronized (mOptimistic) {
+            for (LocalWrite.Change change : write.getChanges()) {
+                String collName = change.collName;
+                String docId = change.docId;
+                Map<String, Object> cached = peekDocument(collName, docId);
+                switch (change.type) {
+                    case DdpMessageType.ADDED:
+                        mOptimistic.track(call, collName, docId, cached);
+                        if (cached == null) {
+                            handleAdded(docMessage(DdpMessageType.ADDED, collName, docId,
+                                    change.fields, change.clearedFields), collName, docId);
+                        } else {
+                            changeToMatch(cached, change.fields, collName, docId);
                         }
                         break;
                     case DdpMessageType.CHANGED:
-                        // handle document updates
-                        if (updateDoc(jsonFields, collName, docId)) {
-                            // broadcast that subscription has been updated
-                            broadcastSubscriptionChanged(collName,
-                                    DdpMessageType.CHANGED, docId);
+                        if (cached != null) {
+                            mOptimistic.track(call, collName, docId, cached);
+                            handleChanged(docMessage(DdpMessageType.CHANGED, collName, docId,
+                                    change.fields, change.clearedFields), collName, docId);
                         }
                         break;
-                    case DdpMessageType.CLOSED:
-                        mDDPState = DDPSTATE.Closed;
-                        broadcastConnectionState(DDPSTATE.Closed);
+                    case DdpMessageType.REMOVED:
+                        mOptimistic.track(call, collName, docId, cached);
+                        handleRemoved(collName, docId);
                         break;
                 }
             }
@@ -679,126 +2402,509 @@ public class DDPStateSingleton extends MeteorAuthCommands
     }
 
     /**
-     * Handles updating a document in a collection.
-     * Override if you want to use your own collection data store.
-     * @param jsonFields fields for document
-     * @param collName collection name
-     * @param docId documement ID for update
-     * @return true if changed; false if document not found
+     * Ends a call's local write, resetting docs that have no other writes
+     * pending to the server's copy (call where doc messages are applied)
+     * @param call call whose write is done or rolled back
+     */
+    private void settleLocalWrite(MethodCall call) {
+        synchronized (mOptimistic) {
+            for (OptimisticWrites.ServerDoc doc : mOptimistic.finish(call)) {
+                Map<String, Object> cached = peekDocument(doc.collName, doc.docId);
+                if (doc.fields == null) {
+                    handleRemoved(doc.collName, doc.docId);
+                } else if (cached == null) {
+                    handleAdded(docMessage(DdpMessageType.ADDED, doc.collName, doc.docId,
+                            doc.fields, Collections.<String>emptyList()), doc.collName, doc.docId);
+                } else {
+                    changeToMatch(cached, doc.fields, doc.collName, doc.docId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends the local writes of calls the server says it's sent every doc change for
+     * @param client DDP client the message came from
+     * @param methodIds call IDs from an "updated" message
+     */
+    private void settleUpdatedWrites(Observable client, List<Object> methodIds) {
+        if (mOptimistic.isEmpty() || methodIds == null) {
+            return;
+        }
+        for (Object methodId : methodIds) {
+            MethodCall call = mOptimistic.findCall(client, String.valueOf(methodId));
+            if (call != null) {
+                settleLocalWrite(call);
+            }
+        }
+    }
+
+    /**
+     * Ends the local writes of calls that already have their results
+     */
+    private void settleFinishedWrites() {
+        for (MethodCall call : mOptimistic.getCalls()) {
+            if (call.isDone()) {
+                settleLocalWrite(call);
+            }
+        }
+    }
+
+    /**
+     * Turns reconciliation of cached docs after a reconnect on or off (on by default).
+     * When on, docs the server replays after a reconnect are compared w/ the
+     * cached copies and only real differences are sent out as changes, and
+     * cached docs that aren't replayed are removed once every subscription is ready.
+     * Docs cached on disk are reconciled the same way after the first connect,
+     * a collection at a time once the subscriptions that list it are ready.
+     * When off, every replayed doc is added (and broadcast) again.
+     * @param reconcile true to reconcile
+     */
+    public void setReconnectReconciliation(boolean reconcile) {
+        mReconcileOnReconnect = reconcile;
+        if (!reconcile) {
+            mResync.finish();
+            mColdResync.finish();
+        }
+    }
+
+    /**
+     * Whether we're reconciling cached docs after a reconnect
+     * @return true if waiting for subscriptions to be ready again
+     */
+    public boolean isResyncing() {
+        return mResync.isActive();
+    }
+
+    /**
+     * Replaces the storage used for collections, e.g., w/ a SQLiteStateStorage
+     * so cached documents are available before subscriptions finish syncing.
+     * Set this before connecting because documents already in the old storage
+     * aren't copied over.
+     * @param storage collection storage to use
+     */
+    public void setStorage(DDPStateStorage storage) {
+        mStorage = storage;
+    }
+
+    /**
+     * Gets the storage used for collections
+     * @return collection storage
+     */
+    public DDPStateStorage getStorage() {
+        return mStorage;
+    }
+
+    /**
+     * Handles updating a document in a collection.
+     * Override if you want to use your own collection data store
+     * (or just pass your own DDPStateStorage to setStorage).
+     * @param jsonFields fields for document
+     * @param collName collection name
+     * @param docId documement ID for update
+     * @return true if changed; false if document not found
+     */
+    public boolean updateDoc(Map<String, Object> jsonFields, String collName,
+            String docId) {
+        if (mStorage.updateDoc(jsonFields, collName, docId)) {
+            mIndexes.docChanged(collName, docId, peekDocument(collName, docId), jsonFields);
+            getChangeLog(collName).record(DdpMessageType.CHANGED, docId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Handles deleting a document in a collection.
+     * Override if you want to use your own collection data store
+     * (or just pass your own DDPStateStorage to setStorage).
+     * @param collName collection name
+     * @param docId document ID
+     * @return true if doc was deleted, false otherwise
+     */
+    public boolean removeDoc(String collName, String docId) {
+        if (mStorage.removeDoc(collName, docId)) {
+            mIndexes.docRemoved(collName, docId);
+            getChangeLog(collName).record(DdpMessageType.REMOVED, docId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Handles adding a document to collection.
+     * Override if you want to use your own collection data store
+     * (or just pass your own DDPStateStorage to setStorage).
+     * @param jsonFields fields for document
+     * @param collName collection name
+     * @param docId document ID
+     */
+    public void addDoc(Map<String, Object> jsonFields, String collName,
+            String docId) {
+        mStorage.addDoc(jsonFields, collName, docId);
+        mIndexes.docAdded(collName, docId, peekDocument(collName, docId));
+        getChangeLog(collName).record(DdpMessageType.ADDED, docId);
+    }
+
+    /**
+     * Gets the sequence number of the last change made to a collection.
+     * Every add/change/remove through addDoc, updateDoc and removeDoc bumps it.
+     * Remember it (e.g., when an Activity pauses) and pass it to
+     * getChangesSince() later to find out what changed in between.
+     * @param collectionName collection name
+     * @return sequence number (0 if the collection hasn't changed yet)
+     */
+    public long getCollectionSequence(String collectionName) {
+        ChangeLog changeLog = mChangeLogs.get(collectionName);
+        return (changeLog != null) ? changeLog.getSequence() : 0;
+    }
+
+    /**
+     * Gets the net changes made to a collection after a sequence number from
+     * getCollectionSequence() or CollectionChanges.getSequence().
+     * Only the last getChangeHistorySize() changes are kept; if some of the
+     * changes are gone, this returns null and you'll have to re-read the
+     * collection (get the sequence number first, then the collection).
+     * @param collectionName collection name
+     * @param sequence sequence number to get changes after
+     * @return net changes or null if they're no longer all available
+     */
+    public CollectionChanges getChangesSince(String collectionName, long sequence) {
+        ChangeLog changeLog = mChangeLogs.get(collectionName);
+        if (changeLog == null) {
+            return (sequence == 0) ? new CollectionChanges(collectionName, 0, 0) : null;
+        }
+        return changeLog.changesSince(collectionName, sequence);
+    }
+
+    /**
+     * Sets how many changes are kept per collection for getChangesSince().
+     * Changes recorded before this is called are dropped (sequence numbers keep counting).
+     * @param maxChanges number of changes to keep per collection
+     */
+    public void setChangeHistorySize(int maxChanges) {
+        if (maxChanges <= 0) {
+            throw new IllegalArgumentException("Change history size must be greater than 0");
+        }
+        synchronized (mChangeLogs) {
+            mChangeHistorySize = maxChanges;
+            for (ChangeLog changeLog : mChangeLogs.values()) {
+                changeLog.setCapacity(maxChanges);
+            }
+        }
+    }
+
+    /**
+     * Gets how many changes are kept per collection
+     * @return number of changes kept
+     */
+    public int getChangeHistorySize() {
+        return mChangeHistorySize;
+    }
+
+    /**
+     * Gets the change log for a collection, creating it if needed
+     * @param collName collection name
+     * @return change log
+     */
+    private ChangeLog getChangeLog(String collName) {
+        ChangeLog changeLog = mChangeLogs.get(collName);
+        if (changeLog == null) {
+            synchronized (mChangeLogs) {
+                changeLog = mChangeLogs.get(collName);
+                if (changeLog == null) {
+                    changeLog = new ChangeLog(mChangeHistorySize);
+                    mChangeLogs.put(collName, changeLog);
+                }
+            }
+        }
+        return changeLog;
+    }
+
+    /**
+     * Gets local Meteor collection
+     * @param collectionName collection name
+     * @return collection as a Map or null if not found
+     */
+    public Map<String, Map<String,Object>> getCollection(String collectionName) {
+        // return specified collection Map which is indexed by document ID
+        return mStorage.getCollection(collectionName);
+    }
+
+    /**
+     * Gets a read-only, point-in-time copy of a local Meteor collection that's
+     * safe to iterate while changes are being applied.  Its docs are read-only views.
+     * W/ storage other than MemoryStateStorage, this is a shallow copy of getCollection().
+     * @param collectionName collection name
+     * @return snapshot of collection or null if not found
+     */
+    public Map<String, Map<String,Object>> getCollectionSnapshot(String collectionName) {
+        DDPStateStorage storage = mStorage;
+        if (storage instanceof MemoryStateStorage) {
+            return ((MemoryStateStorage) storage).getCollectionSnapshot(collectionName);
+        }
+        Map<String, Map<String,Object>> collection = storage.getCollection(collectionName);
+        if (collection == null) {
+            return null;
+        }
+        return new MemoryStateStorage.ReadOnlyCollection(
+                new HashMap<String, Map<String,Object>>(collection));
+    }
+    
+    /**
+     * Gets a document for internal bookkeeping (indexes, live queries, change
+     * handling) w/o counting it in the storage's cache stats
+     * @param collName collection name
+     * @param docId document ID
+     * @return document fields or null if not found
+     */
+    Map<String, Object> peekDocument(String collName, String docId) {
+        DDPStateStorage storage = mStorage;
+        if (storage instanceof MemoryStateStorage) {
+            return ((MemoryStateStorage) storage).peekDocument(collName, docId);
+        }
+        return storage.getDocument(collName, docId);
+    }
+
+    /**
+     * Gets a document out of a collection
+     * @param collectionName collection name
+     * @param docId document ID
+     * @return null if not found or a collection of the document's fields
+     */
+    public Map<String, Object> getDocument(String collectionName, String docId) {
+        return mStorage.getDocument(collectionName, docId);
+    }
+
+    /**
+     * Gets a document as an instance of a POJO class (see DocumentMapper)
+     * @param collectionName collection name
+     * @param docId document ID
+     * @param type POJO class
+     * @param <T> POJO class
+     * @return new POJO or null if not found
+     */
+    public <T> T getDocument(String collectionName, String docId, Class<T> type) {
+        Map<String, Object> fields = mStorage.getDocument(collectionName, docId);
+        return (fields != null) ? DocumentMapper.forClass(type).toObject(docId, fields) : null;
+    }
+
+    /**
+     * Keeps a POJO for every document in a collection, updating the POJOs as
+     * documents change; callbacks and updates run on the thread changes are applied on
+     * @param collectionName collection name
+     * @param type POJO class
+     * @param <T> POJO class
+     * @return typed collection (call close() when done w/ it)
      */
-    @SuppressWarnings("unchecked")
-    public boolean updateDoc(Map<String, Object> jsonFields, String collName,
-            String docId) {
-        if (mCollections.containsKey(collName)) {
-            Map<String, Map<String,Object>> collection = mCollections.get(collName);
-            Map<String, Object> doc = collection.get(docId);
-            if (doc != null) {
-                // take care of field updates
-                Map<String, Object> fields = (Map<String, Object>) jsonFields
-                        .get(DdpMessageField.FIELDS);
-                if (fields != null) {
-                    for (Map.Entry<String, Object> field : fields
-                            .entrySet()) {
-                        String fieldname = field.getKey();
-                        doc.put(fieldname, field.getValue());
-                    }
-                }
-                // take care of clearing fields
-                List<String> clearfields = ((List<String>) jsonFields.get(DdpMessageField.CLEARED));
-                if (clearfields != null) {
-                    for (String fieldname : clearfields) {
-                        if (doc.containsKey(fieldname)) {
-                            doc.remove(fieldname);
-                        }
-                    }
-                }
-                return true;
-            }
+    public <T> TypedCollection<T> bindCollection(String collectionName, Class<T> type) {
+        return bindCollection(collectionName, type, (Executor) null);
+    }
+
+    /**
+     * Keeps a POJO for every document in a collection, updating the POJOs as
+     * documents change on the given Looper's thread
+     * @param collectionName collection name
+     * @param type POJO class
+     * @param looper Looper to update POJOs on, e.g., Looper.getMainLooper()
+     * @param <T> POJO class
+     * @return typed collection (call close() when done w/ it)
+     */
+    public <T> TypedCollection<T> bindCollection(String collectionName, Class<T> type, Looper looper) {
+        return bindCollection(collectionName, type, new DDPStateListeners.LooperExecutor(looper));
+    }
+
+    /**
+     * Keeps a POJO for every document in a collection, updating the POJOs as
+     * documents change on the given executor
+     * @param collectionName collection name
+     * @param type POJO class
+     * @param executor executor to update POJOs on (null for the thread changes are applied on)
+     * @param <T> POJO class
+     * @return typed collection (call close() when done w/ it)
+     */
+    public <T> TypedCollection<T> bindCollection(String collectionName, Class<T> type,
+            Executor executor) {
+        final TypedCollection<T> typed = new TypedCollection<>(this, collectionName,
+                DocumentMapper.forClass(type));
+        // listen first so nothing is missed, then load what's already there
+        // in line behind any changes the listener has already been handed
+        addStateListener(typed, executor);
+        if (executor == null) {
+            typed.load();
         } else {
-            log.warn("Received invalid changed msg for collection "
-                    + collName);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    typed.load();
+                }
+            });
         }
-        return false;
+        return typed;
     }
 
     /**
-     * Handles deleting a document in a collection.
-     * Override if you want to use your own collection data store.
-     * @param collName collection name
-     * @param docId document ID
-     * @return true if doc was deleted, false otherwise
+     * Gets documents by ID as MeteorCollectionDocs, e.g., to turn the results
+     * of an index lookup into something you can display
+     * @param collectionName collection name
+     * @param docIds document IDs
+     * @return documents in the same order as docIds (missing docs are skipped)
      */
-    public boolean removeDoc(String collName, String docId) {
-        if (mCollections.containsKey(collName)) {
-            // remove IDs from collection
-            Map<String, Map<String,Object>> collection = mCollections.get(collName);
-            if (BuildConfig.DEBUG) {
-                log.debug("Removed doc: " + docId);
+    public List<MeteorCollectionDoc> getCollectionDocs(String collectionName, List<String> docIds) {
+        List<MeteorCollectionDoc> docs = new ArrayList<>(docIds.size());
+        for (String docId : docIds) {
+            Map<String, Object> fields = getDocument(collectionName, docId);
+            if (fields != null) {
+                docs.add(new MeteorCollectionDoc(docId, fields));
             }
-            collection.remove(docId);
-            return true;
-        } else {
-            log.warn("Received invalid removed msg for collection "
-                    + collName);
-            return false;
         }
+        return docs;
     }
 
     /**
-     * Handles adding a document to collection.
-     * Override if you want to use your own collection data store.
-     * @param jsonFields fields for document
-     * @param collName collection name
-     * @param docId document ID
+     * Observes a query so its results are kept up to date as documents change
+     * and the listener is told where documents were added, changed, moved and
+     * removed.  The listener gets addedAt for each initial result before this returns.
+     * Callbacks are called directly on the thread the DDP client delivers messages on.
+     * @param collectionName collection name
+     * @param query query to observe (don't modify it afterwards)
+     * @param listener listener for result changes
+     * @return live query; call stop() on it when you're done
      */
-    @SuppressWarnings("unchecked")
-    public void addDoc(Map<String, Object> jsonFields, String collName,
-            String docId) {
-        if (!mCollections.containsKey(collName)) {
-            // add new collection
-            log.debug("Added collection " + collName);
-            mCollections.put(collName, new ConcurrentHashMap<String, Map<String,Object>>());
-        }
-        Map<String, Map<String,Object>> collection = mCollections.get(collName);
+    public LiveQuery observe(String collectionName, Query query, LiveQueryListener listener) {
+        return observe(collectionName, query, listener, (Executor) null);
+    }
 
-        Map<String, Object> fields;
+    /**
+     * Observes a query w/ callbacks run on a Looper's thread
+     * (e.g., Looper.getMainLooper() for the UI thread)
+     * @param collectionName collection name
+     * @param query query to observe (don't modify it afterwards)
+     * @param listener listener for result changes
+     * @param looper looper to run callbacks on
+     * @return live query; call stop() on it when you're done
+     */
+    public LiveQuery observe(String collectionName, Query query, LiveQueryListener listener,
+            Looper looper) {
+        return observe(collectionName, query, listener, new DDPStateListeners.LooperExecutor(looper));
+    }
 
-        if(jsonFields.get(DdpMessageField.FIELDS) == null) {
-            fields = new ConcurrentHashMap<>();
-        } else {
-            fields = (Map<String, Object>) jsonFields.get(DdpMessageField.FIELDS);
-        }
+    /**
+     * Observes a query w/ callbacks run by an executor
+     * (use a single-threaded executor so events stay in order)
+     * @param collectionName collection name
+     * @param query query to observe (don't modify it afterwards)
+     * @param listener listener for result changes
+     * @param executor executor to run callbacks on or null to call directly
+     * @return live query; call stop() on it when you're done
+     */
+    public LiveQuery observe(String collectionName, Query query, LiveQueryListener listener,
+            Executor executor) {
+        LiveQuery liveQuery = new LiveQuery(this, mLiveQueries, collectionName, query,
+                listener, executor);
+        mLiveQueries.add(liveQuery, getCollection(collectionName));
+        return liveQuery;
+    }
 
-        collection.put(docId, fields);
+    /**
+     * Finds documents in a local collection that match a query
+     * @param collectionName collection name
+     * @param query query to run (can be reused)
+     * @return matching documents in query order
+     */
+    public List<MeteorCollectionDoc> find(String collectionName, Query query) {
+        return getCollectionDocs(collectionName, findIds(collectionName, query));
+    }
 
-        if (BuildConfig.DEBUG) {
-            log.debug("Added docid " + docId + " to collection " + collName);
-        }
+    /**
+     * Finds IDs of documents in a local collection that match a query
+     * @param collectionName collection name
+     * @param query query to run (can be reused)
+     * @return matching doc IDs in query order
+     */
+    public List<String> findIds(String collectionName, Query query) {
+        return QueryEngine.findIds(getCollection(collectionName),
+                mIndexes.getAll(collectionName), query);
     }
 
     /**
-     * Gets local Meteor collection
+     * Finds the first document in a local collection that matches a selector
      * @param collectionName collection name
-     * @return collection as a Map or null if not found
+     * @param selector compiled selector
+     * @return matching document or null if none match
      */
-    public Map<String, Map<String,Object>> getCollection(String collectionName) {
-        // return specified collection Map which is indexed by document ID
-        return mCollections.get(collectionName);
+    public MeteorCollectionDoc findOne(String collectionName, Selector selector) {
+        List<MeteorCollectionDoc> docs = find(collectionName, new Query(selector).limit(1));
+        return docs.isEmpty() ? null : docs.get(0);
     }
-    
+
     /**
-     * Gets a document out of a collection
+     * Adds a secondary index to a collection.  The index is filled w/ the
+     * documents already in the collection and kept up to date as documents
+     * are added, changed and removed.
      * @param collectionName collection name
-     * @param docId document ID
-     * @return null if not found or a collection of the document's fields
+     * @param index index to add
      */
-    public Map<String, Object> getDocument(String collectionName, String docId) {
-        Map<String, Map<String,Object>> docs = DDPStateSingleton.getInstance()
-                .getCollection(collectionName);
-        if (docs != null) {
-            return docs.get(docId);
-        }
-        return null;
+    public void addIndex(String collectionName, CollectionIndex index) {
+        mIndexes.add(collectionName, index, getCollection(collectionName));
+    }
+
+    /**
+     * Adds an index for looking up documents by a field's value
+     * @param collectionName collection name
+     * @param fieldName field to index
+     * @return new index
+     */
+    public HashIndex addHashIndex(String collectionName, String fieldName) {
+        HashIndex index = new HashIndex(fieldName);
+        addIndex(collectionName, index);
+        return index;
+    }
+
+    /**
+     * Adds an index for getting documents sorted by a field's value
+     * @param collectionName collection name
+     * @param sortField field to sort by
+     * @return new index
+     */
+    public SortedIndex addSortedIndex(String collectionName, String sortField) {
+        SortedIndex index = new SortedIndex(sortField);
+        addIndex(collectionName, index);
+        return index;
+    }
+
+    /**
+     * Adds an index for getting documents grouped by one field and sorted by another
+     * @param collectionName collection name
+     * @param partitionField field to group by
+     * @param sortField field to sort by
+     * @return new index
+     */
+    public SortedIndex addSortedIndex(String collectionName, String partitionField,
+            String sortField) {
+        SortedIndex index = new SortedIndex(partitionField, sortField);
+        addIndex(collectionName, index);
+        return index;
+    }
+
+    /**
+     * Gets a previously added index
+     * @param collectionName collection name
+     * @param indexName index name (indexed field names separated by commas)
+     * @return index or null if not found
+     */
+    public CollectionIndex getIndex(String collectionName, String indexName) {
+        return mIndexes.get(collectionName, indexName);
+    }
+
+    /**
+     * Removes a previously added index
+     * @param collectionName collection name
+     * @param index index to remove
+     * @return true if index was removed
+     */
+    public boolean removeIndex(String collectionName, CollectionIndex index) {
+        return mIndexes.remove(collectionName, index);
     }
 
     /**
@@ -827,26 +2933,8 @@ public class DDPStateSingleton extends MeteorAuthCommands
      * @param userId user ID
      * @return email address for that user (lookup via users collection)
      */
-    @SuppressWarnings("unchecked")
     public String getUserEmail(String userId) {
-        if (userId == null) {
-            return null;
-        }
-        // map userId to email
-        // NOTE: this gets convoluted if they use OAuth logins because the email
-        // field is in the service!
-        Map<String, Object> user = getDocument("users", userId); 
-        String email = userId;
-        if (user != null) {
-            ArrayList<Map<String, String>> emails = (ArrayList<Map<String, String>>) user
-                    .get("emails");
-            if ((emails != null) && (emails.size() > 0)) {
-                // get first email address
-                Map<String, String> emailFields = emails.get(0);
-                email = emailFields.get("address");
-            }
-        }
-        return email;
+        return mStorage.getUserEmail(userId);
     }
     
     /**
@@ -858,6 +2946,10 @@ public class DDPStateSingleton extends MeteorAuthCommands
      */
     public int call(String method, Object[] params,
             DDPListener resultListener) {
+        DDPMetrics metrics = mMetrics;
+        if (metrics != null) {
+            resultListener = metrics.timeCall(method, resultListener);
+        }
         return getDDP().call(method, params, resultListener);
     }
 
@@ -870,4 +2962,385 @@ public class DDPStateSingleton extends MeteorAuthCommands
     public int call(String method, Object[] params) {
         return call(method, params, null);
     }
+
+    /**
+     * Calls a Meteor method and returns a future for its result.
+     * Uses the default timeout and isn't retried if the connection drops.
+     * @param method name of corresponding Meteor method
+     * @param params arguments to be passed to the Meteor method
+     * @return method call
+     */
+    public MethodCall callAsync(String method, Object[] params) {
+        return callAsync(method, params, mDefaultMethodTimeout, false);
+    }
+
+    /**
+     * Calls a Meteor method and returns a future for its result.
+     * Calls are sent in order w/ up to the method call window's worth
+     * waiting for results at once (see setMethodCallWindow); calls made
+     * while disconnected are sent once we've reconnected.  If the connection
+     * drops after a call was sent, the call fails w/ a DISCONNECTED error
+     * unless it's retried, in which case it's sent again before any other
+     * queued calls once we've reconnected.
+     * @param method name of corresponding Meteor method
+     * @param params arguments to be passed to the Meteor method
+     * @param timeoutMillis how long to wait for a result, counting time spent queued (0 for no limit)
+     * @param retryOnReconnect whether to resend the call after a reconnect
+     *  (only for methods that are safe to run twice)
+     * @return method call
+     */
+    public MethodCall callAsync(String method, Object[] params, long timeoutMillis,
+            boolean retryOnReconnect) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout can't be negative");
+        }
+        MethodCall call = new MethodCall(method, params, timeoutMillis, retryOnReconnect);
+        mMethodCalls.submit(call);
+        return call;
+    }
+
+    /**
+     * Applies a local write to the cache right away and calls a Meteor method
+     * that makes the same changes on the server.
+     * Uses the default timeout and isn't retried if the connection drops.
+     * @param method name of corresponding Meteor method
+     * @param params arguments to be passed to the Meteor method
+     * @param write changes to show until the server's changes arrive
+     * @return method call
+     */
+    public MethodCall callOptimistic(String method, Object[] params, LocalWrite write) {
+        return callOptimistic(method, params, write, mDefaultMethodTimeout, false);
+    }
+
+    /**
+     * Applies a local write to the cache right away and calls a Meteor method
+     * that makes the same changes on the server, like a Meteor method stub.
+     * Listeners, live queries and broadcasts see the local changes as normal
+     * doc changes.  Until the server says it's sent all of the call's doc
+     * changes (its "updated" message), changes the server sends for the docs
+     * the write touched are held back; then each doc is reset to what the
+     * server sent, so only real differences get sent out again.  If the call
+     * fails or is cancelled, the write is rolled back the same way.
+     * The call is queued like callAsync() calls.
+     * @param method name of corresponding Meteor method
+     * @param params arguments to be passed to the Meteor method
+     * @param write changes to show until the server's changes arrive
+     * @param timeoutMillis how long to wait for a result, counting time spent queued (0 for no limit)
+     * @param retryOnReconnect whether to resend the call after a reconnect
+     *  (only for methods that are safe to run twice)
+     * @return method call
+     */
+    public MethodCall callOptimistic(String method, Object[] params, final LocalWrite write,
+            long timeoutMillis, boolean retryOnReconnect) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout can't be negative");
+        }
+        final OptimisticCall call = new OptimisticCall(method, params, timeoutMillis, retryOnReconnect);
+        // apply it in order w/ doc messages that are already queued
+        runAfterQueuedMessages(new Runnable() {
+            @Override
+            public void run() {
+                if (call.isCancelled()) {
+                    return;
+                }
+                applyLocalWrite(call, write);
+                mMethodCalls.submit(call);
+                if (call.isCancelled()) {
+                    // cancelled while we were applying it
+                    settleLocalWrite(call);
+                }
+            }
+        });
+        return call;
+    }
+
+    /**
+     * Whether a document has callOptimistic() writes that haven't been
+     * confirmed or rolled back yet, e.g., to show it as "saving"
+     * @param collectionName collection name
+     * @param docId document ID
+     * @return true if local writes are pending on the doc
+     */
+    public boolean hasPendingLocalWrites(String collectionName, String docId) {
+        return !mOptimistic.isEmpty() && mOptimistic.isTracked(collectionName, docId);
+    }
+
+    /**
+     * Gets the number of callOptimistic() calls whose local writes haven't
+     * been confirmed or rolled back yet
+     * @return pending local write count
+     */
+    public int getPendingLocalWriteCount() {
+        return mOptimistic.getPendingCount();
+    }
+
+    /**
+     * Calls one method once for each set of arguments, e.g., for bulk writes.
+     * Uses the default method timeout and calls aren't retried if the connection drops.
+     * @param method name of corresponding Meteor method
+     * @param paramsList arguments for each call
+     * @param maxConcurrent max calls from this batch waiting for results at once
+     * @return batch
+     */
+    public MethodBatch callBatch(String method, List<Object[]> paramsList, int maxConcurrent) {
+        return callBatch(method, paramsList, maxConcurrent, mDefaultMethodTimeout, false);
+    }
+
+    /**
+     * Calls one method once for each set of arguments, e.g., for bulk writes.
+     * Calls are sent in order w/ at most maxConcurrent of them waiting for
+     * results at once (the method call window still applies), and the
+     * outcome of each call is collected into one BatchResult.
+     * @param method name of corresponding Meteor method
+     * @param paramsList arguments for each call
+     * @param maxConcurrent max calls from this batch waiting for results at once
+     * @param timeoutMillis timeout for each call, counting time spent queued (0 for no limit)
+     * @param retryOnReconnect whether to resend calls after a reconnect
+     *  (only for methods that are safe to run twice)
+     * @return batch
+     */
+    public MethodBatch callBatch(String method, List<Object[]> paramsList, int maxConcurrent,
+            long timeoutMillis, boolean retryOnReconnect) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("Max concurrent calls must be greater than 0");
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout can't be negative");
+        }
+        MethodBatch batch = new MethodBatch(mMethodCalls, method, new ArrayList<>(paramsList),
+                maxConcurrent, timeoutMillis, retryOnReconnect);
+        batch.start();
+        return batch;
+    }
+
+    /**
+     * Sets how many callAsync() calls can be waiting for results at once;
+     * more calls than that wait their turn locally
+     * @param maxInFlight max calls in flight
+     */
+    public void setMethodCallWindow(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Method call window must be greater than 0");
+        }
+        mMethodCalls.setWindow(maxInFlight);
+    }
+
+    /**
+     * Gets how many callAsync() calls can be waiting for results at once
+     * @return max calls in flight
+     */
+    public int getMethodCallWindow() {
+        return mMethodCalls.getWindow();
+    }
+
+    /**
+     * Sets the timeout used by callAsync(method, params)
+     * @param timeoutMillis timeout in milliseconds (0 for no limit)
+     */
+    public void setDefaultMethodTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout can't be negative");
+        }
+        mDefaultMethodTimeout = timeoutMillis;
+    }
+
+    /**
+     * Gets the timeout used by callAsync(method, params)
+     * @return timeout in milliseconds (0 for no limit)
+     */
+    public long getDefaultMethodTimeout() {
+        return mDefaultMethodTimeout;
+    }
+
+    /**
+     * Gets number of callAsync() calls sent and waiting for results
+     * @return in-flight call count
+     */
+    public int getMethodCallsInFlight() {
+        return mMethodCalls.getInFlightCount();
+    }
+
+    /**
+     * Gets number of callAsync() calls that haven't been sent yet
+     * @return queued call count
+     */
+    public int getQueuedMethodCalls() {
+        return mMethodCalls.getQueuedCount();
+    }
+
+    /**
+     * Turns on durable method calls (see callDurable) and queues any calls
+     * left in the journal from before the app restarted.  Set the durable
+     * call listener first so it hears about those calls' outcomes.
+     * @param journal where calls are kept until the server answers them,
+     *  e.g., new SQLiteMethodJournal(context)
+     * @param waitForLogin true to only send calls while the user is logged in
+     *  (after the resume login when reconnecting), false to send them as
+     *  soon as we're connected
+     */
+    public void setDurableCalls(MethodJournal journal, boolean waitForLogin) {
+        disableDurableCalls();
+        DurableCallQueue durableCalls = new DurableCallQueue(this, journal, waitForLogin,
+                mDurableCallBatchSize);
+        durableCalls.restore();
+        mDurableCalls = durableCalls;
+        if (isConnected() && (!waitForLogin || isLoggedIn())) {
+            durableCalls.start();
+        }
+    }
+
+    /**
+     * Turns off durable method calls.  Calls that haven't been answered
+     * stay in the journal (and their futures stay pending); they're sent
+     * again the next time durable calls are turned on w/ the same journal.
+     */
+    public void disableDurableCalls() {
+        DurableCallQueue oldDurableCalls = mDurableCalls;
+        if (oldDurableCalls != null) {
+            mDurableCalls = null;
+            oldDurableCalls.shutdown();
+        }
+    }
+
+    /**
+     * Whether durable method calls are on
+     * @return true if callDurable() can be used
+     */
+    public boolean isDurableCallsEnabled() {
+        return mDurableCalls != null;
+    }
+
+    /**
+     * Calls a Meteor method that must not get lost if we're offline or the
+     * app is killed.  The call is written to the journal (on a background
+     * thread) and stays there until the server returns a result or an
+     * error; it's sent again after every reconnect and app restart until
+     * then, in the order calls were made, w/ at most the durable call batch
+     * size waiting for results at once so a long offline stretch doesn't
+     * flood the server.  Each call gets a unique idempotency key that's
+     * passed to the method as an extra last argument, so the method can
+     * ignore calls it's already run.  Durable calls don't time out.
+     * @param method name of corresponding Meteor method
+     * @param params arguments to be passed to the Meteor method (they need to convert to JSON)
+     * @return durable call
+     */
+    public DurableCall callDurable(String method, Object[] params) {
+        DurableCallQueue durableCalls = mDurableCalls;
+        if (durableCalls == null) {
+            throw new IllegalStateException("Durable calls aren't turned on; call setDurableCalls() first");
+        }
+        return durableCalls.submit(method, params);
+    }
+
+    /**
+     * Sets the listener that gets the outcome of every durable call
+     * (called on the thread that gets the result)
+     * @param listener listener or null to remove it
+     */
+    public void setDurableCallListener(DurableCallListener listener) {
+        setDurableCallListener(listener, (Executor) null);
+    }
+
+    /**
+     * Sets the listener that gets the outcome of every durable call,
+     * called on a Looper's thread (e.g., Looper.getMainLooper() for the UI thread)
+     * @param listener listener or null to remove it
+     * @param looper looper to call it on
+     */
+    public void setDurableCallListener(DurableCallListener listener, Looper looper) {
+        setDurableCallListener(listener, new DDPStateListeners.LooperExecutor(looper));
+    }
+
+    /**
+     * Sets the listener that gets the outcome of every durable call, run by an executor
+     * @param listener listener or null to remove it
+     * @param executor where to call it or null to call it directly
+     */
+    public void setDurableCallListener(DurableCallListener listener, Executor executor) {
+        mDurableCallExecutor = executor;
+        mDurableCallListener = listener;
+    }
+
+    /**
+     * Sets how many durable calls can wait for results at once
+     * @param batchSize max durable calls in flight
+     */
+    public void setDurableCallBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than 0");
+        }
+        mDurableCallBatchSize = batchSize;
+        DurableCallQueue durableCalls = mDurableCalls;
+        if (durableCalls != null) {
+            durableCalls.setBatchSize(batchSize);
+        }
+    }
+
+    /**
+     * Gets how many durable calls can wait for results at once
+     * @return max durable calls in flight
+     */
+    public int getDurableCallBatchSize() {
+        return mDurableCallBatchSize;
+    }
+
+    /**
+     * Gets durable calls the server hasn't answered yet, e.g., to show how
+     * many changes are waiting to sync
+     * @return calls in the order they were made (empty if durable calls are off)
+     */
+    public List<DurableCall> getPendingDurableCalls() {
+        DurableCallQueue durableCalls = mDurableCalls;
+        return (durableCalls != null) ? durableCalls.getPending()
+                : Collections.<DurableCall>emptyList();
+    }
+
+    /**
+     * Cancels every unanswered durable call and empties the journal,
+     * e.g., when a different user logs in
+     */
+    public void clearDurableCalls() {
+        DurableCallQueue durableCalls = mDurableCalls;
+        if (durableCalls != null) {
+            durableCalls.clear();
+        }
+    }
+
+    /**
+     * Stops sending durable calls after a logout if they need a logged in user
+     */
+    private void stopDurableCallsForLogout() {
+        DurableCallQueue durableCalls = mDurableCalls;
+        if (durableCalls != null && durableCalls.isWaitingForLogin()) {
+            durableCalls.stop();
+        }
+    }
+
+    /**
+     * Hands a durable call's outcome to the durable call listener
+     * @param call call the server answered
+     */
+    void notifyDurableCall(final DurableCall call) {
+        final DurableCallListener listener = mDurableCallListener;
+        if (listener == null) {
+            return;
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                MethodCallException error = call.getError();
+                if (error != null) {
+                    listener.onError(call, error);
+                } else {
+                    listener.onResult(call, call.getResult());
+                }
+            }
+        };
+        Executor executor = mDurableCallExecutor;
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            task.run();
+        }
+    }
 }
@@ -30,6 +30,10 @@ public interface DDPStateStorage {
             String docId);
 
     boolean removeDoc(String collName, String docId);
-    
+
+    Map<String, Map<String, Object>> getCollection(String collName);
+
+    Map<String, Object> getDocument(String collName, String docId);
+
     String getUserEmail(String userId);
 }
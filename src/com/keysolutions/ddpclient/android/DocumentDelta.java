@@ -0,0 +1,177 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import com.keysolutions.ddpclient.DDPClient.DdpMessageField;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Field-level description of a DDP "changed" message so receivers can
+ * update only what changed instead of re-reading the whole document.
+ */
+public class DocumentDelta {
+    /** new values of fields that were set */
+    private final Map<String, Object> mChangedFields;
+    /** names of fields that were removed */
+    private final List<String> mClearedFields;
+    /** values of the changed/cleared fields before the change or null if not tracked */
+    private final Map<String, Object> mPreviousValues;
+
+    /**
+     * Constructor
+     * @param changedFields new values of fields that were set
+     * @param clearedFields names of fields that were removed
+     * @param previousValues old values of affected fields or null if not tracked
+     */
+    public DocumentDelta(Map<String, Object> changedFields, List<String> clearedFields,
+            Map<String, Object> previousValues) {
+        this.mChangedFields = (changedFields != null) ? changedFields
+                : Collections.<String, Object>emptyMap();
+        this.mClearedFields = (clearedFields != null) ? clearedFields
+                : Collections.<String>emptyList();
+        this.mPreviousValues = previousValues;
+    }
+
+    /**
+     * Creates a delta from a DDP "changed" message
+     * @param jsonFields fields of the "changed" message
+     * @param currentDoc document before the change is applied, or null to skip
+     *        capturing previous values
+     * @return delta for the message
+     */
+    @SuppressWarnings("unchecked")
+    public static DocumentDelta fromMessage(Map<String, Object> jsonFields,
+            Map<String, Object> currentDoc) {
+        Map<String, Object> changedFields = (Map<String, Object>) jsonFields
+                .get(DdpMessageField.FIELDS);
+        List<String> clearedFields = (List<String>) jsonFields
+                .get(DdpMessageField.CLEARED);
+        Map<String, Object> previousValues = null;
+        if (currentDoc != null) {
+            previousValues = new HashMap<>();
+            if (changedFields != null) {
+                for (String fieldName : changedFields.keySet()) {
+                    previousValues.put(fieldName, currentDoc.get(fieldName));
+                }
+            }
+            if (clearedFields != null) {
+                for (String fieldName : clearedFields) {
+                    previousValues.put(fieldName, currentDoc.get(fieldName));
+                }
+            }
+        }
+        return new DocumentDelta(changedFields, clearedFields, previousValues);
+    }
+
+    /**
+     * Gets new values of fields that were set
+     * @return map of field name to new value (empty if none)
+     */
+    public Map<String, Object> getChangedFields() {
+        return mChangedFields;
+    }
+
+    /**
+     * Gets names of fields that were set
+     * @return set of field names (empty if none)
+     */
+    public Set<String> getChangedFieldNames() {
+        return mChangedFields.keySet();
+    }
+
+    /**
+     * Gets names of fields that were removed
+     * @return list of field names (empty if none)
+     */
+    public List<String> getClearedFields() {
+        return mClearedFields;
+    }
+
+    /**
+     * Gets names of all fields that were set or removed
+     * @return set of field names
+     */
+    public Set<String> getAffectedFieldNames() {
+        Set<String> names = new HashSet<>(mChangedFields.keySet());
+        names.addAll(mClearedFields);
+        return names;
+    }
+
+    /**
+     * Whether a field was set or removed by this change
+     * @param fieldName field name
+     * @return true if the field was affected
+     */
+    public boolean isFieldAffected(String fieldName) {
+        return mChangedFields.containsKey(fieldName) || mClearedFields.contains(fieldName);
+    }
+
+    /**
+     * Whether previous values were captured for this change
+     * (see DDPStateSingleton.setTrackPreviousValues)
+     * @return true if getPreviousValues() is available
+     */
+    public boolean hasPreviousValues() {
+        return mPreviousValues != null;
+    }
+
+    /**
+     * Gets values of the affected fields before the change
+     * @return map of field name to old value (value is null if field didn't exist)
+     *         or null if previous values weren't tracked
+     */
+    public Map<String, Object> getPreviousValues() {
+        return mPreviousValues;
+    }
+
+    /**
+     * Gets value of a field before the change
+     * @param fieldName field name
+     * @return old value or null if it didn't exist or wasn't tracked
+     */
+    public Object getPreviousValue(String fieldName) {
+        return (mPreviousValues != null) ? mPreviousValues.get(fieldName) : null;
+    }
+
+    /**
+     * Gets changed field names as a list (for putting into Intent extras)
+     * @return new list of field names
+     */
+    ArrayList<String> getChangedFieldNameList() {
+        return new ArrayList<>(mChangedFields.keySet());
+    }
+
+    /**
+     * Gets cleared field names as a list (for putting into Intent extras)
+     * @return new list of field names
+     */
+    ArrayList<String> getClearedFieldList() {
+        return new ArrayList<>(mClearedFields);
+    }
+
+    @Override
+    public String toString() {
+        return "changed=" + mChangedFields.keySet() + " cleared=" + mClearedFields;
+    }
+}
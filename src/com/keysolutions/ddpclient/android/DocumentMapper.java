@@ -0,0 +1,388 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binds collection documents to instances of an app's POJO class.
+ * Fields are matched to document fields by name (or by Gson's @SerializedName),
+ * and a String field named/annotated "_id" gets the document ID.
+ * The fields, their types and how to convert values into them are worked out
+ * once per class and cached, so mapping a doc or applying a "changed" message
+ * is just a lookup and a field write per field: Gson's Doubles are converted
+ * to int/long/float/etc., {"$date": millis} values to Dates, and nested
+ * objects and typed Lists (e.g., List&lt;Email&gt;) are converted w/ Gson.
+ * Classes need a no-arg constructor (it can be private).
+ * @param <T> POJO class
+ */
+public final class DocumentMapper<T> {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DocumentMapper.class);
+
+    /** document field that holds the doc ID */
+    public static final String ID_FIELD = "_id";
+
+    /** mappers that have been built: { class, mapper } */
+    private static final Map<Class<?>, DocumentMapper<?>> sMappers = new ConcurrentHashMap<>();
+    /** converts nested objects and typed Lists */
+    private static final Gson sGSON = new Gson();
+
+    // how a field's value is converted
+    private static final int KIND_ASSIGN = 0;
+    private static final int KIND_INT = 1;
+    private static final int KIND_LONG = 2;
+    private static final int KIND_DOUBLE = 3;
+    private static final int KIND_FLOAT = 4;
+    private static final int KIND_SHORT = 5;
+    private static final int KIND_BYTE = 6;
+    private static final int KIND_BOOLEAN = 7;
+    private static final int KIND_STRING = 8;
+    private static final int KIND_DATE = 9;
+    private static final int KIND_GSON = 10;
+
+    /** cached accessor for one POJO field */
+    private static final class FieldBinding {
+        final Field field;
+        final int kind;
+        final boolean primitive;
+
+        FieldBinding(Field field, int kind) {
+            this.field = field;
+            this.kind = kind;
+            this.primitive = field.getType().isPrimitive();
+        }
+    }
+
+    private final Class<T> mType;
+    private final Constructor<T> mConstructor;
+    /** { document field name, binding } */
+    private final Map<String, FieldBinding> mBindings;
+    /** binding that gets the doc ID or null if the class doesn't have one */
+    private final FieldBinding mIdBinding;
+
+    /**
+     * Gets the mapper for a class, building it the first time
+     * @param type POJO class
+     * @param <T> POJO class
+     * @return mapper for type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> DocumentMapper<T> forClass(Class<T> type) {
+        DocumentMapper<T> mapper = (DocumentMapper<T>) sMappers.get(type);
+        if (mapper == null) {
+            // building one twice in a race is harmless
+            mapper = new DocumentMapper<>(type);
+            sMappers.put(type, mapper);
+        }
+        return mapper;
+    }
+
+    /**
+     * Constructor; looks up the class's fields and how to convert each one
+     * @param type POJO class
+     */
+    private DocumentMapper(Class<T> type) {
+        this.mType = type;
+        try {
+            mConstructor = type.getDeclaredConstructor();
+            mConstructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getName() + " needs a no-arg constructor", e);
+        }
+        Map<String, FieldBinding> bindings = new HashMap<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+                        || Modifier.isFinal(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                SerializedName serializedName = field.getAnnotation(SerializedName.class);
+                String name = (serializedName != null) ? serializedName.value() : field.getName();
+                if (bindings.containsKey(name)) {
+                    // subclass field wins
+                    continue;
+                }
+                field.setAccessible(true);
+                bindings.put(name, new FieldBinding(field, kindOf(field)));
+            }
+        }
+        FieldBinding idBinding = bindings.remove(ID_FIELD);
+        mIdBinding = (idBinding != null && idBinding.kind == KIND_STRING) ? idBinding : null;
+        mBindings = bindings;
+    }
+
+    /**
+     * Gets the POJO class this maps to
+     * @return POJO class
+     */
+    public Class<T> getType() {
+        return mType;
+    }
+
+    /**
+     * Gets the document field names that are bound to POJO fields
+     * @return field names (not including "_id")
+     */
+    public List<String> getFieldNames() {
+        return Collections.unmodifiableList(new ArrayList<>(mBindings.keySet()));
+    }
+
+    /**
+     * Creates a POJO from a document
+     * @param docId document ID
+     * @param fields document fields (null for none)
+     * @return new POJO
+     */
+    public T toObject(String docId, Map<String, Object> fields) {
+        T target;
+        try {
+            target = mConstructor.newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("Can't create " + mType.getName(), e);
+        }
+        if (mIdBinding != null) {
+            setField(target, mIdBinding, docId);
+        }
+        if (fields != null) {
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                FieldBinding binding = mBindings.get(field.getKey());
+                if (binding != null) {
+                    setField(target, binding, field.getValue());
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Applies a "changed" message's fields to a POJO; fields that weren't
+     * changed aren't touched
+     * @param target POJO to update
+     * @param changedFields fields that were set (can be null)
+     * @param clearedFields fields that were cleared (can be null); set to null/0/false
+     */
+    public void update(T target, Map<String, Object> changedFields, List<String> clearedFields) {
+        if (changedFields != null) {
+            for (Map.Entry<String, Object> field : changedFields.entrySet()) {
+                FieldBinding binding = mBindings.get(field.getKey());
+                if (binding != null) {
+                    setField(target, binding, field.getValue());
+                }
+            }
+        }
+        if (clearedFields != null) {
+            for (String fieldName : clearedFields) {
+                FieldBinding binding = mBindings.get(fieldName);
+                if (binding != null) {
+                    setField(target, binding, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a document change to a POJO
+     * @param target POJO to update
+     * @param delta fields that were set/cleared
+     */
+    public void update(T target, DocumentDelta delta) {
+        update(target, delta.getChangedFields(), delta.getClearedFields());
+    }
+
+    /**
+     * Works out how values get converted for a field
+     * @param field POJO field
+     * @return conversion kind
+     */
+    private static int kindOf(Field field) {
+        Class<?> type = field.getType();
+        if (type == int.class || type == Integer.class) {
+            return KIND_INT;
+        } else if (type == long.class || type == Long.class) {
+            return KIND_LONG;
+        } else if (type == double.class || type == Double.class) {
+            return KIND_DOUBLE;
+        } else if (type == float.class || type == Float.class) {
+            return KIND_FLOAT;
+        } else if (type == short.class || type == Short.class) {
+            return KIND_SHORT;
+        } else if (type == byte.class || type == Byte.class) {
+            return KIND_BYTE;
+        } else if (type == boolean.class || type == Boolean.class) {
+            return KIND_BOOLEAN;
+        } else if (type == String.class) {
+            return KIND_STRING;
+        } else if (type == Date.class) {
+            return KIND_DATE;
+        } else if (type == Object.class || ((type == Map.class || type == List.class)
+                && field.getGenericType() instanceof Class)) {
+            // Gson's maps/lists can go straight in
+            return KIND_ASSIGN;
+        }
+        return KIND_GSON;
+    }
+
+    /**
+     * Converts a document value and writes it to a POJO field
+     * @param target POJO
+     * @param binding field binding
+     * @param value document value (null to clear)
+     */
+    private static void setField(Object target, FieldBinding binding, Object value) {
+        Field field = binding.field;
+        try {
+            if (value == null) {
+                if (binding.primitive) {
+                    clearPrimitive(target, binding);
+                } else {
+                    field.set(target, null);
+                }
+                return;
+            }
+            switch (binding.kind) {
+                case KIND_INT:
+                    if (binding.primitive) {
+                        field.setInt(target, ((Number) value).intValue());
+                    } else {
+                        field.set(target, ((Number) value).intValue());
+                    }
+                    break;
+                case KIND_LONG:
+                    if (binding.primitive) {
+                        field.setLong(target, ((Number) value).longValue());
+                    } else {
+                        field.set(target, ((Number) value).longValue());
+                    }
+                    break;
+                case KIND_DOUBLE:
+                    if (binding.primitive) {
+                        field.setDouble(target, ((Number) value).doubleValue());
+                    } else {
+                        field.set(target, ((Number) value).doubleValue());
+                    }
+                    break;
+                case KIND_FLOAT:
+                    if (binding.primitive) {
+                        field.setFloat(target, ((Number) value).floatValue());
+                    } else {
+                        field.set(target, ((Number) value).floatValue());
+                    }
+                    break;
+                case KIND_SHORT:
+                    if (binding.primitive) {
+                        field.setShort(target, ((Number) value).shortValue());
+                    } else {
+                        field.set(target, ((Number) value).shortValue());
+                    }
+                    break;
+                case KIND_BYTE:
+                    if (binding.primitive) {
+                        field.setByte(target, ((Number) value).byteValue());
+                    } else {
+                        field.set(target, ((Number) value).byteValue());
+                    }
+                    break;
+                case KIND_BOOLEAN:
+                    if (binding.primitive) {
+                        field.setBoolean(target, (Boolean) value);
+                    } else {
+                        field.set(target, value);
+                    }
+                    break;
+                case KIND_STRING:
+                    field.set(target, value.toString());
+                    break;
+                case KIND_DATE:
+                    field.set(target, toDate(value));
+                    break;
+                case KIND_ASSIGN:
+                    field.set(target, value);
+                    break;
+                default:
+                    field.set(target, sGSON.fromJson(sGSON.toJsonTree(value), field.getGenericType()));
+                    break;
+            }
+        } catch (ClassCastException | IllegalArgumentException | JsonParseException e) {
+            log.warn("Can't set " + field.getDeclaringClass().getSimpleName() + "." + field.getName()
+                    + " from " + value.getClass().getSimpleName() + " value: " + e.getMessage());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can't set " + field.getName(), e);
+        }
+    }
+
+    /**
+     * Resets a primitive field to 0/false
+     * @param target POJO
+     * @param binding field binding
+     * @throws IllegalAccessException if the field can't be written
+     */
+    private static void clearPrimitive(Object target, FieldBinding binding) throws IllegalAccessException {
+        Field field = binding.field;
+        switch (binding.kind) {
+            case KIND_BOOLEAN:
+                field.setBoolean(target, false);
+                break;
+            case KIND_SHORT:
+                field.setShort(target, (short) 0);
+                break;
+            case KIND_BYTE:
+                field.setByte(target, (byte) 0);
+                break;
+            case KIND_FLOAT:
+                field.setFloat(target, 0);
+                break;
+            case KIND_DOUBLE:
+                field.setDouble(target, 0);
+                break;
+            case KIND_LONG:
+                field.setLong(target, 0);
+                break;
+            default:
+                field.setInt(target, 0);
+                break;
+        }
+    }
+
+    /**
+     * Converts an EJSON date ({"$date": millis}) or a number of millis to a Date
+     * @param value document value
+     * @return date
+     */
+    private static Date toDate(Object value) {
+        if (value instanceof Date) {
+            return (Date) value;
+        } else if (value instanceof Map) {
+            value = ((Map<?, ?>) value).get("$date");
+        }
+        return new Date(((Number) value).longValue());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Field layout shared by every CompactDocument in a collection.
+ * Each field name gets a slot number the first time any document in the
+ * collection uses it, so documents only store values (not keys) and the
+ * field name strings exist once per collection instead of once per document.
+ * Slots are never reused, so a collection w/ many different field names
+ * (e.g., maps keyed by user ID) isn't a good fit for compact storage.
+ */
+final class DocumentSchema {
+    /** { fieldName, slot } */
+    private final Map<String, Integer> mSlots = new ConcurrentHashMap<>();
+    /** field name for each slot */
+    private volatile String[] mFieldNames = new String[0];
+
+    /**
+     * Gets the slot for a field name
+     * @param fieldName field name
+     * @return slot number or -1 if no document has used the field yet
+     */
+    int getSlot(Object fieldName) {
+        Integer slot = mSlots.get(fieldName);
+        return (slot != null) ? slot : -1;
+    }
+
+    /**
+     * Gets the slot for a field name, adding it to the schema if needed
+     * @param fieldName field name
+     * @return slot number
+     */
+    int getOrAddSlot(String fieldName) {
+        Integer slot = mSlots.get(fieldName);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (this) {
+            slot = mSlots.get(fieldName);
+            if (slot == null) {
+                String[] names = new String[mFieldNames.length + 1];
+                System.arraycopy(mFieldNames, 0, names, 0, mFieldNames.length);
+                names[mFieldNames.length] = fieldName;
+                // publish the name before the slot so readers that find the slot can find the name
+                mFieldNames = names;
+                slot = mFieldNames.length - 1;
+                mSlots.put(fieldName, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * Gets the field name for a slot
+     * @param slot slot number
+     * @return field name
+     */
+    String getFieldName(int slot) {
+        return mFieldNames[slot];
+    }
+
+    /**
+     * Gets the number of slots in use
+     * @return number of distinct field names seen in the collection
+     */
+    int size() {
+        return mFieldNames.length;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.Arrays;
+
+/**
+ * Method call started w/ DDPStateSingleton.callDurable().  It's journaled
+ * until the server answers it, so it's sent again after a reconnect or an
+ * app restart; its idempotency key lets the server ignore repeats.  It
+ * never times out and it's only done once the server returns a result or
+ * an error (or it's cancelled, which drops it from the journal).
+ * The key is sent as an extra last argument, so getParams() includes it.
+ */
+public class DurableCall extends MethodCall {
+    private final DurableCallQueue mDurableQueue;
+    private final String mKey;
+    private final boolean mRestored;
+
+    /**
+     * Constructor
+     * @param queue durable call queue it belongs to
+     * @param entry journal entry for the call
+     * @param restored whether it was loaded from the journal on startup
+     */
+    DurableCall(DurableCallQueue queue, MethodJournal.Entry entry, boolean restored) {
+        super(entry.getMethod(), withKey(entry.getParams(), entry.getKey()), 0, true);
+        this.mDurableQueue = queue;
+        this.mKey = entry.getKey();
+        this.mRestored = restored;
+    }
+
+    /**
+     * Gets the idempotency key the server can use to spot repeats of this call
+     * @return idempotency key
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * Whether the call was made before the app restarted and loaded from the
+     * journal, so only the DurableCallListener will hear about its outcome
+     * @return true if it was restored from the journal
+     */
+    public boolean isRestored() {
+        return mRestored;
+    }
+
+    @Override
+    void finished() {
+        mDurableQueue.finished(this);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!super.cancel(mayInterruptIfRunning)) {
+            return false;
+        }
+        mDurableQueue.cancelled(this);
+        return true;
+    }
+
+    /**
+     * Adds the idempotency key to the end of the arguments
+     * @param params method arguments
+     * @param key idempotency key
+     * @return arguments to send
+     */
+    private static Object[] withKey(Object[] params, String key) {
+        if (params == null) {
+            return new Object[] { key };
+        }
+        Object[] sent = Arrays.copyOf(params, params.length + 1);
+        sent[params.length] = key;
+        return sent;
+    }
+}
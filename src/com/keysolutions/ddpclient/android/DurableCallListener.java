@@ -0,0 +1,39 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+/**
+ * Gets the outcome of every durable method call, including calls made
+ * before the app was restarted (register w/ DDPStateSingleton.setDurableCallListener)
+ */
+public interface DurableCallListener {
+    /**
+     * Called when a durable call's method returned
+     * @param call the call (see getKey() to match it up w/ what you saved)
+     * @param result the method's return value (null if it didn't return anything)
+     */
+    void onResult(DurableCall call, Object result);
+
+    /**
+     * Called when the server returned an error for a durable call
+     * (the call is dropped from the journal, so it won't be retried)
+     * @param call the call
+     * @param error what went wrong
+     */
+    void onError(DurableCall call, MethodCallException error);
+}
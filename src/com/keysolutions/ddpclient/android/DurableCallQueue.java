@@ -0,0 +1,257 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import android.support.v4.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Journals durable method calls and sends them through a call queue of
+ * their own w/ at most a batch's worth waiting for results at once.  Calls
+ * only go out while we're connected (and logged in, if that's required),
+ * and they stay in the journal until the server answers them, so calls made
+ * offline survive the app's process being killed.
+ */
+final class DurableCallQueue {
+    private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+
+    /** default max durable calls waiting for results at once */
+    static final int DEFAULT_BATCH_SIZE = 10;
+
+    private final DDPStateSingleton mDDP;
+    private final MethodJournal mJournal;
+    private final boolean mWaitForLogin;
+
+    /** sends the calls once they're journaled */
+    private final MethodCallQueue mCalls;
+
+    /** calls that haven't been answered yet, in the order they were made */
+    private final Set<DurableCall> mPending = new LinkedHashSet<>();
+
+    /** runs journal reads/writes in order, off the caller's thread */
+    private final ExecutorService mJournalThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ddp-journal");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Constructor
+     * @param ddp DDP singleton to send calls through
+     * @param journal where calls are kept until they're answered
+     * @param waitForLogin whether calls wait for the user to be logged in
+     * @param batchSize max calls waiting for results at once
+     */
+    DurableCallQueue(DDPStateSingleton ddp, MethodJournal journal, boolean waitForLogin, int batchSize) {
+        this.mDDP = ddp;
+        this.mJournal = journal;
+        this.mWaitForLogin = waitForLogin;
+        this.mCalls = new MethodCallQueue(ddp);
+        mCalls.setWindow(batchSize);
+    }
+
+    /**
+     * Queues the calls left in the journal, e.g., from before the app restarted
+     */
+    void restore() {
+        runOnJournalThread(new Runnable() {
+            @Override
+            public void run() {
+                List<MethodJournal.Entry> entries;
+                try {
+                    entries = mJournal.load();
+                } catch (RuntimeException e) {
+                    log.error("Failed reading method journal", e);
+                    return;
+                }
+                for (MethodJournal.Entry entry : entries) {
+                    DurableCall call = new DurableCall(DurableCallQueue.this, entry, true);
+                    synchronized (DurableCallQueue.this) {
+                        mPending.add(call);
+                    }
+                    mCalls.submit(call);
+                }
+                if (!entries.isEmpty()) {
+                    log.info("Restored " + entries.size() + " journaled method calls");
+                }
+            }
+        });
+    }
+
+    /**
+     * Journals a call and queues it once it's been written
+     * @param method method name
+     * @param params method arguments
+     * @return durable call
+     */
+    DurableCall submit(String method, Object[] params) {
+        final MethodJournal.Entry entry = new MethodJournal.Entry(UUID.randomUUID().toString(),
+                method, params);
+        final DurableCall call = new DurableCall(this, entry, false);
+        synchronized (this) {
+            mPending.add(call);
+        }
+        runOnJournalThread(new Runnable() {
+            @Override
+            public void run() {
+                if (call.isCancelled()) {
+                    return;
+                }
+                try {
+                    mJournal.append(entry);
+                } catch (RuntimeException e) {
+                    // still send it; it just won't survive a restart
+                    log.error("Failed journaling call to " + entry.getMethod(), e);
+                }
+                mCalls.submit(call);
+            }
+        });
+        return call;
+    }
+
+    /**
+     * Whether calls wait for the user to be logged in
+     * @return true if calls only go out while logged in
+     */
+    boolean isWaitingForLogin() {
+        return mWaitForLogin;
+    }
+
+    /**
+     * Starts sending calls (connected, and logged in if that's required)
+     */
+    void start() {
+        mCalls.connected();
+    }
+
+    /**
+     * Stops sending calls; ones that were sent go out again first once
+     * we've started again, since their results may never come back
+     */
+    void stop() {
+        mCalls.connectionClosed(true);
+    }
+
+    /**
+     * Changes the number of calls that can wait for results at once
+     * @param batchSize max calls in flight
+     */
+    void setBatchSize(int batchSize) {
+        mCalls.setWindow(batchSize);
+    }
+
+    /**
+     * Gets calls that haven't been answered yet
+     * @return calls in the order they were made
+     */
+    synchronized List<DurableCall> getPending() {
+        return new ArrayList<>(mPending);
+    }
+
+    /**
+     * Drops a call the server answered from the journal and hands its outcome to the listener
+     * @param call finished call
+     */
+    void finished(DurableCall call) {
+        forget(call);
+        mDDP.notifyDurableCall(call);
+    }
+
+    /**
+     * Drops a cancelled call from the journal
+     * @param call cancelled call
+     */
+    void cancelled(DurableCall call) {
+        forget(call);
+    }
+
+    /**
+     * Cancels every pending call and empties the journal
+     */
+    void clear() {
+        for (DurableCall call : getPending()) {
+            call.cancel(false);
+        }
+        runOnJournalThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mJournal.clear();
+                } catch (RuntimeException e) {
+                    log.error("Failed clearing method journal", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops sending calls and finishes pending journal writes; unanswered
+     * calls stay in the journal
+     */
+    void shutdown() {
+        stop();
+        mJournalThread.shutdown();
+    }
+
+    /**
+     * Removes a call from the pending calls and the journal
+     * @param call call that's done
+     */
+    private void forget(final DurableCall call) {
+        synchronized (this) {
+            mPending.remove(call);
+        }
+        runOnJournalThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mJournal.remove(call.getKey());
+                } catch (RuntimeException e) {
+                    log.error("Failed removing call to " + call.getMethod() + " from method journal", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a journal read/write after the ones already queued
+     * @param task journal task
+     */
+    private void runOnJournalThread(Runnable task) {
+        try {
+            mJournalThread.execute(task);
+        } catch (RejectedExecutionException e) {
+            // shut down; whatever's left is picked up from the journal next time
+            if (BuildConfig.DEBUG) {
+                log.debug("Method journal is closed; skipping journal update");
+            }
+        }
+    }
+}
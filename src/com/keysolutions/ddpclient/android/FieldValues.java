@@ -0,0 +1,256 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers for comparing and hashing document field values the way Mongo does.
+ * Gson gives us every number as a Double, so numbers are compared by value
+ * regardless of their boxed type.
+ */
+final class FieldValues {
+    private FieldValues() {
+    }
+
+    /**
+     * Gets the sort rank of a value's type
+     * (null &lt; numbers &lt; strings &lt; objects &lt; arrays &lt; booleans)
+     * @param value field value
+     * @return type rank
+     */
+    private static int typeRank(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return 1;
+        } else if (value instanceof String) {
+            return 2;
+        } else if (value instanceof Map) {
+            return 3;
+        } else if (value instanceof List) {
+            return 4;
+        } else if (value instanceof Boolean) {
+            return 5;
+        }
+        return 6;
+    }
+
+    /**
+     * Compares two field values
+     * @param a first value
+     * @param b second value
+     * @return negative, zero or positive like Comparator.compare
+     */
+    static int compare(Object a, Object b) {
+        int rankA = typeRank(a);
+        int rankB = typeRank(b);
+        if (rankA != rankB) {
+            return (rankA < rankB) ? -1 : 1;
+        }
+        switch (rankA) {
+            case 0:
+                return 0;
+            case 1:
+                return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            case 2:
+                return ((String) a).compareTo((String) b);
+            case 4:
+                List<?> listA = (List<?>) a;
+                List<?> listB = (List<?>) b;
+                int size = Math.min(listA.size(), listB.size());
+                for (int i = 0; i < size; i++) {
+                    int result = compare(listA.get(i), listB.get(i));
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return (listA.size() < listB.size()) ? -1 : ((listA.size() == listB.size()) ? 0 : 1);
+            case 5:
+                return ((Boolean) a).compareTo((Boolean) b);
+            default:
+                return a.toString().compareTo(b.toString());
+        }
+    }
+
+    /**
+     * Whether two field values are equal (numbers are equal if their values are)
+     * @param a first value
+     * @param b second value
+     * @return true if equal
+     */
+    static boolean equal(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a instanceof Number && b instanceof Number) {
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Whether two values are the same kind of value for $gt/$lt style comparisons
+     * @param a first value
+     * @param b second value
+     * @return true if both are numbers, both are strings, etc.
+     */
+    static boolean sameType(Object a, Object b) {
+        return typeRank(a) == typeRank(b);
+    }
+
+    /**
+     * Looks up a dotted field path (e.g., "profile.address.city") in a document.
+     * Arrays along the way are expanded the way Mongo does, so "emails.address"
+     * finds the address of every entry in the emails array, and numeric path
+     * parts index into arrays ("emails.0.address").
+     * Values found at the end of the path are added to out; if a value is
+     * an array, the array and each of its elements are added.
+     * Nothing is added if the path doesn't exist.
+     * @param value document (or sub-document) to look in
+     * @param path field path split on dots
+     * @param index which part of the path to look up next
+     * @param out list to add the values found to
+     */
+    static void resolvePath(Object value, String[] path, int index, List<Object> out) {
+        if (index == path.length) {
+            out.add(value);
+            if (value instanceof List) {
+                out.addAll((List<?>) value);
+            }
+            return;
+        }
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (map.containsKey(path[index])) {
+                resolvePath(map.get(path[index]), path, index + 1, out);
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            int position = arrayIndex(path[index]);
+            if (position >= 0) {
+                if (position < list.size()) {
+                    resolvePath(list.get(position), path, index + 1, out);
+                }
+            } else {
+                for (Object element : list) {
+                    if (element instanceof Map) {
+                        resolvePath(element, path, index, out);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the value to sort a document by: the first value found at a field
+     * path (an array at the end of the path isn't expanded)
+     * @param doc document fields
+     * @param path field path split on dots
+     * @return value at path or null if missing
+     */
+    static Object getSortValue(Map<String, Object> doc, String[] path) {
+        if (path.length == 1) {
+            return doc.get(path[0]);
+        }
+        List<Object> values = new ArrayList<>();
+        resolvePath(doc, path, 0, values);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Whether a field path leads to an array or, through arrays along the
+     * way, to more than one value, so a selector can match any one of them
+     * @param doc document fields
+     * @param path field path split on dots
+     * @return true if the path has more than one value to match against
+     */
+    static boolean isMultiValued(Map<String, Object> doc, String[] path) {
+        if (path.length == 1) {
+            return doc.get(path[0]) instanceof List;
+        }
+        List<Object> values = new ArrayList<>();
+        resolvePath(doc, path, 0, values);
+        return values.size() > 1 || (values.size() == 1 && values.get(0) instanceof List);
+    }
+
+    /**
+     * Gets the values an equality index files a document under: each value
+     * found at a field path, w/ arrays replaced by their elements
+     * @param doc document fields
+     * @param path field path split on dots
+     * @return values at path or a single null if missing
+     */
+    static List<Object> getIndexValues(Map<String, Object> doc, String[] path) {
+        if (path.length == 1) {
+            Object value = doc.get(path[0]);
+            if (value instanceof List) {
+                return new ArrayList<Object>((List<?>) value);
+            }
+            return Collections.singletonList(value);
+        }
+        List<Object> values = new ArrayList<>();
+        resolvePath(doc, path, 0, values);
+        if (values.isEmpty()) {
+            return Collections.singletonList(null);
+        }
+        // resolvePath() adds an array's elements after the array itself
+        List<Object> indexValues = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (!(value instanceof List)) {
+                indexValues.add(value);
+            }
+        }
+        return indexValues;
+    }
+
+    /**
+     * Parses a path part as an array index
+     * @param part path part
+     * @return array index or -1 if it's not a number
+     */
+    private static int arrayIndex(String part) {
+        if (part.isEmpty() || part.length() > 9) {
+            return -1;
+        }
+        for (int i = 0; i < part.length(); i++) {
+            if (!Character.isDigit(part.charAt(i))) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(part);
+    }
+
+    /**
+     * Converts a value into something that can be used as a hash key so
+     * numbers of different boxed types hash the same
+     * @param value field value
+     * @return hash key for value
+     */
+    static Object toKey(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) {
+            return ((Number) value).doubleValue();
+        }
+        return value;
+    }
+}
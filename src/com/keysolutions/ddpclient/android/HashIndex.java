@@ -0,0 +1,146 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index that maps a field's value to the IDs of the documents w/ that value
+ * for fast equality lookups (e.g., all messages where roomId == "abc").
+ * If the field holds an array, the document is indexed under each element.
+ * The field name can be a dotted path (e.g., "profile.city"), which is looked
+ * up the same way selectors do.
+ */
+public class HashIndex extends CollectionIndex {
+    /** indexed field path split on dots */
+    private final String[] mPath;
+    /** { fieldValue, docIds } */
+    private final Map<Object, Set<String>> mDocIdsByValue = new HashMap<>();
+    /** { docId, values it's indexed under } so docs can be removed w/o their old values */
+    private final Map<String, Object[]> mValuesByDocId = new HashMap<>();
+
+    /**
+     * Constructor
+     * @param fieldName name of the field to index
+     */
+    public HashIndex(String fieldName) {
+        super(fieldName);
+        this.mPath = fieldName.split("\\.");
+    }
+
+    /**
+     * Gets the name of the indexed field
+     * @return field name
+     */
+    public String getFieldName() {
+        return getFieldNames()[0];
+    }
+
+    /**
+     * Gets IDs of documents whose field is equal to a value
+     * @param value field value to look up
+     * @return doc IDs in the order they were indexed (empty if none)
+     */
+    public synchronized List<String> getDocIds(Object value) {
+        Set<String> docIds = mDocIdsByValue.get(FieldValues.toKey(value));
+        if (docIds == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(docIds);
+    }
+
+    /**
+     * Gets number of documents whose field is equal to a value
+     * @param value field value to look up
+     * @return number of matching docs
+     */
+    public synchronized int count(Object value) {
+        Set<String> docIds = mDocIdsByValue.get(FieldValues.toKey(value));
+        return (docIds == null) ? 0 : docIds.size();
+    }
+
+    /**
+     * Whether a document is indexed under a value
+     * @param value field value
+     * @param docId document ID
+     * @return true if doc has that value
+     */
+    public synchronized boolean contains(Object value, String docId) {
+        Set<String> docIds = mDocIdsByValue.get(FieldValues.toKey(value));
+        return (docIds != null) && docIds.contains(docId);
+    }
+
+    /**
+     * Gets the distinct values of the indexed field
+     * @return list of values
+     */
+    public synchronized List<Object> getValues() {
+        return new ArrayList<>(mDocIdsByValue.keySet());
+    }
+
+    @Override
+    synchronized void put(String docId, Map<String, Object> fields) {
+        remove(docId);
+        List<Object> values = FieldValues.getIndexValues(fields, mPath);
+        Object[] keys = new Object[values.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = FieldValues.toKey(values.get(i));
+        }
+        for (Object key : keys) {
+            Set<String> docIds = mDocIdsByValue.get(key);
+            if (docIds == null) {
+                docIds = new LinkedHashSet<>();
+                mDocIdsByValue.put(key, docIds);
+            }
+            docIds.add(docId);
+        }
+        mValuesByDocId.put(docId, keys);
+    }
+
+    @Override
+    synchronized void remove(String docId) {
+        Object[] keys = mValuesByDocId.remove(docId);
+        if (keys == null) {
+            return;
+        }
+        for (Object key : keys) {
+            Set<String> docIds = mDocIdsByValue.get(key);
+            if (docIds != null) {
+                docIds.remove(docId);
+                if (docIds.isEmpty()) {
+                    mDocIdsByValue.remove(key);
+                }
+            }
+        }
+    }
+
+    @Override
+    synchronized void clear() {
+        mDocIdsByValue.clear();
+        mValuesByDocId.clear();
+    }
+
+    @Override
+    public synchronized int size() {
+        return mValuesByDocId.size();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram w/ log-linear buckets: each power of two is
+ * split into SUB_BUCKETS buckets, so percentiles are within about 12% of
+ * the real value no matter how big the latencies get.
+ */
+final class LatencyHistogram {
+    /** log2 of the number of buckets per power of two */
+    private static final int SUB_BITS = 3;
+    /** buckets per power of two */
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** enough buckets for any positive long */
+    static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    /**
+     * Records a latency
+     * @param nanos elapsed nanoseconds
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mBuckets.incrementAndGet(bucketIndex(nanos));
+        mTotalNanos.addAndGet(nanos);
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    /**
+     * Takes a copy of the counts so far
+     * @return latency stats
+     */
+    LatencyStats snapshot() {
+        long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+        return new LatencyStats(count, mTotalNanos.get(), mMaxNanos.get(), buckets);
+    }
+
+    /**
+     * Gets the bucket a latency goes into
+     * @param nanos latency (not negative)
+     * @return bucket index
+     */
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(nanos)) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Gets the largest latency that goes into a bucket
+     * @param index bucket index
+     * @return upper bound in nanoseconds
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >> SUB_BITS) - 1;
+        long sub = SUB_BUCKETS + (index & (SUB_BUCKETS - 1));
+        if (shift + SUB_BITS >= 62 && sub == 2 * SUB_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time latency counts for one kind of operation (a DDP message
+ * type or a method call), w/ percentiles read off a histogram.
+ */
+public class LatencyStats {
+    private final long mCount;
+    private final long mTotalNanos;
+    private final long mMaxNanos;
+    private final long[] mBuckets;
+
+    /**
+     * Constructor
+     * @param count number of latencies recorded
+     * @param totalNanos sum of the latencies
+     * @param maxNanos largest latency
+     * @param buckets histogram bucket counts (see LatencyHistogram)
+     */
+    LatencyStats(long count, long totalNanos, long maxNanos, long[] buckets) {
+        this.mCount = count;
+        this.mTotalNanos = totalNanos;
+        this.mMaxNanos = maxNanos;
+        this.mBuckets = buckets;
+    }
+
+    /**
+     * Gets number of latencies recorded
+     * @return count
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Gets total time spent
+     * @return sum of latencies in nanoseconds
+     */
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    /**
+     * Gets average latency
+     * @return mean in nanoseconds (0 if nothing was recorded)
+     */
+    public long getMeanNanos() {
+        return (mCount == 0) ? 0 : mTotalNanos / mCount;
+    }
+
+    /**
+     * Gets largest latency
+     * @return max in nanoseconds
+     */
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * Gets a latency percentile
+     * @param percentile percentile between 0 and 100 (e.g., 99 for p99)
+     * @return latency in nanoseconds that percentile of the latencies were at or under
+     *  (0 if nothing was recorded)
+     */
+    public long getPercentileNanos(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(mCount * Math.min(Math.max(percentile, 0.0), 100.0) / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < mBuckets.length; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.bucketUpperBound(i), mMaxNanos);
+            }
+        }
+        return mMaxNanos;
+    }
+
+    /**
+     * Gets the latencies recorded since an earlier snapshot of the same histogram
+     * @param earlier earlier stats or null
+     * @return difference between this and earlier
+     */
+    LatencyStats since(LatencyStats earlier) {
+        if (earlier == null) {
+            return this;
+        }
+        long[] buckets = new long[mBuckets.length];
+        long count = 0;
+        int highest = -1;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = mBuckets[i] - earlier.mBuckets[i];
+            count += buckets[i];
+            if (buckets[i] > 0) {
+                highest = i;
+            }
+        }
+        // the max of just this interval isn't kept, so cap it at its highest bucket
+        long max = (highest < 0) ? 0 : Math.min(mMaxNanos, LatencyHistogram.bucketUpperBound(highest));
+        return new LatencyStats(count, mTotalNanos - earlier.mTotalNanos, max, buckets);
+    }
+
+    /**
+     * Combines two sets of latencies
+     * @param other other stats or null
+     * @return stats for both
+     */
+    LatencyStats merge(LatencyStats other) {
+        if (other == null) {
+            return this;
+        }
+        long[] buckets = new long[mBuckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = mBuckets[i] + other.mBuckets[i];
+        }
+        return new LatencyStats(mCount + other.mCount, mTotalNanos + other.mTotalNanos,
+                Math.max(mMaxNanos, other.mMaxNanos), buckets);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStats{count=" + mCount
+                + ", meanUs=" + TimeUnit.NANOSECONDS.toMicros(getMeanNanos())
+                + ", p50Us=" + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(50))
+                + ", p99Us=" + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(99))
+                + ", maxUs=" + TimeUnit.NANOSECONDS.toMicros(mMaxNanos) + "}";
+    }
+}
@@ -0,0 +1,284 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import com.google.gson.Gson;
+
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Document used by MemoryStateStorage when lazy fields are turned on.
+ * Big nested values (sub-documents and arrays) are kept as UTF-8 JSON and
+ * only parsed the first time something reads that field, e.g., through
+ * MeteorCollectionDoc.getField(), get() or iterating the Map; the parsed
+ * value is then cached.  Small values are stored as-is.
+ * Like the maps Gson creates, this isn't meant to be modified by the app.
+ */
+public final class LazyDocument extends AbstractMap<String, Object> {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /** parses lazy values */
+    private static final Gson sGSON = new Gson();
+
+    /** field value that's still JSON until it's read */
+    static final class LazyValue {
+        private volatile byte[] mJson;
+        private volatile Object mParsed;
+
+        /**
+         * Constructor
+         * @param json UTF-8 JSON of the value
+         */
+        LazyValue(byte[] json) {
+            this.mJson = json;
+        }
+
+        /**
+         * Gets the value, parsing it the first time
+         * @return parsed value
+         */
+        Object get() {
+            Object parsed = mParsed;
+            if (parsed == null) {
+                byte[] json = mJson;
+                if (json == null) {
+                    // another thread just finished parsing it
+                    return mParsed;
+                }
+                parsed = sGSON.fromJson(new String(json, UTF8), Object.class);
+                mParsed = parsed;
+                mJson = null;
+            }
+            return parsed;
+        }
+
+        /**
+         * Gets the JSON for the value
+         * @return JSON string
+         */
+        String toJson() {
+            byte[] json = mJson;
+            return (json != null) ? new String(json, UTF8) : sGSON.toJson(mParsed);
+        }
+
+        /**
+         * Whether the value has been parsed
+         * @return true if parsed
+         */
+        boolean isParsed() {
+            return mJson == null;
+        }
+
+        /**
+         * Gets the parsed value w/o parsing it
+         * @return parsed value or null if not parsed yet
+         */
+        Object peek() {
+            return mParsed;
+        }
+
+        /**
+         * Gets the size of the JSON (0 once parsed)
+         * @return JSON bytes
+         */
+        int getJsonLength() {
+            byte[] json = mJson;
+            return (json != null) ? json.length : 0;
+        }
+    }
+
+    /** { field name, value or LazyValue } */
+    private final Map<String, Object> mFields;
+
+    /**
+     * Constructor
+     * @param fields field values; big ones should already be LazyValues
+     */
+    LazyDocument(Map<String, Object> fields) {
+        this.mFields = fields;
+    }
+
+    /**
+     * Turns a value into a LazyValue if its JSON is at least minBytes long
+     * @param value field value
+     * @param minBytes smallest estimated size worth keeping as JSON
+     * @return LazyValue or value
+     */
+    static Object lazyValue(Object value, int minBytes) {
+        if ((value instanceof Map || value instanceof List)
+                && SizeEstimator.estimate(value) >= minBytes) {
+            return new LazyValue(sGSON.toJson(value).getBytes(UTF8));
+        }
+        return value;
+    }
+
+    /**
+     * Gets the value behind a stored value, parsing it if it's still JSON
+     * @param value stored value
+     * @return value (parsed if it was a LazyValue)
+     */
+    private static Object unwrap(Object value) {
+        return (value instanceof LazyValue) ? ((LazyValue) value).get() : value;
+    }
+
+    /**
+     * Gets the stored fields, where unparsed values are LazyValues
+     * @return stored fields
+     */
+    Map<String, Object> getRawFields() {
+        return mFields;
+    }
+
+    /**
+     * Sets a field w/o parsing the value it replaces
+     * @param fieldName field name
+     * @param value new value (can be a LazyValue)
+     */
+    void setField(String fieldName, Object value) {
+        mFields.put(fieldName, value);
+    }
+
+    /**
+     * Clears a field w/o parsing its value
+     * @param fieldName field name
+     */
+    void clearField(String fieldName) {
+        mFields.remove(fieldName);
+    }
+
+    /**
+     * Copies this document; lazy values are shared since they never change
+     * @return copy that can be changed w/o affecting this document
+     */
+    LazyDocument copy() {
+        if (mFields instanceof CompactDocument) {
+            return new LazyDocument(((CompactDocument) mFields).copy());
+        }
+        return new LazyDocument(new LinkedHashMap<>(mFields));
+    }
+
+    /**
+     * Whether a field has been parsed (or never needed to be)
+     * @param fieldName field name
+     * @return false if the field is still JSON
+     */
+    public boolean isFieldParsed(String fieldName) {
+        Object value = mFields.get(fieldName);
+        return !(value instanceof LazyValue) || ((LazyValue) value).isParsed();
+    }
+
+    /**
+     * Gets a number field w/o boxing it if the document is compact
+     * @param fieldName field name
+     * @param defaultValue value to return if field isn't set or isn't a number
+     * @return field value
+     */
+    public double getNumber(String fieldName, double defaultValue) {
+        if (mFields instanceof CompactDocument) {
+            return ((CompactDocument) mFields).getNumber(fieldName, defaultValue);
+        }
+        Object value = mFields.get(fieldName);
+        return (value instanceof Number) ? ((Number) value).doubleValue() : defaultValue;
+    }
+
+    /**
+     * Converts the document to JSON w/o parsing values that are still JSON
+     * @param gson Gson to convert parsed values w/
+     * @return JSON object string
+     */
+    String toJson(Gson gson) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Object> field : mFields.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(gson.toJson(field.getKey())).append(':');
+            Object value = field.getValue();
+            json.append((value instanceof LazyValue) ? ((LazyValue) value).toJson() : gson.toJson(value));
+        }
+        return json.append('}').toString();
+    }
+
+    @Override
+    public Object get(Object fieldName) {
+        return unwrap(mFields.get(fieldName));
+    }
+
+    @Override
+    public boolean containsKey(Object fieldName) {
+        return mFields.containsKey(fieldName);
+    }
+
+    @Override
+    public Object put(String fieldName, Object value) {
+        return unwrap(mFields.put(fieldName, value));
+    }
+
+    @Override
+    public Object remove(Object fieldName) {
+        return unwrap(mFields.remove(fieldName));
+    }
+
+    @Override
+    public int size() {
+        return mFields.size();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        // field names w/o parsing anything
+        return mFields.keySet();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                final Iterator<Entry<String, Object>> fields = mFields.entrySet().iterator();
+                return new Iterator<Entry<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return fields.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        Entry<String, Object> field = fields.next();
+                        return new SimpleImmutableEntry<>(field.getKey(), unwrap(field.getValue()));
+                    }
+
+                    @Override
+                    public void remove() {
+                        fields.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return mFields.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,110 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps track of the live queries observing each collection and
+ * updates them as documents are added, changed and removed.
+ */
+class LiveQueries {
+    /** { collectionName, live queries } */
+    private final Map<String, CopyOnWriteArrayList<LiveQuery>> mQueries
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a live query and fills it w/ the documents already in the collection
+     * @param query live query to add
+     * @param collection current documents in collection or null if none
+     */
+    void add(LiveQuery query, Map<String, Map<String, Object>> collection) {
+        synchronized (mQueries) {
+            CopyOnWriteArrayList<LiveQuery> queries = mQueries.get(query.getCollectionName());
+            if (queries == null) {
+                queries = new CopyOnWriteArrayList<>();
+                mQueries.put(query.getCollectionName(), queries);
+            }
+            queries.add(query);
+        }
+        // query is registered first so changes that arrive while we're filling it
+        // get applied after we're done
+        query.init(collection);
+    }
+
+    /**
+     * Unregisters a live query
+     * @param query live query to remove
+     * @return true if it was registered
+     */
+    boolean remove(LiveQuery query) {
+        List<LiveQuery> queries = mQueries.get(query.getCollectionName());
+        return (queries != null) && queries.remove(query);
+    }
+
+    /**
+     * Updates live queries for a newly added (or replaced) document
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields document fields
+     */
+    void docAdded(String collName, String docId, Map<String, Object> fields) {
+        List<LiveQuery> queries = mQueries.get(collName);
+        if (queries == null) {
+            return;
+        }
+        for (LiveQuery query : queries) {
+            query.docAdded(docId, fields);
+        }
+    }
+
+    /**
+     * Updates live queries for a changed document
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields document fields after the change
+     * @param delta fields that were set/cleared
+     */
+    void docChanged(String collName, String docId, Map<String, Object> fields, DocumentDelta delta) {
+        List<LiveQuery> queries = mQueries.get(collName);
+        if (queries == null) {
+            return;
+        }
+        for (LiveQuery query : queries) {
+            query.docChanged(docId, fields, delta);
+        }
+    }
+
+    /**
+     * Updates live queries for a removed document
+     * @param collName collection name
+     * @param docId document ID
+     */
+    void docRemoved(String collName, String docId) {
+        List<LiveQuery> queries = mQueries.get(collName);
+        if (queries == null) {
+            return;
+        }
+        for (LiveQuery query : queries) {
+            query.docRemoved(docId);
+        }
+    }
+}
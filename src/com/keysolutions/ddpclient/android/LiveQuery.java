@@ -0,0 +1,424 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Results of a Query that are kept up to date as documents are added,
+ * changed and removed, instead of re-running the query on every change.
+ * Created by DDPStateSingleton.observe(); each change only costs a selector
+ * match and a binary search into the sorted results, and the listener gets
+ * positional addedAt/changedAt/movedTo/removedAt events.
+ * Skip and limit are applied as a window over the sorted results, so
+ * documents slide in and out of the window as others come and go.
+ * Don't modify the Query (e.g., add sort fields) after observing it.
+ */
+public class LiveQuery {
+    /** a document in the sorted results */
+    private static class Entry {
+        final String docId;
+        /** sort field values when the document was last seen */
+        Object[] sortKey;
+
+        Entry(String docId, Object[] sortKey) {
+            this.docId = docId;
+            this.sortKey = sortKey;
+        }
+    }
+
+    private final DDPStateSingleton mDDP;
+    private final LiveQueries mOwner;
+    private final String mCollName;
+    private final Query mQuery;
+    private final LiveQueryListener mListener;
+    /** null to call the listener directly */
+    private final Executor mExecutor;
+    private final int mSkip;
+    /** end of skip/limit window in mResults (exclusive) */
+    private final int mWindowEnd;
+    /** every matching document in sort order (not just the skip/limit window) */
+    private final ArrayList<Entry> mResults = new ArrayList<>();
+    /** entries in mResults by doc ID */
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private volatile boolean mStopped;
+
+    /**
+     * Constructor
+     * @param ddp where to look up documents that slide into the window
+     * @param owner live queries this one is registered with
+     * @param collName collection name
+     * @param query query to keep results for
+     * @param listener listener for result changes
+     * @param executor where to run callbacks or null to call directly
+     */
+    LiveQuery(DDPStateSingleton ddp, LiveQueries owner, String collName, Query query,
+            LiveQueryListener listener, Executor executor) {
+        this.mDDP = ddp;
+        this.mOwner = owner;
+        this.mCollName = collName;
+        this.mQuery = query;
+        this.mListener = listener;
+        this.mExecutor = executor;
+        this.mSkip = query.getSkip();
+        this.mWindowEnd = (query.getLimit() > 0) ? mSkip + query.getLimit() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Gets the collection this query is over
+     * @return collection name
+     */
+    public String getCollectionName() {
+        return mCollName;
+    }
+
+    /**
+     * Gets the observed query
+     * @return query
+     */
+    public Query getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Gets the current results
+     * @return doc IDs in query order (after skip/limit)
+     */
+    public synchronized List<String> getDocIds() {
+        int end = Math.min(mResults.size(), mWindowEnd);
+        List<String> docIds = new ArrayList<>(Math.max(end - mSkip, 0));
+        for (int i = mSkip; i < end; i++) {
+            docIds.add(mResults.get(i).docId);
+        }
+        return docIds;
+    }
+
+    /**
+     * Gets the number of current results
+     * @return number of docs (after skip/limit)
+     */
+    public synchronized int size() {
+        return Math.max(Math.min(mResults.size(), mWindowEnd) - mSkip, 0);
+    }
+
+    /**
+     * Stops updating the results and calling the listener
+     */
+    public void stop() {
+        mStopped = true;
+        mOwner.remove(this);
+    }
+
+    /**
+     * Whether stop() has been called
+     * @return true if stopped
+     */
+    public boolean isStopped() {
+        return mStopped;
+    }
+
+    /**
+     * Fills in the initial results and sends addedAt for each of them
+     * @param collection collection contents (can be null)
+     */
+    synchronized void init(Map<String, Map<String, Object>> collection) {
+        if (collection != null) {
+            Selector selector = mQuery.getSelector();
+            for (Map.Entry<String, Map<String, Object>> doc : collection.entrySet()) {
+                if (selector.matches(doc.getValue())) {
+                    Entry entry = new Entry(doc.getKey(), mQuery.getSortKey(doc.getValue()));
+                    mResults.add(entry);
+                    mEntries.put(entry.docId, entry);
+                }
+            }
+            Collections.sort(mResults, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    return compareEntries(a, b);
+                }
+            });
+        }
+        int end = Math.min(mResults.size(), mWindowEnd);
+        for (int i = mSkip; i < end; i++) {
+            String docId = mResults.get(i).docId;
+            sendAdded(docId, collection.get(docId), i - mSkip);
+        }
+    }
+
+    /**
+     * Updates results for a document that was added to the collection
+     * @param docId document ID
+     * @param fields document fields
+     */
+    synchronized void docAdded(String docId, Map<String, Object> fields) {
+        if (fields == null) {
+            return;
+        }
+        if (mEntries.containsKey(docId)) {
+            // re-added w/o being removed, so treat as a change of every field
+            docChanged(docId, fields, new DocumentDelta(fields, null, null));
+            return;
+        }
+        if (mQuery.getSelector().matches(fields)) {
+            insert(new Entry(docId, mQuery.getSortKey(fields)), fields);
+        }
+    }
+
+    /**
+     * Updates results for a document that was changed
+     * @param docId document ID
+     * @param fields document fields after the change
+     * @param delta fields that were set/cleared
+     */
+    synchronized void docChanged(String docId, Map<String, Object> fields, DocumentDelta delta) {
+        if (fields == null) {
+            return;
+        }
+        Entry entry = mEntries.get(docId);
+        boolean matches = mQuery.getSelector().matches(fields);
+        if (entry == null) {
+            if (matches) {
+                insert(new Entry(docId, mQuery.getSortKey(fields)), fields);
+            }
+            return;
+        }
+        int from = indexOf(entry);
+        if (!matches) {
+            removeAt(from);
+            return;
+        }
+        if (isInWindow(from)) {
+            sendChanged(docId, fields, delta, from - mSkip);
+        }
+        Object[] sortKey = mQuery.getSortKey(fields);
+        Entry moved = new Entry(docId, sortKey);
+        if (compareEntries(entry, moved) == 0) {
+            // sort fields didn't change
+            return;
+        }
+        mResults.remove(from);
+        int to = insertionPoint(moved);
+        if (to == from) {
+            // still between the same neighbors
+            entry.sortKey = sortKey;
+            mResults.add(from, entry);
+        } else if (isInWindow(from) && isInWindow(to)) {
+            entry.sortKey = sortKey;
+            mResults.add(to, entry);
+            sendMoved(docId, from - mSkip, to - mSkip);
+        } else {
+            // moving across the window edge; do it as a remove then an insert
+            mResults.add(from, entry);
+            removeAt(from);
+            insert(moved, fields);
+        }
+    }
+
+    /**
+     * Updates results for a document that was removed
+     * @param docId document ID
+     */
+    synchronized void docRemoved(String docId) {
+        Entry entry = mEntries.get(docId);
+        if (entry != null) {
+            removeAt(indexOf(entry));
+        }
+    }
+
+    /**
+     * Inserts an entry into the results and sends events for the window
+     * @param entry entry to add
+     * @param fields document fields
+     */
+    private void insert(Entry entry, Map<String, Object> fields) {
+        int index = insertionPoint(entry);
+        mResults.add(index, entry);
+        mEntries.put(entry.docId, entry);
+        if (index >= mWindowEnd) {
+            return;
+        }
+        // the last doc in a full window gets pushed out
+        if (mResults.size() > mWindowEnd) {
+            sendRemoved(mResults.get(mWindowEnd).docId, mWindowEnd - mSkip - 1);
+        }
+        if (index < mSkip) {
+            // everything shifts down, so the doc just before the window slides in
+            if (mSkip < mResults.size()) {
+                String docId = mResults.get(mSkip).docId;
+                sendAdded(docId, mDDP.peekDocument(mCollName, docId), 0);
+            }
+        } else {
+            sendAdded(entry.docId, fields, index - mSkip);
+        }
+    }
+
+    /**
+     * Removes an entry from the results and sends events for the window
+     * @param index position of entry in mResults
+     */
+    private void removeAt(int index) {
+        Entry entry = mResults.get(index);
+        if (index < mWindowEnd) {
+            if (index < mSkip) {
+                // everything shifts up, so the first doc in the window slides out
+                if (mSkip < mResults.size()) {
+                    sendRemoved(mResults.get(mSkip).docId, 0);
+                }
+            } else {
+                sendRemoved(entry.docId, index - mSkip);
+            }
+        }
+        mResults.remove(index);
+        mEntries.remove(entry.docId);
+        // the doc just past a full window slides in
+        if (index < mWindowEnd && mWindowEnd <= mResults.size()) {
+            String docId = mResults.get(mWindowEnd - 1).docId;
+            sendAdded(docId, mDDP.peekDocument(mCollName, docId), mWindowEnd - mSkip - 1);
+        }
+    }
+
+    /**
+     * Whether a position in mResults is inside the skip/limit window
+     * @param index position in mResults
+     * @return true if it's part of the visible results
+     */
+    private boolean isInWindow(int index) {
+        return index >= mSkip && index < mWindowEnd;
+    }
+
+    /**
+     * Finds an entry that's in mResults
+     * @param entry entry to find
+     * @return position in mResults
+     */
+    private int indexOf(Entry entry) {
+        int low = 0;
+        int high = mResults.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = compareEntries(mResults.get(mid), entry);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        // shouldn't happen since sort keys are only changed while out of the list
+        return mResults.indexOf(entry);
+    }
+
+    /**
+     * Finds where an entry goes in mResults
+     * @param entry entry that isn't in mResults
+     * @return position to insert it at
+     */
+    private int insertionPoint(Entry entry) {
+        int low = 0;
+        int high = mResults.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareEntries(mResults.get(mid), entry) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares entries in query order
+     * @param a first entry
+     * @param b second entry
+     * @return negative, zero or positive like Comparator.compare
+     */
+    private int compareEntries(Entry a, Entry b) {
+        return mQuery.compareKeys(a.sortKey, a.docId, b.sortKey, b.docId);
+    }
+
+    private void sendAdded(final String docId, final Map<String, Object> fields, final int index) {
+        final Map<String, Object> docFields = (fields != null) ? fields
+                : Collections.<String, Object>emptyMap();
+        if (mExecutor == null) {
+            mListener.addedAt(docId, docFields, index);
+        } else {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mStopped) {
+                        mListener.addedAt(docId, docFields, index);
+                    }
+                }
+            });
+        }
+    }
+
+    private void sendChanged(final String docId, final Map<String, Object> fields,
+            final DocumentDelta delta, final int index) {
+        if (mExecutor == null) {
+            mListener.changedAt(docId, fields, delta, index);
+        } else {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mStopped) {
+                        mListener.changedAt(docId, fields, delta, index);
+                    }
+                }
+            });
+        }
+    }
+
+    private void sendMoved(final String docId, final int fromIndex, final int toIndex) {
+        if (mExecutor == null) {
+            mListener.movedTo(docId, fromIndex, toIndex);
+        } else {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mStopped) {
+                        mListener.movedTo(docId, fromIndex, toIndex);
+                    }
+                }
+            });
+        }
+    }
+
+    private void sendRemoved(final String docId, final int index) {
+        if (mExecutor == null) {
+            mListener.removedAt(docId, index);
+        } else {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mStopped) {
+                        mListener.removedAt(docId, index);
+                    }
+                }
+            });
+        }
+    }
+}
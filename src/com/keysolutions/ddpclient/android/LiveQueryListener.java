@@ -0,0 +1,68 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.Map;
+
+/**
+ * Callbacks for an observed query (see DDPStateSingleton.observe).
+ * Events are positional like Meteor's ordered observe so they can be applied
+ * directly to a list adapter: apply them in order to a list of doc IDs and
+ * it'll always match the query's current results.
+ * Override only the methods you care about.
+ * NOTE: field maps are references to the data store, so copy them if you
+ * need to hang onto them after the callback returns.
+ */
+public abstract class LiveQueryListener {
+    /**
+     * Called when a document enters the results
+     * @param docId document ID
+     * @param fields document fields
+     * @param index position it was inserted at
+     */
+    public void addedAt(String docId, Map<String, Object> fields, int index) {
+    }
+
+    /**
+     * Called when a document in the results is changed
+     * (before movedTo if the change also moves it)
+     * @param docId document ID
+     * @param fields document fields after the change
+     * @param delta fields that were set/cleared
+     * @param index current position of the document
+     */
+    public void changedAt(String docId, Map<String, Object> fields, DocumentDelta delta, int index) {
+    }
+
+    /**
+     * Called when a change moves a document to a different position in the results
+     * @param docId document ID
+     * @param fromIndex position it was at
+     * @param toIndex position it's at now (after taking it out of fromIndex)
+     */
+    public void movedTo(String docId, int fromIndex, int toIndex) {
+    }
+
+    /**
+     * Called when a document leaves the results
+     * @param docId document ID
+     * @param index position it was removed from
+     */
+    public void removedAt(String docId, int index) {
+    }
+}
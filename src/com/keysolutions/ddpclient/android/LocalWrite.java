@@ -0,0 +1,126 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import com.keysolutions.ddpclient.DDPClient.DdpMessageType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes to apply to the local cache right away while a method call that
+ * makes the same changes on the server is running, like a Meteor method stub:
+ * <pre>
+ * LocalWrite write = new LocalWrite().update("parties", partyId, rsvpFields);
+ * ddp.callOptimistic("parties.rsvp", new Object[] { partyId, "yes" }, write);
+ * </pre>
+ * Changes are applied in the order they were added.
+ */
+public class LocalWrite {
+    /** one change to one document */
+    static class Change {
+        /** "added", "changed" or "removed" */
+        final String type;
+        final String collName;
+        final String docId;
+        final Map<String, Object> fields;
+        final List<String> clearedFields;
+
+        Change(String type, String collName, String docId, Map<String, Object> fields,
+                List<String> clearedFields) {
+            this.type = type;
+            this.collName = collName;
+            this.docId = docId;
+            this.fields = fields;
+            this.clearedFields = clearedFields;
+        }
+    }
+
+    private final List<Change> mChanges = new ArrayList<>();
+
+    /**
+     * Adds a document (replacing its fields if it's already cached)
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields document fields
+     * @return this write
+     */
+    public LocalWrite insert(String collName, String docId, Map<String, Object> fields) {
+        mChanges.add(new Change(DdpMessageType.ADDED, collName, docId,
+                new HashMap<>(fields), Collections.<String>emptyList()));
+        return this;
+    }
+
+    /**
+     * Sets fields on a document (skipped if it isn't cached)
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields fields to set
+     * @return this write
+     */
+    public LocalWrite update(String collName, String docId, Map<String, Object> fields) {
+        return update(collName, docId, fields, null);
+    }
+
+    /**
+     * Sets and clears fields on a document (skipped if it isn't cached)
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields fields to set (or null)
+     * @param clearedFields names of fields to remove (or null)
+     * @return this write
+     */
+    public LocalWrite update(String collName, String docId, Map<String, Object> fields,
+            List<String> clearedFields) {
+        mChanges.add(new Change(DdpMessageType.CHANGED, collName, docId,
+                (fields != null) ? new HashMap<>(fields) : Collections.<String, Object>emptyMap(),
+                (clearedFields != null) ? new ArrayList<>(clearedFields) : Collections.<String>emptyList()));
+        return this;
+    }
+
+    /**
+     * Removes a document
+     * @param collName collection name
+     * @param docId document ID
+     * @return this write
+     */
+    public LocalWrite remove(String collName, String docId) {
+        mChanges.add(new Change(DdpMessageType.REMOVED, collName, docId,
+                Collections.<String, Object>emptyMap(), Collections.<String>emptyList()));
+        return this;
+    }
+
+    /**
+     * Whether there are any changes
+     * @return true if no changes were added
+     */
+    public boolean isEmpty() {
+        return mChanges.isEmpty();
+    }
+
+    /**
+     * Gets the changes in the order they were added
+     * @return changes
+     */
+    List<Change> getChanges() {
+        return mChanges;
+    }
+}
@@ -0,0 +1,920 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import android.support.v4.BuildConfig;
+
+import com.keysolutions.ddpclient.DDPClient.DdpMessageField;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default DDP collection storage which keeps every document in memory
+ * as a Map of fields.
+ * Pass true to the constructor to store documents as CompactDocuments,
+ * which share field names across each collection and keep numbers unboxed;
+ * this is a lot smaller for big collections of small documents.
+ * Call setStringInterning() to also share repeated field names and
+ * string values between documents.
+ * Collections can be given a memory budget w/ setCollectionBudget(); the least
+ * recently used docs are then evicted to an overflow storage tier (if one is
+ * set) and paged back in by getDocument().
+ * Documents are copy-on-write: updateDoc() stores a changed copy instead of
+ * changing the stored doc, so a doc returned by getDocument() never changes
+ * underneath the reader, and getCollectionSnapshot() gives a read-only
+ * point-in-time view of a whole collection.
+ * Call setLazyFields() to keep big sub-documents and arrays as JSON until
+ * they're read (see LazyDocument).
+ */
+public class MemoryStateStorage implements DDPStateStorage {
+    private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+
+    /** internal storage for collections */
+    // { collectionName,
+    //  { docId, {
+    //              {fieldName1, fieldValue1},
+    //              {fieldName2, fieldValue2},
+    //           }
+    //  }
+    // }
+    protected final Map<String, Map<String, Map<String,Object>>> mCollections
+            = new ConcurrentHashMap<>();
+
+    /** { collectionName, read-only copy } cached until the collection changes */
+    private final Map<String, Map<String, Map<String, Object>>> mSnapshots = new ConcurrentHashMap<>();
+
+    /** { collectionName, budget as { maxDocs, maxBytes } } for collections kept in a BoundedCollection */
+    private final Map<String, long[]> mBudgets = new ConcurrentHashMap<>();
+
+    /** where evicted docs go; null to just drop them */
+    private volatile DDPStateStorage mOverflowStorage;
+
+    /** { collectionName, shared field layout } when using compact documents; null otherwise */
+    private final Map<String, DocumentSchema> mSchemas;
+
+    /** { collectionName, intern table } when string interning is on */
+    private final Map<String, StringInterner> mInterners = new ConcurrentHashMap<>();
+    /** max strings per collection's intern table (0 when interning is off) */
+    private volatile int mMaxInternedStrings;
+
+    /** smallest estimated size of a value kept as JSON until read (0 when lazy fields are off) */
+    private volatile int mLazyFieldBytes;
+
+    /**
+     * Constructor that stores documents as the Maps Gson parsed them into
+     */
+    public MemoryStateStorage() {
+        this(false);
+    }
+
+    /**
+     * Constructor
+     * @param compactDocuments true to store documents as CompactDocuments
+     */
+    public MemoryStateStorage(boolean compactDocuments) {
+        mSchemas = compactDocuments ? new ConcurrentHashMap<String, DocumentSchema>() : null;
+    }
+
+    /**
+     * Whether documents are stored as CompactDocuments
+     * @return true if compact documents are on
+     */
+    public boolean isCompactDocuments() {
+        return mSchemas != null;
+    }
+
+    /**
+     * Limits how much of a collection is kept in memory.  Once the collection
+     * goes over budget, the least recently used docs are evicted to the overflow
+     * tier and paged back in when getDocument() asks for them.
+     * getCollection() then returns a read-only view that still includes the
+     * evicted docs (reading them from the overflow tier), so it's slower to
+     * scan than an unbudgeted collection.  Set budgets before subscribing.
+     * @param collName collection name
+     * @param maxDocs max docs in memory (0 for no limit)
+     * @param maxBytes max estimated bytes of docs in memory (0 for no limit)
+     */
+    public void setCollectionBudget(String collName, int maxDocs, long maxBytes) {
+        if (maxDocs < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Budget can't be negative");
+        }
+        BoundedCollection bounded = new BoundedCollection(maxDocs, maxBytes);
+        mBudgets.put(collName, new long[] { maxDocs, maxBytes });
+        Map<String, Map<String, Object>> old = mCollections.put(collName, bounded);
+        mSnapshots.remove(collName);
+        if (old != null) {
+            for (Map.Entry<String, Map<String, Object>> doc : old.entrySet()) {
+                handleEvicted(collName, bounded.putAndEvict(doc.getKey(), doc.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Gets cache counters for a collection w/ a memory budget
+     * @param collName collection name
+     * @return stats or null if collection has no budget
+     */
+    public CacheStats getCacheStats(String collName) {
+        Map<String, Map<String, Object>> collection = mCollections.get(collName);
+        return (collection instanceof BoundedCollection)
+                ? ((BoundedCollection) collection).getStats() : null;
+    }
+
+    /**
+     * Sets where docs evicted from budgeted collections are kept, e.g., a
+     * disk-backed DDPStateStorage.  W/o one, evicted docs are just dropped
+     * (and getDocument() returns null for them).  SQLiteStateStorage doesn't
+     * need one since every doc is already on disk.
+     * @param overflowStorage storage for evicted docs or null
+     */
+    public void setOverflowStorage(DDPStateStorage overflowStorage) {
+        mOverflowStorage = overflowStorage;
+    }
+
+    /**
+     * Called when a doc is evicted from memory.  Default behavior moves it
+     * to the overflow storage.
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields document fields
+     */
+    protected void onDocEvicted(String collName, String docId, Map<String, Object> fields) {
+        DDPStateStorage overflow = mOverflowStorage;
+        if (overflow != null) {
+            Map<String, Object> jsonFields = new HashMap<>();
+            jsonFields.put(DdpMessageField.FIELDS, fields);
+            overflow.addDoc(jsonFields, collName, docId);
+        }
+    }
+
+    /**
+     * Called once an evicted doc has been paged back into memory.  Default
+     * behavior takes it out of the overflow storage.
+     * @param collName collection name
+     * @param docId document ID
+     */
+    protected void onDocPagedIn(String collName, String docId) {
+        DDPStateStorage overflow = mOverflowStorage;
+        if (overflow != null) {
+            overflow.removeDoc(collName, docId);
+        }
+    }
+
+    /**
+     * Reads an evicted doc w/o paging it back in.  Default behavior reads it
+     * from the overflow storage.
+     * @param collName collection name
+     * @param docId document ID
+     * @return document fields or null if not found
+     */
+    protected Map<String, Object> readEvictedDoc(String collName, String docId) {
+        DDPStateStorage overflow = mOverflowStorage;
+        return (overflow != null) ? overflow.getDocument(collName, docId) : null;
+    }
+
+    /**
+     * Gets the IDs of a collection's evicted docs (may include docs that are
+     * also in memory).  Default behavior lists the overflow storage's docs.
+     * @param collName collection name
+     * @return doc IDs
+     */
+    protected Set<String> getEvictedDocIds(String collName) {
+        DDPStateStorage overflow = mOverflowStorage;
+        Map<String, Map<String, Object>> evicted = (overflow != null)
+                ? overflow.getCollection(collName) : null;
+        return (evicted != null) ? new HashSet<>(evicted.keySet()) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Deletes an evicted doc.  Default behavior removes it from the overflow storage.
+     * @param collName collection name
+     * @param docId document ID
+     * @return true if there was an evicted doc to delete
+     */
+    protected boolean removeEvictedDoc(String collName, String docId) {
+        DDPStateStorage overflow = mOverflowStorage;
+        return (overflow != null) && overflow.removeDoc(collName, docId);
+    }
+
+    /**
+     * Called before a collection is read; lets subclasses load it lazily
+     * @param collName collection name
+     */
+    protected void ensureLoaded(String collName) {
+    }
+
+    /**
+     * Passes evicted docs to onDocEvicted
+     * @param collName collection name
+     * @param evicted evicted docs (can be null)
+     */
+    private void handleEvicted(String collName, List<Map.Entry<String, Map<String, Object>>> evicted) {
+        if (evicted == null) {
+            return;
+        }
+        for (Map.Entry<String, Map<String, Object>> doc : evicted) {
+            onDocEvicted(collName, doc.getKey(), doc.getValue());
+        }
+        if (BuildConfig.DEBUG) {
+            log.debug("Evicted " + evicted.size() + " docs from " + collName);
+        }
+    }
+
+    /**
+     * Gets a doc from a budgeted collection, paging it back in if it was evicted
+     * @param collName collection name
+     * @param bounded in-memory docs
+     * @param docId document ID
+     * @param countLookup true to count a hit or miss (only for reads by the app)
+     * @return document fields or null if not found
+     */
+    private Map<String, Object> getBoundedDoc(String collName, BoundedCollection bounded,
+            String docId, boolean countLookup) {
+        // writers hold the same lock, so the doc is always in one of the tiers
+        synchronized (bounded) {
+            Map<String, Object> doc = countLookup ? bounded.lookup(docId) : bounded.get(docId);
+            if (doc == null) {
+                Map<String, Object> fields = readEvictedDoc(collName, docId);
+                if (fields != null) {
+                    if (countLookup) {
+                        bounded.pagedIn();
+                    }
+                    putDoc(collName, docId, fields);
+                    // only drop the overflow copy once it's back in memory
+                    onDocPagedIn(collName, docId);
+                    doc = bounded.get(docId);
+                }
+            }
+            return doc;
+        }
+    }
+
+    /**
+     * Turns on interning of field names and string values so documents in
+     * the same collection share String instances.  Only applies to docs stored
+     * after this is called.
+     * @param maxStringsPerCollection max distinct strings kept per collection (0 to turn off)
+     */
+    public void setStringInterning(int maxStringsPerCollection) {
+        if (maxStringsPerCollection < 0) {
+            throw new IllegalArgumentException("Max strings can't be negative");
+        }
+        mMaxInternedStrings = maxStringsPerCollection;
+        if (maxStringsPerCollection == 0) {
+            mInterners.clear();
+        }
+    }
+
+    /**
+     * Turns on lazy fields: sub-documents and arrays whose estimated heap size is
+     * at least minBytes are stored as JSON and only parsed when a reader asks
+     * for that field (the parsed value is then cached).  Saves memory and GC
+     * churn for big fields that are rarely read, e.g., rich text or audit trails
+     * only shown on a detail screen.  Only applies to docs stored after this is called.
+     * @param minBytes smallest value to keep as JSON (0 to turn off)
+     */
+    public void setLazyFields(int minBytes) {
+        if (minBytes < 0) {
+            throw new IllegalArgumentException("Lazy field size can't be negative");
+        }
+        mLazyFieldBytes = minBytes;
+    }
+
+    /**
+     * Gets the smallest value that's kept as JSON until read
+     * @return size in bytes (0 if lazy fields are off)
+     */
+    public int getLazyFieldBytes() {
+        return mLazyFieldBytes;
+    }
+
+    /**
+     * Gets estimated heap saved by string interning across all collections
+     * @return estimated bytes saved
+     */
+    public long getInterningBytesSaved() {
+        long saved = 0;
+        for (StringInterner interner : mInterners.values()) {
+            saved += interner.getBytesSaved();
+        }
+        return saved;
+    }
+
+    /**
+     * Gets estimated heap saved by string interning in a collection
+     * @param collName collection name
+     * @return estimated bytes saved
+     */
+    public long getInterningBytesSaved(String collName) {
+        StringInterner interner = mInterners.get(collName);
+        return (interner != null) ? interner.getBytesSaved() : 0;
+    }
+
+    /**
+     * Gets the intern table for a collection
+     * @param collName collection name
+     * @return intern table or null if interning is off
+     */
+    private StringInterner getInterner(String collName) {
+        int maxStrings = mMaxInternedStrings;
+        if (maxStrings == 0) {
+            return null;
+        }
+        StringInterner interner = mInterners.get(collName);
+        if (interner == null) {
+            synchronized (mInterners) {
+                interner = mInterners.get(collName);
+                if (interner == null) {
+                    interner = new StringInterner(maxStrings);
+                    mInterners.put(collName, interner);
+                }
+            }
+        }
+        return interner;
+    }
+
+    /**
+     * Handles updating a document in a collection.
+     * @param jsonFields fields for document
+     * @param collName collection name
+     * @param docId documement ID for update
+     * @return true if changed; false if document not found
+     */
+    @Override
+    public boolean updateDoc(Map<String, Object> jsonFields, String collName,
+            String docId) {
+        Map<String, Map<String,Object>> collection = mCollections.get(collName);
+        if (collection == null) {
+            log.warn("Received invalid changed msg for collection "
+                    + collName);
+            return false;
+        }
+        if (collection instanceof BoundedCollection) {
+            // a reader paging the doc in can't slip in between the read and the write
+            synchronized (collection) {
+                return changeDoc(jsonFields, collName, collection, docId);
+            }
+        }
+        return changeDoc(jsonFields, collName, collection, docId);
+    }
+
+    /**
+     * Stores a changed copy of a document
+     * @param jsonFields fields of the "changed" message
+     * @param collName collection name
+     * @param collection collection the doc is in
+     * @param docId document ID
+     * @return true if changed; false if document not found
+     */
+    @SuppressWarnings("unchecked")
+    private boolean changeDoc(Map<String, Object> jsonFields, String collName,
+            Map<String, Map<String, Object>> collection, String docId) {
+        Map<String, Object> doc = (collection instanceof BoundedCollection)
+                ? getBoundedDoc(collName, (BoundedCollection) collection, docId, false)
+                : collection.get(docId);
+        if (doc != null) {
+            // change a copy so readers holding the current version never see a partial update
+            doc = copyDoc(doc);
+            // take care of field updates
+            Map<String, Object> fields = (Map<String, Object>) jsonFields
+                    .get(DdpMessageField.FIELDS);
+            if (fields != null) {
+                StringInterner interner = getInterner(collName);
+                // docs stored before lazy fields were turned on stay plain maps
+                int lazyBytes = (doc instanceof LazyDocument) ? mLazyFieldBytes : 0;
+                for (Map.Entry<String, Object> field : fields
+                        .entrySet()) {
+                    String fieldname = field.getKey();
+                    Object value = field.getValue();
+                    if (lazyBytes > 0) {
+                        value = LazyDocument.lazyValue(value, lazyBytes);
+                    }
+                    if (interner != null) {
+                        fieldname = interner.intern(fieldname);
+                        value = interner.internValue(value);
+                    }
+                    if (doc instanceof LazyDocument) {
+                        // only the changed field is replaced; nothing else gets parsed
+                        ((LazyDocument) doc).setField(fieldname, value);
+                    } else {
+                        doc.put(fieldname, value);
+                    }
+                }
+            }
+            // take care of clearing fields
+            List<String> clearfields = ((List<String>) jsonFields.get(DdpMessageField.CLEARED));
+            if (clearfields != null) {
+                for (String fieldname : clearfields) {
+                    if (doc instanceof LazyDocument) {
+                        ((LazyDocument) doc).clearField(fieldname);
+                    } else if (doc.containsKey(fieldname)) {
+                        doc.remove(fieldname);
+                    }
+                }
+            }
+            storeDoc(collName, collection, docId, doc);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Handles deleting a document in a collection.
+     * @param collName collection name
+     * @param docId document ID
+     * @return true if doc was deleted, false otherwise
+     */
+    @Override
+    public boolean removeDoc(String collName, String docId) {
+        if (mCollections.containsKey(collName)) {
+            // remove IDs from collection
+            Map<String, Map<String,Object>> collection = mCollections.get(collName);
+            if (BuildConfig.DEBUG) {
+                log.debug("Removed doc: " + docId);
+            }
+            synchronized (collection) {
+                boolean removed = collection.remove(docId) != null;
+                mSnapshots.remove(collName);
+                if (!removed && collection instanceof BoundedCollection) {
+                    // under the lock so a reader can't page the old copy back in
+                    removed = removeEvictedDoc(collName, docId);
+                }
+                return removed;
+            }
+        } else {
+            log.warn("Received invalid removed msg for collection "
+                    + collName);
+            return false;
+        }
+    }
+
+    /**
+     * Handles adding a document to collection.
+     * @param jsonFields fields for document
+     * @param collName collection name
+     * @param docId document ID
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void addDoc(Map<String, Object> jsonFields, String collName,
+            String docId) {
+        Map<String, Object> fields;
+
+        if(jsonFields.get(DdpMessageField.FIELDS) == null) {
+            fields = new ConcurrentHashMap<>();
+        } else {
+            fields = (Map<String, Object>) jsonFields.get(DdpMessageField.FIELDS);
+        }
+
+        putDoc(collName, docId, fields);
+
+        if (BuildConfig.DEBUG) {
+            log.debug("Added docid " + docId + " to collection " + collName);
+        }
+    }
+
+    /**
+     * Stores a document's fields in a collection, creating the collection if needed
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields document fields
+     */
+    protected void putDoc(String collName, String docId, Map<String, Object> fields) {
+        Map<String, Map<String,Object>> collection = mCollections.get(collName);
+        if (collection == null) {
+            // add new collection
+            log.debug("Added collection " + collName);
+            long[] budget = mBudgets.get(collName);
+            if (budget != null) {
+                collection = new BoundedCollection((int) budget[0], budget[1]);
+            } else {
+                collection = new ConcurrentHashMap<>();
+            }
+            mCollections.put(collName, collection);
+        }
+        int lazyBytes = mLazyFieldBytes;
+        if (lazyBytes > 0) {
+            // do this first so big values aren't interned just to be thrown away
+            Map<String, Object> lazyFields = new LinkedHashMap<>();
+            Map<String, Object> source = (fields instanceof LazyDocument)
+                    ? ((LazyDocument) fields).getRawFields() : fields;
+            for (Map.Entry<String, Object> field : source.entrySet()) {
+                lazyFields.put(field.getKey(), LazyDocument.lazyValue(field.getValue(), lazyBytes));
+            }
+            fields = lazyFields;
+        }
+        StringInterner interner = getInterner(collName);
+        if (interner != null) {
+            fields = interner.internFields(fields);
+        }
+        if (mSchemas != null) {
+            fields = new CompactDocument(getSchema(collName), fields);
+        }
+        if (lazyBytes > 0) {
+            fields = new LazyDocument(fields);
+        }
+        storeDoc(collName, collection, docId, fields);
+    }
+
+    /**
+     * Stores a new version of a document and drops the collection's cached snapshot
+     * @param collName collection name
+     * @param collection collection to store it in
+     * @param docId document ID
+     * @param doc document fields (not changed after this)
+     */
+    private void storeDoc(String collName, Map<String, Map<String, Object>> collection,
+            String docId, Map<String, Object> doc) {
+        List<Map.Entry<String, Map<String, Object>>> evicted = null;
+        synchronized (collection) {
+            if (collection instanceof BoundedCollection) {
+                evicted = ((BoundedCollection) collection).putAndEvict(docId, doc);
+            } else {
+                collection.put(docId, doc);
+            }
+            mSnapshots.remove(collName);
+            // hand evicted docs over before a reader can miss them in memory
+            handleEvicted(collName, evicted);
+        }
+    }
+
+    /**
+     * Copies a document so it can be changed w/o affecting readers of the original
+     * @param doc document fields
+     * @return copy of doc
+     */
+    private static Map<String, Object> copyDoc(Map<String, Object> doc) {
+        if (doc instanceof LazyDocument) {
+            return ((LazyDocument) doc).copy();
+        } else if (doc instanceof CompactDocument) {
+            return ((CompactDocument) doc).copy();
+        }
+        return new LinkedHashMap<>(doc);
+    }
+
+    /**
+     * Removes a whole collection from memory
+     * @param collName collection name
+     */
+    protected void removeCollection(String collName) {
+        mCollections.remove(collName);
+        mSnapshots.remove(collName);
+    }
+
+    /**
+     * Gets the shared field layout for a collection's compact documents
+     * @param collName collection name
+     * @return schema for collection
+     */
+    private DocumentSchema getSchema(String collName) {
+        DocumentSchema schema = mSchemas.get(collName);
+        if (schema == null) {
+            synchronized (mSchemas) {
+                schema = mSchemas.get(collName);
+                if (schema == null) {
+                    schema = new DocumentSchema();
+                    mSchemas.put(collName, schema);
+                }
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Gets local Meteor collection.  This is the live map, so iterating it
+     * while changes come in can see some of them and not others; use
+     * getCollectionSnapshot() for a consistent view.
+     * @param collName collection name
+     * @return collection as a Map or null if not found
+     */
+    @Override
+    public Map<String, Map<String,Object>> getCollection(String collName) {
+        // return specified collection Map which is indexed by document ID
+        Map<String, Map<String,Object>> collection = mCollections.get(collName);
+        if (collection instanceof BoundedCollection) {
+            return new BoundedCollectionView(collName, (BoundedCollection) collection);
+        }
+        return collection;
+    }
+
+    /**
+     * Gets a read-only, point-in-time copy of a collection.  Only the map of
+     * docs is copied (the docs themselves are never changed once stored), and
+     * the copy is shared by every reader until the collection changes again.
+     * Docs are handed out as unmodifiable views so readers can't change the
+     * stored ones.
+     * For collections w/ a memory budget, only docs in memory are included.
+     * @param collName collection name
+     * @return snapshot of collection or null if not found
+     */
+    public Map<String, Map<String, Object>> getCollectionSnapshot(String collName) {
+        Map<String, Map<String, Object>> snapshot = peekCollectionSnapshot(collName);
+        return (snapshot != null) ? new ReadOnlyCollection(snapshot) : null;
+    }
+
+    /**
+     * Gets the shared snapshot of a collection w/ the stored docs themselves,
+     * for internal bookkeeping that mustn't change them
+     * @param collName collection name
+     * @return snapshot of collection or null if not found
+     */
+    Map<String, Map<String, Object>> peekCollectionSnapshot(String collName) {
+        ensureLoaded(collName);
+        Map<String, Map<String, Object>> collection = mCollections.get(collName);
+        if (collection == null) {
+            return null;
+        }
+        Map<String, Map<String, Object>> snapshot = mSnapshots.get(collName);
+        if (snapshot == null) {
+            synchronized (collection) {
+                snapshot = mSnapshots.get(collName);
+                if (snapshot == null) {
+                    snapshot = Collections.unmodifiableMap(
+                            new HashMap<String, Map<String, Object>>(collection));
+                    mSnapshots.put(collName, snapshot);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets a document out of a collection
+     * @param collName collection name
+     * @param docId document ID
+     * @return null if not found or a collection of the document's fields
+     */
+    @Override
+    public Map<String, Object> getDocument(String collName, String docId) {
+        return getDocument(collName, docId, true);
+    }
+
+    /**
+     * Gets a document for internal bookkeeping (indexes, change handling)
+     * w/o counting it in the cache stats
+     * @param collName collection name
+     * @param docId document ID
+     * @return null if not found or a collection of the document's fields
+     */
+    Map<String, Object> peekDocument(String collName, String docId) {
+        return getDocument(collName, docId, false);
+    }
+
+    /**
+     * Gets a document out of a collection
+     * @param collName collection name
+     * @param docId document ID
+     * @param countLookup true to count a hit or miss (only for reads by the app)
+     * @return null if not found or a collection of the document's fields
+     */
+    private Map<String, Object> getDocument(String collName, String docId, boolean countLookup) {
+        ensureLoaded(collName);
+        Map<String, Map<String,Object>> docs = mCollections.get(collName);
+        if (docs instanceof BoundedCollection) {
+            return getBoundedDoc(collName, (BoundedCollection) docs, docId, countLookup);
+        } else if (docs != null) {
+            return docs.get(docId);
+        }
+        return null;
+    }
+
+    /**
+     * Gets email address for user
+     * @param userId user ID
+     * @return email address for that user (lookup via users collection)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public String getUserEmail(String userId) {
+        if (userId == null) {
+            return null;
+        }
+        // map userId to email
+        // NOTE: this gets convoluted if they use OAuth logins because the email
+        // field is in the service!
+        Map<String, Object> user = getDocument("users", userId);
+        String email = userId;
+        if (user != null) {
+            ArrayList<Map<String, String>> emails = (ArrayList<Map<String, String>>) user
+                    .get("emails");
+            if ((emails != null) && (emails.size() > 0)) {
+                // get first email address
+                Map<String, String> emailFields = emails.get(0);
+                email = emailFields.get("address");
+            }
+        }
+        return email;
+    }
+
+    /**
+     * Read-only view of a collection whose docs are read-only too; each doc is
+     * wrapped w/ Collections.unmodifiableMap() when it's read
+     */
+    static class ReadOnlyCollection extends AbstractMap<String, Map<String, Object>> {
+        private final Map<String, Map<String, Object>> mDocs;
+
+        /**
+         * Constructor
+         * @param docs { docId, doc } to wrap
+         */
+        ReadOnlyCollection(Map<String, Map<String, Object>> docs) {
+            this.mDocs = docs;
+        }
+
+        @Override
+        public Map<String, Object> get(Object docId) {
+            return readOnly(mDocs.get(docId));
+        }
+
+        @Override
+        public boolean containsKey(Object docId) {
+            return mDocs.containsKey(docId);
+        }
+
+        @Override
+        public int size() {
+            return mDocs.size();
+        }
+
+        @Override
+        public Set<Map.Entry<String, Map<String, Object>>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Map<String, Object>>>() {
+                @Override
+                public Iterator<Map.Entry<String, Map<String, Object>>> iterator() {
+                    final Iterator<Map.Entry<String, Map<String, Object>>> it
+                            = mDocs.entrySet().iterator();
+                    return new Iterator<Map.Entry<String, Map<String, Object>>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, Map<String, Object>> next() {
+                            Map.Entry<String, Map<String, Object>> entry = it.next();
+                            return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(),
+                                    readOnly(entry.getValue()));
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return mDocs.size();
+                }
+            };
+        }
+
+        /**
+         * Wraps a doc so it can't be changed
+         * @param doc stored doc or null
+         * @return unmodifiable view of doc or null
+         */
+        private static Map<String, Object> readOnly(Map<String, Object> doc) {
+            return (doc != null) ? Collections.unmodifiableMap(doc) : null;
+        }
+    }
+
+    /**
+     * Read-only view of a budgeted collection that includes its evicted docs:
+     * get() pages an evicted doc back in, and iterating reads evicted docs
+     * from the overflow tier w/o paging them in
+     */
+    private class BoundedCollectionView extends AbstractMap<String, Map<String, Object>> {
+        private final String mCollName;
+        private final BoundedCollection mBounded;
+        /** docs that were in memory when the view was made */
+        private final Map<String, Map<String, Object>> mResident;
+        /** IDs of every doc; listed the first time they're needed */
+        private Set<String> mDocIds;
+
+        /**
+         * Constructor
+         * @param collName collection name
+         * @param bounded in-memory docs
+         */
+        BoundedCollectionView(String collName, BoundedCollection bounded) {
+            this.mCollName = collName;
+            this.mBounded = bounded;
+            this.mResident = bounded.snapshot();
+        }
+
+        @Override
+        public Map<String, Object> get(Object docId) {
+            if (!(docId instanceof String)) {
+                return null;
+            }
+            return getBoundedDoc(mCollName, mBounded, (String) docId, false);
+        }
+
+        @Override
+        public boolean containsKey(Object docId) {
+            return get(docId) != null;
+        }
+
+        @Override
+        public int size() {
+            return getDocIds().size();
+        }
+
+        @Override
+        public Set<Map.Entry<String, Map<String, Object>>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Map<String, Object>>>() {
+                @Override
+                public Iterator<Map.Entry<String, Map<String, Object>>> iterator() {
+                    return new DocIterator(getDocIds().iterator());
+                }
+
+                @Override
+                public int size() {
+                    return getDocIds().size();
+                }
+            };
+        }
+
+        /**
+         * Gets the IDs of the docs in memory and the evicted ones
+         * @return doc IDs
+         */
+        private synchronized Set<String> getDocIds() {
+            if (mDocIds == null) {
+                Set<String> docIds = new LinkedHashSet<>(mResident.keySet());
+                docIds.addAll(getEvictedDocIds(mCollName));
+                mDocIds = docIds;
+            }
+            return mDocIds;
+        }
+
+        /** iterates docs by ID, skipping ones removed since the IDs were listed */
+        private class DocIterator implements Iterator<Map.Entry<String, Map<String, Object>>> {
+            private final Iterator<String> mIds;
+            private Map.Entry<String, Map<String, Object>> mNext;
+
+            DocIterator(Iterator<String> ids) {
+                this.mIds = ids;
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (mNext == null && mIds.hasNext()) {
+                    String docId = mIds.next();
+                    Map<String, Object> doc = mResident.get(docId);
+                    if (doc == null) {
+                        doc = readEvictedDoc(mCollName, docId);
+                    }
+                    if (doc != null) {
+                        mNext = new AbstractMap.SimpleImmutableEntry<>(docId, doc);
+                    }
+                }
+                return mNext != null;
+            }
+
+            @Override
+            public Map.Entry<String, Map<String, Object>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, Map<String, Object>> next = mNext;
+                mNext = null;
+                return next;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
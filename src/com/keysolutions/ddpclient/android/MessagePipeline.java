@@ -0,0 +1,384 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies incoming DDP messages on worker threads so the websocket thread
+ * only has to queue them.  Messages w/ the same key (the collection name)
+ * always go to the same worker, so they're applied in the order they arrived.
+ * Barriers run once everything queued before them has been applied, on every
+ * worker, while all workers wait; they're used for connection state changes
+ * and subscription readiness so those are never seen ahead of the docs that
+ * came before them.
+ * Workers never wait on a queue (they'd be waiting on themselves), so they
+ * can go over the queue capacity, and a barrier requested by a worker runs
+ * right away.
+ */
+class MessagePipeline {
+    private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+
+    /** whether a full queue blocks the caller or rejects the message */
+    private final boolean mBlockWhenFull;
+    private final Worker[] mWorkers;
+    /** guards the shutdown state so nothing is queued after the final barrier; never held while waiting */
+    private final Object mStateLock = new Object();
+    private boolean mShutdown;
+    /** number of threads adding to the queues; the final barrier waits for them */
+    private int mEnqueuing;
+    /** whether the final barrier has been queued */
+    private boolean mStopQueued;
+    /** keeps barriers in the same order in every queue; workers never take it */
+    private final Object mBarrierLock = new Object();
+
+    /** runs an action once every worker has reached it */
+    private static class Barrier implements Runnable {
+        private final Runnable mAction;
+        private final boolean mStop;
+        private int mWaiting;
+        private boolean mDone;
+
+        Barrier(int workers, Runnable action, boolean stop) {
+            this.mWaiting = workers;
+            this.mAction = action;
+            this.mStop = stop;
+        }
+
+        /**
+         * Called by each worker when it gets to the barrier; the last one
+         * to arrive runs the action and releases the others
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                mWaiting--;
+                if (mWaiting > 0) {
+                    boolean interrupted = false;
+                    while (!mDone) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return;
+                }
+            }
+            try {
+                if (mAction != null) {
+                    mAction.run();
+                }
+            } finally {
+                synchronized (this) {
+                    mDone = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /** thread that applies the messages in its queue in order */
+    private class Worker extends Thread {
+        /** not bounded itself so workers can always add to it; other threads take room first */
+        final BlockingQueue<Runnable> mQueue = new LinkedBlockingQueue<>();
+        /** free room in the queue */
+        final Semaphore mRoom;
+        /** tasks added by workers w/o taking room */
+        final AtomicInteger mOverCapacity = new AtomicInteger();
+
+        Worker(String name, int capacity) {
+            super(name);
+            this.mRoom = new Semaphore(capacity);
+            setDaemon(true);
+        }
+
+        /**
+         * Gives back the room a task took once it's been taken off the queue
+         */
+        void freeRoom() {
+            while (true) {
+                int over = mOverCapacity.get();
+                if (over == 0) {
+                    mRoom.release();
+                    return;
+                }
+                if (mOverCapacity.compareAndSet(over, over - 1)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = mQueue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                freeRoom();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Failed applying DDP message", e);
+                }
+                if (task instanceof Barrier && ((Barrier) task).mStop) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructor; starts the worker threads
+     * @param workerThreads number of worker threads
+     * @param queueCapacity max messages waiting per worker
+     * @param blockWhenFull true to block the caller when a queue is full, false to reject the message
+     */
+    MessagePipeline(int workerThreads, int queueCapacity, boolean blockWhenFull) {
+        this.mBlockWhenFull = blockWhenFull;
+        this.mWorkers = new Worker[workerThreads];
+        for (int i = 0; i < workerThreads; i++) {
+            mWorkers[i] = new Worker("ddp-pipeline-" + i, queueCapacity);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Queues a message to be applied after earlier messages w/ the same key
+     * @param key ordering key (collection name)
+     * @param task applies the message
+     * @return false if the queue was full and the message was rejected
+     */
+    boolean submit(String key, Runnable task) {
+        return submit(key, task, mBlockWhenFull);
+    }
+
+    /**
+     * Queues a message to be applied after earlier messages w/ the same key,
+     * waiting for room if the queue is full even if the pipeline rejects
+     * messages otherwise
+     * @param key ordering key (collection name)
+     * @param task applies the message
+     */
+    void put(String key, Runnable task) {
+        submit(key, task, true);
+    }
+
+    /**
+     * Queues a message to be applied after earlier messages w/ the same key
+     * @param key ordering key (collection name)
+     * @param task applies the message
+     * @param block true to wait for room if the queue is full
+     * @return false if the queue was full and the message was rejected
+     */
+    private boolean submit(String key, Runnable task, boolean block) {
+        if (!beginEnqueue()) {
+            // raced w/ shutdown, so apply it once everything queued has been applied
+            awaitTermination();
+            task.run();
+            return true;
+        }
+        try {
+            Worker worker = mWorkers[(key.hashCode() & 0x7fffffff) % mWorkers.length];
+            return enqueue(worker, task, block);
+        } finally {
+            endEnqueue();
+        }
+    }
+
+    /**
+     * Queues an action that runs once every message queued before it has been
+     * applied, w/ every worker held until it's done.  Never rejected, so this
+     * can block the caller if a queue is full.  When called from a worker,
+     * e.g., from another barrier's action, the action runs right away instead.
+     * @param action action to run
+     */
+    void barrier(Runnable action) {
+        if (isWorkerThread()) {
+            // this worker's queue can't drain while it waits for it
+            action.run();
+            return;
+        }
+        if (!beginEnqueue()) {
+            awaitTermination();
+            action.run();
+            return;
+        }
+        try {
+            synchronized (mBarrierLock) {
+                enqueueBarrier(new Barrier(mWorkers.length, action, false));
+            }
+        } finally {
+            endEnqueue();
+        }
+    }
+
+    /**
+     * Whether the current thread is one of the workers
+     * @return true if called from a worker thread
+     */
+    boolean isWorkerThread() {
+        for (Worker worker : mWorkers) {
+            if (worker == Thread.currentThread()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of messages waiting to be applied
+     * @return queued messages across all workers
+     */
+    int getQueuedCount() {
+        int count = 0;
+        for (Worker worker : mWorkers) {
+            count += worker.mQueue.size();
+        }
+        return count;
+    }
+
+    /**
+     * Stops accepting messages and waits for the queued ones to be applied
+     * (doesn't wait if called from a worker thread)
+     */
+    void shutdown() {
+        boolean stop;
+        synchronized (mStateLock) {
+            mShutdown = true;
+            stop = takeStop();
+        }
+        if (stop) {
+            enqueueStop();
+        }
+        awaitTermination();
+    }
+
+    /**
+     * Registers a thread that's about to add to the queues
+     * @return false if the pipeline has been shut down
+     */
+    private boolean beginEnqueue() {
+        synchronized (mStateLock) {
+            if (mShutdown) {
+                return false;
+            }
+            mEnqueuing++;
+            return true;
+        }
+    }
+
+    /**
+     * Called once a thread is done adding to the queues; the last one to
+     * finish after shutdown queues the final barrier
+     */
+    private void endEnqueue() {
+        boolean stop;
+        synchronized (mStateLock) {
+            mEnqueuing--;
+            stop = mShutdown && takeStop();
+        }
+        if (stop) {
+            enqueueStop();
+        }
+    }
+
+    /**
+     * Checks whether it's time to queue the final barrier (called w/ mStateLock held)
+     * @return true if the caller should queue it
+     */
+    private boolean takeStop() {
+        if (mStopQueued || mEnqueuing > 0) {
+            return false;
+        }
+        mStopQueued = true;
+        return true;
+    }
+
+    /**
+     * Queues the barrier that stops the workers.  Nothing else can be queued
+     * by now, so it doesn't need mBarrierLock.
+     */
+    private void enqueueStop() {
+        enqueueBarrier(new Barrier(mWorkers.length, null, true));
+    }
+
+    /**
+     * Waits for the workers to finish after shutdown
+     */
+    private void awaitTermination() {
+        if (isWorkerThread()) {
+            return;
+        }
+        boolean interrupted = false;
+        for (Worker worker : mWorkers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds a barrier to every worker's queue
+     * @param barrier barrier to add
+     */
+    private void enqueueBarrier(Barrier barrier) {
+        for (Worker worker : mWorkers) {
+            enqueue(worker, barrier, true);
+        }
+    }
+
+    /**
+     * Adds a task to a worker's queue.  Workers never wait for room since
+     * the queue they'd wait on might be their own.
+     * @param worker worker to add it to
+     * @param task task to add
+     * @param block true to wait for room if the queue is full
+     * @return false if the queue was full and the task wasn't added
+     */
+    private boolean enqueue(Worker worker, Runnable task, boolean block) {
+        if (!worker.mRoom.tryAcquire()) {
+            if (!block) {
+                return false;
+            }
+            if (isWorkerThread()) {
+                worker.mOverCapacity.incrementAndGet();
+            } else {
+                // keeps the interrupt status if interrupted while waiting
+                worker.mRoom.acquireUninterruptibly();
+            }
+        }
+        worker.mQueue.add(task);
+        return true;
+    }
+}
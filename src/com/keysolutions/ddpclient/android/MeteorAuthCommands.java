@@ -30,6 +30,7 @@ public abstract class MeteorAuthCommands {
     abstract DDPClient getDDP();
     abstract void handleLoginResult(Map<String, Object> jsonFields);
     abstract void handleLogoutResult(Map<String, Object> jsonFields);
+    abstract int call(String method, Object[] params, DDPListener resultListener);
 
     /**
      * Logs in using resume token
@@ -39,7 +40,7 @@ public abstract class MeteorAuthCommands {
         TokenAuth tokenAuth = new TokenAuth(token);
         Object[] methodArgs = new Object[1];
         methodArgs[0] = tokenAuth;
-        getDDP().call("login", methodArgs, new DDPListener() {
+        call("login", methodArgs, new DDPListener() {
             @Override
             public void onResult(Map<String, Object> jsonFields) {
                 handleLoginResult(jsonFields);
@@ -62,7 +63,7 @@ public abstract class MeteorAuthCommands {
             methodArgs[0] = userpass;
         }
         
-        getDDP().call("login", methodArgs, new DDPListener() {
+        call("login", methodArgs, new DDPListener() {
             @Override
             public void onResult(Map<String, Object> jsonFields) {
                 handleLoginResult(jsonFields);
@@ -92,7 +93,7 @@ public abstract class MeteorAuthCommands {
             options.put("email", email);
         }
         options.put("password", password);
-        getDDP().call("createUser", methodArgs, new DDPListener() {
+        call("createUser", methodArgs, new DDPListener() {
             @Override
             public void onResult(Map<String, Object> jsonFields) {
                 handleLoginResult(jsonFields);
@@ -114,7 +115,7 @@ public abstract class MeteorAuthCommands {
         Map<String,Object> options = new HashMap<>();
         methodArgs[0] = options;
         options.put("email", email);
-        getDDP().call("forgotPassword", methodArgs, new DDPListener() {
+        call("forgotPassword", methodArgs, new DDPListener() {
             @Override
             public void onResult(Map<String, Object> jsonFields) {
                 handleLoginResult(jsonFields);
@@ -125,7 +126,7 @@ public abstract class MeteorAuthCommands {
     public void logout()
     {
         Object[] methodArgs = new Object[] { };
-        getDDP().call("logout", methodArgs, new DDPListener() {
+        call("logout", methodArgs, new DDPListener() {
             @Override
             public void onResult(Map<String, Object> jsonFields) {
                 handleLogoutResult(jsonFields);
@@ -0,0 +1,381 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A batch of calls to one method started w/ DDPStateSingleton.callBatch().
+ * Items are called in order w/ at most maxConcurrent of them outstanding at
+ * once (on top of the method call window), and their outcomes are gathered
+ * into one BatchResult instead of a callback per item.
+ * Cancelling stops the items that haven't finished yet; callbacks still get
+ * a BatchResult w/ those items marked as cancelled.
+ */
+public class MethodBatch implements Future<BatchResult> {
+    private final MethodCallQueue mQueue;
+    private final String mMethod;
+    private final List<Object[]> mParams;
+    private final int mMaxConcurrent;
+    private final long mTimeoutMillis;
+    private final boolean mRetryOnReconnect;
+    private final long mStartNanos = System.nanoTime();
+
+    /** outcome of each item (0 until it finishes) */
+    private final byte[] mOutcomes;
+    private final Object[] mResults;
+    private final MethodCallException[] mErrors;
+    /** calls that have been started and haven't finished, by item index */
+    private final Item[] mRunning;
+    /** next item to start */
+    private int mNextIndex;
+    /** number of items started that haven't finished */
+    private int mRunningCount;
+    /** number of items that have finished */
+    private int mCompletedCount;
+
+    private boolean mCancelled;
+    /** outcome once every item has finished or the batch was cancelled */
+    private BatchResult mResult;
+    /** callbacks waiting for the outcome */
+    private List<Callback> mCallbacks;
+
+    /** a callback and where to run it */
+    private static class Callback {
+        final BatchCallback callback;
+        final Executor executor;
+
+        Callback(BatchCallback callback, Executor executor) {
+            this.callback = callback;
+            this.executor = executor;
+        }
+    }
+
+    /** one item's call; reports back to the batch instead of using callbacks */
+    private class Item extends MethodCall {
+        final int mIndex;
+
+        Item(int index) {
+            super(mMethod, mParams.get(index), mTimeoutMillis, mRetryOnReconnect);
+            this.mIndex = index;
+        }
+
+        @Override
+        void finished() {
+            itemFinished(this);
+        }
+    }
+
+    /**
+     * Constructor
+     * @param queue queue to send the calls through
+     * @param method method name
+     * @param params arguments for each call
+     * @param maxConcurrent max items outstanding at once
+     * @param timeoutMillis timeout for each call (0 for no limit)
+     * @param retryOnReconnect whether calls are resent after a reconnect
+     */
+    MethodBatch(MethodCallQueue queue, String method, List<Object[]> params, int maxConcurrent,
+            long timeoutMillis, boolean retryOnReconnect) {
+        this.mQueue = queue;
+        this.mMethod = method;
+        this.mParams = params;
+        this.mMaxConcurrent = maxConcurrent;
+        this.mTimeoutMillis = timeoutMillis;
+        this.mRetryOnReconnect = retryOnReconnect;
+        this.mOutcomes = new byte[params.size()];
+        this.mResults = new Object[params.size()];
+        this.mErrors = new MethodCallException[params.size()];
+        this.mRunning = new Item[params.size()];
+    }
+
+    /**
+     * Starts the first items
+     */
+    void start() {
+        if (mParams.isEmpty()) {
+            complete();
+        } else {
+            submit(takeItems());
+        }
+    }
+
+    /**
+     * Gets the method being called
+     * @return method name
+     */
+    public String getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * Gets number of items in the batch
+     * @return item count
+     */
+    public int size() {
+        return mParams.size();
+    }
+
+    /**
+     * Gets number of items that have finished, for progress displays
+     * @return finished item count
+     */
+    public synchronized int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    /**
+     * Adds a callback that's called on the thread that finishes the batch
+     * (right away if it's already done)
+     * @param callback callback
+     */
+    public void addCallback(BatchCallback callback) {
+        addCallback(callback, (Executor) null);
+    }
+
+    /**
+     * Adds a callback that's called on a Looper's thread
+     * (e.g., Looper.getMainLooper() for the UI thread)
+     * @param callback callback
+     * @param looper looper to call it on
+     */
+    public void addCallback(BatchCallback callback, Looper looper) {
+        addCallback(callback, new DDPStateListeners.LooperExecutor(looper));
+    }
+
+    /**
+     * Adds a callback that's run by an executor
+     * @param callback callback
+     * @param executor where to call it or null to call it directly
+     */
+    public void addCallback(BatchCallback callback, Executor executor) {
+        Callback entry = new Callback(callback, executor);
+        BatchResult result;
+        synchronized (this) {
+            if (mResult == null) {
+                if (mCallbacks == null) {
+                    mCallbacks = new ArrayList<>(2);
+                }
+                mCallbacks.add(entry);
+                return;
+            }
+            result = mResult;
+        }
+        deliver(entry, result);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        List<Item> running = new ArrayList<>();
+        synchronized (this) {
+            if (mResult != null) {
+                return false;
+            }
+            mCancelled = true;
+            for (int i = 0; i < mRunning.length; i++) {
+                if (mRunning[i] != null) {
+                    running.add(mRunning[i]);
+                    mRunning[i] = null;
+                }
+            }
+        }
+        for (Item item : running) {
+            item.cancel(false);
+        }
+        complete();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mResult != null;
+    }
+
+    @Override
+    public synchronized BatchResult get() throws InterruptedException, ExecutionException {
+        while (mResult == null) {
+            wait();
+        }
+        return getOutcome();
+    }
+
+    @Override
+    public synchronized BatchResult get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (mResult == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("Batch of " + mMethod + " calls isn't done yet");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getOutcome();
+    }
+
+    /**
+     * Gets the outcome of a finished batch
+     * @return batch result
+     */
+    private BatchResult getOutcome() {
+        if (mCancelled) {
+            throw new CancellationException("Batch of " + mMethod + " calls was cancelled");
+        }
+        return mResult;
+    }
+
+    /**
+     * Starts as many items as the concurrency limit allows (called w/ the lock held)
+     * @return items to submit
+     */
+    private List<Item> takeItems() {
+        if (mCancelled || mRunningCount >= mMaxConcurrent || mNextIndex >= mParams.size()) {
+            return Collections.emptyList();
+        }
+        List<Item> items = new ArrayList<>();
+        while (mRunningCount < mMaxConcurrent && mNextIndex < mParams.size()) {
+            Item item = new Item(mNextIndex);
+            mRunning[mNextIndex] = item;
+            mNextIndex++;
+            mRunningCount++;
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * Hands items to the call queue (called w/o the lock so results can come back right away)
+     * @param items items to submit
+     */
+    private void submit(List<Item> items) {
+        for (Item item : items) {
+            mQueue.submit(item);
+        }
+    }
+
+    /**
+     * Records an item's outcome and starts the next one
+     * @param item item that finished
+     */
+    private void itemFinished(Item item) {
+        Object result = null;
+        MethodCallException error = null;
+        try {
+            // already done, so this doesn't block
+            result = item.get();
+        } catch (ExecutionException e) {
+            error = (MethodCallException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Item> next;
+        boolean allDone;
+        synchronized (this) {
+            if (mRunning[item.mIndex] != item) {
+                // batch was cancelled
+                return;
+            }
+            mRunning[item.mIndex] = null;
+            mRunningCount--;
+            mCompletedCount++;
+            if (error == null) {
+                mOutcomes[item.mIndex] = BatchResult.SUCCEEDED;
+                mResults[item.mIndex] = result;
+            } else {
+                mOutcomes[item.mIndex] = BatchResult.FAILED;
+                mErrors[item.mIndex] = error;
+            }
+            next = takeItems();
+            allDone = (mCompletedCount == mParams.size());
+        }
+        submit(next);
+        if (allDone) {
+            complete();
+        }
+    }
+
+    /**
+     * Builds the result and runs the callbacks
+     */
+    private void complete() {
+        BatchResult result;
+        List<Callback> callbacks;
+        synchronized (this) {
+            if (mResult != null) {
+                return;
+            }
+            byte[] outcomes = mOutcomes.clone();
+            for (int i = 0; i < outcomes.length; i++) {
+                if (outcomes[i] == 0) {
+                    outcomes[i] = BatchResult.CANCELLED;
+                }
+            }
+            mResult = new BatchResult(mMethod, outcomes, mResults.clone(), mErrors.clone(),
+                    System.nanoTime() - mStartNanos);
+            result = mResult;
+            callbacks = mCallbacks;
+            mCallbacks = null;
+            notifyAll();
+        }
+        if (callbacks != null) {
+            for (Callback entry : callbacks) {
+                deliver(entry, result);
+            }
+        }
+    }
+
+    /**
+     * Calls a callback w/ the outcome
+     * @param entry callback and where to run it
+     * @param result batch result
+     */
+    private void deliver(final Callback entry, final BatchResult result) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                entry.callback.onComplete(result);
+            }
+        };
+        if (entry.executor != null) {
+            entry.executor.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MethodBatch{method=" + mMethod + ", size=" + mParams.size()
+                + ", completed=" + getCompletedCount() + ", done=" + isDone() + "}";
+    }
+}
@@ -0,0 +1,410 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import android.os.Looper;
+
+import com.keysolutions.ddpclient.DDPClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Observable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A method call started w/ DDPStateSingleton.callAsync().
+ * It's a Future for the method's return value, and callbacks can be added
+ * to hear about the result w/o blocking (don't call get() on the UI thread).
+ * Cancelling a call that has already been sent only means its result is
+ * ignored; DDP has no way to stop a method on the server.
+ */
+public class MethodCall implements Future<Object> {
+    private final String mMethod;
+    private final Object[] mParams;
+    private final long mTimeoutMillis;
+    private final boolean mRetryOnReconnect;
+
+    /** queue this call was submitted to */
+    private MethodCallQueue mQueue;
+    /** pending timeout or null */
+    private ScheduledFuture<?> mTimeoutTask;
+    /** DDP call ID of the latest send or -1 if it hasn't been sent */
+    private int mCallId = -1;
+    /** DDP client of the latest send (call IDs start over on each client) */
+    private DDPClient mClient;
+    /** number of times it's been sent */
+    private int mAttempts;
+    /** when it was last sent */
+    private long mSentNanos;
+    /** time from the last send to the result or -1 if there's no result */
+    private long mRoundTripNanos = -1;
+
+    private boolean mDone;
+    private boolean mCancelled;
+    private Object mResult;
+    private MethodCallException mError;
+    /** callbacks waiting for the outcome; created when the first one is added */
+    private List<Callback> mCallbacks;
+
+    /** a callback and where to run it */
+    private static class Callback {
+        final MethodCallback callback;
+        final Executor executor;
+
+        Callback(MethodCallback callback, Executor executor) {
+            this.callback = callback;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param method method name
+     * @param params method arguments
+     * @param timeoutMillis how long to wait for a result, including time queued (0 for no limit)
+     * @param retryOnReconnect whether to send it again if the connection drops before the result comes back
+     */
+    MethodCall(String method, Object[] params, long timeoutMillis, boolean retryOnReconnect) {
+        this.mMethod = method;
+        this.mParams = params;
+        this.mTimeoutMillis = timeoutMillis;
+        this.mRetryOnReconnect = retryOnReconnect;
+    }
+
+    /**
+     * Gets the method name
+     * @return method name
+     */
+    public String getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * Gets the method arguments
+     * @return arguments
+     */
+    public Object[] getParams() {
+        return mParams;
+    }
+
+    /**
+     * Gets how long the call waits for a result, including time spent queued
+     * @return timeout in milliseconds (0 for no limit)
+     */
+    public long getTimeoutMillis() {
+        return mTimeoutMillis;
+    }
+
+    /**
+     * Whether the call is sent again if the connection drops before its
+     * result comes back (only safe for methods that can be run twice)
+     * @return true if it's retried on reconnect
+     */
+    public boolean isRetriedOnReconnect() {
+        return mRetryOnReconnect;
+    }
+
+    /**
+     * Gets the DDP call ID
+     * @return ID of the latest send or -1 if it hasn't been sent yet
+     */
+    public synchronized int getCallId() {
+        return mCallId;
+    }
+
+    /**
+     * Gets number of times the call has been sent
+     * @return send count (more than 1 if it was retried after a reconnect)
+     */
+    public synchronized int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * Gets the time from sending the call to getting its result, not
+     * counting time spent queued
+     * @return round trip time in nanoseconds or -1 if there's no result yet
+     */
+    public synchronized long getRoundTripNanos() {
+        return mRoundTripNanos;
+    }
+
+    /**
+     * Adds a callback that's called on the thread that gets the result
+     * (right away if the call is already done)
+     * @param callback callback
+     */
+    public void addCallback(MethodCallback callback) {
+        addCallback(callback, (Executor) null);
+    }
+
+    /**
+     * Adds a callback that's called on a Looper's thread
+     * (e.g., Looper.getMainLooper() for the UI thread)
+     * @param callback callback
+     * @param looper looper to call it on
+     */
+    public void addCallback(MethodCallback callback, Looper looper) {
+        addCallback(callback, new DDPStateListeners.LooperExecutor(looper));
+    }
+
+    /**
+     * Adds a callback that's run by an executor
+     * @param callback callback
+     * @param executor where to call it or null to call it directly
+     */
+    public void addCallback(MethodCallback callback, Executor executor) {
+        Callback entry = new Callback(callback, executor);
+        synchronized (this) {
+            if (!mDone) {
+                if (mCallbacks == null) {
+                    mCallbacks = new ArrayList<>(2);
+                }
+                mCallbacks.add(entry);
+                return;
+            }
+            if (mCancelled) {
+                return;
+            }
+        }
+        deliver(entry);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        MethodCallQueue queue;
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mCancelled = true;
+            mCallbacks = null;
+            queue = mQueue;
+            notifyAll();
+        }
+        cancelTimeout();
+        if (queue != null) {
+            queue.remove(this);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    @Override
+    public synchronized Object get() throws InterruptedException, ExecutionException {
+        while (!mDone) {
+            wait();
+        }
+        return getOutcome();
+    }
+
+    @Override
+    public synchronized Object get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("No result for " + mMethod + " yet");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getOutcome();
+    }
+
+    /**
+     * Gets the outcome of a finished call
+     * @return method's return value
+     * @throws ExecutionException w/ a MethodCallException cause if the call failed
+     */
+    private Object getOutcome() throws ExecutionException {
+        if (mCancelled) {
+            throw new CancellationException("Call to " + mMethod + " was cancelled");
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+
+    /**
+     * Gets the method's return value
+     * @return return value or null if it hasn't returned
+     */
+    synchronized Object getResult() {
+        return mResult;
+    }
+
+    /**
+     * Gets the error the call failed w/
+     * @return error or null if it hasn't failed
+     */
+    synchronized MethodCallException getError() {
+        return mError;
+    }
+
+    /**
+     * Remembers which queue the call went into
+     * @param queue call queue
+     * @param timeoutTask pending timeout or null
+     */
+    synchronized void submitted(MethodCallQueue queue, ScheduledFuture<?> timeoutTask) {
+        mQueue = queue;
+        mTimeoutTask = timeoutTask;
+    }
+
+    /**
+     * Records that the call is being sent
+     * @return attempt number for this send
+     */
+    synchronized int sending() {
+        mAttempts++;
+        mSentNanos = System.nanoTime();
+        return mAttempts;
+    }
+
+    /**
+     * Records the DDP call ID of a send
+     * @param client DDP client it was sent on
+     * @param callId call ID
+     */
+    synchronized void sent(DDPClient client, int callId) {
+        mClient = client;
+        mCallId = callId;
+    }
+
+    /**
+     * Whether the latest send had a given call ID on a given connection
+     * @param client DDP client a message came from
+     * @param callId call ID from the message
+     * @return true if it's this call
+     */
+    synchronized boolean isSentAs(Observable client, String callId) {
+        return mClient != null && mClient == client && callId.equals(String.valueOf(mCallId));
+    }
+
+    /**
+     * Finishes the call w/ the method's return value
+     * @param result return value
+     */
+    void complete(Object result) {
+        finish(result, null);
+    }
+
+    /**
+     * Finishes the call w/ an error
+     * @param error what went wrong
+     */
+    void fail(MethodCallException error) {
+        finish(null, error);
+    }
+
+    /**
+     * Finishes the call and runs its callbacks
+     * @param result return value
+     * @param error error or null if it succeeded
+     */
+    private void finish(Object result, MethodCallException error) {
+        List<Callback> callbacks;
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            mResult = result;
+            mError = error;
+            if (mAttempts > 0 && (error == null || error.getType() == MethodCallException.Type.SERVER_ERROR)) {
+                mRoundTripNanos = System.nanoTime() - mSentNanos;
+            }
+            callbacks = mCallbacks;
+            mCallbacks = null;
+            notifyAll();
+        }
+        cancelTimeout();
+        if (callbacks != null) {
+            for (Callback entry : callbacks) {
+                deliver(entry);
+            }
+        }
+        finished();
+    }
+
+    /**
+     * Called once the call has its result or error (not when it's cancelled)
+     */
+    void finished() {
+    }
+
+    /**
+     * Stops the timeout from going off
+     */
+    private void cancelTimeout() {
+        ScheduledFuture<?> timeoutTask;
+        synchronized (this) {
+            timeoutTask = mTimeoutTask;
+            mTimeoutTask = null;
+        }
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+        }
+    }
+
+    /**
+     * Calls a callback w/ the outcome
+     * @param entry callback and where to run it
+     */
+    private void deliver(final Callback entry) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (mError != null) {
+                    entry.callback.onError(mError);
+                } else {
+                    entry.callback.onResult(mResult);
+                }
+            }
+        };
+        if (entry.executor != null) {
+            entry.executor.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MethodCall{method=" + mMethod + ", callId=" + getCallId()
+                + ", attempts=" + getAttempts() + ", done=" + isDone() + "}";
+    }
+}
@@ -0,0 +1,87 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.Map;
+
+/**
+ * Why a method call started w/ DDPStateSingleton.callAsync() failed
+ */
+public class MethodCallException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    /** kinds of failures */
+    public enum Type {
+        /** the server sent back an error */
+        SERVER_ERROR,
+        /** no result came back before the call's timeout */
+        TIMEOUT,
+        /** the connection closed before the result came back */
+        DISCONNECTED,
+    }
+
+    private final Type mType;
+    private final String mMethod;
+    private final Map<String, Object> mError;
+
+    /**
+     * Constructor
+     * @param type kind of failure
+     * @param method method name
+     * @param message error message
+     * @param error error fields from the server or null
+     */
+    MethodCallException(Type type, String method, String message, Map<String, Object> error) {
+        super(message);
+        this.mType = type;
+        this.mMethod = method;
+        this.mError = error;
+    }
+
+    /**
+     * Gets the kind of failure
+     * @return failure type
+     */
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * Gets the name of the method that failed
+     * @return method name
+     */
+    public String getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * Gets the error the server sent back (e.g., "error", "reason" and "details")
+     * @return error fields or null if this isn't a server error
+     */
+    public Map<String, Object> getError() {
+        return mError;
+    }
+
+    /**
+     * Gets the server's error code (Meteor.Error's first argument)
+     * @return error code or null if this isn't a server error
+     */
+    public Object getErrorCode() {
+        return (mError == null) ? null : mError.get("error");
+    }
+}
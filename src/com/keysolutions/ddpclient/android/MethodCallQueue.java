@@ -0,0 +1,287 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import com.keysolutions.ddpclient.DDPClient;
+import com.keysolutions.ddpclient.DDPClient.DdpMessageField;
+import com.keysolutions.ddpclient.DDPListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends callAsync() method calls (or durable calls, in a queue of their own)
+ * w/ at most a window's worth waiting for results at once; the rest wait
+ * here in order and go out as results come back.  Calls only go out while
+ * connected, so calls made while offline are sent once the connection
+ * (and resume login) is back.
+ */
+final class MethodCallQueue {
+    /** default max calls waiting for results at once */
+    static final int DEFAULT_WINDOW = 32;
+
+    private final DDPStateSingleton mDDP;
+
+    /** calls that haven't been sent yet */
+    private final ArrayDeque<MethodCall> mWaiting = new ArrayDeque<>();
+
+    /** { sent call, attempt number } in the order they were sent */
+    private final Map<MethodCall, Integer> mInFlight = new LinkedHashMap<>();
+
+    /** max calls waiting for results at once */
+    private int mWindow = DEFAULT_WINDOW;
+
+    /** whether there's a connection to send calls on */
+    private boolean mConnected;
+
+    /** timer thread for call timeouts; created on first use */
+    private ScheduledExecutorService mTimer;
+
+    /**
+     * Constructor
+     * @param ddp DDP singleton to send calls through
+     */
+    MethodCallQueue(DDPStateSingleton ddp) {
+        this.mDDP = ddp;
+    }
+
+    /**
+     * Queues a call and sends it if there's room in the window
+     * @param call method call
+     */
+    void submit(final MethodCall call) {
+        ScheduledFuture<?> timeoutTask = null;
+        if (call.getTimeoutMillis() > 0) {
+            timeoutTask = getTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut(call);
+                }
+            }, call.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+        call.submitted(this, timeoutTask);
+        synchronized (this) {
+            if (!call.isDone()) {
+                mWaiting.add(call);
+                sendWaiting();
+            }
+        }
+    }
+
+    /**
+     * Drops a call that was cancelled
+     * @param call method call
+     */
+    synchronized void remove(MethodCall call) {
+        mWaiting.remove(call);
+        if (mInFlight.remove(call) != null) {
+            sendWaiting();
+        }
+    }
+
+    /**
+     * Changes the number of calls that can wait for results at once
+     * @param window max calls in flight
+     */
+    synchronized void setWindow(int window) {
+        mWindow = window;
+        sendWaiting();
+    }
+
+    /**
+     * Gets the number of calls that can wait for results at once
+     * @return max calls in flight
+     */
+    synchronized int getWindow() {
+        return mWindow;
+    }
+
+    /**
+     * Gets number of calls sent and waiting for results
+     * @return in-flight call count
+     */
+    synchronized int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    /**
+     * Gets number of calls that haven't been sent yet
+     * @return queued call count
+     */
+    synchronized int getQueuedCount() {
+        return mWaiting.size();
+    }
+
+    /**
+     * Starts sending calls on a new connection
+     */
+    synchronized void connected() {
+        mConnected = true;
+        sendWaiting();
+    }
+
+    /**
+     * Handles the connection closing.  Calls that were sent won't get results,
+     * so they're failed, or queued to go out first on the next connection if
+     * they can be retried.  If we're not reconnecting, everything fails.
+     * @param reconnecting whether a reconnect is coming
+     */
+    void connectionClosed(boolean reconnecting) {
+        List<MethodCall> failed = new ArrayList<>();
+        synchronized (this) {
+            mConnected = false;
+            List<MethodCall> retries = new ArrayList<>();
+            for (MethodCall call : mInFlight.keySet()) {
+                if (reconnecting && call.isRetriedOnReconnect()) {
+                    retries.add(call);
+                } else {
+                    failed.add(call);
+                }
+            }
+            mInFlight.clear();
+            // retried calls go ahead of the ones that were never sent, in their original order
+            for (int i = retries.size() - 1; i >= 0; i--) {
+                mWaiting.addFirst(retries.get(i));
+            }
+            if (!reconnecting) {
+                failed.addAll(mWaiting);
+                mWaiting.clear();
+            }
+        }
+        for (MethodCall call : failed) {
+            call.fail(new MethodCallException(MethodCallException.Type.DISCONNECTED, call.getMethod(),
+                    "Connection closed before " + call.getMethod() + " returned", null));
+        }
+    }
+
+    /**
+     * Sends waiting calls while there's room in the window (called w/ the lock held)
+     */
+    private void sendWaiting() {
+        while (mConnected && mInFlight.size() < mWindow) {
+            MethodCall call = mWaiting.poll();
+            if (call == null) {
+                break;
+            }
+            if (!call.isDone()) {
+                send(call);
+            }
+        }
+    }
+
+    /**
+     * Sends a call (called w/ the lock held)
+     * @param call method call
+     */
+    private void send(final MethodCall call) {
+        final int attempt = call.sending();
+        mInFlight.put(call, attempt);
+        DDPClient client = mDDP.getDDP();
+        int callId = mDDP.call(call.getMethod(), call.getParams(), new DDPListener() {
+            @Override
+            public void onResult(Map<String, Object> resultFields) {
+                resultReceived(call, attempt, resultFields);
+            }
+        });
+        call.sent(client, callId);
+    }
+
+    /**
+     * Finishes a call w/ the result the server sent back
+     * @param call method call
+     * @param attempt which send the result is for
+     * @param resultFields fields of the "result" message
+     */
+    @SuppressWarnings("unchecked")
+    private void resultReceived(MethodCall call, int attempt, Map<String, Object> resultFields) {
+        synchronized (this) {
+            Integer inFlightAttempt = mInFlight.get(call);
+            if (inFlightAttempt == null || inFlightAttempt != attempt) {
+                // timed out, cancelled or already resent
+                return;
+            }
+            mInFlight.remove(call);
+            sendWaiting();
+        }
+        Object error = resultFields.get(DdpMessageField.ERROR);
+        if (error instanceof Map) {
+            Map<String, Object> errorFields = (Map<String, Object>) error;
+            call.fail(new MethodCallException(MethodCallException.Type.SERVER_ERROR, call.getMethod(),
+                    errorMessage(errorFields), errorFields));
+        } else {
+            call.complete(resultFields.get(DdpMessageField.RESULT));
+        }
+    }
+
+    /**
+     * Fails a call that ran out of time
+     * @param call method call
+     */
+    private void timedOut(MethodCall call) {
+        synchronized (this) {
+            mWaiting.remove(call);
+            if (mInFlight.remove(call) != null) {
+                sendWaiting();
+            }
+        }
+        call.fail(new MethodCallException(MethodCallException.Type.TIMEOUT, call.getMethod(),
+                "No result from " + call.getMethod() + " after " + call.getTimeoutMillis() + "ms", null));
+    }
+
+    /**
+     * Gets a readable message from a Meteor error
+     * @param errorFields error fields
+     * @return error message
+     */
+    private static String errorMessage(Map<String, Object> errorFields) {
+        Object message = errorFields.get("reason");
+        if (message == null) {
+            message = errorFields.get("message");
+        }
+        if (message == null) {
+            message = errorFields.get("error");
+        }
+        return String.valueOf(message);
+    }
+
+    /**
+     * Gets the timeout timer, creating it if needed
+     * @return timer
+     */
+    private synchronized ScheduledExecutorService getTimer() {
+        if (mTimer == null) {
+            mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ddp-calls");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mTimer;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+/**
+ * Gets the outcome of a method call started w/ DDPStateSingleton.callAsync()
+ */
+public interface MethodCallback {
+    /**
+     * Called when the method returned
+     * @param result the method's return value (null if it didn't return anything)
+     */
+    void onResult(Object result);
+
+    /**
+     * Called when the call failed or timed out
+     * @param error what went wrong
+     */
+    void onError(MethodCallException error);
+}
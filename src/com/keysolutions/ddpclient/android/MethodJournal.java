@@ -0,0 +1,93 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.List;
+
+/**
+ * Storage for durable method calls (see DDPStateSingleton.setDurableCalls)
+ * that survives the app's process being killed, e.g., SQLiteMethodJournal.
+ * Methods are called on a background thread, one at a time.
+ */
+public interface MethodJournal {
+    /** a journaled method call */
+    class Entry {
+        private final String mKey;
+        private final String mMethod;
+        private final Object[] mParams;
+
+        /**
+         * Constructor
+         * @param key idempotency key
+         * @param method method name
+         * @param params method arguments (not including the key)
+         */
+        public Entry(String key, String method, Object[] params) {
+            this.mKey = key;
+            this.mMethod = method;
+            this.mParams = params;
+        }
+
+        /**
+         * Gets the idempotency key
+         * @return idempotency key
+         */
+        public String getKey() {
+            return mKey;
+        }
+
+        /**
+         * Gets the method name
+         * @return method name
+         */
+        public String getMethod() {
+            return mMethod;
+        }
+
+        /**
+         * Gets the method arguments
+         * @return arguments (not including the key)
+         */
+        public Object[] getParams() {
+            return mParams;
+        }
+    }
+
+    /**
+     * Adds a call to the end of the journal; must be on disk when this returns
+     * @param entry call to add
+     */
+    void append(Entry entry);
+
+    /**
+     * Removes a call once the server has answered it
+     * @param key idempotency key of the call
+     */
+    void remove(String key);
+
+    /**
+     * Gets the journaled calls
+     * @return calls in the order they were added
+     */
+    List<Entry> load();
+
+    /**
+     * Removes every call
+     */
+    void clear();
+}
@@ -0,0 +1,30 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+/**
+ * Gets periodic metrics snapshots (see DDPStateSingleton.setMetricsListener)
+ */
+public interface MetricsListener {
+    /**
+     * Called on the metrics timer thread once per period
+     * @param snapshot counts and latencies for the period that just ended;
+     *  collection sizes and queue depths are as of the end of the period
+     */
+    void onMetrics(MetricsSnapshot snapshot);
+}
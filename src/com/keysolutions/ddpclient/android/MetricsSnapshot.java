@@ -0,0 +1,261 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Point-in-time metrics for the DDP singleton (see DDPStateSingleton.getMetrics):
+ * time spent applying each DDP message type, method call round trips,
+ * broadcasts sent, collection sizes and queue depths.
+ * Counts and latencies cover the period since metrics were turned on, or
+ * since the last snapshot for snapshots handed to a MetricsListener.
+ */
+public class MetricsSnapshot {
+    /** broadcast kinds besides the document change types ("added", "changed", "removed") */
+    public static final String BROADCAST_CONNECTION = "connection";
+    public static final String BROADCAST_ERROR = "error";
+    public static final String BROADCAST_READY = "ready";
+    public static final String BROADCAST_BATCH = "batch";
+
+    private final long mWindowMillis;
+    private final Map<String, LatencyStats> mMessages;
+    private final Map<String, LatencyStats> mMethods;
+    private final Map<String, Long> mBroadcasts;
+    private final Map<String, Integer> mDocCounts;
+    private final Map<String, Long> mDocBytes;
+    private final int mQueuedMessages;
+    private final int mPendingBatchChanges;
+    private final int mQueuedMethodCalls;
+    private final int mCallsInFlight;
+
+    /**
+     * Constructor
+     * @param windowMillis length of the period the counts cover
+     * @param messages { message type, time spent applying it }
+     * @param methods { method name, round trip times }
+     * @param broadcasts { broadcast kind, number sent }
+     * @param docCounts { collection name, number of docs }
+     * @param docBytes { collection name, estimated bytes }
+     * @param queuedMessages doc messages waiting in the message pipeline
+     * @param pendingBatchChanges changes waiting in the subscription batcher
+     * @param queuedMethodCalls callAsync() calls waiting to be sent
+     * @param callsInFlight method calls waiting for a result
+     */
+    MetricsSnapshot(long windowMillis, Map<String, LatencyStats> messages,
+            Map<String, LatencyStats> methods, Map<String, Long> broadcasts,
+            Map<String, Integer> docCounts, Map<String, Long> docBytes,
+            int queuedMessages, int pendingBatchChanges, int queuedMethodCalls, int callsInFlight) {
+        this.mWindowMillis = windowMillis;
+        this.mMessages = messages;
+        this.mMethods = methods;
+        this.mBroadcasts = broadcasts;
+        this.mDocCounts = docCounts;
+        this.mDocBytes = docBytes;
+        this.mQueuedMessages = queuedMessages;
+        this.mPendingBatchChanges = pendingBatchChanges;
+        this.mQueuedMethodCalls = queuedMethodCalls;
+        this.mCallsInFlight = callsInFlight;
+    }
+
+    /**
+     * Gets length of the period the counts and latencies cover
+     * @return milliseconds
+     */
+    public long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    /**
+     * Gets the DDP message types that have been applied
+     * @return message types (e.g., "added", "changed")
+     */
+    public Set<String> getMessageTypes() {
+        return Collections.unmodifiableSet(mMessages.keySet());
+    }
+
+    /**
+     * Gets time spent applying messages of a type (storage, indexes,
+     * live queries, listeners and broadcasts; not time waiting in the pipeline)
+     * @param msgtype message type
+     * @return latencies or null if none of that type were applied
+     */
+    public LatencyStats getMessageLatency(String msgtype) {
+        return mMessages.get(msgtype);
+    }
+
+    /**
+     * Gets the names of methods that have been called
+     * @return method names
+     */
+    public Set<String> getMethodNames() {
+        return Collections.unmodifiableSet(mMethods.keySet());
+    }
+
+    /**
+     * Gets round trip times from call to result for a method
+     * @param method method name
+     * @return latencies or null if no results came back for that method
+     */
+    public LatencyStats getMethodLatency(String method) {
+        return mMethods.get(method);
+    }
+
+    /**
+     * Gets round trip times from call to result for all methods
+     * @return latencies or null if no results came back
+     */
+    public LatencyStats getMethodLatency() {
+        LatencyStats total = null;
+        for (LatencyStats stats : mMethods.values()) {
+            total = (total == null) ? stats : total.merge(stats);
+        }
+        return total;
+    }
+
+    /**
+     * Gets number of broadcasts sent
+     * @return broadcast count
+     */
+    public long getBroadcastCount() {
+        long total = 0;
+        for (Long count : mBroadcasts.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Gets number of broadcasts of one kind sent
+     * @param kind one of the BROADCAST_ kinds or a document change type
+     * @return broadcast count
+     */
+    public long getBroadcastCount(String kind) {
+        Long count = mBroadcasts.get(kind);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Gets broadcast rate over the period
+     * @return broadcasts per second
+     */
+    public double getBroadcastsPerSecond() {
+        return (mWindowMillis <= 0) ? 0.0 : getBroadcastCount() * 1000.0 / mWindowMillis;
+    }
+
+    /**
+     * Gets the names of collections we have docs for
+     * @return collection names
+     */
+    public Set<String> getCollectionNames() {
+        return Collections.unmodifiableSet(mDocCounts.keySet());
+    }
+
+    /**
+     * Gets number of docs in a collection
+     * @param collName collection name
+     * @return doc count
+     */
+    public int getDocumentCount(String collName) {
+        Integer count = mDocCounts.get(collName);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Gets estimated heap used by a collection's docs
+     * @param collName collection name
+     * @return estimated bytes
+     */
+    public long getEstimatedBytes(String collName) {
+        Long bytes = mDocBytes.get(collName);
+        return (bytes == null) ? 0 : bytes;
+    }
+
+    /**
+     * Gets number of doc messages waiting in the message pipeline
+     * @return queued message count (0 if the pipeline is off)
+     */
+    public int getQueuedMessages() {
+        return mQueuedMessages;
+    }
+
+    /**
+     * Gets number of changes waiting to be delivered by subscription batching
+     * @return pending change count (0 if batching is off)
+     */
+    public int getPendingBatchChanges() {
+        return mPendingBatchChanges;
+    }
+
+    /**
+     * Gets number of callAsync() calls waiting for room in the method call window
+     * @return queued call count
+     */
+    public int getQueuedMethodCalls() {
+        return mQueuedMethodCalls;
+    }
+
+    /**
+     * Gets number of method calls still waiting for a result
+     * @return in-flight call count
+     */
+    public int getCallsInFlight() {
+        return mCallsInFlight;
+    }
+
+    /**
+     * Gets the counts and latencies since an earlier snapshot; collection
+     * sizes and queue depths stay as of this snapshot
+     * @param earlier earlier snapshot or null
+     * @return snapshot for the period between the two
+     */
+    MetricsSnapshot since(MetricsSnapshot earlier) {
+        if (earlier == null) {
+            return this;
+        }
+        Map<String, LatencyStats> messages = new HashMap<>();
+        for (Map.Entry<String, LatencyStats> entry : mMessages.entrySet()) {
+            messages.put(entry.getKey(), entry.getValue().since(earlier.mMessages.get(entry.getKey())));
+        }
+        Map<String, LatencyStats> methods = new HashMap<>();
+        for (Map.Entry<String, LatencyStats> entry : mMethods.entrySet()) {
+            methods.put(entry.getKey(), entry.getValue().since(earlier.mMethods.get(entry.getKey())));
+        }
+        Map<String, Long> broadcasts = new HashMap<>();
+        for (Map.Entry<String, Long> entry : mBroadcasts.entrySet()) {
+            broadcasts.put(entry.getKey(), entry.getValue() - earlier.getBroadcastCount(entry.getKey()));
+        }
+        return new MetricsSnapshot(mWindowMillis - earlier.mWindowMillis, messages, methods,
+                broadcasts, mDocCounts, mDocBytes, mQueuedMessages, mPendingBatchChanges,
+                mQueuedMethodCalls, mCallsInFlight);
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{windowMillis=" + mWindowMillis + ", messages=" + mMessages
+                + ", methods=" + mMethods + ", broadcasts=" + mBroadcasts
+                + ", docCounts=" + mDocCounts + ", docBytes=" + mDocBytes
+                + ", queuedMessages=" + mQueuedMessages
+                + ", pendingBatchChanges=" + mPendingBatchChanges
+                + ", queuedMethodCalls=" + mQueuedMethodCalls
+                + ", callsInFlight=" + mCallsInFlight + "}";
+    }
+}
@@ -0,0 +1,237 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import com.keysolutions.ddpclient.DDPClient.DdpMessageField;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+
+/**
+ * Keeps the server's copy of documents that have local writes applied on
+ * top of them.  While a doc has local writes pending, doc messages from the
+ * server update the server copy instead of the cache; once the last write on
+ * the doc is done (or rolled back), the cache is reset to the server copy.
+ */
+class OptimisticWrites {
+    /** the server's version of a doc w/ local writes pending */
+    static class ServerDoc {
+        final String collName;
+        final String docId;
+        /** fields as the server last sent them (null if the server doesn't have the doc) */
+        Map<String, Object> fields;
+        /** number of pending writes on the doc */
+        int writes;
+
+        ServerDoc(String collName, String docId, Map<String, Object> fields) {
+            this.collName = collName;
+            this.docId = docId;
+            this.fields = fields;
+        }
+    }
+
+    /** { collectionName, { docId, server copy } } */
+    private final Map<String, Map<String, ServerDoc>> mDocs = new HashMap<>();
+    /** docs each pending write touched, in the order the writes were made */
+    private final Map<MethodCall, List<ServerDoc>> mWrites = new LinkedHashMap<>();
+    /** whether nothing is pending, so the message path can skip the lock */
+    private volatile boolean mEmpty = true;
+
+    /**
+     * Whether there are no local writes pending
+     * @return true if nothing is tracked
+     */
+    boolean isEmpty() {
+        return mEmpty;
+    }
+
+    /**
+     * Records that a call's local write touches a doc, remembering the
+     * server's copy if this is the first pending write on it
+     * @param call call the write belongs to
+     * @param collName collection name
+     * @param docId document ID
+     * @param cached doc as it's cached now (null if it isn't)
+     */
+    synchronized void track(MethodCall call, String collName, String docId, Map<String, Object> cached) {
+        Map<String, ServerDoc> collection = mDocs.get(collName);
+        if (collection == null) {
+            collection = new HashMap<>();
+            mDocs.put(collName, collection);
+        }
+        ServerDoc doc = collection.get(docId);
+        if (doc == null) {
+            doc = new ServerDoc(collName, docId, (cached != null) ? new HashMap<>(cached) : null);
+            collection.put(docId, doc);
+        }
+        List<ServerDoc> docs = mWrites.get(call);
+        if (docs == null) {
+            docs = new ArrayList<>(2);
+            mWrites.put(call, docs);
+        }
+        if (!docs.contains(doc)) {
+            docs.add(doc);
+            doc.writes++;
+        }
+        mEmpty = false;
+    }
+
+    /**
+     * Whether a doc has local writes pending
+     * @param collName collection name
+     * @param docId document ID
+     * @return true if the doc has local writes pending
+     */
+    synchronized boolean isTracked(String collName, String docId) {
+        return getDoc(collName, docId) != null;
+    }
+
+    /**
+     * Applies an "added" message to the server copy of a doc
+     * @param collName collection name
+     * @param docId document ID
+     * @param fields doc fields from the message
+     * @return false if the doc has no local writes and should be added to the cache
+     */
+    synchronized boolean serverAdded(String collName, String docId, Map<String, Object> fields) {
+        ServerDoc doc = getDoc(collName, docId);
+        if (doc == null) {
+            return false;
+        }
+        doc.fields = (fields != null) ? new HashMap<>(fields) : new HashMap<String, Object>();
+        return true;
+    }
+
+    /**
+     * Applies a "changed" message to the server copy of a doc
+     * @param collName collection name
+     * @param docId document ID
+     * @param jsonFields fields of the "changed" message
+     * @return false if the doc has no local writes and the cache should be changed
+     */
+    @SuppressWarnings("unchecked")
+    synchronized boolean serverChanged(String collName, String docId, Map<String, Object> jsonFields) {
+        ServerDoc doc = getDoc(collName, docId);
+        if (doc == null) {
+            return false;
+        }
+        if (doc.fields != null) {
+            Map<String, Object> fields = (Map<String, Object>) jsonFields.get(DdpMessageField.FIELDS);
+            if (fields != null) {
+                doc.fields.putAll(fields);
+            }
+            List<String> clearedFields = (List<String>) jsonFields.get(DdpMessageField.CLEARED);
+            if (clearedFields != null) {
+                for (String fieldName : clearedFields) {
+                    doc.fields.remove(fieldName);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies a "removed" message to the server copy of a doc
+     * @param collName collection name
+     * @param docId document ID
+     * @return false if the doc has no local writes and should be removed from the cache
+     */
+    synchronized boolean serverRemoved(String collName, String docId) {
+        ServerDoc doc = getDoc(collName, docId);
+        if (doc == null) {
+            return false;
+        }
+        doc.fields = null;
+        return true;
+    }
+
+    /**
+     * Finds the pending write for a DDP call ID (IDs start over on each
+     * connection, so the connection has to match too)
+     * @param client DDP client the "updated" message came from
+     * @param methodId call ID from an "updated" message
+     * @return call or null if it has no local write pending
+     */
+    synchronized MethodCall findCall(Observable client, String methodId) {
+        for (MethodCall call : mWrites.keySet()) {
+            if (call.isSentAs(client, methodId)) {
+                return call;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the calls w/ local writes pending
+     * @return calls in the order their writes were made
+     */
+    synchronized List<MethodCall> getCalls() {
+        return new ArrayList<>(mWrites.keySet());
+    }
+
+    /**
+     * Ends a call's local write
+     * @param call call whose write is done or rolled back
+     * @return docs that no longer have any writes pending, so the cache should
+     *  be reset to their server copies
+     */
+    synchronized List<ServerDoc> finish(MethodCall call) {
+        List<ServerDoc> docs = mWrites.remove(call);
+        if (docs == null) {
+            return Collections.emptyList();
+        }
+        List<ServerDoc> settled = new ArrayList<>(docs.size());
+        for (ServerDoc doc : docs) {
+            doc.writes--;
+            if (doc.writes == 0) {
+                Map<String, ServerDoc> collection = mDocs.get(doc.collName);
+                collection.remove(doc.docId);
+                if (collection.isEmpty()) {
+                    mDocs.remove(doc.collName);
+                }
+                settled.add(doc);
+            }
+        }
+        mEmpty = mWrites.isEmpty();
+        return settled;
+    }
+
+    /**
+     * Gets the number of calls w/ local writes pending
+     * @return pending write count
+     */
+    synchronized int getPendingCount() {
+        return mWrites.size();
+    }
+
+    /**
+     * Gets the server copy of a doc
+     * @param collName collection name
+     * @param docId document ID
+     * @return server copy or null if the doc has no local writes pending
+     */
+    private ServerDoc getDoc(String collName, String docId) {
+        Map<String, ServerDoc> collection = mDocs.get(collName);
+        return (collection != null) ? collection.get(docId) : null;
+    }
+}
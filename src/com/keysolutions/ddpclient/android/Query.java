@@ -0,0 +1,207 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query over a local collection: a compiled Selector plus optional
+ * sort, skip and limit.  Queries can be reused for repeated lookups,
+ * e.g., the newest 50 messages in a room:
+ * <pre>
+ * Query query = new Query(selector).sort("createdAt", false).limit(50);
+ * List&lt;MeteorCollectionDoc&gt; docs = ddp.find("messages", query);
+ * </pre>
+ * Matching SortedIndex/HashIndex indexes on the collection are used when
+ * available; otherwise the whole collection is scanned.
+ */
+public class Query {
+    /** which documents to return */
+    private final Selector mSelector;
+    /** field paths to sort by */
+    private final List<String> mSortFields = new ArrayList<>();
+    /** sort direction for each sort field */
+    private final List<Boolean> mSortAscending = new ArrayList<>();
+    /** number of matching documents to skip */
+    private int mSkip;
+    /** max number of documents to return (0 for all) */
+    private int mLimit;
+    /** sort field paths split on dots; built on first use */
+    private String[][] mSortPaths;
+    /** sort direction for each of mSortPaths */
+    private boolean[] mSortDirections;
+
+    /**
+     * Constructor
+     * @param selector compiled selector
+     */
+    public Query(Selector selector) {
+        this.mSelector = selector;
+    }
+
+    /**
+     * Constructor that compiles a Mongo-style selector
+     * @param selector selector, e.g., { "roomId": "abc" }
+     */
+    public Query(Map<String, Object> selector) {
+        this(Selector.compile(selector));
+    }
+
+    /**
+     * Adds a sort field (call more than once to sort by multiple fields).
+     * Ties are broken by document ID so results are always in the same order.
+     * @param fieldPath field path (can be dotted)
+     * @param ascending true for smallest values first
+     * @return this query
+     */
+    public synchronized Query sort(String fieldPath, boolean ascending) {
+        mSortFields.add(fieldPath);
+        mSortAscending.add(ascending);
+        mSortPaths = null;
+        return this;
+    }
+
+    /**
+     * Sets number of matching documents to skip
+     * @param skip number of docs to skip
+     * @return this query
+     */
+    public Query skip(int skip) {
+        mSkip = skip;
+        return this;
+    }
+
+    /**
+     * Sets max number of documents to return
+     * @param limit max number of docs (0 for no limit)
+     * @return this query
+     */
+    public Query limit(int limit) {
+        mLimit = limit;
+        return this;
+    }
+
+    /**
+     * Gets the compiled selector
+     * @return selector
+     */
+    public Selector getSelector() {
+        return mSelector;
+    }
+
+    /**
+     * Gets number of matching documents to skip
+     * @return number of docs to skip
+     */
+    public int getSkip() {
+        return mSkip;
+    }
+
+    /**
+     * Gets max number of documents to return
+     * @return max number of docs (0 for no limit)
+     */
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * Gets sort field paths
+     * @return sort fields in order of precedence
+     */
+    public synchronized List<String> getSortFields() {
+        return new ArrayList<>(mSortFields);
+    }
+
+    /**
+     * Gets whether a sort field is ascending
+     * @param index position of sort field
+     * @return true if ascending
+     */
+    public synchronized boolean isSortAscending(int index) {
+        return mSortAscending.get(index);
+    }
+
+    /**
+     * Whether this query has a sort
+     * @return true if sort fields were added
+     */
+    public synchronized boolean isSorted() {
+        return !mSortFields.isEmpty();
+    }
+
+    /**
+     * Gets a comparator for (docId, fields) entries that follows this query's sort
+     * @return comparator
+     */
+    Comparator<Map.Entry<String, Map<String, Object>>> getComparator() {
+        return new Comparator<Map.Entry<String, Map<String, Object>>>() {
+            @Override
+            public int compare(Map.Entry<String, Map<String, Object>> a,
+                    Map.Entry<String, Map<String, Object>> b) {
+                return compareKeys(getSortKey(a.getValue()), a.getKey(),
+                        getSortKey(b.getValue()), b.getKey());
+            }
+        };
+    }
+
+    /**
+     * Gets the values of a document's sort fields
+     * @param doc document fields
+     * @return values to sort the document by (empty if query isn't sorted)
+     */
+    synchronized Object[] getSortKey(Map<String, Object> doc) {
+        if (mSortPaths == null) {
+            mSortPaths = new String[mSortFields.size()][];
+            mSortDirections = new boolean[mSortPaths.length];
+            for (int i = 0; i < mSortPaths.length; i++) {
+                mSortPaths[i] = mSortFields.get(i).split("\\.");
+                mSortDirections[i] = mSortAscending.get(i);
+            }
+        }
+        Object[] key = new Object[mSortPaths.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = FieldValues.getSortValue(doc, mSortPaths[i]);
+        }
+        return key;
+    }
+
+    /**
+     * Compares two documents by their sort keys.
+     * Ties are broken by doc ID (reversed if the first sort field is descending)
+     * so the order matches a SortedIndex scan.
+     * @param keyA sort key of first doc from getSortKey
+     * @param docIdA ID of first doc
+     * @param keyB sort key of second doc from getSortKey
+     * @param docIdB ID of second doc
+     * @return negative, zero or positive like Comparator.compare
+     */
+    int compareKeys(Object[] keyA, String docIdA, Object[] keyB, String docIdB) {
+        boolean[] ascending = mSortDirections;
+        for (int i = 0; i < keyA.length; i++) {
+            int result = FieldValues.compare(keyA[i], keyB[i]);
+            if (result != 0) {
+                return ascending[i] ? result : -result;
+            }
+        }
+        int result = docIdA.compareTo(docIdB);
+        return (keyA.length == 0 || ascending[0]) ? result : -result;
+    }
+}
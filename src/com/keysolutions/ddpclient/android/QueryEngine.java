@@ -0,0 +1,182 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs Queries against a collection, using the collection's indexes
+ * when one can narrow down or order the results:
+ * 1. a SortedIndex on the (only) sort field, w/ an $eq on its partition field
+ *    if it has one, is scanned in order and stops once skip+limit docs match
+ *    (unless a doc has an array in a field the scan is bounded by, since
+ *    selectors match those against each element)
+ * 2. otherwise the smallest HashIndex lookup for an $eq/$in field gives the candidates
+ * 3. otherwise the whole collection is scanned
+ * Candidates are always checked against the full selector.
+ */
+class QueryEngine {
+    private QueryEngine() {
+    }
+
+    /**
+     * Finds IDs of documents matching a query
+     * @param collection collection docs or null if collection doesn't exist
+     * @param indexes indexes on the collection
+     * @param query query to run
+     * @return matching doc IDs in query order
+     */
+    static List<String> findIds(Map<String, Map<String, Object>> collection,
+            List<CollectionIndex> indexes, Query query) {
+        if (collection == null) {
+            return new ArrayList<>();
+        }
+        List<String> docIds = findIdsInOrder(collection, indexes, query);
+        if (docIds != null) {
+            return docIds;
+        }
+
+        // gather matching docs from an index lookup or a full scan, then sort
+        List<Map.Entry<String, Map<String, Object>>> matches = new ArrayList<>();
+        Selector selector = query.getSelector();
+        List<String> candidates = findCandidates(indexes, selector);
+        if (candidates != null) {
+            for (String docId : candidates) {
+                Map<String, Object> doc = collection.get(docId);
+                if (doc != null && selector.matches(doc)) {
+                    matches.add(new AbstractMap.SimpleImmutableEntry<>(docId, doc));
+                }
+            }
+        } else {
+            for (Map.Entry<String, Map<String, Object>> doc : collection.entrySet()) {
+                if (selector.matches(doc.getValue())) {
+                    matches.add(doc);
+                }
+            }
+        }
+        if (query.isSorted()) {
+            Collections.sort(matches, query.getComparator());
+        }
+        int from = Math.min(query.getSkip(), matches.size());
+        int to = (query.getLimit() > 0) ? Math.min(from + query.getLimit(), matches.size())
+                : matches.size();
+        docIds = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            docIds.add(matches.get(i).getKey());
+        }
+        return docIds;
+    }
+
+    /**
+     * Runs a sorted query by walking a SortedIndex that's already in the right order
+     * @param collection collection docs
+     * @param indexes indexes on the collection
+     * @param query query to run
+     * @return matching doc IDs or null if no index fits the query
+     */
+    private static List<String> findIdsInOrder(final Map<String, Map<String, Object>> collection,
+            List<CollectionIndex> indexes, final Query query) {
+        List<String> sortFields = query.getSortFields();
+        if (sortFields.size() != 1) {
+            return null;
+        }
+        final Selector selector = query.getSelector();
+        for (CollectionIndex index : indexes) {
+            if (!(index instanceof SortedIndex)) {
+                continue;
+            }
+            SortedIndex sortedIndex = (SortedIndex) index;
+            if (!sortedIndex.getSortField().equals(sortFields.get(0))) {
+                continue;
+            }
+            Object partition = SortedIndex.NO_PARTITION;
+            if (sortedIndex.getPartitionField() != null) {
+                partition = selector.getEqualityValue(sortedIndex.getPartitionField());
+                if (partition == Selector.NO_VALUE || sortedIndex.hasMultiValuedPartitionField()) {
+                    continue;
+                }
+            }
+            Object[] range = selector.getRange(sortedIndex.getSortField());
+            if ((range[0] != SortedIndex.UNBOUNDED || range[1] != SortedIndex.UNBOUNDED)
+                    && sortedIndex.hasMultiValuedSortField()) {
+                continue;
+            }
+            final List<String> docIds = new ArrayList<>();
+            final int skip = query.getSkip();
+            final int limit = query.getLimit();
+            sortedIndex.scanRange(partition, range[0], range[1], !query.isSortAscending(0),
+                    new SortedIndex.DocIdVisitor() {
+                        int mSkipped = 0;
+
+                        @Override
+                        public boolean visit(String docId) {
+                            Map<String, Object> doc = collection.get(docId);
+                            if (doc != null && selector.matches(doc)) {
+                                if (mSkipped < skip) {
+                                    mSkipped++;
+                                } else {
+                                    docIds.add(docId);
+                                }
+                            }
+                            return (limit <= 0) || (docIds.size() < limit);
+                        }
+                    });
+            return docIds;
+        }
+        return null;
+    }
+
+    /**
+     * Narrows down the docs to check using the most selective HashIndex
+     * @param indexes indexes on the collection
+     * @param selector query selector
+     * @return candidate doc IDs or null if no index fits the selector
+     */
+    private static List<String> findCandidates(List<CollectionIndex> indexes, Selector selector) {
+        List<String> best = null;
+        for (CollectionIndex index : indexes) {
+            if (!(index instanceof HashIndex)) {
+                continue;
+            }
+            HashIndex hashIndex = (HashIndex) index;
+            List<String> candidates = null;
+            Object value = selector.getEqualityValue(hashIndex.getFieldName());
+            if (value != Selector.NO_VALUE && !(value instanceof List) && !(value instanceof Map)) {
+                candidates = hashIndex.getDocIds(value);
+            } else {
+                List<?> values = selector.getInValues(hashIndex.getFieldName());
+                if (values != null) {
+                    Set<String> union = new LinkedHashSet<>();
+                    for (Object inValue : values) {
+                        union.addAll(hashIndex.getDocIds(inValue));
+                    }
+                    candidates = new ArrayList<>(union);
+                }
+            }
+            if (candidates != null && (best == null || candidates.size() < best.size())) {
+                best = candidates;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff w/ jitter for reconnect attempts.
+ * Each delay is a random value between half and all of
+ * initialDelay * 2^attempt (capped at maxDelay), so a server restart doesn't
+ * have every client reconnecting at the same moment.
+ */
+final class ReconnectBackoff {
+    private final Random mRandom = new Random();
+    private long mInitialDelayMillis;
+    private long mMaxDelayMillis;
+    /** number of delays handed out since the last reset */
+    private int mAttempt;
+
+    /**
+     * Constructor
+     * @param initialDelayMillis delay before first reconnect attempt
+     * @param maxDelayMillis longest delay between attempts
+     */
+    ReconnectBackoff(long initialDelayMillis, long maxDelayMillis) {
+        setDelays(initialDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * Changes the delays
+     * @param initialDelayMillis delay before first reconnect attempt
+     * @param maxDelayMillis longest delay between attempts
+     */
+    synchronized void setDelays(long initialDelayMillis, long maxDelayMillis) {
+        if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Need 0 < initialDelayMillis <= maxDelayMillis");
+        }
+        mInitialDelayMillis = initialDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Gets the delay before the next attempt and moves on to the next attempt
+     * @return delay in milliseconds
+     */
+    synchronized long nextDelay() {
+        long delay = mMaxDelayMillis;
+        // stop doubling once we'd pass the max (and before the shift overflows)
+        if (mAttempt < 31 && (mInitialDelayMillis << mAttempt) < mMaxDelayMillis) {
+            delay = mInitialDelayMillis << mAttempt;
+        }
+        mAttempt++;
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+
+    /**
+     * Gets the number of attempts since the last reset
+     * @return attempt count
+     */
+    synchronized int getAttempt() {
+        return mAttempt;
+    }
+
+    /**
+     * Starts over at the initial delay (e.g., after a successful connect)
+     */
+    synchronized void reset() {
+        mAttempt = 0;
+    }
+}
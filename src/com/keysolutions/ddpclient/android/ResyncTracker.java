@@ -0,0 +1,120 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of which cached documents the server has replayed since a
+ * reconnect, so the ones it didn't replay can be removed once every
+ * subscription is ready again.
+ */
+class ResyncTracker {
+    /** { collectionName, IDs of docs cached before the reconnect that haven't been replayed } */
+    private Map<String, Set<String>> mUnseen;
+
+    /**
+     * Starts tracking (starting over if a previous resync didn't finish)
+     * @param cachedDocIds { collectionName, IDs of docs cached before the reconnect }
+     */
+    synchronized void begin(Map<String, Set<String>> cachedDocIds) {
+        mUnseen = cachedDocIds;
+    }
+
+    /**
+     * Whether a resync is in progress
+     * @return true if waiting for subscriptions to be ready again
+     */
+    synchronized boolean isActive() {
+        return mUnseen != null;
+    }
+
+    /**
+     * Marks a document as replayed by the server
+     * @param collName collection name
+     * @param docId document ID
+     * @return true if a resync is in progress and the doc was cached before the reconnect
+     */
+    synchronized boolean markSeen(String collName, String docId) {
+        if (mUnseen == null) {
+            return false;
+        }
+        Set<String> docIds = mUnseen.get(collName);
+        return (docIds != null) && docIds.remove(docId);
+    }
+
+    /**
+     * Forgets about a cached doc (e.g., because the server removed it)
+     * @param collName collection name
+     * @param docId document ID
+     */
+    synchronized void forget(String collName, String docId) {
+        markSeen(collName, docId);
+    }
+
+    /**
+     * Ends the resync
+     * @return { collectionName, IDs of cached docs that weren't replayed } (empty if no resync)
+     */
+    synchronized Map<String, Set<String>> finish() {
+        Map<String, Set<String>> unseen = mUnseen;
+        mUnseen = null;
+        return (unseen != null) ? unseen : Collections.<String, Set<String>>emptyMap();
+    }
+
+    /**
+     * Ends tracking of one collection, leaving the others tracked
+     * @param collName collection name
+     * @return IDs of the collection's cached docs that weren't replayed (empty if not tracked)
+     */
+    synchronized Set<String> finish(String collName) {
+        if (mUnseen == null) {
+            return Collections.emptySet();
+        }
+        Set<String> unseen = mUnseen.remove(collName);
+        if (mUnseen.isEmpty()) {
+            mUnseen = null;
+        }
+        return (unseen != null) ? unseen : Collections.<String>emptySet();
+    }
+
+    /**
+     * Gets the collections still being tracked
+     * @return collection names (empty if no resync)
+     */
+    synchronized Set<String> getCollectionNames() {
+        return (mUnseen != null) ? new HashSet<>(mUnseen.keySet()) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Copies the doc IDs of the given collections
+     * @param collections { collectionName, docs }
+     * @return { collectionName, doc IDs }
+     */
+    static Map<String, Set<String>> snapshot(Map<String, Map<String, Map<String, Object>>> collections) {
+        Map<String, Set<String>> docIds = new HashMap<>();
+        for (Map.Entry<String, Map<String, Map<String, Object>>> coll : collections.entrySet()) {
+            docIds.put(coll.getKey(), new HashSet<>(coll.getValue().keySet()));
+        }
+        return docIds;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Method journal that keeps durable method calls in a SQLite database
+ * so they survive the app's process being killed.
+ * Use it by calling DDPStateSingleton.setDurableCalls().
+ */
+public class SQLiteMethodJournal implements MethodJournal {
+    /** default database file name */
+    public static final String DEFAULT_DB_NAME = "ddpjournal.db";
+    private static final int DB_VERSION = 1;
+    private static final String TABLE_CALLS = "calls";
+    private static final String COL_SEQ = "seq";
+    private static final String COL_KEY = "callkey";
+    private static final String COL_METHOD = "method";
+    private static final String COL_PARAMS = "params";
+
+    /** creates/upgrades the database schema */
+    private static class DBHelper extends SQLiteOpenHelper {
+        DBHelper(Context context, String dbName) {
+            super(context, dbName, null, DB_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_CALLS + " ("
+                    + COL_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COL_KEY + " TEXT NOT NULL UNIQUE, "
+                    + COL_METHOD + " TEXT NOT NULL, "
+                    + COL_PARAMS + " TEXT NOT NULL)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // only one version so far; unlike the doc cache, calls can't just be dropped
+        }
+    }
+
+    private final DBHelper mDBHelper;
+    /** Google GSON object for converting arguments to/from JSON */
+    private final Gson mGSON = new Gson();
+
+    /**
+     * Constructor using default database name
+     * @param context Android context
+     */
+    public SQLiteMethodJournal(Context context) {
+        this(context, DEFAULT_DB_NAME);
+    }
+
+    /**
+     * Constructor
+     * @param context Android context
+     * @param dbName database file name
+     */
+    public SQLiteMethodJournal(Context context, String dbName) {
+        mDBHelper = new DBHelper(context.getApplicationContext(), dbName);
+    }
+
+    @Override
+    public void append(Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put(COL_KEY, entry.getKey());
+        values.put(COL_METHOD, entry.getMethod());
+        values.put(COL_PARAMS, mGSON.toJson(entry.getParams()));
+        mDBHelper.getWritableDatabase().insertWithOnConflict(TABLE_CALLS, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    @Override
+    public void remove(String key) {
+        mDBHelper.getWritableDatabase().delete(TABLE_CALLS, COL_KEY + "=?", new String[] { key });
+    }
+
+    @Override
+    public List<Entry> load() {
+        List<Entry> entries = new ArrayList<>();
+        Cursor cursor = mDBHelper.getReadableDatabase().query(TABLE_CALLS,
+                new String[] { COL_KEY, COL_METHOD, COL_PARAMS }, null, null, null, null, COL_SEQ);
+        try {
+            while (cursor.moveToNext()) {
+                entries.add(new Entry(cursor.getString(0), cursor.getString(1),
+                        mGSON.fromJson(cursor.getString(2), Object[].class)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    @Override
+    public void clear() {
+        mDBHelper.getWritableDatabase().delete(TABLE_CALLS, null, null);
+    }
+}
@@ -0,0 +1,512 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.support.v4.BuildConfig;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * DDP collection storage that keeps documents in memory like MemoryStateStorage
+ * but also writes them through to a SQLite database so the next cold start
+ * can show cached data before subscriptions have finished syncing.
+ * Writes happen in batched transactions on a background thread so the
+ * websocket thread never waits on disk writes.  Reads aren't moved off the
+ * caller's thread: a collection is read from disk by whichever thread touches
+ * it first (call loadCollection() from a background thread at startup to get
+ * that out of the way), and docs evicted from collections w/ a memory budget
+ * (see setCollectionBudget()) are read back from the database by the thread
+ * that needs them, so no overflow storage is needed.
+ * Use it by calling DDPStateSingleton.setStorage() before connecting.
+ */
+public class SQLiteStateStorage extends MemoryStateStorage {
+    private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+
+    /** default database file name */
+    public static final String DEFAULT_DB_NAME = "ddpcollections.db";
+    private static final int DB_VERSION = 1;
+    private static final String TABLE_DOCS = "docs";
+    private static final String COL_COLLECTION = "collection";
+    private static final String COL_DOCID = "docid";
+    private static final String COL_FIELDS = "fields";
+    /** times a batch of writes is tried before they're written one at a time */
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+    /** delay before retrying a failed batch; doubles after each failure */
+    private static final long RETRY_DELAY_MILLIS = 500;
+    /** longest delay before retrying a failed batch */
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+    /** Gson type for document fields */
+    private static final Type FIELDS_TYPE = new TypeToken<Map<String, Object>>() {}.getType();
+
+    /** a document write waiting for the writer thread */
+    private static class PendingWrite {
+        final String collName;
+        /** null for all docs in collection */
+        final String docId;
+        /** JSON of doc's fields or null to delete */
+        final String json;
+
+        PendingWrite(String collName, String docId, String json) {
+            this.collName = collName;
+            this.docId = docId;
+            this.json = json;
+        }
+    }
+
+    /** creates/upgrades the database schema */
+    private static class DBHelper extends SQLiteOpenHelper {
+        DBHelper(Context context, String dbName) {
+            super(context, dbName, null, DB_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_DOCS + " ("
+                    + COL_COLLECTION + " TEXT NOT NULL, "
+                    + COL_DOCID + " TEXT NOT NULL, "
+                    + COL_FIELDS + " TEXT NOT NULL, "
+                    + "PRIMARY KEY (" + COL_COLLECTION + ", " + COL_DOCID + "))");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // it's only a cache, so just start over
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_DOCS);
+            onCreate(db);
+        }
+    }
+
+    private final DBHelper mDBHelper;
+    /** Google GSON object for converting fields to/from JSON */
+    private final Gson mGSON = new Gson();
+    /** names of collections that have been read from disk */
+    private final Set<String> mLoadedCollections
+            = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** writes waiting to be written to disk */
+    private final ConcurrentLinkedQueue<PendingWrite> mWriteQueue = new ConcurrentLinkedQueue<>();
+    /** held while writes are being moved from the queue to disk so page-ins see one or the other */
+    private final Object mDiskLock = new Object();
+    /** whether the writer thread has been asked to drain the write queue */
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean(false);
+    /** background thread for disk writes */
+    private final ScheduledThreadPoolExecutor mWriter = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ddp-sqlite-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    /** writes everything in the write queue in one transaction */
+    private final Runnable mDrainWrites = new Runnable() {
+        @Override
+        public void run() {
+            mDrainScheduled.set(false);
+            drainWrites(false);
+        }
+    };
+    /** compiled upsert statement; only used on the writer thread */
+    private SQLiteStatement mUpsert;
+    /** number of times in a row the current batch failed; only used on the writer thread */
+    private int mFailedAttempts;
+    /** System.nanoTime() before which a failed batch isn't retried; only used on the writer thread */
+    private long mRetryAtNanos;
+
+    /**
+     * Constructor using default database name
+     * @param context Android context
+     */
+    public SQLiteStateStorage(Context context) {
+        this(context, DEFAULT_DB_NAME);
+    }
+
+    /**
+     * Constructor
+     * @param context Android context
+     * @param dbName database file name
+     */
+    public SQLiteStateStorage(Context context, String dbName) {
+        this(context, dbName, false);
+    }
+
+    /**
+     * Constructor
+     * @param context Android context
+     * @param dbName database file name
+     * @param compactDocuments true to keep documents in memory as CompactDocuments
+     */
+    public SQLiteStateStorage(Context context, String dbName, boolean compactDocuments) {
+        super(compactDocuments);
+        mDBHelper = new DBHelper(context.getApplicationContext(), dbName);
+        // close() does a final drain, so a pending retry doesn't need to hold it up
+        mWriter.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    @Override
+    public void addDoc(Map<String, Object> jsonFields, String collName, String docId) {
+        loadCollection(collName);
+        super.addDoc(jsonFields, collName, docId);
+        persistDoc(collName, docId);
+    }
+
+    @Override
+    public boolean updateDoc(Map<String, Object> jsonFields, String collName, String docId) {
+        loadCollection(collName);
+        if (super.updateDoc(jsonFields, collName, docId)) {
+            persistDoc(collName, docId);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean removeDoc(String collName, String docId) {
+        loadCollection(collName);
+        if (super.removeDoc(collName, docId)) {
+            queueWrite(new PendingWrite(collName, docId, null));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Map<String, Map<String, Object>> getCollection(String collName) {
+        loadCollection(collName);
+        return super.getCollection(collName);
+    }
+
+    @Override
+    protected void ensureLoaded(String collName) {
+        loadCollection(collName);
+    }
+
+    @Override
+    protected void onDocEvicted(String collName, String docId, Map<String, Object> fields) {
+        // already written through to disk
+    }
+
+    @Override
+    protected void onDocPagedIn(String collName, String docId) {
+        // stays on disk since every doc is written through
+    }
+
+    @Override
+    protected Map<String, Object> readEvictedDoc(String collName, String docId) {
+        synchronized (mDiskLock) {
+            // the newest queued write for this doc wins over what's on disk
+            PendingWrite latest = null;
+            for (PendingWrite write : mWriteQueue) {
+                if (write.collName.equals(collName)
+                        && (write.docId == null || write.docId.equals(docId))) {
+                    latest = write;
+                }
+            }
+            if (latest != null) {
+                if (latest.json == null) {
+                    return null;
+                }
+                return mGSON.fromJson(latest.json, FIELDS_TYPE);
+            }
+            Cursor cursor = mDBHelper.getReadableDatabase().query(TABLE_DOCS,
+                    new String[] { COL_FIELDS }, COL_COLLECTION + "=? AND " + COL_DOCID + "=?",
+                    new String[] { collName, docId }, null, null, null);
+            try {
+                if (cursor.moveToNext()) {
+                    return mGSON.fromJson(cursor.getString(0), FIELDS_TYPE);
+                }
+            } finally {
+                cursor.close();
+            }
+            return null;
+        }
+    }
+
+    @Override
+    protected Set<String> getEvictedDocIds(String collName) {
+        synchronized (mDiskLock) {
+            Set<String> docIds = new HashSet<>();
+            Cursor cursor = mDBHelper.getReadableDatabase().query(TABLE_DOCS,
+                    new String[] { COL_DOCID }, COL_COLLECTION + "=?",
+                    new String[] { collName }, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    docIds.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            // queued writes haven't made it to disk yet
+            for (PendingWrite write : mWriteQueue) {
+                if (!write.collName.equals(collName)) {
+                    continue;
+                }
+                if (write.docId == null) {
+                    docIds.clear();
+                } else if (write.json == null) {
+                    docIds.remove(write.docId);
+                } else {
+                    docIds.add(write.docId);
+                }
+            }
+            return docIds;
+        }
+    }
+
+    @Override
+    protected boolean removeEvictedDoc(String collName, String docId) {
+        // caller queues the delete
+        return readEvictedDoc(collName, docId) != null;
+    }
+
+    /**
+     * Removes a whole collection from memory and disk
+     * @param collName collection name
+     */
+    public void clearCollection(String collName) {
+        mLoadedCollections.add(collName);
+        removeCollection(collName);
+        queueWrite(new PendingWrite(collName, null, null));
+    }
+
+    /**
+     * Reads a collection in from disk if it hasn't been read yet.
+     * Call this from a background thread at startup if you want to avoid
+     * the disk read on first access.
+     * @param collName collection name
+     */
+    public void loadCollection(String collName) {
+        if (collName == null || mLoadedCollections.contains(collName)) {
+            return;
+        }
+        synchronized (mLoadedCollections) {
+            if (mLoadedCollections.contains(collName)) {
+                return;
+            }
+            Cursor cursor = mDBHelper.getReadableDatabase().query(TABLE_DOCS,
+                    new String[] { COL_DOCID, COL_FIELDS }, COL_COLLECTION + "=?",
+                    new String[] { collName }, null, null, null);
+            int count = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    Map<String, Object> fields = mGSON.fromJson(cursor.getString(1), FIELDS_TYPE);
+                    putDoc(collName, cursor.getString(0), fields);
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+            mLoadedCollections.add(collName);
+            log.debug("Loaded " + count + " cached docs for collection " + collName);
+        }
+    }
+
+    /**
+     * Gets the names of collections that have docs on disk or in memory,
+     * e.g., to reconcile them w/ the server after a cold start
+     * @return collection names
+     */
+    public Set<String> getCachedCollectionNames() {
+        Set<String> names = new HashSet<>(mLoadedCollections);
+        Cursor cursor = mDBHelper.getReadableDatabase().rawQuery(
+                "SELECT DISTINCT " + COL_COLLECTION + " FROM " + TABLE_DOCS, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * Waits for all queued writes to make it to disk and closes the database
+     */
+    public void close() {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                drainWrites(true);
+                closeUpsert();
+            }
+        });
+        mWriter.shutdown();
+        try {
+            mWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mDBHelper.close();
+    }
+
+    /**
+     * Queues the current state of a document to be written to disk.
+     * The JSON is generated here so the writer thread never sees a doc
+     * that's being modified.
+     * @param collName collection name
+     * @param docId document ID
+     */
+    private void persistDoc(String collName, String docId) {
+        // read it directly so write-through doesn't count as a cache hit or page it in
+        Map<String, Map<String, Object>> collection = mCollections.get(collName);
+        Map<String, Object> doc = (collection != null) ? collection.get(docId) : null;
+        if (doc instanceof LazyDocument) {
+            // write fields that are still JSON w/o parsing them
+            queueWrite(new PendingWrite(collName, docId, ((LazyDocument) doc).toJson(mGSON)));
+        } else if (doc != null) {
+            queueWrite(new PendingWrite(collName, docId, mGSON.toJson(doc)));
+        }
+    }
+
+    /**
+     * Adds a write to the queue and makes sure the writer thread will get to it
+     * @param write pending write
+     */
+    private void queueWrite(PendingWrite write) {
+        mWriteQueue.add(write);
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mWriter.execute(mDrainWrites);
+        }
+    }
+
+    /**
+     * Writes everything in the write queue in one transaction (called on writer thread).
+     * Writes stay queued until the transaction commits, so page-ins keep
+     * seeing them in the meantime.  A failed batch is retried w/ a growing
+     * delay; after MAX_WRITE_ATTEMPTS failures, each write is tried on its
+     * own and the ones that still fail are dropped so they can't hold up the rest.
+     * @param closing true for the last drain before the database is closed,
+     *     which writes what it can right away instead of retrying later
+     */
+    private void drainWrites(boolean closing) {
+        if (mWriteQueue.isEmpty()
+                || (!closing && mFailedAttempts > 0 && System.nanoTime() - mRetryAtNanos < 0)) {
+            // a retry is already scheduled for after the backoff delay
+            return;
+        }
+        // only this thread removes writes, so the head of the queue stays put while we write it
+        List<PendingWrite> batch = new ArrayList<>(mWriteQueue);
+        synchronized (mDiskLock) {
+            try {
+                writeBatch(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    mWriteQueue.poll();
+                }
+                mFailedAttempts = 0;
+                if (BuildConfig.DEBUG) {
+                    log.debug("Wrote " + batch.size() + " doc changes to disk");
+                }
+                return;
+            } catch (RuntimeException e) {
+                closeUpsert();
+                mFailedAttempts++;
+                if (!closing && mFailedAttempts < MAX_WRITE_ATTEMPTS) {
+                    long delayMillis = Math.min(RETRY_DELAY_MILLIS << (mFailedAttempts - 1),
+                            MAX_RETRY_DELAY_MILLIS);
+                    log.error("Failed writing " + batch.size() + " cached doc changes; retrying in "
+                            + delayMillis + "ms", e);
+                    mRetryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+                    mWriter.schedule(mDrainWrites, delayMillis, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                log.error("Failed writing " + batch.size() + " cached doc changes "
+                        + mFailedAttempts + " times; writing them one at a time", e);
+            }
+            mFailedAttempts = 0;
+            for (PendingWrite write : batch) {
+                try {
+                    writeBatch(Collections.singletonList(write));
+                } catch (RuntimeException e) {
+                    closeUpsert();
+                    // it's only a cache, so resyncing after the next cold start fixes it up
+                    log.error("Dropping cached doc change for " + write.collName + " doc "
+                            + write.docId, e);
+                }
+                mWriteQueue.poll();
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of writes in one transaction (called on writer thread)
+     * @param batch writes in queue order
+     */
+    private void writeBatch(List<PendingWrite> batch) {
+        SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        if (mUpsert == null) {
+            mUpsert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_DOCS
+                    + " (" + COL_COLLECTION + ", " + COL_DOCID + ", " + COL_FIELDS
+                    + ") VALUES (?, ?, ?)");
+        }
+        db.beginTransaction();
+        try {
+            for (PendingWrite write : batch) {
+                if (write.json != null) {
+                    mUpsert.bindString(1, write.collName);
+                    mUpsert.bindString(2, write.docId);
+                    mUpsert.bindString(3, write.json);
+                    mUpsert.executeInsert();
+                } else if (write.docId != null) {
+                    db.delete(TABLE_DOCS, COL_COLLECTION + "=? AND " + COL_DOCID + "=?",
+                            new String[] { write.collName, write.docId });
+                } else {
+                    db.delete(TABLE_DOCS, COL_COLLECTION + "=?",
+                            new String[] { write.collName });
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Closes the compiled upsert statement so the next batch compiles a new one
+     * (called on writer thread)
+     */
+    private void closeUpsert() {
+        if (mUpsert != null) {
+            try {
+                mUpsert.close();
+            } catch (RuntimeException e) {
+                log.warn("Failed closing cached doc upsert statement", e);
+            }
+            mUpsert = null;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mongo-style selector compiled into a reusable predicate, e.g.,
+ * { "roomId": "abc", "createdAt": { "$gt": 1400000000000 }, "author.name": { "$exists": true } }
+ * Supported operators are $eq, $ne, $in, $nin, $gt, $gte, $lt, $lte, $exists
+ * and top-level $and, $or and $nor.  Field names can be dotted paths into
+ * nested maps and arrays.
+ * Compile a selector once and reuse it since matching doesn't re-parse anything.
+ */
+public class Selector {
+    /** returned by the planner helpers when a selector doesn't constrain a field */
+    static final Object NO_VALUE = new Object();
+
+    /** a compiled test against a document */
+    private interface Clause {
+        boolean matches(Map<String, Object> doc);
+    }
+
+    /** one operator applied to a field, e.g., { $gt: 5 } */
+    private static class Condition {
+        final String op;
+        final Object operand;
+
+        Condition(String op, Object operand) {
+            this.op = op;
+            this.operand = operand;
+        }
+
+        /**
+         * Tests the values found at a field path
+         * @param values values at the path (empty if path doesn't exist)
+         * @return true if condition is satisfied
+         */
+        boolean matches(List<Object> values) {
+            switch (op) {
+                case "$eq":
+                    return containsEqual(values, operand);
+                case "$ne":
+                    return !containsEqual(values, operand);
+                case "$in":
+                    return containsAny(values, (List<?>) operand);
+                case "$nin":
+                    return !containsAny(values, (List<?>) operand);
+                case "$exists":
+                    return values.isEmpty() != Boolean.TRUE.equals(operand);
+                default:
+                    for (Object value : values) {
+                        if (FieldValues.sameType(value, operand)) {
+                            int result = FieldValues.compare(value, operand);
+                            if ((op.equals("$gt") && result > 0) || (op.equals("$gte") && result >= 0)
+                                    || (op.equals("$lt") && result < 0) || (op.equals("$lte") && result <= 0)) {
+                                return true;
+                            }
+                        }
+                    }
+                    return false;
+            }
+        }
+
+        private static boolean containsEqual(List<Object> values, Object operand) {
+            if (operand == null && values.isEmpty()) {
+                // Mongo treats missing fields as equal to null
+                return true;
+            }
+            for (Object value : values) {
+                if (FieldValues.equal(value, operand)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean containsAny(List<Object> values, List<?> operands) {
+            for (Object operand : operands) {
+                if (containsEqual(values, operand)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** all conditions on one field path */
+    private static class FieldClause implements Clause {
+        final String path;
+        final String[] parts;
+        final List<Condition> conditions;
+
+        FieldClause(String path, List<Condition> conditions) {
+            this.path = path;
+            this.parts = path.split("\\.");
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean matches(Map<String, Object> doc) {
+            List<Object> values;
+            Object value = doc.get(path);
+            if (parts.length == 1 && !(value instanceof List)) {
+                // fast path for plain top-level fields
+                values = (value != null || doc.containsKey(path))
+                        ? Collections.singletonList(value) : Collections.emptyList();
+            } else {
+                values = new ArrayList<>();
+                FieldValues.resolvePath(doc, parts, 0, values);
+            }
+            for (Condition condition : conditions) {
+                if (!condition.matches(values)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** $and/$or/$nor of other clauses */
+    private static class LogicalClause implements Clause {
+        final String op;
+        final List<Clause> clauses;
+
+        LogicalClause(String op, List<Clause> clauses) {
+            this.op = op;
+            this.clauses = clauses;
+        }
+
+        @Override
+        public boolean matches(Map<String, Object> doc) {
+            boolean and = op.equals("$and");
+            for (Clause clause : clauses) {
+                boolean matched = clause.matches(doc);
+                if (and && !matched) {
+                    return false;
+                } else if (!and && matched) {
+                    return op.equals("$or");
+                }
+            }
+            return and || op.equals("$nor");
+        }
+    }
+
+    /** top-level clauses which all have to match */
+    private final List<Clause> mClauses;
+
+    /**
+     * Constructor (use compile or all)
+     * @param clauses top-level clauses
+     */
+    private Selector(List<Clause> clauses) {
+        this.mClauses = clauses;
+    }
+
+    /**
+     * Gets a selector that matches every document
+     * @return selector
+     */
+    public static Selector all() {
+        return new Selector(Collections.<Clause>emptyList());
+    }
+
+    /**
+     * Compiles a Mongo-style selector
+     * @param spec selector, e.g., { "status": { "$in": ["open", "pending"] } }
+     * @return compiled selector
+     * @throws IllegalArgumentException if the selector uses an unsupported operator
+     */
+    public static Selector compile(Map<String, Object> spec) {
+        return new Selector(compileClauses(spec));
+    }
+
+    /**
+     * Whether a document matches this selector
+     * @param doc document fields
+     * @return true if all clauses match
+     */
+    public boolean matches(Map<String, Object> doc) {
+        for (Clause clause : mClauses) {
+            if (!clause.matches(doc)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Clause> compileClauses(Map<String, Object> spec) {
+        List<Clause> clauses = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : spec.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (key.equals("$and") || key.equals("$or") || key.equals("$nor")) {
+                List<Clause> subClauses = new ArrayList<>();
+                for (Object subSpec : (List<Object>) value) {
+                    subClauses.add(new LogicalClause("$and",
+                            compileClauses((Map<String, Object>) subSpec)));
+                }
+                clauses.add(new LogicalClause(key, subClauses));
+            } else if (key.startsWith("$")) {
+                throw new IllegalArgumentException("Unsupported selector operator: " + key);
+            } else {
+                clauses.add(new FieldClause(key, compileConditions(value)));
+            }
+        }
+        return clauses;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Condition> compileConditions(Object value) {
+        List<Condition> conditions = new ArrayList<>();
+        if (isOperatorMap(value)) {
+            for (Map.Entry<String, Object> op : ((Map<String, Object>) value).entrySet()) {
+                switch (op.getKey()) {
+                    case "$eq":
+                    case "$ne":
+                    case "$gt":
+                    case "$gte":
+                    case "$lt":
+                    case "$lte":
+                    case "$exists":
+                        conditions.add(new Condition(op.getKey(), op.getValue()));
+                        break;
+                    case "$in":
+                    case "$nin":
+                        if (!(op.getValue() instanceof List)) {
+                            throw new IllegalArgumentException(op.getKey() + " needs an array");
+                        }
+                        conditions.add(new Condition(op.getKey(), op.getValue()));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported selector operator: "
+                                + op.getKey());
+                }
+            }
+        } else {
+            conditions.add(new Condition("$eq", value));
+        }
+        return conditions;
+    }
+
+    /**
+     * Whether a selector value is a map of operators instead of a literal
+     * @param value selector value for a field
+     * @return true if all keys start w/ $
+     */
+    private static boolean isOperatorMap(Object value) {
+        if (!(value instanceof Map) || ((Map<?, ?>) value).isEmpty()) {
+            return false;
+        }
+        for (Object key : ((Map<?, ?>) value).keySet()) {
+            if (!(key instanceof String) || !((String) key).startsWith("$")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the value a top-level field must be equal to (used to pick an index)
+     * @param field top-level field name
+     * @return required value or NO_VALUE if the field isn't constrained by $eq
+     */
+    Object getEqualityValue(String field) {
+        Condition condition = findCondition(field, "$eq");
+        return (condition != null) ? condition.operand : NO_VALUE;
+    }
+
+    /**
+     * Gets the values a top-level field must be one of (used to pick an index)
+     * @param field top-level field name
+     * @return allowed values or null if the field isn't constrained by $in
+     */
+    List<?> getInValues(String field) {
+        Condition condition = findCondition(field, "$in");
+        return (condition != null) ? (List<?>) condition.operand : null;
+    }
+
+    /**
+     * Gets the inclusive bounds for a top-level field (used to narrow an index scan)
+     * @param field top-level field name
+     * @return lower and upper bound; SortedIndex.UNBOUNDED if a side isn't constrained
+     */
+    Object[] getRange(String field) {
+        Object[] range = new Object[] { SortedIndex.UNBOUNDED, SortedIndex.UNBOUNDED };
+        for (Clause clause : mClauses) {
+            if (clause instanceof FieldClause && ((FieldClause) clause).path.equals(field)) {
+                for (Condition condition : ((FieldClause) clause).conditions) {
+                    if (condition.op.equals("$gt") || condition.op.equals("$gte")) {
+                        range[0] = condition.operand;
+                    } else if (condition.op.equals("$lt") || condition.op.equals("$lte")) {
+                        range[1] = condition.operand;
+                    } else if (condition.op.equals("$eq")) {
+                        range[0] = condition.operand;
+                        range[1] = condition.operand;
+                    }
+                }
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Finds a top-level condition on a field
+     * @param field top-level field name
+     * @param op operator
+     * @return condition or null if not found
+     */
+    private Condition findCondition(String field, String op) {
+        for (Clause clause : mClauses) {
+            if (clause instanceof FieldClause && ((FieldClause) clause).path.equals(field)) {
+                for (Condition condition : ((FieldClause) clause).conditions) {
+                    if (condition.op.equals(op)) {
+                        return condition;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rough heap size estimates for document fields, good enough for memory
+ * budgets and metrics (not an exact accounting of any particular VM).
+ */
+final class SizeEstimator {
+    private SizeEstimator() {
+    }
+
+    /**
+     * Estimates the heap used by a field value, including nested documents and arrays
+     * @param value field value
+     * @return estimated bytes
+     */
+    static long estimate(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            // object + char array
+            return 24 + align(16 + 2L * ((String) value).length());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            return 16;
+        } else if (value instanceof LazyDocument) {
+            return 16 + estimate(((LazyDocument) value).getRawFields());
+        } else if (value instanceof LazyDocument.LazyValue) {
+            LazyDocument.LazyValue lazy = (LazyDocument.LazyValue) value;
+            // holder + JSON bytes, or the parsed value once it's been read
+            return 24 + (lazy.isParsed() ? estimate(lazy.peek()) : align(16 + lazy.getJsonLength()));
+        } else if (value instanceof Map) {
+            long size = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                // map entry/node + key + value
+                size += 32 + estimate(entry.getKey()) + estimate(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            long size = 24 + align(16 + 4L * list.size());
+            for (Object element : list) {
+                size += estimate(element);
+            }
+            return size;
+        }
+        return 16;
+    }
+
+    /**
+     * Rounds up to 8 byte object alignment
+     * @param size size in bytes
+     * @return aligned size
+     */
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
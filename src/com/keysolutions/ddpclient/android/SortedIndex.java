@@ -0,0 +1,348 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Index that keeps document IDs sorted by a field's value for ordered
+ * lookups and range queries (e.g., newest 50 messages by createdAt).
+ * An optional partition field groups the documents first so you can get
+ * e.g. the messages for one roomId already sorted by createdAt.
+ * Field names can be dotted paths; docs are sorted by the first value found
+ * at the path, the same as Query sorts them.
+ */
+public class SortedIndex extends CollectionIndex {
+    /** pass as a range bound to leave that end of the range open */
+    public static final Object UNBOUNDED = new Object();
+    /** partition key used when the index isn't partitioned */
+    static final Object NO_PARTITION = new Object();
+
+    /** position in the index; edge entries are only used as range bounds */
+    private static class Entry {
+        /** sorts before every entry w/ the same value */
+        static final int EDGE_LOW = -1;
+        /** sorts after every entry w/ the same value */
+        static final int EDGE_HIGH = 1;
+        /** sorts before/after every entry */
+        static final int EDGE_MIN = -2;
+        static final int EDGE_MAX = 2;
+
+        final Object value;
+        final String docId;
+        final int edge;
+
+        Entry(Object value, String docId, int edge) {
+            this.value = value;
+            this.docId = docId;
+            this.edge = edge;
+        }
+    }
+
+    /** orders entries by value and then doc ID */
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.edge == Entry.EDGE_MIN || b.edge == Entry.EDGE_MAX) {
+                return (a.edge == b.edge) ? 0 : -1;
+            }
+            if (a.edge == Entry.EDGE_MAX || b.edge == Entry.EDGE_MIN) {
+                return 1;
+            }
+            int result = FieldValues.compare(a.value, b.value);
+            if (result != 0) {
+                return result;
+            }
+            if (a.edge != 0 || b.edge != 0) {
+                return (a.edge < b.edge) ? -1 : ((a.edge == b.edge) ? 0 : 1);
+            }
+            return a.docId.compareTo(b.docId);
+        }
+    };
+
+    /** field to group docs by or null if not partitioned */
+    private final String mPartitionField;
+    /** field to sort docs by */
+    private final String mSortField;
+    /** partition field path split on dots or null if not partitioned */
+    private final String[] mPartitionPath;
+    /** sort field path split on dots */
+    private final String[] mSortPath;
+    /** { partitionValue, sorted entries } */
+    private final Map<Object, TreeSet<Entry>> mPartitions = new HashMap<>();
+    /** { docId, entry } so docs can be removed w/o their old values */
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    /** { docId, partitionValue } */
+    private final Map<String, Object> mPartitionByDocId = new HashMap<>();
+    /** docs whose sort field holds an array or, through arrays, several values */
+    private final Set<String> mMultiValuedSortDocs = new HashSet<>();
+    /** docs whose partition field holds an array or, through arrays, several values */
+    private final Set<String> mMultiValuedPartitionDocs = new HashSet<>();
+
+    /**
+     * Constructor for an index sorted by one field
+     * @param sortField name of field to sort by
+     */
+    public SortedIndex(String sortField) {
+        super(sortField);
+        this.mPartitionField = null;
+        this.mSortField = sortField;
+        this.mPartitionPath = null;
+        this.mSortPath = sortField.split("\\.");
+    }
+
+    /**
+     * Constructor for an index grouped by one field and sorted by another
+     * @param partitionField name of field to group by
+     * @param sortField name of field to sort by
+     */
+    public SortedIndex(String partitionField, String sortField) {
+        super(partitionField, sortField);
+        this.mPartitionField = partitionField;
+        this.mSortField = sortField;
+        this.mPartitionPath = partitionField.split("\\.");
+        this.mSortPath = sortField.split("\\.");
+    }
+
+    /**
+     * Gets the name of the field documents are grouped by
+     * @return field name or null if not partitioned
+     */
+    public String getPartitionField() {
+        return mPartitionField;
+    }
+
+    /**
+     * Gets the name of the field documents are sorted by
+     * @return field name
+     */
+    public String getSortField() {
+        return mSortField;
+    }
+
+    /**
+     * Gets doc IDs in sorted order (only for indexes w/o a partition field)
+     * @param descending true for largest values first
+     * @param limit max number of IDs to return (0 for all)
+     * @return doc IDs
+     */
+    public List<String> getDocIds(boolean descending, int limit) {
+        checkPartition(false);
+        return getDocIdsInRange(NO_PARTITION, UNBOUNDED, UNBOUNDED, descending, limit);
+    }
+
+    /**
+     * Gets doc IDs for one partition in sorted order
+     * @param partitionValue value of the partition field
+     * @param descending true for largest values first
+     * @param limit max number of IDs to return (0 for all)
+     * @return doc IDs
+     */
+    public List<String> getDocIds(Object partitionValue, boolean descending, int limit) {
+        checkPartition(true);
+        return getDocIdsInRange(partitionValue, UNBOUNDED, UNBOUNDED, descending, limit);
+    }
+
+    /**
+     * Gets doc IDs whose sort field is in a range (only for indexes w/o a partition field)
+     * @param fromValue lowest value to include or UNBOUNDED
+     * @param toValue highest value to include or UNBOUNDED
+     * @param descending true for largest values first
+     * @param limit max number of IDs to return (0 for all)
+     * @return doc IDs
+     */
+    public List<String> getDocIdsInRange(Object fromValue, Object toValue,
+            boolean descending, int limit) {
+        checkPartition(false);
+        return getDocIdsInRange(NO_PARTITION, fromValue, toValue, descending, limit);
+    }
+
+    /**
+     * Gets doc IDs for one partition whose sort field is in a range
+     * @param partitionValue value of the partition field
+     * @param fromValue lowest value to include or UNBOUNDED
+     * @param toValue highest value to include or UNBOUNDED
+     * @param descending true for largest values first
+     * @param limit max number of IDs to return (0 for all)
+     * @return doc IDs
+     */
+    public List<String> getDocIdsInRange(Object partitionValue, Object fromValue,
+            Object toValue, boolean descending, final int limit) {
+        final List<String> docIds = new ArrayList<>();
+        scanRange(partitionValue, fromValue, toValue, descending, new DocIdVisitor() {
+            @Override
+            public boolean visit(String docId) {
+                docIds.add(docId);
+                return (limit <= 0) || (docIds.size() < limit);
+            }
+        });
+        return docIds;
+    }
+
+    /** gets called w/ each doc ID during an index scan */
+    interface DocIdVisitor {
+        /**
+         * Visits a doc ID
+         * @param docId document ID
+         * @return true to keep going, false to stop the scan
+         */
+        boolean visit(String docId);
+    }
+
+    /**
+     * Walks the doc IDs for one partition whose sort field is in a range
+     * (the index is locked during the scan, so keep the visitor quick)
+     * @param partitionValue value of the partition field
+     * @param fromValue lowest value to include or UNBOUNDED
+     * @param toValue highest value to include or UNBOUNDED
+     * @param descending true for largest values first
+     * @param visitor gets called w/ each doc ID in order
+     */
+    synchronized void scanRange(Object partitionValue, Object fromValue, Object toValue,
+            boolean descending, DocIdVisitor visitor) {
+        TreeSet<Entry> entries = mPartitions.get(partitionKey(partitionValue));
+        if (entries == null) {
+            return;
+        }
+        Entry from = (fromValue == UNBOUNDED) ? new Entry(null, null, Entry.EDGE_MIN)
+                : new Entry(fromValue, null, Entry.EDGE_LOW);
+        Entry to = (toValue == UNBOUNDED) ? new Entry(null, null, Entry.EDGE_MAX)
+                : new Entry(toValue, null, Entry.EDGE_HIGH);
+        if (ENTRY_ORDER.compare(from, to) > 0) {
+            return;
+        }
+        NavigableSet<Entry> range = entries.subSet(from, true, to, true);
+        Iterator<Entry> it = descending ? range.descendingIterator() : range.iterator();
+        while (it.hasNext()) {
+            if (!visitor.visit(it.next().docId)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets number of docs in a partition
+     * @param partitionValue value of the partition field
+     * @return number of docs
+     */
+    public synchronized int count(Object partitionValue) {
+        TreeSet<Entry> entries = mPartitions.get(partitionKey(partitionValue));
+        return (entries == null) ? 0 : entries.size();
+    }
+
+    @Override
+    synchronized void put(String docId, Map<String, Object> fields) {
+        remove(docId);
+        Object partition = (mPartitionPath == null) ? NO_PARTITION
+                : FieldValues.toKey(FieldValues.getSortValue(fields, mPartitionPath));
+        Entry entry = new Entry(FieldValues.getSortValue(fields, mSortPath), docId, 0);
+        TreeSet<Entry> entries = mPartitions.get(partition);
+        if (entries == null) {
+            entries = new TreeSet<>(ENTRY_ORDER);
+            mPartitions.put(partition, entries);
+        }
+        entries.add(entry);
+        mEntries.put(docId, entry);
+        mPartitionByDocId.put(docId, partition);
+        if (FieldValues.isMultiValued(fields, mSortPath)) {
+            mMultiValuedSortDocs.add(docId);
+        }
+        if (mPartitionPath != null && FieldValues.isMultiValued(fields, mPartitionPath)) {
+            mMultiValuedPartitionDocs.add(docId);
+        }
+    }
+
+    /**
+     * Whether any doc's sort field holds an array.  Selectors match ranges
+     * against each element, so a range scan would miss those docs.
+     * @return true if range scans can't be trusted
+     */
+    synchronized boolean hasMultiValuedSortField() {
+        return !mMultiValuedSortDocs.isEmpty();
+    }
+
+    /**
+     * Whether any doc's partition field holds an array.  Selectors match
+     * equality against each element, so a partition lookup would miss those docs.
+     * @return true if partition lookups can't be trusted
+     */
+    synchronized boolean hasMultiValuedPartitionField() {
+        return !mMultiValuedPartitionDocs.isEmpty();
+    }
+
+    @Override
+    synchronized void remove(String docId) {
+        Entry entry = mEntries.remove(docId);
+        if (entry == null) {
+            return;
+        }
+        Object partition = mPartitionByDocId.remove(docId);
+        mMultiValuedSortDocs.remove(docId);
+        mMultiValuedPartitionDocs.remove(docId);
+        TreeSet<Entry> entries = mPartitions.get(partition);
+        if (entries != null) {
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                mPartitions.remove(partition);
+            }
+        }
+    }
+
+    @Override
+    synchronized void clear() {
+        mPartitions.clear();
+        mEntries.clear();
+        mPartitionByDocId.clear();
+        mMultiValuedSortDocs.clear();
+        mMultiValuedPartitionDocs.clear();
+    }
+
+    @Override
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Converts a partition value into the key used in mPartitions
+     * @param partitionValue partition field value
+     * @return partition key
+     */
+    private Object partitionKey(Object partitionValue) {
+        return (partitionValue == NO_PARTITION) ? NO_PARTITION : FieldValues.toKey(partitionValue);
+    }
+
+    /**
+     * Makes sure a query matches whether this index is partitioned
+     * @param partitioned whether the query passes a partition value
+     */
+    private void checkPartition(boolean partitioned) {
+        if (partitioned != (mPartitionField != null)) {
+            throw new IllegalStateException(partitioned
+                    ? "Index " + getName() + " has no partition field"
+                    : "Index " + getName() + " needs a partition value");
+        }
+    }
+}
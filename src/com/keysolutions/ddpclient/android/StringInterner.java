@@ -0,0 +1,135 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded table of shared String instances for one collection, used to
+ * collapse the copies of field names and repeated values (status enums,
+ * type tags, user IDs, etc.) that Gson creates for every document.
+ * Once the table is full, new strings are passed through as-is rather than
+ * evicting old ones, so a flood of unique values can't push out the common ones.
+ */
+final class StringInterner {
+    /** strings longer than this are rarely repeated, so don't bother */
+    static final int MAX_STRING_LENGTH = 64;
+
+    private final int mMaxEntries;
+    private final HashMap<String, String> mStrings = new HashMap<>();
+    /** estimated bytes of duplicate strings that were dropped */
+    private long mBytesSaved;
+
+    /**
+     * Constructor
+     * @param maxEntries max number of distinct strings to keep
+     */
+    StringInterner(int maxEntries) {
+        this.mMaxEntries = maxEntries;
+    }
+
+    /**
+     * Gets the shared instance of a string
+     * @param value string to intern
+     * @return shared instance (or value if it couldn't be interned)
+     */
+    synchronized String intern(String value) {
+        if (value == null || value.length() > MAX_STRING_LENGTH) {
+            return value;
+        }
+        String shared = mStrings.get(value);
+        if (shared == null) {
+            if (mStrings.size() < mMaxEntries) {
+                mStrings.put(value, value);
+            }
+            return value;
+        }
+        if (shared != value) {
+            mBytesSaved += estimateSize(value);
+        }
+        return shared;
+    }
+
+    /**
+     * Interns the field names and string values of a document, including those
+     * of nested documents and arrays
+     * @param fields document fields
+     * @return fields w/ shared strings (a new map; lists are updated in place)
+     */
+    Map<String, Object> internFields(Map<String, Object> fields) {
+        Map<String, Object> interned = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            interned.put(intern(field.getKey()), internValue(field.getValue()));
+        }
+        return interned;
+    }
+
+    /**
+     * Interns a field value
+     * @param value field value
+     * @return value w/ shared strings
+     */
+    @SuppressWarnings("unchecked")
+    Object internValue(Object value) {
+        if (value instanceof String) {
+            return intern((String) value);
+        } else if (value instanceof Map) {
+            return internFields((Map<String, Object>) value);
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            if (!(list instanceof ArrayList)) {
+                list = new ArrayList<>(list);
+            }
+            for (int i = 0; i < list.size(); i++) {
+                list.set(i, internValue(list.get(i)));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the number of distinct strings in the table
+     * @return table size
+     */
+    synchronized int size() {
+        return mStrings.size();
+    }
+
+    /**
+     * Gets estimated bytes of duplicate strings dropped in favor of shared ones
+     * @return bytes saved
+     */
+    synchronized long getBytesSaved() {
+        return mBytesSaved;
+    }
+
+    /**
+     * Estimates the heap size of a String: object header and fields plus
+     * the backing char array, rounded up to 8 byte alignment
+     * @param value string
+     * @return estimated bytes
+     */
+    private static long estimateSize(String value) {
+        return 24 + ((16 + 2L * value.length() + 7) & ~7L);
+    }
+}
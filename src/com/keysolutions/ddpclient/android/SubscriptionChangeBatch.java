@@ -0,0 +1,130 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import com.keysolutions.ddpclient.DDPClient.DdpMessageType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of document changes for one collection that were coalesced together
+ * while subscription batching is enabled.
+ * Each doc ID shows up in at most one of the added/changed/removed lists.
+ */
+public class SubscriptionChangeBatch {
+    /** collection the changes belong to */
+    private final String mCollectionName;
+    /** IDs of documents added since last batch */
+    private final ArrayList<String> mAddedIds = new ArrayList<>();
+    /** IDs of documents changed since last batch */
+    private final ArrayList<String> mChangedIds = new ArrayList<>();
+    /** IDs of documents removed since last batch */
+    private final ArrayList<String> mRemovedIds = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param collectionName collection name
+     */
+    public SubscriptionChangeBatch(String collectionName) {
+        this.mCollectionName = collectionName;
+    }
+
+    /**
+     * Gets the name of the collection these changes were made to
+     * @return collection name
+     */
+    public String getCollectionName() {
+        return mCollectionName;
+    }
+
+    /**
+     * Gets IDs of added documents
+     * @return list of doc IDs in the order they were added
+     */
+    public ArrayList<String> getAddedIds() {
+        return mAddedIds;
+    }
+
+    /**
+     * Gets IDs of changed documents
+     * @return list of doc IDs in the order they were first changed
+     */
+    public ArrayList<String> getChangedIds() {
+        return mChangedIds;
+    }
+
+    /**
+     * Gets IDs of removed documents
+     * @return list of doc IDs in the order they were removed
+     */
+    public ArrayList<String> getRemovedIds() {
+        return mRemovedIds;
+    }
+
+    /**
+     * Total number of document changes in this batch
+     * @return number of doc IDs in all lists
+     */
+    public int size() {
+        return mAddedIds.size() + mChangedIds.size() + mRemovedIds.size();
+    }
+
+    /**
+     * Whether this batch has any changes in it
+     * @return true if there's nothing to report
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Adds a doc ID to the list for the given change type
+     * @param changetype "added", "changed" or "removed"
+     * @param docId document ID
+     */
+    void add(String changetype, String docId) {
+        List<String> ids = getIds(changetype);
+        if (ids != null) {
+            ids.add(docId);
+        }
+    }
+
+    /**
+     * Gets the list of doc IDs for the given change type
+     * @param changetype "added", "changed" or "removed"
+     * @return list of doc IDs or null if change type isn't handled
+     */
+    private List<String> getIds(String changetype) {
+        switch (changetype) {
+            case DdpMessageType.ADDED:
+                return mAddedIds;
+            case DdpMessageType.CHANGED:
+                return mChangedIds;
+            case DdpMessageType.REMOVED:
+                return mRemovedIds;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mCollectionName + ": added=" + mAddedIds + " changed=" + mChangedIds
+                + " removed=" + mRemovedIds;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import com.keysolutions.ddpclient.DDPClient.DdpMessageType;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects subscription changes per collection and hands them to
+ * the DDP singleton's listeners and broadcastSubscriptionBatch() once the time window
+ * expires or enough changes have piled up.
+ * Multiple changes to the same document inside a window are coalesced so
+ * receivers only see the net effect (e.g., added then changed is still "added").
+ */
+class SubscriptionChangeBatcher {
+    /** where batches get delivered */
+    private final DDPStateSingleton mDDP;
+    /** how long to hold changes before delivering them */
+    private final long mWindowMillis;
+    /** number of pending changes that forces an immediate delivery; 0 for no limit */
+    private final int mMaxChanges;
+    /** timer thread for delivering batches when the window expires */
+    private final ScheduledExecutorService mTimer;
+
+    /** pending changes: { collectionName, { docId, changetype } } */
+    private Map<String, LinkedHashMap<String, String>> mPending = new HashMap<>();
+    /** number of doc IDs in mPending */
+    private int mPendingCount;
+    /** whether a timed flush has been scheduled */
+    private boolean mFlushScheduled;
+    /** set once batching is turned off so late changes get delivered right away */
+    private boolean mShutdown;
+    /** serializes deliveries so batches for a collection stay in order */
+    private final Object mFlushLock = new Object();
+
+    /** runs a flush when the batch window expires */
+    private final Runnable mTimedFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Constructor
+     * @param ddp DDP singleton to deliver batches to
+     * @param windowMillis how long changes are held before being delivered
+     * @param maxChanges number of changes that triggers immediate delivery (0 for no limit)
+     */
+    SubscriptionChangeBatcher(DDPStateSingleton ddp, long windowMillis, int maxChanges) {
+        this.mDDP = ddp;
+        this.mWindowMillis = windowMillis;
+        this.mMaxChanges = maxChanges;
+        this.mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ddp-batcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues up a document change
+     * @param collName collection name
+     * @param changetype "added", "changed" or "removed"
+     * @param docId document ID
+     */
+    void add(String collName, String changetype, String docId) {
+        boolean flushNow = false;
+        synchronized (this) {
+            LinkedHashMap<String, String> docs = mPending.get(collName);
+            if (docs == null) {
+                docs = new LinkedHashMap<>();
+                mPending.put(collName, docs);
+            }
+            String prevChange = docs.get(docId);
+            String netChange = coalesce(prevChange, changetype);
+            if (netChange == null) {
+                docs.remove(docId);
+                mPendingCount--;
+            } else {
+                docs.put(docId, netChange);
+                if (prevChange == null) {
+                    mPendingCount++;
+                }
+            }
+            if (mShutdown || ((mMaxChanges > 0) && (mPendingCount >= mMaxChanges))) {
+                flushNow = true;
+            } else if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mTimer.schedule(mTimedFlush, mWindowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Gets number of doc changes waiting to be delivered
+     * @return pending change count
+     */
+    synchronized int getPendingCount() {
+        return mPendingCount;
+    }
+
+    /**
+     * Combines a previous pending change w/ a new change to the same doc
+     * @param prevChange pending change type or null if none
+     * @param changetype new change type
+     * @return net change type or null if the changes cancel each other out
+     */
+    static String coalesce(String prevChange, String changetype) {
+        if (prevChange == null) {
+            return changetype;
+        }
+        switch (prevChange) {
+            case DdpMessageType.ADDED:
+                if (changetype.equals(DdpMessageType.REMOVED)) {
+                    // receivers never saw it, so they don't need to hear about it
+                    return null;
+                }
+                return DdpMessageType.ADDED;
+            case DdpMessageType.REMOVED:
+                if (changetype.equals(DdpMessageType.ADDED)) {
+                    // doc was replaced, so it looks changed to receivers
+                    return DdpMessageType.CHANGED;
+                }
+                return changetype;
+            default:
+                return changetype;
+        }
+    }
+
+    /**
+     * Delivers all pending changes immediately
+     */
+    void flush() {
+        synchronized (mFlushLock) {
+            Map<String, LinkedHashMap<String, String>> pending;
+            synchronized (this) {
+                pending = mPending;
+                mPending = new HashMap<>();
+                mPendingCount = 0;
+                mFlushScheduled = false;
+            }
+            for (Map.Entry<String, LinkedHashMap<String, String>> coll : pending.entrySet()) {
+                SubscriptionChangeBatch batch = new SubscriptionChangeBatch(coll.getKey());
+                for (Map.Entry<String, String> doc : coll.getValue().entrySet()) {
+                    batch.add(doc.getValue(), doc.getKey());
+                }
+                if (!batch.isEmpty()) {
+                    mDDP.notifySubscriptionBatch(batch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers anything pending and stops the timer thread
+     */
+    void shutdown() {
+        synchronized (this) {
+            mShutdown = true;
+        }
+        flush();
+        mTimer.shutdown();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Handle for a subscription from DDPStateSingleton.subscribeHandle().
+ * Subscribing again w/ the same name and params shares the server
+ * subscription; it's only unsubscribed when every handle has been stopped,
+ * so each screen can just stop its own handle when it goes away.
+ */
+public class SubscriptionHandle {
+    private final DDPStateSingleton mDDP;
+    private final SubscriptionState mSub;
+    private final AtomicBoolean mStopped = new AtomicBoolean(false);
+
+    /**
+     * Constructor
+     * @param ddp DDP state that owns the subscription
+     * @param sub shared subscription state
+     */
+    SubscriptionHandle(DDPStateSingleton ddp, SubscriptionState sub) {
+        this.mDDP = ddp;
+        this.mSub = sub;
+    }
+
+    /**
+     * Gets the publication name
+     * @return subscription name
+     */
+    public String getName() {
+        return mSub.name;
+    }
+
+    /**
+     * Gets the publication parameters
+     * @return subscription params
+     */
+    public Object[] getParams() {
+        return (mSub.params != null) ? mSub.params.clone() : null;
+    }
+
+    /**
+     * Gets the collections the subscription was declared to send docs to
+     * @return collection names (empty if none were declared)
+     */
+    public String[] getCollections() {
+        return mSub.collections.clone();
+    }
+
+    /**
+     * Gets the DDP subscription ID (changes when resubscribed after a reconnect)
+     * @return subscription ID
+     */
+    public int getSubscriptionId() {
+        return mSub.subId;
+    }
+
+    /**
+     * Whether the server has sent all of the subscription's initial docs
+     * @return true if ready
+     */
+    public boolean isReady() {
+        return mSub.ready && !mSub.stopped;
+    }
+
+    /**
+     * Releases this handle's hold on the subscription
+     * (calling it more than once does nothing)
+     */
+    public void stop() {
+        if (mStopped.compareAndSet(false, true)) {
+            mDDP.releaseSubscription(mSub);
+        }
+    }
+
+    /**
+     * Gets the shared subscription state, which outlives reconnects
+     * @return subscription state
+     */
+    SubscriptionState getState() {
+        return mSub;
+    }
+
+    /**
+     * Whether stop() has been called on this handle
+     * @return true if stopped
+     */
+    public boolean isStopped() {
+        return mStopped.get();
+    }
+}
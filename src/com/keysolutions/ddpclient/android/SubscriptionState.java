@@ -0,0 +1,79 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+
+package com.keysolutions.ddpclient.android;
+
+import com.keysolutions.ddpclient.DDPClient;
+
+/**
+ * A subscription the app has asked for, w/ what's needed to re-issue it
+ * on a new connection after a reconnect.  Identical name+params requests
+ * share one SubscriptionState and it's only unsubscribed once all of them
+ * have let go of it.
+ */
+class SubscriptionState {
+    /** publication name */
+    final String name;
+    /** publication parameters */
+    final Object[] params;
+    /** name+params used to find identical subscriptions */
+    final String key;
+    /** collections the publication sends docs to (empty if not declared) */
+    final String[] collections;
+    /** number of handles/subscribe() calls holding this subscription (guarded by DDPStateSingleton) */
+    int refCount;
+    /** set once the last reference is released */
+    volatile boolean stopped;
+    /** DDP client the subscription was last sent on */
+    volatile DDPClient client;
+    /** subscription ID from the DDP client it was last sent on */
+    volatile int subId;
+    /** whether the server has sent "ready" since it was last sent */
+    volatile boolean ready;
+
+    /**
+     * Constructor
+     * @param name publication name
+     * @param params publication parameters
+     * @param key name+params used to find identical subscriptions
+     * @param collections collections the publication sends docs to
+     */
+    SubscriptionState(String name, Object[] params, String key, String[] collections) {
+        this.name = name;
+        this.params = params;
+        this.key = key;
+        this.collections = (collections != null) ? collections : new String[0];
+    }
+
+    /**
+     * Whether the publication may send docs to a collection; one that didn't
+     * declare its collections could be sending docs to any of them
+     * @param collName collection name
+     * @return true if it's one of this subscription's collections or none were declared
+     */
+    boolean ownsCollection(String collName) {
+        if (collections.length == 0) {
+            return true;
+        }
+        for (String collection : collections) {
+            if (collection.equals(collName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
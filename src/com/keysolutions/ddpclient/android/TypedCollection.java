@@ -0,0 +1,189 @@
+/*
+* (c)Copyright 2013-2016 Ken Yee, KEY Enterprise Solutions
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.keysolutions.ddpclient.android;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a POJO for each document in a collection, updating just the changed
+ * fields of the POJO when a "changed" message comes in so screens can read
+ * plain Java fields instead of looking them up and casting them every frame.
+ * Create one w/ DDPStateSingleton.bindCollection(); pass the main Looper
+ * so the POJOs are only ever updated on the UI thread.
+ * Override onObjectAdded/onObjectChanged/onObjectRemoved to refresh the UI.
+ * @param <T> POJO class
+ */
+public class TypedCollection<T> extends DDPStateListener {
+    private final DDPStateSingleton mDDP;
+    private final String mCollectionName;
+    private final DocumentMapper<T> mMapper;
+    /** { docId, POJO } */
+    private final Map<String, T> mObjects = new HashMap<>();
+    private volatile boolean mClosed;
+
+    /**
+     * Constructor
+     * @param ddp DDP singleton the collection comes from
+     * @param collectionName collection name
+     * @param mapper mapper for the POJO class
+     */
+    protected TypedCollection(DDPStateSingleton ddp, String collectionName, DocumentMapper<T> mapper) {
+        this.mDDP = ddp;
+        this.mCollectionName = collectionName;
+        this.mMapper = mapper;
+    }
+
+    /**
+     * Rebuilds every POJO from the collection's current documents
+     */
+    synchronized void load() {
+        Map<String, Map<String, Object>> docs = mDDP.getCollectionSnapshot(mCollectionName);
+        mObjects.clear();
+        if (docs != null) {
+            for (Map.Entry<String, Map<String, Object>> doc : docs.entrySet()) {
+                mObjects.put(doc.getKey(), mMapper.toObject(doc.getKey(), doc.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Gets the name of the collection
+     * @return collection name
+     */
+    public String getCollectionName() {
+        return mCollectionName;
+    }
+
+    /**
+     * Gets the mapper used to build the POJOs
+     * @return document mapper
+     */
+    public DocumentMapper<T> getMapper() {
+        return mMapper;
+    }
+
+    /**
+     * Gets the POJO for a document
+     * @param docId document ID
+     * @return POJO or null if there's no such document
+     */
+    public synchronized T get(String docId) {
+        return mObjects.get(docId);
+    }
+
+    /**
+     * Gets all the POJOs
+     * @return list of POJOs (a copy)
+     */
+    public synchronized List<T> getAll() {
+        return new ArrayList<>(mObjects.values());
+    }
+
+    /**
+     * Gets the number of documents
+     * @return number of POJOs
+     */
+    public synchronized int size() {
+        return mObjects.size();
+    }
+
+    /**
+     * Stops updating the POJOs
+     */
+    public void close() {
+        mClosed = true;
+        mDDP.removeStateListener(this);
+    }
+
+    /**
+     * Whether close() has been called
+     * @return true if closed
+     */
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Called after a POJO is created for an added document
+     * @param docId document ID
+     * @param object new POJO
+     */
+    protected void onObjectAdded(String docId, T object) {
+    }
+
+    /**
+     * Called after a POJO's fields have been updated
+     * @param docId document ID
+     * @param object updated POJO
+     * @param delta fields that were set/cleared
+     */
+    protected void onObjectChanged(String docId, T object, DocumentDelta delta) {
+    }
+
+    /**
+     * Called after a document's POJO is removed
+     * @param docId document ID
+     * @param object removed POJO
+     */
+    protected void onObjectRemoved(String docId, T object) {
+    }
+
+    @Override
+    public void onDocAdded(String collName, String docId, Map<String, Object> fields) {
+        if (mClosed || !mCollectionName.equals(collName)) {
+            return;
+        }
+        T object = mMapper.toObject(docId, fields);
+        synchronized (this) {
+            mObjects.put(docId, object);
+        }
+        onObjectAdded(docId, object);
+    }
+
+    @Override
+    public void onDocChanged(String collName, String docId, DocumentDelta delta) {
+        if (mClosed || !mCollectionName.equals(collName)) {
+            return;
+        }
+        T object;
+        synchronized (this) {
+            object = mObjects.get(docId);
+            if (object == null) {
+                return;
+            }
+            mMapper.update(object, delta);
+        }
+        onObjectChanged(docId, object, delta);
+    }
+
+    @Override
+    public void onDocRemoved(String collName, String docId) {
+        if (mClosed || !mCollectionName.equals(collName)) {
+            return;
+        }
+        T object;
+        synchronized (this) {
+            object = mObjects.remove(docId);
+        }
+        if (object != null) {
+            onObjectRemoved(docId, object);
+        }
+    }
+}